@@ -983,6 +983,21 @@ const CollaborativeEditor: React.FC<CollaborativeEditorProps> = ({
     return operations;
   }, [currentDocument?.version]);
 
+  // 将一次用户动作的 Quill Delta 整体封装为一个 DELTA 操作（替代逐个 INSERT/DELETE 发送）
+  const buildDeltaOperation = useCallback((delta: any): OperationDTO | null => {
+    if (!delta?.ops?.length) {
+      return null;
+    }
+    return {
+      type: 'DELTA',
+      position: 0,
+      length: 0,
+      timestamp: Date.now(),
+      version: currentDocument?.version || 0,
+      delta: { ops: delta.ops },
+    };
+  }, [currentDocument?.version]);
+
   // 远程 Quill Delta 透传：比“手写 OperationDTO”更能保证空格/末尾删除等边界一致
   const applyRemoteDelta = useCallback((
     deltaPayload: { ops: any[] },
@@ -1089,9 +1104,9 @@ const CollaborativeEditor: React.FC<CollaborativeEditorProps> = ({
         }
         const diff = prev.diff(cur);
         if (diff.length() > 0) {
-          const operations = convertDeltaToOperations(diff);
-          if (operations.length > 0) {
-            operations.forEach((op) => websocketService.sendOperation(op));
+          const operation = buildDeltaOperation(diff);
+          if (operation) {
+            websocketService.sendOperation(operation);
             // 若本轮已在定时器里补发，则忽略紧随其后的同一次 text-change 增量，避免重复
             skipNextTextChangeSendRef.current = true;
           }
@@ -1110,7 +1125,7 @@ const CollaborativeEditor: React.FC<CollaborativeEditorProps> = ({
         imeFlushTimerRef.current = null;
       }
     };
-  }, [isInitialized, readOnly, convertDeltaToOperations]);
+  }, [isInitialized, readOnly, buildDeltaOperation]);
 
   // 处理文本变化
   const handleChange = useCallback(
@@ -1166,16 +1181,14 @@ const CollaborativeEditor: React.FC<CollaborativeEditorProps> = ({
         }
       }
 
-      const operations = convertDeltaToOperations(delta);
-      if (operations.length > 0) {
-        console.log('发送操作到服务器:', operations);
-        operations.forEach((op) => {
-          websocketService.sendOperation(op);
-        });
+      const operation = buildDeltaOperation(delta);
+      if (operation) {
+        console.log('发送操作到服务器:', operation);
+        websocketService.sendOperation(operation);
       }
       lastBroadcastedDeltaRef.current = quill.getContents();
     },
-    [isLocalChange, convertDeltaToOperations, updateDocumentContent]
+    [isLocalChange, convertDeltaToOperations, buildDeltaOperation, updateDocumentContent]
   );
 
   // 处理光标选择变化（带防抖）
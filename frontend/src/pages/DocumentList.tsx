@@ -6,7 +6,7 @@ import { apiService } from '@/services/api';
 import { websocketService } from '@/services/websocket';
 import useAuthStore from '@/stores/authStore';
 import ShareModal from '@/components/Share/ShareModal';
-import type { Document } from '@/types';
+import type { DocumentSummary } from '@/types';
 import dayjs from 'dayjs';
 import './DocumentList.css';
 
@@ -15,15 +15,15 @@ const { Search } = Input;
 const DocumentList: React.FC = () => {
   const navigate = useNavigate();
   const { user } = useAuthStore();
-  const [documents, setDocuments] = useState<Document[]>([]);
-  const [deletedDocuments, setDeletedDocuments] = useState<Document[]>([]);
+  const [documents, setDocuments] = useState<DocumentSummary[]>([]);
+  const [deletedDocuments, setDeletedDocuments] = useState<DocumentSummary[]>([]);
   const [loading, setLoading] = useState(false);
   const [deletedLoading, setDeletedLoading] = useState(false);
   const [searchText, setSearchText] = useState('');
   const [shareModalVisible, setShareModalVisible] = useState(false);
   const [selectedDocumentId, setSelectedDocumentId] = useState<number | null>(null);
   const [renameModalVisible, setRenameModalVisible] = useState(false);
-  const [renameTarget, setRenameTarget] = useState<Document | null>(null);
+  const [renameTarget, setRenameTarget] = useState<DocumentSummary | null>(null);
   const [renameTitle, setRenameTitle] = useState('');
   const [renaming, setRenaming] = useState(false);
 
@@ -102,7 +102,7 @@ const DocumentList: React.FC = () => {
         apiService.getSharedDocuments(user.id),
       ]);
       
-      const allDocuments: Document[] = [];
+      const allDocuments: DocumentSummary[] = [];
       
       // 获取我的权限信息（用于所有文档）
       const permissionsResult = await apiService.getUserPermissions();
@@ -181,7 +181,7 @@ const DocumentList: React.FC = () => {
     }
   };
 
-  const handleRestoreDocument = (doc: Document) => {
+  const handleRestoreDocument = (doc: DocumentSummary) => {
     Modal.confirm({
       title: '确认恢复文档',
       content: `是否恢复 "${doc.title}"？`,
@@ -204,7 +204,7 @@ const DocumentList: React.FC = () => {
     });
   };
 
-  const handleForceDeleteDocument = (doc: Document) => {
+  const handleForceDeleteDocument = (doc: DocumentSummary) => {
     Modal.confirm({
       title: '彻底删除文档',
       content: `文档 "${doc.title}" 将被彻底删除，无法恢复。确认删除吗？`,
@@ -228,7 +228,7 @@ const DocumentList: React.FC = () => {
     });
   };
 
-  const openRenameModal = (doc: Document) => {
+  const openRenameModal = (doc: DocumentSummary) => {
     setRenameTarget(doc);
     setRenameTitle(doc.title);
     setRenameModalVisible(true);
@@ -298,7 +298,7 @@ const DocumentList: React.FC = () => {
     }
   };
 
-  const handleDeleteDocument = (doc: Document) => {
+  const handleDeleteDocument = (doc: DocumentSummary) => {
     if (!user?.id) {
       message.error('用户信息未加载');
       return;
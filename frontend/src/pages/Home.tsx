@@ -15,7 +15,7 @@ import {
 import { useNavigate } from 'react-router-dom';
 import { apiService } from '@/services/api';
 import useAuthStore from '@/stores/authStore';
-import type { Document } from '@/types';
+import type { DocumentSummary } from '@/types';
 import dayjs from 'dayjs';
 import './Home.css';
 
@@ -24,7 +24,7 @@ const { Title, Paragraph } = Typography;
 const Home: React.FC = () => {
   const navigate = useNavigate();
   const { user } = useAuthStore();
-  const [documents, setDocuments] = useState<Document[]>([]);
+  const [documents, setDocuments] = useState<DocumentSummary[]>([]);
   const [loading, setLoading] = useState(false);
   const [stats, setStats] = useState({
     totalDocuments: 0,
@@ -48,11 +48,11 @@ const Home: React.FC = () => {
         apiService.getSharedDocuments(user.id),
       ]);
 
-      const allDocuments: Document[] = [];
+      const allDocuments: DocumentSummary[] = [];
 
       if (myDocsResult.code === 200 && myDocsResult.data) {
         allDocuments.push(
-          ...myDocsResult.data.map((doc: Document) => ({
+          ...myDocsResult.data.map((doc: DocumentSummary) => ({
             ...doc,
             isShared: false,
           }))
@@ -62,8 +62,8 @@ const Home: React.FC = () => {
       if (sharedDocsResult.code === 200 && sharedDocsResult.data) {
         allDocuments.push(
           ...sharedDocsResult.data
-            .filter((doc: Document) => doc.creatorId !== user.id)
-            .map((doc: Document) => ({
+            .filter((doc: DocumentSummary) => doc.creatorId !== user.id)
+            .map((doc: DocumentSummary) => ({
               ...doc,
               isShared: true,
             }))
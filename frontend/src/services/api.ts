@@ -8,6 +8,8 @@ import type {
   ApiResult, 
   User, 
   Document, 
+  DocumentSummary,
+  DocumentPageParams,
   LoginRequest, 
   RegisterRequest,
   DocumentPermission,
@@ -279,15 +281,15 @@ class ApiService {
   /**
    * 获取用户文档列表（创建的）
    */
-  async getUserDocuments(userId: number): Promise<ApiResult<Document[]>> {
-    return this.api.get(`/documents/user/${userId}`);
+  async getUserDocuments(userId: number, page?: DocumentPageParams): Promise<ApiResult<DocumentSummary[]>> {
+    return this.api.get(`/documents/user/${userId}`, { params: page });
   }
 
   /**
    * 获取用户被共享的文档列表
    */
-  async getSharedDocuments(userId: number): Promise<ApiResult<Document[]>> {
-    return this.api.get(`/documents/shared/${userId}`);
+  async getSharedDocuments(userId: number, page?: DocumentPageParams): Promise<ApiResult<DocumentSummary[]>> {
+    return this.api.get(`/documents/shared/${userId}`, { params: page });
   }
 
   /**
@@ -321,8 +323,8 @@ class ApiService {
   /**
    * 获取当前用户的已删除文档列表
    */
-  async getDeletedDocuments(): Promise<ApiResult<Document[]>> {
-    return this.api.get(`/documents/deleted`);
+  async getDeletedDocuments(page?: DocumentPageParams): Promise<ApiResult<DocumentSummary[]>> {
+    return this.api.get(`/documents/deleted`, { params: page });
   }
 
   /**
@@ -375,6 +375,11 @@ class WebSocketService {
    * 处理接收到的消息
    */
   private handleMessage(message: WebSocketMessage): void {
+    // 锁队列批量处理后的合并帧：按提交顺序拆成单个 OPERATION 消息分发
+    if (message.type === 'OPERATION_BATCH' && Array.isArray(message.data)) {
+      (message.data as WebSocketMessage[]).forEach((operation) => this.handleMessage(operation));
+      return;
+    }
     const handlers = this.messageHandlers.get(message.type);
     if (handlers && handlers.length > 0) {
       handlers.forEach((handler) => {
@@ -4,7 +4,7 @@
  */
 
 // 操作类型
-export type OperationType = 'INSERT' | 'DELETE' | 'RETAIN' | 'FORMAT';
+export type OperationType = 'INSERT' | 'DELETE' | 'RETAIN' | 'FORMAT' | 'DELTA' | 'CRDT';
 
 // 权限类型
 export type PermissionType = 'READ' | 'WRITE' | 'ADMIN';
@@ -20,11 +20,26 @@ export interface OperationDTO {
   attributes?: Record<string, any>;
   formatType?: string;
   formatValue?: any;
+  baseVersion?: number;
+  delta?: { ops: any[] };
+  crdt?: CrdtOperation;
+}
+
+// CRDT操作（文档为CRDT模式时使用）
+export interface CrdtOperation {
+  action: 'INSERT' | 'DELETE';
+  client?: number;
+  clock?: number;
+  originClient?: number;
+  originClock?: number;
+  text?: string;
+  ranges?: { client: number; clock: number; length: number }[];
 }
 
 // WebSocket消息类型
 export type WebSocketMessageType =
   | 'OPERATION'
+  | 'OPERATION_BATCH'
   | 'CURSOR'
   | 'COMMENT'
   | 'PERMISSION'
@@ -32,7 +47,8 @@ export type WebSocketMessageType =
   | 'JOIN'
   | 'LEAVE'
   | 'DOCUMENT_UPDATED'
-  | 'DOCUMENT_TITLE_UPDATED';
+  | 'DOCUMENT_TITLE_UPDATED'
+  | 'DOCUMENT_ENGINE_MODE_UPDATED';
 
 // WebSocket消息
 export interface WebSocketMessage {
@@ -64,6 +80,17 @@ export interface Document {
   updatedAt?: string;
   isShared?: boolean; // 是否是共享给我的文档
   permissionType?: PermissionType; // 我的权限类型（如果是共享文档）
+  engineMode?: 'OT' | 'CRDT'; // 协同模式
+}
+
+// 文档摘要（文档列表接口返回，不含内容）
+export type DocumentSummary = Omit<Document, 'content'> & { isDeleted?: boolean };
+
+// 文档列表键集分页参数：不传 limit 时返回全部；下一页传本页最后一条的 updatedAt（毫秒时间戳）与 id
+export interface DocumentPageParams {
+  limit?: number;
+  beforeUpdatedAt?: number;
+  beforeId?: number;
 }
 
 // 文档权限
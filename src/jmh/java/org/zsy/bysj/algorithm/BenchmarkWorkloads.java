@@ -0,0 +1,109 @@
+package org.zsy.bysj.algorithm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 基准测试使用的编辑负载
+ *
+ * TYPING：在文档中部连续逐字输入（打字突发）
+ * PASTE：在文档中部一次粘贴 16 KB 文本，另一方在附近做少量编辑
+ * CONCURRENT_DELETE：两个用户在同一区域并发删除
+ */
+final class BenchmarkWorkloads {
+
+    static final int TYPING_BURST = 200;
+    static final int PASTE_SIZE = 16 * 1024;
+    static final int DELETE_COUNT = 200;
+
+    private BenchmarkWorkloads() {
+    }
+
+    static String document(int size) {
+        StringBuilder sb = new StringBuilder(size);
+        String sentence = "协同编辑系统的基准测试文本 The quick brown fox jumps over the lazy dog. ";
+        while (sb.length() < size) {
+            sb.append(sentence);
+        }
+        sb.setLength(size);
+        return sb.toString();
+    }
+
+    /**
+     * 生成一对并发操作序列（基于同一文档版本）
+     */
+    static List<List<Operation>> operations(String workload, int docSize, long seed) {
+        Random random = new Random(seed);
+        int middle = docSize / 2;
+        List<Operation> local = new ArrayList<>();
+        List<Operation> remote = new ArrayList<>();
+        switch (workload) {
+            case "TYPING":
+                for (int i = 0; i < TYPING_BURST; i++) {
+                    local.add(Operation.insert(String.valueOf((char) ('a' + i % 26)), middle + i));
+                    remote.add(Operation.insert(String.valueOf((char) ('A' + i % 26)), middle / 2 + i));
+                }
+                break;
+            case "PASTE":
+                local.add(Operation.insert(document(PASTE_SIZE), middle));
+                for (int i = 0; i < 20; i++) {
+                    remote.add(Operation.insert("x", middle + random.nextInt(64)));
+                    remote.add(Operation.delete(middle + random.nextInt(64), 1));
+                }
+                break;
+            case "CONCURRENT_DELETE":
+                int region = Math.max(1, Math.min(docSize / 4, 4096));
+                for (int i = 0; i < DELETE_COUNT; i++) {
+                    local.add(Operation.delete(middle + random.nextInt(region), 1 + random.nextInt(8)));
+                    remote.add(Operation.delete(middle + random.nextInt(region), 1 + random.nextInt(8)));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("未知的负载: " + workload);
+        }
+        List<List<Operation>> result = new ArrayList<>();
+        result.add(local);
+        result.add(remote);
+        return result;
+    }
+
+    /**
+     * 富文本版本：在纯文本负载的基础上，远端序列中穿插格式操作
+     */
+    static List<List<RichTextOperation>> richTextOperations(String workload, int docSize, long seed) {
+        Random random = new Random(seed);
+        List<List<Operation>> plain = operations(workload, docSize, seed);
+        Map<String, Object> bold = new HashMap<>();
+        bold.put("bold", true);
+
+        List<RichTextOperation> local = new ArrayList<>();
+        for (Operation op : plain.get(0)) {
+            local.add(toRichText(op, null));
+        }
+        List<RichTextOperation> remote = new ArrayList<>();
+        for (Operation op : plain.get(1)) {
+            remote.add(toRichText(op, bold));
+            if (random.nextInt(4) == 0) {
+                remote.add(RichTextOperation.format(op.getPosition(), 1 + random.nextInt(16), bold));
+            }
+        }
+        List<List<RichTextOperation>> result = new ArrayList<>();
+        result.add(local);
+        result.add(remote);
+        return result;
+    }
+
+    private static RichTextOperation toRichText(Operation op, Map<String, Object> attributes) {
+        switch (op.getType()) {
+            case "INSERT":
+                return RichTextOperation.insert(op.getData(), op.getPosition(), attributes);
+            case "DELETE":
+                return RichTextOperation.delete(op.getPosition(), op.getLength());
+            default:
+                return RichTextOperation.retain(op.getPosition(), op.getLength());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.zsy.bysj.algorithm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OTAlgorithm 基准测试
+ * 运行：mvn -Pbenchmark test-compile exec:exec -Djmh.args="OTAlgorithmBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OTAlgorithmBenchmark {
+
+    @Param({"1024", "65536", "1048576", "5242880"})
+    private int docSize;
+
+    @Param({"TYPING", "PASTE", "CONCURRENT_DELETE"})
+    private String workload;
+
+    private String document;
+    private Rope documentRope;
+    private List<Operation> local;
+    private List<Operation> remote;
+    private PrimitiveOperation[] primitiveLocal;
+    private PrimitiveOperation[] primitiveRemote;
+    private final PrimitiveOperation scratch = new PrimitiveOperation();
+
+    @Setup
+    public void setup() {
+        document = BenchmarkWorkloads.document(docSize);
+        documentRope = Rope.of(document);
+        List<List<Operation>> operations = BenchmarkWorkloads.operations(workload, docSize, 42);
+        local = operations.get(0);
+        remote = operations.get(1);
+        primitiveLocal = local.stream().map(PrimitiveOperation::from).toArray(PrimitiveOperation[]::new);
+        primitiveRemote = remote.stream().map(PrimitiveOperation::from).toArray(PrimitiveOperation[]::new);
+    }
+
+    /**
+     * 将本地操作序列相对远端操作序列转换（逐对转换）
+     */
+    @Benchmark
+    public List<Operation> transform() {
+        return OTAlgorithm.transformOperations(local, remote);
+    }
+
+    /**
+     * 与 transform 相同的工作量，使用基本类型操作原地转换
+     */
+    @Benchmark
+    public void transformPrimitive(Blackhole blackhole) {
+        for (PrimitiveOperation op : primitiveLocal) {
+            scratch.copyFrom(op);
+            for (PrimitiveOperation reference : primitiveRemote) {
+                OTAlgorithm.transform(scratch, reference, scratch);
+            }
+            blackhole.consume(scratch.getPosition());
+        }
+    }
+
+    @Benchmark
+    public List<Operation> compose() {
+        return OTAlgorithm.compose(remote, local);
+    }
+
+    @Benchmark
+    public List<Operation> optimizeOperations() {
+        return OTAlgorithm.optimizeOperations(local);
+    }
+
+    /**
+     * 以字符串为输入输出应用整个操作序列（包含字符串与缓冲区之间的两次转换）
+     */
+    @Benchmark
+    public String applyString() {
+        return OTAlgorithm.apply(document, local);
+    }
+
+    /**
+     * 在会话持有的缓冲区上逐个应用操作（编辑热路径）
+     */
+    @Benchmark
+    public Rope applyBuffer() {
+        DocumentBuffer buffer = new DocumentBuffer(documentRope);
+        for (Operation op : local) {
+            OTAlgorithm.apply(buffer, op);
+        }
+        return buffer.snapshot();
+    }
+}
@@ -0,0 +1,87 @@
+package org.zsy.bysj.algorithm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RichTextOTAlgorithm 基准测试（远端序列中穿插 FORMAT 操作）
+ * 运行：mvn -Pbenchmark test-compile exec:exec -Djmh.args="RichTextOTAlgorithmBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RichTextOTAlgorithmBenchmark {
+
+    @Param({"1024", "65536", "1048576", "5242880"})
+    private int docSize;
+
+    @Param({"TYPING", "PASTE", "CONCURRENT_DELETE"})
+    private String workload;
+
+    private String document;
+    private Rope documentRope;
+    private List<RichTextOperation> local;
+    private List<RichTextOperation> remote;
+
+    @Setup
+    public void setup() {
+        document = BenchmarkWorkloads.document(docSize);
+        documentRope = Rope.of(document);
+        List<List<RichTextOperation>> operations = BenchmarkWorkloads.richTextOperations(workload, docSize, 42);
+        local = operations.get(0);
+        remote = operations.get(1);
+    }
+
+    @Benchmark
+    public List<RichTextOperation> transform() {
+        List<RichTextOperation> result = new ArrayList<>(local.size());
+        for (RichTextOperation op : local) {
+            RichTextOperation transformed = op;
+            for (RichTextOperation reference : remote) {
+                transformed = RichTextOTAlgorithm.transform(transformed, reference);
+            }
+            result.add(transformed);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<RichTextOperation> compose() {
+        return RichTextOTAlgorithm.compose(remote, local);
+    }
+
+    @Benchmark
+    public List<RichTextOperation> optimizeOperations() {
+        return RichTextOTAlgorithm.optimizeOperations(remote);
+    }
+
+    @Benchmark
+    public String applyString() {
+        return RichTextOTAlgorithm.apply(document, remote);
+    }
+
+    @Benchmark
+    public Rope applyBuffer() {
+        DocumentBuffer buffer = new DocumentBuffer(documentRope);
+        for (RichTextOperation op : remote) {
+            RichTextOTAlgorithm.apply(buffer, op);
+        }
+        return buffer.snapshot();
+    }
+}
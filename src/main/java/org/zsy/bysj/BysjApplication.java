@@ -3,12 +3,14 @@ package org.zsy.bysj;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.dao.PersistenceExceptionTranslationAutoConfiguration;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 import java.nio.charset.StandardCharsets;
 
 @SpringBootApplication(exclude = {
     PersistenceExceptionTranslationAutoConfiguration.class
 })
+@EnableScheduling
 public class BysjApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,316 @@
+package org.zsy.bysj.algorithm;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 格式区间索引
+ *
+ * 用按起点排序、互不重叠的区间记录文档中带格式的文本范围，同一区间内的格式属性完全相同，未被区间覆盖的位置没有格式。
+ * 文本插入/删除时区间随之平移或伸缩；格式操作只改动所覆盖的区间，不需要重写整篇文档内容。
+ * 非线程安全，由 DocumentSession 在会话锁内访问。
+ */
+public class AttributeSpanIndex {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final List<Span> spans = new ArrayList<>();
+
+    /**
+     * 一段格式相同的文本范围 [start, end)
+     */
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Span {
+        private int start;
+        private int end;
+        private Map<String, Object> attributes;
+    }
+
+    /**
+     * 在 position 处插入 length 个字符：之后的区间整体后移，插入点位于区间内部时区间随之扩展
+     * （与 OTAlgorithm 中 RETAIN 相对 INSERT 的转换规则一致）
+     */
+    public void insert(int position, int length) {
+        if (length <= 0) {
+            return;
+        }
+        for (int i = firstEndingAfter(position); i < spans.size(); i++) {
+            Span span = spans.get(i);
+            if (span.start >= position) {
+                span.start += length;
+            }
+            span.end += length;
+        }
+    }
+
+    /**
+     * 删除 [position, position + length) 范围内的字符，区间随之收缩，变为空的区间被移除
+     */
+    public void delete(int position, int length) {
+        if (length <= 0) {
+            return;
+        }
+        int index = firstEndingAfter(position);
+        for (int i = index; i < spans.size(); i++) {
+            Span span = spans.get(i);
+            span.start = shiftForDelete(span.start, position, length);
+            span.end = shiftForDelete(span.end, position, length);
+        }
+        spans.removeIf(span -> span.start >= span.end);
+        // 删除后原本不相邻的两个区间可能在删除点相接（删除点左侧的区间下标为 index - 1 或 index）
+        normalize(Math.max(0, index - 1), Math.min(spans.size(), index + 2));
+    }
+
+    /**
+     * 对 [position, position + length) 设置格式，属性值为null表示移除该格式
+     */
+    public void format(int position, int length, Map<String, Object> attributes) {
+        if (length <= 0 || attributes == null || attributes.isEmpty()) {
+            return;
+        }
+        int end = position + length;
+        splitAt(position);
+        splitAt(end);
+
+        int from = firstEndingAfter(position);
+        int to = from;
+        List<Span> replaced = new ArrayList<>();
+        int cursor = position;
+        while (to < spans.size() && spans.get(to).start < end) {
+            Span span = spans.get(to);
+            if (cursor < span.start) {
+                addSpan(replaced, cursor, span.start, mergeAttributes(null, attributes));
+            }
+            addSpan(replaced, span.start, span.end, mergeAttributes(span.attributes, attributes));
+            cursor = span.end;
+            to++;
+        }
+        if (cursor < end) {
+            addSpan(replaced, cursor, end, mergeAttributes(null, attributes));
+        }
+
+        spans.subList(from, to).clear();
+        spans.addAll(from, replaced);
+        normalize(Math.max(0, from - 1), Math.min(spans.size(), from + replaced.size() + 1));
+    }
+
+    /**
+     * 应用位置操作
+     */
+    public void apply(Operation operation) {
+        if (operation == null) {
+            return;
+        }
+        int position = operation.getPosition() != null ? operation.getPosition() : 0;
+        if ("INSERT".equals(operation.getType())) {
+            insert(position, operation.getData() != null ? operation.getData().length() : 0);
+        } else if ("DELETE".equals(operation.getType())) {
+            delete(position, operation.getLength() != null ? operation.getLength() : 0);
+        }
+    }
+
+    /**
+     * 应用富文本操作
+     */
+    public void apply(RichTextOperation operation) {
+        if (operation == null) {
+            return;
+        }
+        switch (operation.getType()) {
+            case "INSERT":
+                int length = operation.getData() != null ? operation.getData().length() : 0;
+                insert(operation.getPosition(), length);
+                format(operation.getPosition(), length, operation.getAttributes());
+                break;
+            case "DELETE":
+                delete(operation.getPosition(), operation.getLength());
+                break;
+            case "FORMAT":
+                format(operation.getPosition(), operation.getLength(), operation.getAttributes());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 应用 Delta：retain/insert 上的属性按格式操作处理
+     */
+    public void apply(Delta delta) {
+        if (delta == null) {
+            return;
+        }
+        int cursor = 0;
+        for (DeltaOp op : delta.getOps()) {
+            if (op.isRetainOp()) {
+                format(cursor, op.getRetain(), op.getAttributes());
+                cursor += op.getRetain();
+            } else if (op.isInsertOp()) {
+                int length = op.length();
+                insert(cursor, length);
+                format(cursor, length, op.getAttributes());
+                cursor += length;
+            } else if (op.isDeleteOp()) {
+                delete(cursor, op.getDelete());
+            }
+        }
+    }
+
+    /**
+     * 指定位置字符的格式（无格式时返回空映射）
+     */
+    public Map<String, Object> attributesAt(int position) {
+        int index = firstEndingAfter(position);
+        if (index < spans.size() && spans.get(index).start <= position) {
+            return Collections.unmodifiableMap(spans.get(index).attributes);
+        }
+        return Collections.emptyMap();
+    }
+
+    public List<Span> getSpans() {
+        return Collections.unmodifiableList(spans);
+    }
+
+    public boolean isEmpty() {
+        return spans.isEmpty();
+    }
+
+    public String toJson() {
+        try {
+            return JSON.writeValueAsString(spans);
+        } catch (Exception e) {
+            throw new RuntimeException("格式区间序列化失败", e);
+        }
+    }
+
+    /**
+     * 从 JSON 恢复索引，内容为空时返回空索引
+     */
+    public static AttributeSpanIndex fromJson(String json) {
+        AttributeSpanIndex index = new AttributeSpanIndex();
+        if (json == null || json.isBlank()) {
+            return index;
+        }
+        try {
+            List<Span> spans = JSON.readValue(json, new TypeReference<List<Span>>() {});
+            for (Span span : spans) {
+                if (span.start < span.end && span.attributes != null && !span.attributes.isEmpty()) {
+                    index.spans.add(span);
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("格式区间解析失败", e);
+        }
+        return index;
+    }
+
+    /**
+     * 格式属性与 JSON 的互相转换（用于操作日志）
+     */
+    public static String attributesToJson(Map<String, Object> attributes) {
+        try {
+            return JSON.writeValueAsString(attributes);
+        } catch (Exception e) {
+            throw new RuntimeException("格式属性序列化失败", e);
+        }
+    }
+
+    public static Map<String, Object> attributesFromJson(String json) {
+        if (json == null || json.isBlank()) {
+            return new HashMap<>();
+        }
+        try {
+            return JSON.readValue(json, new TypeReference<Map<String, Object>>() {});
+        } catch (Exception e) {
+            throw new RuntimeException("格式属性解析失败", e);
+        }
+    }
+
+    /**
+     * 第一个 end > position 的区间下标（区间按起点排序且不重叠，end 同样有序）
+     */
+    private int firstEndingAfter(int position) {
+        int low = 0;
+        int high = spans.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (spans.get(mid).end <= position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 若 position 落在某个区间内部，则将该区间在 position 处一分为二
+     */
+    private void splitAt(int position) {
+        int index = firstEndingAfter(position);
+        if (index >= spans.size()) {
+            return;
+        }
+        Span span = spans.get(index);
+        if (span.start < position) {
+            spans.add(index + 1, new Span(position, span.end, span.attributes));
+            span.end = position;
+        }
+    }
+
+    /**
+     * 合并 [from, to) 范围内首尾相接且格式相同的相邻区间
+     */
+    private void normalize(int from, int to) {
+        int i = Math.max(from, 1);
+        int limit = to;
+        while (i < Math.min(limit, spans.size())) {
+            Span previous = spans.get(i - 1);
+            Span current = spans.get(i);
+            if (previous.end == current.start && Objects.equals(previous.attributes, current.attributes)) {
+                previous.end = current.end;
+                spans.remove(i);
+                limit--;
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private static void addSpan(List<Span> target, int start, int end, Map<String, Object> attributes) {
+        if (start < end && !attributes.isEmpty()) {
+            target.add(new Span(start, end, attributes));
+        }
+    }
+
+    private static Map<String, Object> mergeAttributes(Map<String, Object> base, Map<String, Object> change) {
+        Map<String, Object> merged = base != null ? new HashMap<>(base) : new HashMap<>();
+        for (Map.Entry<String, Object> entry : change.entrySet()) {
+            if (entry.getValue() == null) {
+                merged.remove(entry.getKey());
+            } else {
+                merged.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return merged;
+    }
+
+    private static int shiftForDelete(int offset, int position, int length) {
+        if (offset <= position) {
+            return offset;
+        }
+        return Math.max(position, offset - length);
+    }
+}
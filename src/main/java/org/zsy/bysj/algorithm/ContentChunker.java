@@ -0,0 +1,76 @@
+package org.zsy.bysj.algorithm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * 按内容切分文档（用于分块存储）
+ *
+ * 分块边界由滚动哈希（Gear 哈希，覆盖最近约 64 个字符）决定，只取决于边界附近的内容而不是绝对位置：
+ * 在某处插入或删除文字后，只有编辑所在的块（偶尔连带相邻块）发生变化，其后的块保持不变，
+ * 不会像固定长度切分那样让后面所有块整体错位。块长度限制在 [targetSize/4, targetSize*4] 之间，
+ * 平均约为 targetSize；不会在代理对中间切分。
+ */
+public final class ContentChunker {
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x5EED_C0DEL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private ContentChunker() {
+    }
+
+    public static List<String> split(CharSequence content, int targetSize) {
+        List<String> chunks = new ArrayList<>();
+        int length = content.length();
+        if (length == 0) {
+            return chunks;
+        }
+        int target = Math.max(16, targetSize);
+        int minSize = target / 4;
+        int maxSize = target * 4;
+        // 超过最小长度后每个位置成为边界的概率为 1/(mask+1)，平均块长约为 minSize + mask + 1
+        long mask = Long.highestOneBit(Math.max(1, target - minSize)) - 1;
+
+        int start = 0;
+        long hash = 0;
+        for (int i = 0; i < length; i++) {
+            char c = content.charAt(i);
+            hash = (hash << 1) + GEAR[(c ^ (c >>> 8)) & 0xFF];
+            int size = i + 1 - start;
+            if (size < minSize || Character.isHighSurrogate(c)) {
+                continue;
+            }
+            if ((hash & mask) == 0 || size >= maxSize) {
+                chunks.add(content.subSequence(start, i + 1).toString());
+                start = i + 1;
+                hash = 0;
+            }
+        }
+        if (start < length) {
+            chunks.add(content.subSequence(start, length).toString());
+        }
+        return chunks;
+    }
+
+    /**
+     * 块内容的 64 位哈希（FNV-1a）
+     */
+    public static long hash(CharSequence content) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            hash ^= c & 0xFF;
+            hash *= 0x100000001b3L;
+            hash ^= c >>> 8;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
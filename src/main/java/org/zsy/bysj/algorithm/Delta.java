@@ -0,0 +1,527 @@
+package org.zsy.bysj.algorithm;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Delta 操作模型（与 Quill Delta 格式兼容）
+ *
+ * 一个 Delta 是 retain/insert/delete 分量组成的序列，从文档开头依次描述一次完整的修改，
+ * 一次用户动作只需要一个 Delta，而不是拆成多个单字符的 INSERT/DELETE。
+ * compose、transform、invert 都是对两个分量序列的一次归并扫描，时间复杂度与分量数量成线性关系。
+ * 嵌入对象（图片、视频）的插入是长度为 1 的不可拆分分量，应用到文档内容时写入占位符。
+ */
+public class Delta {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final List<DeltaOp> ops;
+
+    public Delta() {
+        this.ops = new ArrayList<>();
+    }
+
+    /**
+     * 由分量列表构建 Delta，相邻的同类分量会被合并
+     */
+    @JsonCreator
+    public Delta(@JsonProperty("ops") List<DeltaOp> ops) {
+        this.ops = new ArrayList<>();
+        if (ops != null) {
+            for (DeltaOp op : ops) {
+                push(op);
+            }
+        }
+    }
+
+    public List<DeltaOp> getOps() {
+        return ops;
+    }
+
+    public Delta insert(String text) {
+        return insert(text, null);
+    }
+
+    public Delta insert(String text, Map<String, Object> attributes) {
+        if (text == null || text.isEmpty()) {
+            return this;
+        }
+        return push(DeltaOp.insert(text, attributes));
+    }
+
+    /**
+     * 插入嵌入对象（如 {"image": url}）
+     */
+    public Delta insertEmbed(Map<String, Object> embed, Map<String, Object> attributes) {
+        if (embed == null || embed.isEmpty()) {
+            return this;
+        }
+        return push(DeltaOp.embed(embed, attributes));
+    }
+
+    public Delta delete(int length) {
+        if (length <= 0) {
+            return this;
+        }
+        return push(DeltaOp.delete(length));
+    }
+
+    public Delta retain(int length) {
+        return retain(length, null);
+    }
+
+    public Delta retain(int length, Map<String, Object> attributes) {
+        if (length <= 0) {
+            return this;
+        }
+        return push(DeltaOp.retain(length, attributes));
+    }
+
+    /**
+     * 追加一个分量：与末尾的同类分量合并，并保证 insert 总是排在相邻的 delete 之前
+     */
+    public Delta push(DeltaOp newOp) {
+        if (newOp != null && newOp.getInsert() != null
+                && !(newOp.getInsert() instanceof String) && !newOp.isEmbed()) {
+            throw new RuntimeException("不支持的插入内容: " + newOp.getInsert());
+        }
+        if (newOp == null || newOp.length() == 0) {
+            return this;
+        }
+        DeltaOp op = new DeltaOp(newOp.getInsert(), newOp.getDelete(), newOp.getRetain(),
+                normalize(newOp.getAttributes()));
+        int index = ops.size();
+        DeltaOp lastOp = index > 0 ? ops.get(index - 1) : null;
+        if (lastOp != null) {
+            if (op.isDeleteOp() && lastOp.isDeleteOp()) {
+                ops.set(index - 1, DeltaOp.delete(lastOp.getDelete() + op.getDelete()));
+                return this;
+            }
+            // 插入和删除相邻时，插入放在删除之前（两种顺序效果相同，统一后便于比较与合并）
+            if (lastOp.isDeleteOp() && op.isInsertOp()) {
+                index--;
+                lastOp = index > 0 ? ops.get(index - 1) : null;
+                if (lastOp == null) {
+                    ops.add(0, op);
+                    return this;
+                }
+            }
+            if (Objects.equals(op.getAttributes(), lastOp.getAttributes())) {
+                if (op.isInsertOp() && lastOp.isInsertOp() && !op.isEmbed() && !lastOp.isEmbed()) {
+                    ops.set(index - 1, DeltaOp.insert(lastOp.getInsertText() + op.getInsertText(), op.getAttributes()));
+                    return this;
+                }
+                if (op.isRetainOp() && lastOp.isRetainOp()) {
+                    ops.set(index - 1, DeltaOp.retain(lastOp.getRetain() + op.getRetain(), op.getAttributes()));
+                    return this;
+                }
+            }
+        }
+        ops.add(index, op);
+        return this;
+    }
+
+    /**
+     * 去掉末尾不带格式的 retain（对文档没有任何影响）
+     */
+    public Delta chop() {
+        if (!ops.isEmpty()) {
+            DeltaOp last = ops.get(ops.size() - 1);
+            if (last.isRetainOp() && last.getAttributes() == null) {
+                ops.remove(ops.size() - 1);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 是否为空操作
+     */
+    @JsonIgnore
+    public boolean isNoop() {
+        for (DeltaOp op : ops) {
+            if (!op.isRetainOp() || op.getAttributes() != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 应用前文档至少需要的长度（retain + delete）
+     */
+    public int baseLength() {
+        int length = 0;
+        for (DeltaOp op : ops) {
+            if (!op.isInsertOp()) {
+                length += op.length();
+            }
+        }
+        return length;
+    }
+
+    /**
+     * 应用后文档长度的变化量
+     */
+    public int changeLength() {
+        int change = 0;
+        for (DeltaOp op : ops) {
+            if (op.isInsertOp()) {
+                change += op.length();
+            } else if (op.isDeleteOp()) {
+                change -= op.length();
+            }
+        }
+        return change;
+    }
+
+    /**
+     * 组合：返回与“先应用 this，再应用 other”等价的单个 Delta
+     */
+    public Delta compose(Delta other) {
+        OpIterator thisIter = new OpIterator(ops);
+        OpIterator otherIter = new OpIterator(other.ops);
+        Delta delta = new Delta();
+
+        // 快速路径：other 以不带格式的 retain 开头时，this 中被整体跳过的插入直接保留
+        DeltaOp firstOther = otherIter.peek();
+        if (firstOther != null && firstOther.isRetainOp() && firstOther.getAttributes() == null) {
+            int firstLeft = firstOther.getRetain();
+            while (thisIter.peekType() == OpType.INSERT && thisIter.peekLength() <= firstLeft) {
+                firstLeft -= thisIter.peekLength();
+                delta.push(thisIter.next());
+            }
+            if (firstOther.getRetain() - firstLeft > 0) {
+                otherIter.next(firstOther.getRetain() - firstLeft);
+            }
+        }
+
+        while (thisIter.hasNext() || otherIter.hasNext()) {
+            if (otherIter.peekType() == OpType.INSERT) {
+                delta.push(otherIter.next());
+            } else if (thisIter.peekType() == OpType.DELETE) {
+                delta.push(thisIter.next());
+            } else {
+                int length = Math.min(thisIter.peekLength(), otherIter.peekLength());
+                DeltaOp thisOp = thisIter.next(length);
+                DeltaOp otherOp = otherIter.next(length);
+                if (otherOp.isRetainOp()) {
+                    Map<String, Object> attributes = composeAttributes(
+                            thisOp.getAttributes(), otherOp.getAttributes(), thisOp.isRetainOp());
+                    DeltaOp newOp = thisOp.isRetainOp()
+                            ? DeltaOp.retain(length, attributes)
+                            : new DeltaOp(thisOp.getInsert(), null, null, attributes);
+                    delta.push(newOp);
+
+                    // other 已经结束且末尾分量未改变 this 时，this 的剩余部分可直接拼接
+                    if (!otherIter.hasNext() && !delta.ops.isEmpty()
+                            && delta.ops.get(delta.ops.size() - 1).equals(newOp)) {
+                        for (DeltaOp rest : thisIter.rest()) {
+                            delta.push(rest);
+                        }
+                        return delta.chop();
+                    }
+                } else if (otherOp.isDeleteOp() && thisOp.isRetainOp()) {
+                    delta.push(otherOp);
+                }
+                // this 的插入被 other 删除：两者相互抵消
+            }
+        }
+        return delta.chop();
+    }
+
+    /**
+     * 转换：this 与 other 基于同一版本并发产生，返回 other'，使得
+     * “先应用 this 再应用 other'” 与 “先应用 other 再应用 this'” 结果一致
+     *
+     * @param priority 为 true 时 this 优先（同一位置插入时 this 的内容在前）
+     */
+    public Delta transform(Delta other, boolean priority) {
+        OpIterator thisIter = new OpIterator(ops);
+        OpIterator otherIter = new OpIterator(other.ops);
+        Delta delta = new Delta();
+        while (thisIter.hasNext() || otherIter.hasNext()) {
+            if (thisIter.peekType() == OpType.INSERT
+                    && (priority || otherIter.peekType() != OpType.INSERT)) {
+                delta.retain(thisIter.next().length());
+            } else if (otherIter.peekType() == OpType.INSERT) {
+                delta.push(otherIter.next());
+            } else {
+                int length = Math.min(thisIter.peekLength(), otherIter.peekLength());
+                DeltaOp thisOp = thisIter.next(length);
+                DeltaOp otherOp = otherIter.next(length);
+                if (thisOp.isDeleteOp()) {
+                    // other 要处理的内容已被 this 删除
+                    continue;
+                }
+                if (otherOp.isDeleteOp()) {
+                    delta.push(otherOp);
+                } else {
+                    delta.retain(length, transformAttributes(
+                            thisOp.getAttributes(), otherOp.getAttributes(), priority));
+                }
+            }
+        }
+        return delta.chop();
+    }
+
+    /**
+     * 将文档中的位置（如光标）相对 this 进行转换
+     */
+    public int transformPosition(int index, boolean priority) {
+        OpIterator iter = new OpIterator(ops);
+        int offset = 0;
+        while (iter.hasNext() && offset <= index) {
+            int length = iter.peekLength();
+            OpType type = iter.peekType();
+            iter.next();
+            if (type == OpType.DELETE) {
+                index -= Math.min(length, index - offset);
+                continue;
+            }
+            if (type == OpType.INSERT && (offset < index || !priority)) {
+                index += length;
+            }
+            offset += length;
+        }
+        return index;
+    }
+
+    /**
+     * 求逆：返回撤销 this 的 Delta
+     *
+     * @param base 应用 this 之前的文档内容（用于恢复被删除的文本）
+     */
+    public Delta invert(Rope base) {
+        Delta inverted = new Delta();
+        int baseIndex = 0;
+        for (DeltaOp op : ops) {
+            if (op.isInsertOp()) {
+                inverted.delete(op.length());
+            } else if (op.isRetainOp() && op.getAttributes() == null) {
+                inverted.retain(op.getRetain());
+                baseIndex += op.getRetain();
+            } else {
+                int length = op.length();
+                int end = Math.min(baseIndex + length, base.length());
+                if (op.isDeleteOp()) {
+                    // 文档内容中嵌入对象只有占位符，被删除的嵌入对象无法恢复为原对象
+                    inverted.insert(base.substring(Math.min(baseIndex, end), end));
+                } else {
+                    // 文档内容不保存格式，撤销时移除本次设置的格式
+                    inverted.retain(length, invertAttributes(op.getAttributes()));
+                }
+                baseIndex += length;
+            }
+        }
+        return inverted.chop();
+    }
+
+    /**
+     * 应用到文档缓冲区，越界的位置截断到文档边界（与 OTAlgorithm.apply 一致）
+     * retain 上的格式属性不改变文本内容
+     */
+    public void applyTo(DocumentBuffer buffer) {
+        int cursor = 0;
+        for (DeltaOp op : ops) {
+            if (op.isRetainOp()) {
+                cursor = Math.min(cursor + op.getRetain(), buffer.length());
+            } else if (op.isInsertOp()) {
+                int position = Math.min(cursor, buffer.length());
+                buffer.insert(position, op.getInsertText());
+                cursor = position + op.length();
+            } else if (op.isDeleteOp()) {
+                buffer.delete(cursor, op.getDelete());
+            }
+        }
+    }
+
+    /**
+     * 将单个位置操作转换为等价的 Delta
+     */
+    public static Delta fromOperation(Operation operation) {
+        Delta delta = new Delta();
+        if (operation == null) {
+            return delta;
+        }
+        int position = operation.getPosition() != null ? operation.getPosition() : 0;
+        if ("INSERT".equals(operation.getType())) {
+            delta.retain(position).insert(operation.getData());
+        } else if ("DELETE".equals(operation.getType())) {
+            delta.retain(position).delete(operation.getLength() != null ? operation.getLength() : 0);
+        }
+        return delta;
+    }
+
+    public String toJson() {
+        try {
+            return JSON.writeValueAsString(this);
+        } catch (Exception e) {
+            throw new RuntimeException("Delta 序列化失败", e);
+        }
+    }
+
+    public static Delta fromJson(String json) {
+        try {
+            return JSON.readValue(json, Delta.class);
+        } catch (Exception e) {
+            throw new RuntimeException("Delta 解析失败", e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        return o instanceof Delta && ops.equals(((Delta) o).ops);
+    }
+
+    @Override
+    public int hashCode() {
+        return ops.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "Delta" + ops;
+    }
+
+    private static Map<String, Object> normalize(Map<String, Object> attributes) {
+        return attributes == null || attributes.isEmpty() ? null : attributes;
+    }
+
+    /**
+     * 组合格式属性：b 覆盖 a；keepNull 为 false 时去掉值为null的属性（作用在插入上时无需保留“移除”标记）
+     */
+    private static Map<String, Object> composeAttributes(Map<String, Object> a, Map<String, Object> b, boolean keepNull) {
+        Map<String, Object> attributes = new HashMap<>();
+        if (b != null) {
+            for (Map.Entry<String, Object> entry : b.entrySet()) {
+                if (keepNull || entry.getValue() != null) {
+                    attributes.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        if (a != null) {
+            for (Map.Entry<String, Object> entry : a.entrySet()) {
+                if (entry.getValue() != null && !(b != null && b.containsKey(entry.getKey()))) {
+                    attributes.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return normalize(attributes);
+    }
+
+    /**
+     * 转换格式属性：priority 为 true 时，a 已设置的属性优先，b 中相同的属性被丢弃
+     */
+    private static Map<String, Object> transformAttributes(Map<String, Object> a, Map<String, Object> b, boolean priority) {
+        if (a == null || b == null || !priority) {
+            return b;
+        }
+        Map<String, Object> attributes = new HashMap<>();
+        for (Map.Entry<String, Object> entry : b.entrySet()) {
+            if (!a.containsKey(entry.getKey())) {
+                attributes.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return normalize(attributes);
+    }
+
+    private static Map<String, Object> invertAttributes(Map<String, Object> attributes) {
+        Map<String, Object> inverted = new HashMap<>();
+        for (String key : attributes.keySet()) {
+            inverted.put(key, null);
+        }
+        return normalize(inverted);
+    }
+
+    private enum OpType {
+        INSERT, DELETE, RETAIN
+    }
+
+    /**
+     * 分量迭代器：可以按任意长度切分当前分量，超出末尾时视为无限长的 retain
+     */
+    private static class OpIterator {
+        private final List<DeltaOp> ops;
+        private int index;
+        private int offset;
+
+        OpIterator(List<DeltaOp> ops) {
+            this.ops = ops;
+        }
+
+        boolean hasNext() {
+            return peekLength() < Integer.MAX_VALUE;
+        }
+
+        DeltaOp peek() {
+            return index < ops.size() ? ops.get(index) : null;
+        }
+
+        int peekLength() {
+            return index < ops.size() ? ops.get(index).length() - offset : Integer.MAX_VALUE;
+        }
+
+        OpType peekType() {
+            DeltaOp op = peek();
+            if (op == null || op.isRetainOp()) {
+                return OpType.RETAIN;
+            }
+            return op.isInsertOp() ? OpType.INSERT : OpType.DELETE;
+        }
+
+        DeltaOp next() {
+            return next(Integer.MAX_VALUE);
+        }
+
+        DeltaOp next(int length) {
+            if (index >= ops.size()) {
+                return DeltaOp.retain(Integer.MAX_VALUE, null);
+            }
+            DeltaOp op = ops.get(index);
+            int start = offset;
+            int opLength = op.length();
+            if (length >= opLength - start) {
+                length = opLength - start;
+                index++;
+                offset = 0;
+            } else {
+                offset += length;
+            }
+            if (op.isDeleteOp()) {
+                return DeltaOp.delete(length);
+            }
+            if (op.isRetainOp()) {
+                return DeltaOp.retain(length, op.getAttributes());
+            }
+            if (op.isEmbed()) {
+                return new DeltaOp(op.getInsert(), null, null, op.getAttributes());
+            }
+            return DeltaOp.insert(op.getInsertText().substring(start, start + length), op.getAttributes());
+        }
+
+        List<DeltaOp> rest() {
+            List<DeltaOp> rest = new ArrayList<>();
+            if (index >= ops.size()) {
+                return rest;
+            }
+            if (offset > 0) {
+                rest.add(next());
+            }
+            rest.addAll(ops.subList(index, ops.size()));
+            index = ops.size();
+            return rest;
+        }
+    }
+}
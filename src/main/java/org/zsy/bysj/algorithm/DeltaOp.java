@@ -0,0 +1,91 @@
+package org.zsy.bysj.algorithm;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * Delta 中的单个分量（与 Quill Delta 的 op 结构一致）
+ * insert / delete / retain 三者有且只有一个非空，attributes 仅对 insert 和 retain 有意义；
+ * insert 为文本或嵌入对象（如 {"image": url}），嵌入对象长度为 1，在文档内容中以占位符 {@link #EMBED_PLACEHOLDER} 表示
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DeltaOp {
+
+    public static final String EMBED_PLACEHOLDER = "\uFFFC";
+
+    private Object insert; // 插入的文本（String）或嵌入对象（Map）
+    private Integer delete; // 删除的字符数
+    private Integer retain; // 保留（跳过）的字符数
+    private Map<String, Object> attributes; // 格式属性，值为null表示移除该格式
+
+    public static DeltaOp insert(String text, Map<String, Object> attributes) {
+        return new DeltaOp(text, null, null, attributes);
+    }
+
+    public static DeltaOp embed(Map<String, Object> embed, Map<String, Object> attributes) {
+        return new DeltaOp(embed, null, null, attributes);
+    }
+
+    public static DeltaOp delete(int length) {
+        return new DeltaOp(null, length, null, null);
+    }
+
+    public static DeltaOp retain(int length, Map<String, Object> attributes) {
+        return new DeltaOp(null, null, length, attributes);
+    }
+
+    @JsonIgnore
+    public boolean isInsertOp() {
+        return insert != null;
+    }
+
+    /**
+     * 是否为嵌入对象的插入（图片、视频等）
+     */
+    @JsonIgnore
+    public boolean isEmbed() {
+        return insert instanceof Map;
+    }
+
+    /**
+     * 插入在文档内容中对应的文本：嵌入对象为占位符
+     */
+    @JsonIgnore
+    public String getInsertText() {
+        return isEmbed() ? EMBED_PLACEHOLDER : (String) insert;
+    }
+
+    @JsonIgnore
+    public boolean isDeleteOp() {
+        return delete != null;
+    }
+
+    @JsonIgnore
+    public boolean isRetainOp() {
+        return retain != null;
+    }
+
+    /**
+     * 分量覆盖的字符数
+     */
+    public int length() {
+        if (delete != null) {
+            return delete;
+        }
+        if (retain != null) {
+            return retain;
+        }
+        if (insert == null) {
+            return 0;
+        }
+        return isEmbed() ? 1 : ((String) insert).length();
+    }
+}
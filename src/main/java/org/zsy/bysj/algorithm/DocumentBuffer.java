@@ -0,0 +1,71 @@
+package org.zsy.bysj.algorithm;
+
+/**
+ * 可变文档缓冲区
+ *
+ * 基于不可变的 Rope 实现：插入/删除为 O(log n)，不会为每个操作复制整篇文档；
+ * snapshot() 返回当前内容的不可变快照，代价为 O(1)，可在锁外再转换为字符串。
+ * 非线程安全，由调用方（如 DocumentSession）负责同步。
+ */
+public class DocumentBuffer {
+
+    private Rope rope;
+
+    public DocumentBuffer() {
+        this.rope = Rope.EMPTY;
+    }
+
+    public DocumentBuffer(String content) {
+        this.rope = Rope.of(content);
+    }
+
+    public DocumentBuffer(Rope snapshot) {
+        this.rope = snapshot != null ? snapshot : Rope.EMPTY;
+    }
+
+    public int length() {
+        return rope.length();
+    }
+
+    public char charAt(int index) {
+        return rope.charAt(index);
+    }
+
+    /**
+     * 插入文本，位置越界时截断到文档边界
+     */
+    public void insert(int position, String text) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        int pos = Math.max(0, Math.min(position, rope.length()));
+        rope = rope.insert(pos, text);
+    }
+
+    /**
+     * 删除文本，范围越界时截断到文档边界
+     */
+    public void delete(int position, int length) {
+        int start = Math.max(0, Math.min(position, rope.length()));
+        int end = Math.min(start + Math.max(length, 0), rope.length());
+        if (end > start) {
+            rope = rope.delete(start, end - start);
+        }
+    }
+
+    public String substring(int start, int end) {
+        return rope.substring(start, end);
+    }
+
+    /**
+     * 当前内容的不可变快照
+     */
+    public Rope snapshot() {
+        return rope;
+    }
+
+    @Override
+    public String toString() {
+        return rope.toString();
+    }
+}
@@ -37,6 +37,22 @@ public class OTAlgorithm {
         }
     }
 
+    /**
+     * 转换操作，可指定优先级
+     * transform(op1, op2) 总是让op2优先；客户端在收到服务端已排序的操作op1、需要相对本地未确认的操作op2转换时，
+     * 应让op1优先，才能与服务端的转换结果一致。两者只在同一位置插入时有区别。
+     *
+     * @param op1Priority op1是否优先（同一位置插入时op1在前）
+     */
+    public static Operation transform(Operation op1, Operation op2, boolean op1Priority) {
+        if (op1Priority && op1 != null && op2 != null
+                && "INSERT".equals(op1.getType()) && "INSERT".equals(op2.getType())
+                && op1.getPosition().equals(op2.getPosition())) {
+            return op1;
+        }
+        return transform(op1, op2);
+    }
+
     /**
      * 转换插入操作
      * 
@@ -49,6 +65,7 @@ public class OTAlgorithm {
      * - 如果删除在插入之前，插入位置需要前移
      * - 如果删除在插入之后，插入位置不变
      * - 如果删除和插入位置相同，插入位置不变（删除的是插入位置之前的内容）
+     * - 如果插入位置严格位于删除范围内，插入随删除一起失效（与 transformDelete 中删除范围扩展对应）
      */
     private static Operation transformInsert(Operation insert, Operation op2) {
         if (op2.getType().equals("INSERT")) {
@@ -79,8 +96,9 @@ public class OTAlgorithm {
                 // 删除在插入之前，插入位置前移
                 return Operation.insert(insert.getData(), insertPos - deleteLength);
             } else if (deletePos < insertPos) {
-                // 删除范围包含插入位置，插入位置移动到删除起点
-                return Operation.insert(insert.getData(), deletePos);
+                // 删除范围严格包含插入位置：对称地，删除操作经转换后会把插入的文本一并删除，
+                // 因此这里插入变为空操作，保证两种应用顺序得到相同结果
+                return Operation.insert("", deletePos);
             } else {
                 // 删除在插入之后，插入位置不变
                 return insert;
@@ -179,6 +197,70 @@ public class OTAlgorithm {
         return Operation.retain(transformedDelete.getPosition(), transformedDelete.getLength());
     }
 
+    /**
+     * 转换操作（基本类型版本）：规则与 {@link #transform(Operation, Operation)} 完全一致，
+     * 结果写入 out 而不是新建对象，out 可以与 op1 是同一个实例
+     *
+     * @param op1 需要转换的操作
+     * @param op2 参考操作（已经应用的操作）
+     * @param out 保存结果的实例
+     * @return out
+     */
+    public static PrimitiveOperation transform(PrimitiveOperation op1, PrimitiveOperation op2, PrimitiveOperation out) {
+        int type1 = op1.getType();
+        String data1 = op1.getData();
+        int pos1 = op1.getPosition();
+        int len1 = op1.getLength();
+        int type2 = op2.getType();
+        int pos2 = op2.getPosition();
+        int len2 = op2.getLength();
+        int end2 = pos2 + len2;
+
+        if (type1 == PrimitiveOperation.INSERT) {
+            if (type2 == PrimitiveOperation.INSERT) {
+                // 同一位置插入时op2优先
+                return out.setInsert(data1, pos2 <= pos1 ? pos1 + len2 : pos1);
+            }
+            if (type2 == PrimitiveOperation.DELETE) {
+                if (end2 <= pos1) {
+                    return out.setInsert(data1, pos1 - len2);
+                }
+                if (pos2 < pos1) {
+                    return out.setInsert("", pos2);
+                }
+            }
+            return out.setInsert(data1, pos1);
+        }
+
+        // DELETE 与 RETAIN 按相同规则调整范围
+        int newPos = pos1;
+        int newLen = len1;
+        int end1 = pos1 + len1;
+        if (type2 == PrimitiveOperation.INSERT) {
+            if (pos2 <= pos1) {
+                newPos = pos1 + len2;
+            } else if (pos2 < end1) {
+                newLen = len1 + len2;
+            }
+        } else if (type2 == PrimitiveOperation.DELETE) {
+            if (end2 <= pos1) {
+                newPos = pos1 - len2;
+            } else if (pos2 >= end1) {
+                // op2在op1之后，不变
+            } else if (pos2 <= pos1 && end2 >= end1) {
+                newLen = 0;
+            } else if (pos1 <= pos2 && end1 >= end2) {
+                newLen = len1 - len2;
+            } else if (pos2 < pos1) {
+                newPos = pos2;
+                newLen = end1 - end2;
+            } else {
+                newLen = len1 - Math.max(0, Math.min(end1, end2) - pos2);
+            }
+        }
+        return type1 == PrimitiveOperation.DELETE ? out.setDelete(newPos, newLen) : out.setRetain(newPos, newLen);
+    }
+
     /**
      * 合并多个操作
      * 将操作列表合并，确保操作的顺序和正确性
@@ -210,7 +292,7 @@ public class OTAlgorithm {
     /**
      * 优化操作列表：合并相邻的相同类型操作
      */
-    private static List<Operation> optimizeOperations(List<Operation> operations) {
+    public static List<Operation> optimizeOperations(List<Operation> operations) {
         if (operations.isEmpty()) {
             return operations;
         }
@@ -235,21 +317,23 @@ public class OTAlgorithm {
     }
 
     /**
-     * 判断两个操作是否可以合并
+     * 判断两个先后执行的操作是否可以合并为一个操作
+     * op2 的位置是相对 op1 执行之后的文档而言的
      */
-    private static boolean canMerge(Operation op1, Operation op2) {
+    public static boolean canMerge(Operation op1, Operation op2) {
         if (!op1.getType().equals(op2.getType())) {
             return false;
         }
         
-        // INSERT操作：如果op2的位置正好是op1的结束位置
+        // INSERT操作：如果op2的位置正好是op1的结束位置（连续输入）
         if ("INSERT".equals(op1.getType())) {
             return op2.getPosition() == op1.getPosition() + op1.getLength();
         }
         
-        // DELETE操作：如果op2的位置正好是op1的结束位置
+        // DELETE操作：op2在原位置继续删除（Delete键），或正好删到op1的起始位置（退格键）
         if ("DELETE".equals(op1.getType())) {
-            return op2.getPosition() == op1.getPosition() + op1.getLength();
+            return op2.getPosition().equals(op1.getPosition())
+                    || op2.getPosition() + op2.getLength() == op1.getPosition();
         }
         
         // RETAIN操作：如果op2的位置正好是op1的结束位置
@@ -261,13 +345,13 @@ public class OTAlgorithm {
     }
 
     /**
-     * 合并两个操作
+     * 合并两个操作（调用前需先用 {@link #canMerge(Operation, Operation)} 判断）
      */
-    private static Operation mergeOperations(Operation op1, Operation op2) {
+    public static Operation mergeOperations(Operation op1, Operation op2) {
         if ("INSERT".equals(op1.getType())) {
             return Operation.insert(op1.getData() + (op2.getData() != null ? op2.getData() : ""), op1.getPosition());
         } else if ("DELETE".equals(op1.getType())) {
-            return Operation.delete(op1.getPosition(), op1.getLength() + op2.getLength());
+            return Operation.delete(Math.min(op1.getPosition(), op2.getPosition()), op1.getLength() + op2.getLength());
         } else {
             return Operation.retain(op1.getPosition(), op1.getLength() + op2.getLength());
         }
@@ -310,23 +394,48 @@ public class OTAlgorithm {
         return sb.toString();
     }
 
+    /**
+     * 应用操作到文档缓冲区（原地修改，不复制整篇文档）
+     *
+     * @param buffer 文档缓冲区
+     * @param op 要应用的操作
+     */
+    public static void apply(DocumentBuffer buffer, Operation op) {
+        if (op == null || buffer == null) {
+            return;
+        }
+
+        switch (op.getType()) {
+            case "INSERT":
+                buffer.insert(op.getPosition(), op.getData() != null ? op.getData() : "");
+                break;
+            case "DELETE":
+                buffer.delete(op.getPosition(), op.getLength());
+                break;
+            case "RETAIN":
+                // RETAIN操作不改变文档内容，只是跳过字符
+                break;
+        }
+    }
+
     /**
      * 应用操作列表到文档
+     * 整个列表在同一个缓冲区上应用，只在开始和结束时各转换一次字符串
      * 
      * @param document 文档内容
      * @param operations 操作列表
      * @return 应用所有操作后的文档内容
      */
     public static String apply(String document, List<Operation> operations) {
-        if (operations == null || operations.isEmpty()) {
+        if (operations == null || operations.isEmpty() || document == null) {
             return document;
         }
         
-        String result = document;
+        DocumentBuffer buffer = new DocumentBuffer(document);
         for (Operation op : operations) {
-            result = apply(result, op);
+            apply(buffer, op);
         }
-        return result;
+        return buffer.toString();
     }
 
     /**
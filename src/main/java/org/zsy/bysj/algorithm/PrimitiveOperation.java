@@ -0,0 +1,112 @@
+package org.zsy.bysj.algorithm;
+
+/**
+ * 基本类型表示的操作（用于转换热路径）
+ *
+ * 与 Operation 表示相同的 INSERT/DELETE/RETAIN 操作，但类型用 int 编码、位置与长度为 int 字段，
+ * 对象可变，可在重放长串并发历史时反复复用，配合 {@link OTAlgorithm#transform(PrimitiveOperation, PrimitiveOperation, PrimitiveOperation)}
+ * 整个转换过程不产生任何新对象。非线程安全。
+ */
+public final class PrimitiveOperation {
+
+    public static final int INSERT = 0;
+    public static final int DELETE = 1;
+    public static final int RETAIN = 2;
+
+    private int type;
+    private String data; // 仅 INSERT 使用
+    private int position;
+    private int length;
+
+    public PrimitiveOperation() {
+        this.type = RETAIN;
+    }
+
+    public static PrimitiveOperation from(Operation operation) {
+        return new PrimitiveOperation().copyFrom(operation);
+    }
+
+    public PrimitiveOperation setInsert(String text, int position) {
+        this.type = INSERT;
+        this.data = text;
+        this.position = position;
+        this.length = text.length();
+        return this;
+    }
+
+    public PrimitiveOperation setDelete(int position, int length) {
+        this.type = DELETE;
+        this.data = null;
+        this.position = position;
+        this.length = length;
+        return this;
+    }
+
+    public PrimitiveOperation setRetain(int position, int length) {
+        this.type = RETAIN;
+        this.data = null;
+        this.position = position;
+        this.length = length;
+        return this;
+    }
+
+    public PrimitiveOperation copyFrom(PrimitiveOperation other) {
+        this.type = other.type;
+        this.data = other.data;
+        this.position = other.position;
+        this.length = other.length;
+        return this;
+    }
+
+    public PrimitiveOperation copyFrom(Operation operation) {
+        int pos = operation.getPosition() != null ? operation.getPosition() : 0;
+        int len = operation.getLength() != null ? operation.getLength() : 0;
+        switch (operation.getType()) {
+            case "INSERT":
+                String text = operation.getData() != null ? operation.getData() : "";
+                return setInsert(text, pos);
+            case "DELETE":
+                return setDelete(pos, len);
+            case "RETAIN":
+                return setRetain(pos, len);
+            default:
+                throw new IllegalArgumentException("未知的操作类型: " + operation.getType());
+        }
+    }
+
+    /**
+     * 转换回 Operation（用于落库与广播）
+     */
+    public Operation toOperation() {
+        switch (type) {
+            case INSERT:
+                return Operation.insert(data, position);
+            case DELETE:
+                return Operation.delete(position, length);
+            default:
+                return Operation.retain(position, length);
+        }
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public String getData() {
+        return data;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        String name = type == INSERT ? "INSERT" : type == DELETE ? "DELETE" : "RETAIN";
+        return name + "(" + position + "," + length + (data != null ? ",\"" + data + "\"" : "") + ")";
+    }
+}
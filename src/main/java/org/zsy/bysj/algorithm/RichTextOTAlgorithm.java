@@ -1,7 +1,6 @@
 package org.zsy.bysj.algorithm;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -13,15 +12,17 @@ public class RichTextOTAlgorithm {
 
     /**
      * 转换富文本操作
+     *
+     * @param op1 需要转换的操作
+     * @param op2 参考操作（已经应用的操作）
      */
     public static RichTextOperation transform(RichTextOperation op1, RichTextOperation op2) {
         if (op1 == null || op2 == null) {
             return op1;
         }
 
-        // 如果两个操作不重叠，直接返回
-        if (op1.getPosition() + op1.getLength() <= op2.getPosition() ||
-            op2.getPosition() + op2.getLength() <= op1.getPosition()) {
+        // op2 完全位于 op1 之后时不影响 op1（op2 在 op1 之前时仍需平移位置）
+        if (op1.getPosition() + op1.getLength() <= op2.getPosition()) {
             return op1;
         }
 
@@ -55,9 +56,10 @@ public class RichTextOTAlgorithm {
             return insert;
         } else if (op2.getType().equals("DELETE")) {
             if (op2.getPosition() <= insert.getPosition()) {
+                // 插入位置落在删除范围内时移到删除起点
                 return RichTextOperation.insert(
                     insert.getData(),
-                    insert.getPosition() - op2.getLength(),
+                    Math.max(op2.getPosition(), insert.getPosition() - op2.getLength()),
                     insert.getAttributes()
                 );
             }
@@ -116,64 +118,32 @@ public class RichTextOTAlgorithm {
 
     /**
      * 转换格式操作
+     * 格式范围的起点与终点分别按位置转换：范围内部的插入会被纳入格式范围，删除会收缩格式范围
      */
     private static RichTextOperation transformFormat(RichTextOperation format, RichTextOperation op2) {
+        int start = format.getPosition();
+        int end = format.getPosition() + format.getLength();
         if (op2.getType().equals("INSERT")) {
-            if (op2.getPosition() <= format.getPosition()) {
-                return RichTextOperation.format(
-                    format.getPosition() + op2.getLength(),
-                    format.getLength(),
-                    format.getAttributes()
-                );
-            } else if (op2.getPosition() < format.getPosition() + format.getLength()) {
-                // 插入位置在格式范围内，需要分割格式操作
-                int beforeLength = op2.getPosition() - format.getPosition();
-                int afterStart = op2.getPosition() + op2.getLength();
-                int afterLength = format.getPosition() + format.getLength() - afterStart;
-                
-                // 返回前半部分格式
-                if (beforeLength > 0) {
-                    return RichTextOperation.format(
-                        format.getPosition() + op2.getLength(),
-                        beforeLength,
-                        format.getAttributes()
-                    );
-                } else {
-                    return RichTextOperation.format(
-                        format.getPosition() + op2.getLength(),
-                        afterLength,
-                        format.getAttributes()
-                    );
-                }
-            }
-            return format;
+            int insertLength = op2.getData() != null ? op2.getData().length() : op2.getLength();
+            int newStart = op2.getPosition() <= start ? start + insertLength : start;
+            int newEnd = op2.getPosition() < end ? end + insertLength : end;
+            return RichTextOperation.format(newStart, newEnd - newStart, format.getAttributes());
         } else if (op2.getType().equals("DELETE")) {
-            if (op2.getPosition() + op2.getLength() <= format.getPosition()) {
-                return RichTextOperation.format(
-                    format.getPosition() - op2.getLength(),
-                    format.getLength(),
-                    format.getAttributes()
-                );
-            } else if (op2.getPosition() <= format.getPosition()) {
-                int overlap = Math.min(op2.getLength(), format.getPosition() + format.getLength() - op2.getPosition());
-                return RichTextOperation.format(
-                    format.getPosition() - (op2.getLength() - overlap),
-                    format.getLength() - overlap,
-                    format.getAttributes()
-                );
-            }
-            return format;
-        } else if (op2.getType().equals("FORMAT")) {
-            // 两个格式操作：合并格式属性
-            Map<String, Object> mergedAttributes = new HashMap<>(format.getAttributes());
-            if (op2.getAttributes() != null) {
-                mergedAttributes.putAll(op2.getAttributes());
-            }
-            return RichTextOperation.format(format.getPosition(), format.getLength(), mergedAttributes);
+            int newStart = transformPositionForDelete(start, op2);
+            int newEnd = transformPositionForDelete(end, op2);
+            return RichTextOperation.format(newStart, newEnd - newStart, format.getAttributes());
         }
+        // RETAIN 不移动位置；两个格式操作重叠时，后提交的格式覆盖先提交的（各端按服务器顺序应用，结果一致）
         return format;
     }
 
+    private static int transformPositionForDelete(int position, RichTextOperation delete) {
+        if (position <= delete.getPosition()) {
+            return position;
+        }
+        return Math.max(delete.getPosition(), position - delete.getLength());
+    }
+
     /**
      * 合并多个富文本操作
      */
@@ -195,7 +165,7 @@ public class RichTextOTAlgorithm {
     /**
      * 优化操作列表
      */
-    private static List<RichTextOperation> optimizeOperations(List<RichTextOperation> operations) {
+    public static List<RichTextOperation> optimizeOperations(List<RichTextOperation> operations) {
         if (operations.isEmpty()) {
             return operations;
         }
@@ -303,15 +273,40 @@ public class RichTextOTAlgorithm {
         return sb.toString();
     }
 
+    /**
+     * 应用富文本操作到文档缓冲区（原地修改，不复制整篇文档）
+     */
+    public static void apply(DocumentBuffer buffer, RichTextOperation op) {
+        if (op == null || buffer == null) {
+            return;
+        }
+
+        switch (op.getType()) {
+            case "INSERT":
+                buffer.insert(op.getPosition(), op.getData());
+                break;
+            case "DELETE":
+                buffer.delete(op.getPosition(), op.getLength());
+                break;
+            case "RETAIN":
+            case "FORMAT":
+                // RETAIN和FORMAT操作不改变文档文本内容
+                break;
+        }
+    }
+
     /**
      * 应用操作列表到文档
+     * 整个列表在同一个缓冲区上应用，只在开始和结束时各转换一次字符串
      */
     public static String apply(String document, List<RichTextOperation> operations) {
-        String result = document;
+        if (operations == null || operations.isEmpty()) {
+            return document;
+        }
+        DocumentBuffer buffer = new DocumentBuffer(document);
         for (RichTextOperation op : operations) {
-            result = apply(result, op);
+            apply(buffer, op);
         }
-        return result;
+        return buffer.toString();
     }
 }
-
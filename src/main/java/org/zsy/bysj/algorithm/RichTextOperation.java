@@ -47,6 +47,31 @@ public class RichTextOperation {
         return new RichTextOperation("RETAIN", null, position, length, null);
     }
     
+    /**
+     * 由普通Operation创建（不带格式）
+     */
+    public static RichTextOperation fromOperation(Operation operation) {
+        return new RichTextOperation(operation.getType(), operation.getData(),
+                operation.getPosition(), operation.getLength(), null);
+    }
+
+    /**
+     * 转换为等价的 Delta（FORMAT 对应带属性的 retain）
+     */
+    public Delta toDelta() {
+        Delta delta = new Delta();
+        switch (type) {
+            case "INSERT":
+                return delta.retain(position).insert(data, attributes);
+            case "DELETE":
+                return delta.retain(position).delete(length);
+            case "FORMAT":
+                return delta.retain(position).retain(length, attributes);
+            default:
+                return delta;
+        }
+    }
+
     /**
      * 转换为普通Operation（用于兼容纯文本操作）
      */
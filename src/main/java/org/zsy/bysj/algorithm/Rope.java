@@ -0,0 +1,218 @@
+package org.zsy.bysj.algorithm;
+
+/**
+ * 不可变绳索（Rope）结构，用于存放大文档的文本内容
+ *
+ * 叶子节点保存不超过 MAX_LEAF 个字符的文本块，内部节点按 AVL 规则保持平衡，
+ * 插入和删除只复制从根到修改点路径上的 O(log n) 个节点，其余节点在新旧版本间共享，
+ * 因此保留旧的根节点引用即可得到 O(1) 的快照。
+ */
+public final class Rope {
+
+    /**
+     * 叶子节点的最大字符数
+     */
+    static final int MAX_LEAF = 512;
+
+    public static final Rope EMPTY = new Rope("");
+
+    private final String leaf; // 叶子节点的文本，内部节点为null
+    private final Rope left;
+    private final Rope right;
+    private final int length;
+    private final int height; // 叶子高度为0
+
+    private Rope(String leaf) {
+        this.leaf = leaf;
+        this.left = null;
+        this.right = null;
+        this.length = leaf.length();
+        this.height = 0;
+    }
+
+    private Rope(Rope left, Rope right) {
+        this.leaf = null;
+        this.left = left;
+        this.right = right;
+        this.length = left.length + right.length;
+        this.height = Math.max(left.height, right.height) + 1;
+    }
+
+    /**
+     * 由字符串构建平衡的绳索
+     */
+    public static Rope of(String text) {
+        if (text == null || text.isEmpty()) {
+            return EMPTY;
+        }
+        return build(text, 0, text.length());
+    }
+
+    private static Rope build(String text, int start, int end) {
+        if (end - start <= MAX_LEAF) {
+            return new Rope(text.substring(start, end));
+        }
+        int mid = start + (end - start) / 2;
+        return new Rope(build(text, start, mid), build(text, mid, end));
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index=" + index + ", length=" + length);
+        }
+        Rope node = this;
+        while (node.leaf == null) {
+            if (index < node.left.length) {
+                node = node.left;
+            } else {
+                index -= node.left.length;
+                node = node.right;
+            }
+        }
+        return node.leaf.charAt(index);
+    }
+
+    /**
+     * 在指定位置插入文本，返回新的绳索
+     */
+    public Rope insert(int position, String text) {
+        if (text == null || text.isEmpty()) {
+            return this;
+        }
+        if (position < 0 || position > length) {
+            throw new IndexOutOfBoundsException("position=" + position + ", length=" + length);
+        }
+        return insertInto(this, position, text);
+    }
+
+    private static Rope insertInto(Rope node, int position, String text) {
+        if (node.leaf != null) {
+            String leafText = node.leaf;
+            if (leafText.length() + text.length() <= MAX_LEAF) {
+                return new Rope(leafText.substring(0, position) + text + leafText.substring(position));
+            }
+            // 文本块放不下时拆分，插入内容过大时由 of 构建平衡子树
+            return join(join(of(leafText.substring(0, position)), of(text)), of(leafText.substring(position)));
+        }
+        if (position <= node.left.length) {
+            return join(insertInto(node.left, position, text), node.right);
+        }
+        return join(node.left, insertInto(node.right, position - node.left.length, text));
+    }
+
+    /**
+     * 删除 [position, position + count) 范围内的文本，返回新的绳索
+     */
+    public Rope delete(int position, int count) {
+        if (count <= 0) {
+            return this;
+        }
+        if (position < 0 || position + count > length) {
+            throw new IndexOutOfBoundsException("position=" + position + ", count=" + count + ", length=" + length);
+        }
+        return deleteRange(this, position, position + count);
+    }
+
+    private static Rope deleteRange(Rope node, int start, int end) {
+        if (start <= 0 && end >= node.length) {
+            return EMPTY;
+        }
+        if (node.leaf != null) {
+            return new Rope(node.leaf.substring(0, start) + node.leaf.substring(end));
+        }
+        int leftLength = node.left.length;
+        Rope newLeft = start < leftLength ? deleteRange(node.left, start, Math.min(end, leftLength)) : node.left;
+        Rope newRight = end > leftLength
+                ? deleteRange(node.right, Math.max(start - leftLength, 0), end - leftLength)
+                : node.right;
+        return join(newLeft, newRight);
+    }
+
+    /**
+     * 截取 [start, end) 范围内的文本
+     */
+    public String substring(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("start=" + start + ", end=" + end + ", length=" + length);
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        appendRange(this, start, end, sb);
+        return sb.toString();
+    }
+
+    private static void appendRange(Rope node, int start, int end, StringBuilder sb) {
+        if (start >= end) {
+            return;
+        }
+        if (node.leaf != null) {
+            sb.append(node.leaf, start, end);
+            return;
+        }
+        int leftLength = node.left.length;
+        if (start < leftLength) {
+            appendRange(node.left, start, Math.min(end, leftLength), sb);
+        }
+        if (end > leftLength) {
+            appendRange(node.right, Math.max(start - leftLength, 0), end - leftLength, sb);
+        }
+    }
+
+    /**
+     * 连接两个绳索（AVL join），代价为两者高度差
+     */
+    static Rope join(Rope left, Rope right) {
+        if (left.length == 0) {
+            return right;
+        }
+        if (right.length == 0) {
+            return left;
+        }
+        if (left.leaf != null && right.leaf != null && left.length + right.length <= MAX_LEAF) {
+            return new Rope(left.leaf + right.leaf);
+        }
+        if (left.height > right.height + 1) {
+            return balance(left.left, join(left.right, right));
+        }
+        if (right.height > left.height + 1) {
+            return balance(join(left, right.left), right.right);
+        }
+        return new Rope(left, right);
+    }
+
+    /**
+     * 以 left/right 为子树构建节点，高度差超过1时做一次单旋或双旋
+     */
+    private static Rope balance(Rope left, Rope right) {
+        if (left.height > right.height + 1) {
+            if (left.left.height >= left.right.height) {
+                return new Rope(left.left, new Rope(left.right, right));
+            }
+            return new Rope(new Rope(left.left, left.right.left), new Rope(left.right.right, right));
+        }
+        if (right.height > left.height + 1) {
+            if (right.right.height >= right.left.height) {
+                return new Rope(new Rope(left, right.left), right.right);
+            }
+            return new Rope(new Rope(left, right.left.left), new Rope(right.left.right, right.right));
+        }
+        return new Rope(left, right);
+    }
+
+    @Override
+    public String toString() {
+        if (leaf != null) {
+            return leaf;
+        }
+        StringBuilder sb = new StringBuilder(length);
+        appendRange(this, 0, length, sb);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,165 @@
+package org.zsy.bysj.algorithm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 文本差异计算（用于版本快照的差量存储）
+ *
+ * 先去掉两段文本首尾相同的部分，中间部分按 {@link ContentChunker} 切成小块，
+ * 在块序列上做 Myers 差异比较（O((N+M)·D)，D 为变化的块数），
+ * 每一段连续变化的块再去掉首尾相同的字符，得到 retain/insert/delete 组成的 Delta。
+ * 变化的块数超过上限时，中间部分整体替换。
+ */
+public final class TextDiff {
+
+    private static final int TOKEN_SIZE = 32;
+    private static final int MAX_EDIT_TOKENS = 1024;
+
+    private TextDiff() {
+    }
+
+    /**
+     * 计算把 from 变为 to 的 Delta（作用于 from 后得到 to）
+     */
+    public static Delta diff(String from, String to) {
+        String a = from != null ? from : "";
+        String b = to != null ? to : "";
+        Delta delta = new Delta();
+        int prefix = commonPrefix(a, 0, a.length(), b, 0, b.length());
+        int suffix = commonSuffix(a, prefix, a.length(), b, prefix, b.length());
+        delta.retain(prefix);
+
+        String oldMiddle = a.substring(prefix, a.length() - suffix);
+        String newMiddle = b.substring(prefix, b.length() - suffix);
+        if (oldMiddle.isEmpty() || newMiddle.isEmpty()) {
+            delta.insert(newMiddle).delete(oldMiddle.length());
+            return delta.chop();
+        }
+
+        List<String> oldTokens = ContentChunker.split(oldMiddle, TOKEN_SIZE);
+        List<String> newTokens = ContentChunker.split(newMiddle, TOKEN_SIZE);
+        List<int[]> script = editScript(oldTokens, newTokens);
+        if (script == null) {
+            replace(delta, oldMiddle, newMiddle);
+            return delta.chop();
+        }
+
+        // script 按顺序给出每一步：{0, 旧块下标} 相同，{-1, 旧块下标} 删除，{1, 新块下标} 插入
+        StringBuilder deleted = new StringBuilder();
+        StringBuilder inserted = new StringBuilder();
+        for (int[] step : script) {
+            if (step[0] == 0) {
+                if (deleted.length() > 0 || inserted.length() > 0) {
+                    replace(delta, deleted.toString(), inserted.toString());
+                    deleted.setLength(0);
+                    inserted.setLength(0);
+                }
+                delta.retain(oldTokens.get(step[1]).length());
+            } else if (step[0] < 0) {
+                deleted.append(oldTokens.get(step[1]));
+            } else {
+                inserted.append(newTokens.get(step[1]));
+            }
+        }
+        replace(delta, deleted.toString(), inserted.toString());
+        return delta.chop();
+    }
+
+    /**
+     * 用 inserted 替换当前位置的 deleted，首尾相同的字符保留
+     */
+    private static void replace(Delta delta, String deleted, String inserted) {
+        int prefix = commonPrefix(deleted, 0, deleted.length(), inserted, 0, inserted.length());
+        int suffix = commonSuffix(deleted, prefix, deleted.length(), inserted, prefix, inserted.length());
+        delta.retain(prefix)
+                .insert(inserted.substring(prefix, inserted.length() - suffix))
+                .delete(deleted.length() - prefix - suffix)
+                .retain(suffix);
+    }
+
+    /**
+     * Myers 差异算法，变化数超过上限时返回 null
+     */
+    private static List<int[]> editScript(List<String> a, List<String> b) {
+        int n = a.size();
+        int m = b.size();
+        int limit = Math.min(n + m, MAX_EDIT_TOKENS);
+        int offset = limit + 1;
+        int[] v = new int[2 * limit + 3];
+        List<int[]> trace = new ArrayList<>();
+        for (int d = 0; d <= limit; d++) {
+            trace.add(v.clone());
+            for (int k = -d; k <= d; k += 2) {
+                int x = (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]))
+                        ? v[offset + k + 1]
+                        : v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a.get(x).equals(b.get(y))) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    return backtrack(trace, offset, n, m);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static List<int[]> backtrack(List<int[]> trace, int offset, int n, int m) {
+        List<int[]> script = new ArrayList<>();
+        int x = n;
+        int y = m;
+        for (int d = trace.size() - 1; d >= 0; d--) {
+            int[] v = trace.get(d);
+            int k = x - y;
+            int prevK = (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) ? k + 1 : k - 1;
+            int prevX = d > 0 ? v[offset + prevK] : 0;
+            int prevY = d > 0 ? prevX - prevK : 0;
+            while (x > prevX && y > prevY) {
+                x--;
+                y--;
+                script.add(new int[]{0, x});
+            }
+            if (d > 0) {
+                if (x == prevX) {
+                    script.add(new int[]{1, prevY});
+                } else {
+                    script.add(new int[]{-1, prevX});
+                }
+            }
+            x = prevX;
+            y = prevY;
+        }
+        Collections.reverse(script);
+        return script;
+    }
+
+    private static int commonPrefix(String a, int aStart, int aEnd, String b, int bStart, int bEnd) {
+        int length = 0;
+        while (aStart + length < aEnd && bStart + length < bEnd
+                && a.charAt(aStart + length) == b.charAt(bStart + length)) {
+            length++;
+        }
+        // 不在代理对中间断开
+        if (length > 0 && Character.isHighSurrogate(a.charAt(aStart + length - 1))) {
+            length--;
+        }
+        return length;
+    }
+
+    private static int commonSuffix(String a, int aStart, int aEnd, String b, int bStart, int bEnd) {
+        int length = 0;
+        while (aEnd - length > aStart && bEnd - length > bStart
+                && a.charAt(aEnd - length - 1) == b.charAt(bEnd - length - 1)) {
+            length++;
+        }
+        if (length > 0 && Character.isLowSurrogate(a.charAt(aEnd - length))) {
+            length--;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,76 @@
+package org.zsy.bysj.archive;
+
+import org.zsy.bysj.model.DocumentOperation;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * 操作记录的二进制编码（归档分段与本地操作日志共用，不含文档ID）
+ *
+ * 版本号(int) 基准版本(int) 用户ID(long) 时间戳(long) 位置(int) 长度(int) 创建时间毫秒(long，空为-1)
+ * 操作类型、操作数据：长度(int，空为-1) + UTF-8 字节
+ */
+public final class OperationRecordCodec {
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private OperationRecordCodec() {
+    }
+
+    public static void write(DataOutputStream out, DocumentOperation operation) throws IOException {
+        out.writeInt(operation.getRevision());
+        out.writeInt(operation.getVersion() != null ? operation.getVersion() : operation.getRevision() - 1);
+        out.writeLong(operation.getUserId() != null ? operation.getUserId() : 0L);
+        out.writeLong(operation.getTimestamp() != null ? operation.getTimestamp() : 0L);
+        out.writeInt(operation.getPosition() != null ? operation.getPosition() : 0);
+        out.writeInt(operation.getLength() != null ? operation.getLength() : 0);
+        out.writeLong(operation.getCreatedAt() != null
+                ? operation.getCreatedAt().atZone(ZONE).toInstant().toEpochMilli() : -1L);
+        writeString(out, operation.getOperationType());
+        writeString(out, operation.getOperationData());
+    }
+
+    public static DocumentOperation read(Long documentId, DataInputStream in) throws IOException {
+        DocumentOperation operation = new DocumentOperation();
+        operation.setDocumentId(documentId);
+        operation.setRevision(in.readInt());
+        operation.setVersion(in.readInt());
+        operation.setUserId(in.readLong());
+        operation.setTimestamp(in.readLong());
+        operation.setPosition(in.readInt());
+        operation.setLength(in.readInt());
+        long createdAt = in.readLong();
+        if (createdAt >= 0) {
+            operation.setCreatedAt(LocalDateTime.ofInstant(Instant.ofEpochMilli(createdAt), ZONE));
+        }
+        operation.setOperationType(readString(in));
+        operation.setOperationData(readString(in));
+        return operation;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,212 @@
+package org.zsy.bysj.archive;
+
+import org.zsy.bysj.model.DocumentOperation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 操作日志归档分段文件（只写一次，之后只读）
+ *
+ * 文件格式：
+ * <pre>
+ * 头部   MAGIC(int) FORMAT(int)
+ * 数据块 每 blockRecords 条记录（{@link OperationRecordCodec}）编码后整体 Deflate 压缩
+ * 索引   块数(int)，每块：首条版本号(int) 偏移(long) 压缩长度(int) 原始长度(int)
+ * 尾部   索引偏移(long) MAGIC(int)
+ * </pre>
+ * 读取时把整个文件映射到内存，在稀疏索引（每块一项）上二分查找起始块，只解压需要的块。
+ */
+public final class OperationSegment {
+
+    private static final int MAGIC = 0x4F504C47; // "OPLG"
+    private static final int FORMAT = 1;
+    private static final int FOOTER_SIZE = Long.BYTES + Integer.BYTES;
+    private static final int INDEX_ENTRY_SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES + Integer.BYTES;
+
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    private final int[] blockFirstRevision;
+    private final long[] blockOffset;
+    private final int[] blockLength;
+    private final int[] blockRawLength;
+
+    private OperationSegment(Path file, MappedByteBuffer buffer, int[] blockFirstRevision, long[] blockOffset,
+                             int[] blockLength, int[] blockRawLength) {
+        this.file = file;
+        this.buffer = buffer;
+        this.blockFirstRevision = blockFirstRevision;
+        this.blockOffset = blockOffset;
+        this.blockLength = blockLength;
+        this.blockRawLength = blockRawLength;
+    }
+
+    /**
+     * 把按版本升序排列的记录写成分段文件：先写临时文件并刷盘，再原子改名，文件要么完整存在要么不存在
+     */
+    public static void write(Path file, List<DocumentOperation> operations, int blockRecords) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        int blocks = (operations.size() + blockRecords - 1) / blockRecords;
+        ByteBuffer index = ByteBuffer.allocate(Integer.BYTES + blocks * INDEX_ENTRY_SIZE);
+        index.putInt(blocks);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES).putInt(MAGIC).putInt(FORMAT);
+            writeFully(channel, header.flip());
+
+            for (int start = 0; start < operations.size(); start += blockRecords) {
+                List<DocumentOperation> block = operations.subList(start, Math.min(start + blockRecords, operations.size()));
+                byte[] raw = encodeBlock(block);
+                deflater.reset();
+                deflater.setInput(raw);
+                deflater.finish();
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 3 + 64);
+                byte[] chunk = new byte[8192];
+                while (!deflater.finished()) {
+                    compressed.write(chunk, 0, deflater.deflate(chunk));
+                }
+                index.putInt(block.get(0).getRevision())
+                        .putLong(channel.position())
+                        .putInt(compressed.size())
+                        .putInt(raw.length);
+                writeFully(channel, ByteBuffer.wrap(compressed.toByteArray()));
+            }
+
+            long indexOffset = channel.position();
+            writeFully(channel, index.flip());
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE).putLong(indexOffset).putInt(MAGIC);
+            writeFully(channel, footer.flip());
+            channel.force(true);
+        } finally {
+            deflater.end();
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * 映射分段文件并读取稀疏索引
+     */
+    public static OperationSegment open(Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // 映射在通道关闭后仍然有效
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int size = buffer.capacity();
+        if (size < 2 * Integer.BYTES + FOOTER_SIZE || buffer.getInt(0) != MAGIC
+                || buffer.getInt(size - Integer.BYTES) != MAGIC) {
+            throw new IOException("归档分段文件格式错误: " + file);
+        }
+        int position = (int) buffer.getLong(size - FOOTER_SIZE);
+        int blocks = buffer.getInt(position);
+        position += Integer.BYTES;
+        int[] firstRevision = new int[blocks];
+        long[] offset = new long[blocks];
+        int[] length = new int[blocks];
+        int[] rawLength = new int[blocks];
+        for (int i = 0; i < blocks; i++) {
+            firstRevision[i] = buffer.getInt(position);
+            offset[i] = buffer.getLong(position + Integer.BYTES);
+            length[i] = buffer.getInt(position + Integer.BYTES + Long.BYTES);
+            rawLength[i] = buffer.getInt(position + 2 * Integer.BYTES + Long.BYTES);
+            position += INDEX_ENTRY_SIZE;
+        }
+        return new OperationSegment(file, buffer, firstRevision, offset, length, rawLength);
+    }
+
+    /**
+     * 读取版本号在 (fromRevision, toRevision] 内的记录追加到 out，达到 limit 条（out 的总条数）时停止
+     */
+    public void read(Long documentId, int fromRevision, int toRevision, int limit, List<DocumentOperation> out)
+            throws IOException {
+        // 最后一个首条版本号 <= fromRevision + 1 的块
+        int low = 0;
+        int high = blockFirstRevision.length - 1;
+        int start = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (blockFirstRevision[mid] <= fromRevision + 1) {
+                start = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        for (int block = start; block < blockFirstRevision.length; block++) {
+            if (blockFirstRevision[block] > toRevision) {
+                return;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(inflate(block)));
+            while (in.available() > 0) {
+                DocumentOperation operation = OperationRecordCodec.read(documentId, in);
+                int revision = operation.getRevision();
+                if (revision > toRevision || out.size() >= limit) {
+                    return;
+                }
+                if (revision > fromRevision) {
+                    out.add(operation);
+                }
+            }
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    private byte[] inflate(int block) throws IOException {
+        ByteBuffer input = buffer.slice((int) blockOffset[block], blockLength[block]);
+        byte[] raw = new byte[blockRawLength[block]];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            int read = 0;
+            while (read < raw.length && !inflater.finished()) {
+                int n = inflater.inflate(raw, read, raw.length - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != raw.length) {
+                throw new IOException("归档分段数据块损坏: " + file + ", block=" + block);
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("归档分段数据块解压失败: " + file + ", block=" + block, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] encodeBlock(List<DocumentOperation> operations) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(operations.size() * 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (DocumentOperation operation : operations) {
+            OperationRecordCodec.write(out, operation);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
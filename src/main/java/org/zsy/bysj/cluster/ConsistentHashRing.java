@@ -0,0 +1,70 @@
+package org.zsy.bysj.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * 一致性哈希环（创建后不再修改，成员变化时整体替换）
+ *
+ * 每个节点在环上放置 virtualNodes 个虚拟节点，文档归属于顺时针方向第一个虚拟节点所在的节点；
+ * 节点加入或离开时只有相邻区间的文档改变归属，约为总数的 1/节点数。
+ */
+public final class ConsistentHashRing {
+
+    private final SortedSet<String> nodes;
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+
+    public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+        this.nodes = Collections.unmodifiableSortedSet(new TreeSet<>(nodes));
+        for (String node : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                // 哈希冲突时按节点ID决定，保证各节点构建出的环一致
+                ring.merge(hash(node + "#" + i), node, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+            }
+        }
+    }
+
+    /**
+     * 文档所属节点，环为空时返回null
+     */
+    public String ownerOf(Long documentId) {
+        if (ring.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> entry = ring.ceilingEntry(mix(documentId));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    public SortedSet<String> getNodes() {
+        return nodes;
+    }
+
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long value = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                value = (value << 8) | (digest[i] & 0xFF);
+            }
+            return value;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 文档ID连续分配，先打散再映射到环上
+     */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+}
@@ -66,7 +66,7 @@ public class RedisKeyConstant {
     public static final String DOCUMENT_LOCK_KEY = "document_lock:";
 
     /**
-     * 文档操作序列号key前缀
+     * 文档版本号租约上界key前缀（不小于任何节点已分配的文档版本号）
      */
     public static final String DOCUMENT_SEQUENCE_KEY = "document_sequence:";
 
@@ -105,7 +105,7 @@ public class RedisKeyConstant {
     }
 
     /**
-     * 构建文档操作序列号key
+     * 构建文档版本号租约上界key
      */
     public static String buildDocumentSequenceKey(Long documentId) {
         return DOCUMENT_SEQUENCE_KEY + documentId;
@@ -138,5 +138,96 @@ public class RedisKeyConstant {
     public static String buildDocumentLockQueueKey(Long documentId) {
         return DOCUMENT_LOCK_QUEUE_KEY + documentId;
     }
-}
 
+    /**
+     * 文档锁令牌（fencing token）计数器key前缀，每次获取文档锁递增
+     */
+    public static final String DOCUMENT_LOCK_TOKEN_KEY = "document_lock_token:";
+
+    /**
+     * 文档锁释放通知频道前缀（Pub/Sub）
+     */
+    public static final String DOCUMENT_LOCK_RELEASED_CHANNEL = "document_lock_released:";
+
+    /**
+     * 构建文档锁令牌计数器key
+     */
+    public static String buildDocumentLockTokenKey(Long documentId) {
+        return DOCUMENT_LOCK_TOKEN_KEY + documentId;
+    }
+
+    /**
+     * 构建文档锁释放通知频道
+     */
+    public static String buildDocumentLockReleasedChannel(Long documentId) {
+        return DOCUMENT_LOCK_RELEASED_CHANNEL + documentId;
+    }
+
+    /**
+     * 集群节点成员（ZSet：节点ID -> 最近一次心跳时间）
+     */
+    public static final String CLUSTER_NODES_KEY = "cluster_nodes";
+
+    /**
+     * 集群成员变化通知频道
+     */
+    public static final String CLUSTER_MEMBERSHIP_CHANNEL = "cluster_membership";
+
+    /**
+     * 集群文档广播转发频道
+     */
+    public static final String CLUSTER_BROADCAST_CHANNEL = "cluster_broadcast";
+
+    /**
+     * 转发给指定节点的操作频道前缀
+     */
+    public static final String CLUSTER_NODE_CHANNEL = "cluster_node:";
+
+    /**
+     * 文档会话持有节点key前缀
+     */
+    public static final String DOCUMENT_OWNER_KEY = "document_owner:";
+
+    /**
+     * 构建转发给指定节点的操作频道
+     */
+    public static String buildClusterNodeChannel(String nodeId) {
+        return CLUSTER_NODE_CHANNEL + nodeId;
+    }
+
+    /**
+     * 构建文档会话持有节点key
+     */
+    public static String buildDocumentOwnerKey(Long documentId) {
+        return DOCUMENT_OWNER_KEY + documentId;
+    }
+
+    /**
+     * 用户成员关系缓存key前缀（Hash：文档ID -> 权限类型）
+     */
+    public static final String USER_MEMBERSHIP_KEY = "user_membership:";
+
+    /**
+     * 构建用户成员关系缓存key
+     */
+    public static String buildUserMembershipKey(Long userId) {
+        return USER_MEMBERSHIP_KEY + userId;
+    }
+
+    /**
+     * 用户成员关系缓存代数key前缀（每次权限变更加一，回填缓存前比较，避免把变更前读到的数据写回）
+     */
+    public static final String USER_MEMBERSHIP_GENERATION_KEY = "user_membership_gen:";
+
+    /**
+     * 构建用户成员关系缓存代数key
+     */
+    public static String buildUserMembershipGenerationKey(Long userId) {
+        return USER_MEMBERSHIP_GENERATION_KEY + userId;
+    }
+
+    /**
+     * CRDT 客户端ID分配计数器（全局唯一，所有文档共用）
+     */
+    public static final String CRDT_CLIENT_ID_KEY = "crdt_client_id";
+}
@@ -5,14 +5,20 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.zsy.bysj.annotation.RequirePermission;
+import org.zsy.bysj.dto.DocumentSummary;
 import org.zsy.bysj.dto.Result;
 import org.zsy.bysj.dto.WebSocketMessage;
 import org.zsy.bysj.model.Document;
 import org.zsy.bysj.algorithm.Operation;
 import org.zsy.bysj.service.CollaborationService;
+import org.zsy.bysj.service.CrdtSessionService;
 import org.zsy.bysj.service.DocumentService;
+import org.zsy.bysj.session.CrdtDocumentSession;
 import org.zsy.bysj.util.RequestUtil;
 
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -30,6 +36,9 @@ public class DocumentController {
     @Autowired
     private CollaborationService collaborationService;
 
+    @Autowired
+    private CrdtSessionService crdtSessionService;
+
     /**
      * 创建文档
      */
@@ -52,20 +61,31 @@ public class DocumentController {
     }
 
     /**
-     * 获取用户的所有文档（创建的）
+     * 获取用户的所有文档（创建的，只返回摘要不含内容）
+     * 分页：传 limit 时按更新时间降序返回一页，下一页传本页最后一条的 updatedAt（毫秒时间戳）与 id
      */
     @GetMapping("/user/{userId}")
-    public ResponseEntity<Result<List<Document>>> getUserDocuments(@PathVariable Long userId) {
-        List<Document> documents = documentService.getUserDocuments(userId);
+    public ResponseEntity<Result<List<DocumentSummary>>> getUserDocuments(
+            @PathVariable Long userId,
+            @RequestParam(required = false) Long beforeUpdatedAt,
+            @RequestParam(required = false) Long beforeId,
+            @RequestParam(required = false) Integer limit) {
+        List<DocumentSummary> documents = documentService.getUserDocuments(
+                userId, toDateTime(beforeUpdatedAt), beforeId, limit);
         return ResponseEntity.ok(Result.success(documents));
     }
 
     /**
-     * 获取用户被共享的文档
+     * 获取用户被共享的文档（只返回摘要不含内容，分页方式同上）
      */
     @GetMapping("/shared/{userId}")
-    public ResponseEntity<Result<List<Document>>> getSharedDocuments(@PathVariable Long userId) {
-        List<Document> documents = documentService.getSharedDocuments(userId);
+    public ResponseEntity<Result<List<DocumentSummary>>> getSharedDocuments(
+            @PathVariable Long userId,
+            @RequestParam(required = false) Long beforeUpdatedAt,
+            @RequestParam(required = false) Long beforeId,
+            @RequestParam(required = false) Integer limit) {
+        List<DocumentSummary> documents = documentService.getSharedDocuments(
+                userId, toDateTime(beforeUpdatedAt), beforeId, limit);
         return ResponseEntity.ok(Result.success(documents));
     }
 
@@ -219,6 +239,67 @@ public class DocumentController {
         }
     }
 
+    /**
+     * 切换文档协同模式（仅管理员），mode 为 OT 或 CRDT
+     */
+    @RequirePermission("ADMIN")
+    @PutMapping("/{id}/engine-mode")
+    public ResponseEntity<Result<Void>> updateEngineMode(
+            @PathVariable Long id,
+            @RequestBody Map<String, Object> request,
+            HttpServletRequest httpRequest) {
+        try {
+            Long userId = RequestUtil.getUserId(httpRequest);
+            if (userId == null) {
+                return ResponseEntity.badRequest().body(Result.error("未认证"));
+            }
+            Object modeObj = request.get("mode");
+            if (modeObj == null) {
+                return ResponseEntity.badRequest().body(Result.error("协同模式不能为空"));
+            }
+            String mode = modeObj.toString().toUpperCase();
+            documentService.updateEngineMode(id, mode, userId);
+
+            // 通知在线用户重新加载文档
+            WebSocketMessage modeMessage = new WebSocketMessage();
+            modeMessage.setType("DOCUMENT_ENGINE_MODE_UPDATED");
+            modeMessage.setDocumentId(id);
+            modeMessage.setUserId(userId);
+            modeMessage.setTimestamp(System.currentTimeMillis());
+            Map<String, Object> modeData = new HashMap<>();
+            modeData.put("mode", mode);
+            modeMessage.setData(modeData);
+            collaborationService.broadcastToDocument(id, modeMessage);
+
+            return ResponseEntity.ok(Result.success("协同模式更新成功", null));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Result.error(e.getMessage()));
+        }
+    }
+
+    /**
+     * 获取CRDT文档状态（编码后的CRDT文档、版本、最大时钟及为本客户端分配的客户端ID）
+     */
+    @RequirePermission("READ")
+    @GetMapping("/{id}/crdt")
+    public ResponseEntity<Result<Map<String, Object>>> getCrdtState(@PathVariable Long id) {
+        try {
+            CrdtDocumentSession session = crdtSessionService.getSession(id);
+            if (session == null) {
+                return ResponseEntity.badRequest().body(Result.error("文档不存在"));
+            }
+            CrdtDocumentSession.State state = session.snapshotState();
+            Map<String, Object> data = new HashMap<>();
+            data.put("state", state.getState());
+            data.put("version", state.getVersion());
+            data.put("maxClock", state.getMaxClock());
+            data.put("clientId", crdtSessionService.allocateClientId());
+            return ResponseEntity.ok(Result.success(data));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Result.error(e.getMessage()));
+        }
+    }
+
     /**
      * 恢复已删除文档（逻辑删除可恢复）
      */
@@ -260,20 +341,34 @@ public class DocumentController {
     }
 
     /**
-     * 获取当前用户的已删除文档（回收站）
+     * 获取当前用户的已删除文档（回收站，只返回摘要不含内容，分页方式同上）
      */
     @GetMapping("/deleted")
-    public ResponseEntity<Result<List<Document>>> getDeletedDocuments(HttpServletRequest httpRequest) {
+    public ResponseEntity<Result<List<DocumentSummary>>> getDeletedDocuments(
+            @RequestParam(required = false) Long beforeUpdatedAt,
+            @RequestParam(required = false) Long beforeId,
+            @RequestParam(required = false) Integer limit,
+            HttpServletRequest httpRequest) {
         try {
             Long userId = RequestUtil.getUserId(httpRequest);
             if (userId == null) {
                 return ResponseEntity.badRequest().body(Result.error("未认证"));
             }
-            List<Document> documents = documentService.getDeletedDocuments(userId);
+            List<DocumentSummary> documents = documentService.getDeletedDocuments(
+                    userId, toDateTime(beforeUpdatedAt), beforeId, limit);
             return ResponseEntity.ok(Result.success("已删除文档获取成功", documents));
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(Result.error(e.getMessage()));
         }
     }
-}
 
+    /**
+     * 分页游标：前端传的是“毫秒时间戳”
+     */
+    private static LocalDateTime toDateTime(Long epochMillis) {
+        if (epochMillis == null) {
+            return null;
+        }
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.of("Asia/Shanghai"));
+    }
+}
@@ -5,11 +5,14 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.zsy.bysj.model.Document;
 import org.zsy.bysj.service.DocumentService;
 import org.zsy.bysj.service.ExportService;
 
 import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.nio.charset.Charset;
@@ -140,5 +143,30 @@ public class ExportController {
                 .headers(headers)
                 .body(markdown);
     }
-}
 
+    /**
+     * 导出原始内容（流式写出，分块存储的文档逐块输出，不在内存中拼接完整内容）
+     */
+    @GetMapping("/raw/{documentId}")
+    public ResponseEntity<StreamingResponseBody> exportRaw(@PathVariable Long documentId) {
+        String title = documentService.getDocumentTitle(documentId);
+        if (title == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        StreamingResponseBody body = outputStream -> {
+            Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+            documentService.streamDocumentContent(documentId, writer);
+            writer.flush();
+        };
+
+        String fileName = sanitizeFileName(title) + ".txt";
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType("text/plain;charset=UTF-8"));
+        headers.add("Content-Disposition", buildContentDisposition(fileName));
+
+        return ResponseEntity.ok()
+                .headers(headers)
+                .body(body);
+    }
+}
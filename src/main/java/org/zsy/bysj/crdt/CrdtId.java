@@ -0,0 +1,58 @@
+package org.zsy.bysj.crdt;
+
+/**
+ * CRDT 字符标识：(客户端ID, Lamport 时钟)
+ * 比较时先比较时钟，时钟相同再比较客户端ID，全序且各副本一致
+ */
+public final class CrdtId implements Comparable<CrdtId> {
+
+    private final long client;
+    private final int clock;
+
+    public CrdtId(long client, int clock) {
+        this.client = client;
+        this.clock = clock;
+    }
+
+    public long getClient() {
+        return client;
+    }
+
+    public int getClock() {
+        return clock;
+    }
+
+    @Override
+    public int compareTo(CrdtId other) {
+        return compare(client, clock, other.client, other.clock);
+    }
+
+    static int compare(long client1, int clock1, long client2, int clock2) {
+        if (clock1 != clock2) {
+            return Integer.compare(clock1, clock2);
+        }
+        return Long.compare(client1, client2);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CrdtId)) {
+            return false;
+        }
+        CrdtId other = (CrdtId) o;
+        return client == other.client && clock == other.clock;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(client) * 31 + clock;
+    }
+
+    @Override
+    public String toString() {
+        return client + "@" + clock;
+    }
+}
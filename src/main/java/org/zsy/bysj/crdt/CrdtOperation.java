@@ -0,0 +1,51 @@
+package org.zsy.bysj.crdt;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * CRDT 操作（客户端与服务端之间传输的格式）
+ *
+ * INSERT：text 中第 i 个字符的标识为 (client, clock + i)，插入在 (originClient, originClock) 所标识字符之后，
+ * origin 为空表示插入到文档开头；
+ * DELETE：ranges 中每一项标记 (client, clock) 起连续 length 个字符为已删除。
+ * 操作只引用字符标识而不是位置，任意顺序应用结果相同，重复应用无副作用。
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CrdtOperation {
+    private String action; // INSERT/DELETE
+    private Long client;
+    private Integer clock;
+    private Long originClient;
+    private Integer originClock;
+    private String text;
+    private List<Range> ranges;
+
+    /**
+     * 同一客户端连续时钟的一段字符
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Range {
+        private long client;
+        private int clock;
+        private int length;
+    }
+
+    public static CrdtOperation insert(CrdtId id, CrdtId origin, String text) {
+        return new CrdtOperation("INSERT", id.getClient(), id.getClock(),
+                origin != null ? origin.getClient() : null, origin != null ? origin.getClock() : null, text, null);
+    }
+
+    public static CrdtOperation delete(List<Range> ranges) {
+        return new CrdtOperation("DELETE", null, null, null, null, null, ranges);
+    }
+}
@@ -0,0 +1,461 @@
+package org.zsy.bysj.crdt;
+
+import org.zsy.bysj.algorithm.Delta;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * RGA 序列 CRDT 文档
+ *
+ * 每个字符有唯一标识 {@link CrdtId}，插入操作记录其左侧字符（origin），删除只打墓碑标记。
+ * 同一 origin 之后的并发插入按标识从大到小排列（时钟大的在前），因此操作可交换、可重复，
+ * 各副本按任意顺序应用同一组操作都会得到相同的结果，服务端无需加锁排序。
+ *
+ * 连续输入的字符合并为一个条目（run-length），条目只在被引用到中间位置时才拆分；
+ * 墓碑在 {@link #collectGarbage()} 时丢弃文本内容，并与相邻的墓碑合并，只保留标识与长度。
+ * 非线程安全，由 CrdtDocumentSession 在会话锁内访问。
+ */
+public class RgaDocument {
+
+    private static final int ENCODING_VERSION = 1;
+    private static final int FLAG_DELETED = 1;
+    private static final int FLAG_HAS_ORIGIN = 2;
+    private static final int FLAG_IMPLICIT_ORIGIN = 4; // origin 为同一客户端的前一个时钟，编码时省略
+
+    private final Item head = new Item(0, 0, 0, null, "", false); // 哨兵，不属于文档内容
+    private final Map<Long, TreeMap<Integer, Item>> itemsByClient = new HashMap<>();
+    private int maxClock;
+    private int visibleLength;
+    private int itemCount;
+
+    /**
+     * 一段标识连续的字符 (client, clock) .. (client, clock + length - 1)
+     */
+    private static final class Item {
+        final long client;
+        final int clock;
+        int length;
+        final CrdtId origin; // 第一个字符左侧的字符，null 表示文档开头；其余字符的 origin 是条目内的前一个字符
+        String content; // 墓碑回收后为 null
+        boolean deleted;
+        Item next;
+
+        Item(long client, int clock, int length, CrdtId origin, String content, boolean deleted) {
+            this.client = client;
+            this.clock = clock;
+            this.length = length;
+            this.origin = origin;
+            this.content = content;
+            this.deleted = deleted;
+        }
+
+        CrdtId lastId() {
+            return new CrdtId(client, clock + length - 1);
+        }
+
+        boolean continues(Item previous) {
+            return previous.client == client && previous.clock + previous.length == clock
+                    && origin != null && origin.equals(previous.lastId());
+        }
+    }
+
+    /**
+     * 以初始文本创建文档，初始文本的字符标识为 (0, 1..n)
+     */
+    public static RgaDocument fromText(String text) {
+        RgaDocument document = new RgaDocument();
+        if (text != null && !text.isEmpty()) {
+            document.link(document.head, new Item(0, 1, text.length(), null, text, false));
+            document.maxClock = text.length();
+            document.visibleLength = text.length();
+        }
+        return document;
+    }
+
+    /**
+     * 集成插入操作，返回对可见文本产生的修改（以 Delta 表示，供按位置编辑的客户端使用）
+     * 重复的插入不产生修改
+     */
+    public Delta applyInsert(CrdtId id, CrdtId origin, String text) {
+        if (text == null || text.isEmpty()) {
+            throw new RuntimeException("CRDT 插入内容不能为空");
+        }
+        if (find(id.getClient(), id.getClock()) != null) {
+            return new Delta();
+        }
+        if (origin != null && id.getClock() <= origin.getClock()) {
+            throw new RuntimeException("CRDT 时钟无效: " + id + " 不大于 " + origin);
+        }
+
+        Item left = head;
+        if (origin != null) {
+            left = find(origin.getClient(), origin.getClock());
+            if (left == null) {
+                throw new RuntimeException("CRDT 操作依赖的字符不存在: " + origin);
+            }
+            int offset = origin.getClock() - left.clock;
+            if (offset + 1 < left.length) {
+                split(left, offset + 1);
+            }
+        }
+
+        // 跳过 origin 之后标识更大的条目（更晚的并发插入及其后续插入）
+        Item previous = left;
+        Item candidate = left.next;
+        while (candidate != null
+                && CrdtId.compare(candidate.client, candidate.clock, id.getClient(), id.getClock()) > 0) {
+            previous = candidate;
+            candidate = candidate.next;
+        }
+
+        int position = visibleOffsetAfter(previous);
+        Item item = new Item(id.getClient(), id.getClock(), text.length(), origin, text, false);
+        if (previous == left && left != head && !left.deleted && item.continues(left)) {
+            // 连续输入：直接追加到左侧条目
+            left.content = left.content + text;
+            left.length += text.length();
+        } else {
+            link(previous, item);
+        }
+        maxClock = Math.max(maxClock, id.getClock() + text.length() - 1);
+        visibleLength += text.length();
+        return new Delta().retain(position).insert(text);
+    }
+
+    /**
+     * 集成删除操作，返回对可见文本产生的修改；已删除的字符不再重复计算
+     */
+    public Delta applyDelete(List<CrdtOperation.Range> ranges) {
+        Delta effect = new Delta();
+        if (ranges == null) {
+            return effect;
+        }
+        for (CrdtOperation.Range range : ranges) {
+            int clock = range.getClock();
+            int end = range.getClock() + range.getLength();
+            while (clock < end) {
+                Item item = find(range.getClient(), clock);
+                if (item == null) {
+                    throw new RuntimeException("CRDT 操作依赖的字符不存在: " + new CrdtId(range.getClient(), clock));
+                }
+                if (clock > item.clock) {
+                    item = split(item, clock - item.clock);
+                }
+                if (end < item.clock + item.length) {
+                    split(item, end - item.clock);
+                }
+                if (!item.deleted) {
+                    int position = visibleOffsetBefore(item);
+                    item.deleted = true;
+                    visibleLength -= item.length;
+                    effect = effect.compose(new Delta().retain(position).delete(item.length));
+                }
+                clock = item.clock + item.length;
+            }
+        }
+        return effect;
+    }
+
+    /**
+     * 应用一个 CRDT 操作
+     */
+    public Delta apply(CrdtOperation operation) {
+        if ("INSERT".equals(operation.getAction())) {
+            if (operation.getClient() == null || operation.getClock() == null) {
+                throw new RuntimeException("CRDT 插入操作缺少标识");
+            }
+            CrdtId origin = operation.getOriginClient() != null && operation.getOriginClock() != null
+                    ? new CrdtId(operation.getOriginClient(), operation.getOriginClock()) : null;
+            return applyInsert(new CrdtId(operation.getClient(), operation.getClock()), origin, operation.getText());
+        }
+        if ("DELETE".equals(operation.getAction())) {
+            return applyDelete(operation.getRanges());
+        }
+        throw new RuntimeException("未知的CRDT操作类型: " + operation.getAction());
+    }
+
+    /**
+     * 在可见位置 index 处生成并应用本地插入（用于按位置编辑的入口和测试）
+     */
+    public CrdtOperation insertAt(long client, int index, String text) {
+        CrdtId origin = index > 0 ? idAt(index - 1) : null;
+        CrdtId id = new CrdtId(client, maxClock + 1);
+        applyInsert(id, origin, text);
+        return CrdtOperation.insert(id, origin, text);
+    }
+
+    /**
+     * 删除可见范围 [index, index + length) 并返回对应的删除操作
+     */
+    public CrdtOperation deleteAt(int index, int length) {
+        List<CrdtOperation.Range> ranges = new ArrayList<>();
+        int skipped = 0;
+        int remaining = length;
+        for (Item item = head.next; item != null && remaining > 0; item = item.next) {
+            if (item.deleted) {
+                continue;
+            }
+            if (skipped + item.length <= index) {
+                skipped += item.length;
+                continue;
+            }
+            int from = Math.max(0, index - skipped);
+            int count = Math.min(item.length - from, remaining);
+            ranges.add(new CrdtOperation.Range(item.client, item.clock + from, count));
+            remaining -= count;
+            skipped += item.length;
+        }
+        applyDelete(ranges);
+        return CrdtOperation.delete(ranges);
+    }
+
+    /**
+     * 回收墓碑：丢弃已删除字符的文本，并合并标识连续的相邻条目
+     */
+    public void collectGarbage() {
+        Item previous = head.next;
+        if (previous == null) {
+            return;
+        }
+        if (previous.deleted) {
+            previous.content = null;
+        }
+        Item current = previous.next;
+        while (current != null) {
+            if (current.deleted) {
+                current.content = null;
+            }
+            if (current.deleted == previous.deleted && current.continues(previous)) {
+                if (!previous.deleted) {
+                    previous.content = previous.content + current.content;
+                }
+                previous.length += current.length;
+                previous.next = current.next;
+                itemsByClient.get(current.client).remove(current.clock);
+                itemCount--;
+            } else {
+                previous = current;
+            }
+            current = previous.next;
+        }
+    }
+
+    public String getText() {
+        StringBuilder sb = new StringBuilder(visibleLength);
+        for (Item item = head.next; item != null; item = item.next) {
+            if (!item.deleted) {
+                sb.append(item.content);
+            }
+        }
+        return sb.toString();
+    }
+
+    public int length() {
+        return visibleLength;
+    }
+
+    public int getMaxClock() {
+        return maxClock;
+    }
+
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    /**
+     * 紧凑二进制编码（变长整数），墓碑只保存标识与长度
+     */
+    public byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeVarLong(out, ENCODING_VERSION);
+            writeVarLong(out, maxClock);
+            writeVarLong(out, itemCount);
+            Item previous = null;
+            for (Item item = head.next; item != null; item = item.next) {
+                boolean implicitOrigin = item.origin != null && item.origin.getClient() == item.client
+                        && item.origin.getClock() == item.clock - 1;
+                int flags = (item.deleted ? FLAG_DELETED : 0)
+                        | (item.origin != null ? FLAG_HAS_ORIGIN : 0)
+                        | (implicitOrigin ? FLAG_IMPLICIT_ORIGIN : 0);
+                out.writeByte(flags);
+                // 与前一条目同一客户端时客户端ID写 0，多数条目只需一个字节
+                writeVarLong(out, previous != null && previous.client == item.client ? 0 : item.client + 1);
+                writeVarLong(out, item.clock);
+                writeVarLong(out, item.length);
+                if (item.origin != null && !implicitOrigin) {
+                    writeVarLong(out, item.origin.getClient());
+                    writeVarLong(out, item.origin.getClock());
+                }
+                if (!item.deleted) {
+                    byte[] text = item.content.getBytes(StandardCharsets.UTF_8);
+                    writeVarLong(out, text.length);
+                    out.write(text);
+                }
+                previous = item;
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("CRDT 文档编码失败", e);
+        }
+    }
+
+    public static RgaDocument decode(byte[] data) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            long encodingVersion = readVarLong(in);
+            if (encodingVersion != ENCODING_VERSION) {
+                throw new RuntimeException("不支持的CRDT编码版本: " + encodingVersion);
+            }
+            RgaDocument document = new RgaDocument();
+            document.maxClock = (int) readVarLong(in);
+            int count = (int) readVarLong(in);
+            Item tail = document.head;
+            long previousClient = 0;
+            for (int i = 0; i < count; i++) {
+                int flags = in.readUnsignedByte();
+                long clientField = readVarLong(in);
+                long client = clientField == 0 ? previousClient : clientField - 1;
+                int clock = (int) readVarLong(in);
+                int length = (int) readVarLong(in);
+                CrdtId origin = null;
+                if ((flags & FLAG_IMPLICIT_ORIGIN) != 0) {
+                    origin = new CrdtId(client, clock - 1);
+                } else if ((flags & FLAG_HAS_ORIGIN) != 0) {
+                    origin = new CrdtId(readVarLong(in), (int) readVarLong(in));
+                }
+                boolean deleted = (flags & FLAG_DELETED) != 0;
+                String content = null;
+                if (!deleted) {
+                    byte[] text = new byte[(int) readVarLong(in)];
+                    in.readFully(text);
+                    content = new String(text, StandardCharsets.UTF_8);
+                    document.visibleLength += length;
+                }
+                Item item = new Item(client, clock, length, origin, content, deleted);
+                document.link(tail, item);
+                tail = item;
+                previousClient = client;
+            }
+            return document;
+        } catch (IOException e) {
+            throw new RuntimeException("CRDT 文档解码失败", e);
+        }
+    }
+
+    public String toBase64() {
+        return Base64.getEncoder().encodeToString(encode());
+    }
+
+    public static RgaDocument fromBase64(String data) {
+        return decode(Base64.getDecoder().decode(data));
+    }
+
+    /**
+     * 包含字符 (client, clock) 的条目
+     */
+    private Item find(long client, int clock) {
+        TreeMap<Integer, Item> items = itemsByClient.get(client);
+        if (items == null) {
+            return null;
+        }
+        Map.Entry<Integer, Item> entry = items.floorEntry(clock);
+        if (entry == null || clock >= entry.getValue().clock + entry.getValue().length) {
+            return null;
+        }
+        return entry.getValue();
+    }
+
+    /**
+     * 可见位置 index 处字符的标识
+     */
+    private CrdtId idAt(int index) {
+        int skipped = 0;
+        for (Item item = head.next; item != null; item = item.next) {
+            if (item.deleted) {
+                continue;
+            }
+            if (index < skipped + item.length) {
+                return new CrdtId(item.client, item.clock + index - skipped);
+            }
+            skipped += item.length;
+        }
+        throw new RuntimeException("位置超出文档范围: " + index);
+    }
+
+    /**
+     * 将条目在 offset 处拆成两段，返回后一段
+     */
+    private Item split(Item item, int offset) {
+        Item right = new Item(item.client, item.clock + offset, item.length - offset,
+                new CrdtId(item.client, item.clock + offset - 1),
+                item.content != null ? item.content.substring(offset) : null, item.deleted);
+        if (item.content != null) {
+            item.content = item.content.substring(0, offset);
+        }
+        item.length = offset;
+        link(item, right);
+        return right;
+    }
+
+    private void link(Item previous, Item item) {
+        item.next = previous.next;
+        previous.next = item;
+        itemsByClient.computeIfAbsent(item.client, k -> new TreeMap<>()).put(item.clock, item);
+        itemCount++;
+    }
+
+    private int visibleOffsetBefore(Item target) {
+        int offset = 0;
+        for (Item item = head.next; item != null && item != target; item = item.next) {
+            if (!item.deleted) {
+                offset += item.length;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * target 之后（包括 target 本身）的第一个可见位置；target 为哨兵时为 0
+     */
+    private int visibleOffsetAfter(Item target) {
+        if (target == head) {
+            return 0;
+        }
+        return visibleOffsetBefore(target) + (target.deleted ? 0 : target.length);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.zsy.bysj.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.datatype.jsr310.ser.LocalDateTimeSerializer;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 文档摘要（文档列表使用，不含内容）
+ */
+@Data
+public class DocumentSummary {
+    private Long id;
+    private String title;
+    private Long creatorId;
+    private Integer version;
+    private String engineMode;
+    private Boolean isDeleted;
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    @JsonSerialize(using = LocalDateTimeSerializer.class)
+    private LocalDateTime createdAt;
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    @JsonSerialize(using = LocalDateTimeSerializer.class)
+    private LocalDateTime updatedAt;
+}
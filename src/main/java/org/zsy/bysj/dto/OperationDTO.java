@@ -1,6 +1,11 @@
 package org.zsy.bysj.dto;
 
 import lombok.Data;
+import org.zsy.bysj.algorithm.Delta;
+import org.zsy.bysj.algorithm.RichTextOperation;
+import org.zsy.bysj.crdt.CrdtOperation;
+
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -9,16 +14,38 @@ import java.util.Map;
  */
 @Data
 public class OperationDTO {
-    private String type; // INSERT/DELETE/RETAIN/FORMAT
+    private String type; // INSERT/DELETE/RETAIN/FORMAT/DELTA/CRDT
     private String data; // 插入的文本内容
     private Integer position; // 操作位置
     private Integer length; // 操作长度
     private Long timestamp; // 时间戳
     private Integer version; // 操作时的文档版本
+    private Integer baseVersion; // 客户端编辑时所基于的文档版本（最近一次确认的版本），服务端据此只转换之后提交的操作
     
     // 富文本相关属性
     private Map<String, Object> attributes; // 格式属性（粗体、斜体、颜色等）
     private String formatType; // 格式类型：BOLD, ITALIC, COLOR, FONT_SIZE等
     private Object formatValue; // 格式值
+
+    // Delta 操作（type 为 DELTA 时使用，一次用户动作对应一个 Delta）
+    private Delta delta;
+
+    // CRDT 操作（type 为 CRDT 时使用，仅 CRDT 模式的文档）
+    private CrdtOperation crdt;
+
+    /**
+     * 转换为格式操作：优先使用 attributes，未提供时由 formatType/formatValue 构造（formatValue 为null表示移除格式）
+     */
+    public RichTextOperation toFormatOperation() {
+        Map<String, Object> formatAttributes = attributes;
+        if ((formatAttributes == null || formatAttributes.isEmpty()) && formatType != null) {
+            formatAttributes = new HashMap<>();
+            formatAttributes.put(formatType, formatValue);
+        }
+        if (formatAttributes == null || formatAttributes.isEmpty()) {
+            throw new IllegalArgumentException("格式操作缺少格式属性");
+        }
+        return RichTextOperation.format(position != null ? position : 0, length != null ? length : 0, formatAttributes);
+    }
 }
 
@@ -0,0 +1,17 @@
+package org.zsy.bysj.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 文档需要客户端重新同步事件
+ * 由 DocumentSessionService 在加载会话后发现之前的持有者分配过未落库的版本号时发布（例如节点崩溃后接管），
+ * 协同服务收到后把会话的当前内容与版本广播给在线用户
+ */
+@Getter
+@AllArgsConstructor
+public class DocumentResyncEvent {
+    private final Long documentId;
+    private final int version;
+    private final String content;
+}
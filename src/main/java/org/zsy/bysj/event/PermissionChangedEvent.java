@@ -0,0 +1,15 @@
+package org.zsy.bysj.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 文档权限变更事件
+ * 由 PermissionService 在增删改权限后发布，用于清理各处的权限缓存
+ */
+@Getter
+@AllArgsConstructor
+public class PermissionChangedEvent {
+    private final Long documentId;
+    private final Long userId;
+}
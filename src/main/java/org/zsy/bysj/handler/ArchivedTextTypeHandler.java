@@ -0,0 +1,14 @@
+package org.zsy.bysj.handler;
+
+import org.zsy.bysj.util.ContentCodec;
+
+/**
+ * 历史版本内容的类型处理器：写入时按最高压缩级别压缩
+ */
+public class ArchivedTextTypeHandler extends CompressedTextTypeHandler {
+
+    @Override
+    protected int level() {
+        return ContentCodec.ARCHIVE_LEVEL;
+    }
+}
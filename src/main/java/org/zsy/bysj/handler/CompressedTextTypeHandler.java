@@ -0,0 +1,42 @@
+package org.zsy.bysj.handler;
+
+import org.apache.ibatis.type.BaseTypeHandler;
+import org.apache.ibatis.type.JdbcType;
+import org.zsy.bysj.util.ContentCodec;
+
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * 文档当前内容的类型处理器：写入时按热数据级别压缩，读取时解码
+ * 只在这里解码一次，实体字段始终是原文（以标记字符开头的原文解码后仍以标记字符开头，不能再次解码）；
+ * 不需要内容的查询应只选择所需的列
+ */
+public class CompressedTextTypeHandler extends BaseTypeHandler<String> {
+
+    protected int level() {
+        return ContentCodec.HOT_LEVEL;
+    }
+
+    @Override
+    public void setNonNullParameter(PreparedStatement ps, int i, String parameter, JdbcType jdbcType) throws SQLException {
+        ps.setString(i, ContentCodec.encode(parameter, level()));
+    }
+
+    @Override
+    public String getNullableResult(ResultSet rs, String columnName) throws SQLException {
+        return ContentCodec.decode(rs.getString(columnName));
+    }
+
+    @Override
+    public String getNullableResult(ResultSet rs, int columnIndex) throws SQLException {
+        return ContentCodec.decode(rs.getString(columnIndex));
+    }
+
+    @Override
+    public String getNullableResult(CallableStatement cs, int columnIndex) throws SQLException {
+        return ContentCodec.decode(cs.getString(columnIndex));
+    }
+}
@@ -0,0 +1,168 @@
+package org.zsy.bysj.journal;
+
+import org.zsy.bysj.archive.OperationRecordCodec;
+import org.zsy.bysj.model.DocumentOperation;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 本地操作日志的分段文件：创建时按固定大小预分配并整体映射到内存，追加只是一次内存拷贝
+ *
+ * 文件格式：
+ * <pre>
+ * 头部 MAGIC(int) FORMAT(int) 首条序号(long)
+ * 记录 负载长度(int) CRC32(int) 负载：序号(long) 文档ID(long) 操作记录（{@link OperationRecordCodec}）
+ * </pre>
+ * 预分配的空间全为 0，读到长度为 0、校验和不符或序号不连续的记录即视为日志末尾（进程崩溃时写了一半的记录）。
+ * 写入的内容在进程崩溃后仍保留在操作系统页缓存中；调用 {@link #force()} 后才能在断电后保留。
+ */
+public final class JournalSegment {
+
+    private static final int MAGIC = 0x4F504A4E; // "OPJN"
+    private static final int FORMAT = 1;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES + Long.BYTES;
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+
+    /**
+     * 扫描分段时逐条接收有效记录
+     */
+    public interface Visitor {
+        void accept(long sequence, DocumentOperation operation);
+    }
+
+    private final Path file;
+    private final long firstSequence;
+    private MappedByteBuffer buffer; // 只读扫描后或写满封存后为null
+    private int position = HEADER_SIZE;
+    private long lastSequence;
+    private final Map<Long, Long> documentSequence = new HashMap<>(); // 文档ID -> 段内该文档的最大序号
+
+    private JournalSegment(Path file, long firstSequence) {
+        this.file = file;
+        this.firstSequence = firstSequence;
+        this.lastSequence = firstSequence - 1;
+    }
+
+    /**
+     * 创建并预分配新的分段，用于追加
+     */
+    public static JournalSegment create(Path file, long firstSequence, int size) throws IOException {
+        JournalSegment segment = new JournalSegment(file, firstSequence);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // 映射超出文件长度时文件被扩展到映射大小
+            segment.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        segment.buffer.putInt(0, MAGIC).putInt(Integer.BYTES, FORMAT).putLong(2 * Integer.BYTES, firstSequence);
+        segment.buffer.force();
+        return segment;
+    }
+
+    /**
+     * 扫描已有分段中的全部有效记录（启动恢复时使用），返回的分段只保留统计信息，不再追加
+     */
+    public static JournalSegment scan(Path file, Visitor visitor) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("操作日志分段文件格式错误: " + file);
+        }
+        JournalSegment segment = new JournalSegment(file, buffer.getLong(2 * Integer.BYTES));
+        CRC32 crc = new CRC32();
+        int position = HEADER_SIZE;
+        while (position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length < 2 * Long.BYTES || length > buffer.capacity() - position - RECORD_HEADER_SIZE) {
+                break;
+            }
+            int checksum = buffer.getInt(position + Integer.BYTES);
+            byte[] payload = new byte[length];
+            buffer.get(position + RECORD_HEADER_SIZE, payload);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            long sequence = in.readLong();
+            if (sequence != segment.lastSequence + 1) {
+                break;
+            }
+            long documentId = in.readLong();
+            visitor.accept(sequence, OperationRecordCodec.read(documentId, in));
+            segment.record(sequence, documentId);
+            position += RECORD_HEADER_SIZE + length;
+        }
+        segment.position = position;
+        return segment;
+    }
+
+    /**
+     * 追加一条记录，剩余空间不足时返回 false
+     *
+     * @param payload 序号、文档ID与操作记录的编码
+     */
+    public boolean append(long sequence, long documentId, byte[] payload) {
+        if (buffer == null || position + RECORD_HEADER_SIZE + payload.length > buffer.capacity()) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        buffer.put(position + RECORD_HEADER_SIZE, payload);
+        buffer.putInt(position + Integer.BYTES, (int) crc.getValue());
+        // 长度最后写入，长度非 0 时负载已完整写入
+        buffer.putInt(position, payload.length);
+        position += RECORD_HEADER_SIZE + payload.length;
+        record(sequence, documentId);
+        return true;
+    }
+
+    /**
+     * 把已写入的内容刷到磁盘
+     */
+    public void force() {
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * 刷盘后不再追加，释放映射（由 GC 回收）
+     */
+    public void seal() {
+        force();
+        buffer = null;
+    }
+
+    private void record(long sequence, long documentId) {
+        lastSequence = sequence;
+        documentSequence.put(documentId, sequence);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public long getFirstSequence() {
+        return firstSequence;
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    public Map<Long, Long> getDocumentSequence() {
+        return documentSequence;
+    }
+}
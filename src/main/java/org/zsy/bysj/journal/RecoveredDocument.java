@@ -0,0 +1,18 @@
+package org.zsy.bysj.journal;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.zsy.bysj.model.DocumentOperation;
+
+import java.util.List;
+
+/**
+ * 启动时从本地操作日志中找到的、检查点之后的一个文档的操作
+ */
+@Getter
+@AllArgsConstructor
+public class RecoveredDocument {
+    private final Long documentId;
+    private final List<DocumentOperation> operations; // 按写入顺序（即版本升序）
+    private final long lastSequence; // 其中最后一条的日志序号
+}
@@ -0,0 +1,32 @@
+package org.zsy.bysj.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.zsy.bysj.model.DocumentBlock;
+
+import java.util.List;
+
+/**
+ * 文档内容分块Mapper接口
+ */
+@Mapper
+public interface DocumentBlockMapper extends BaseMapper<DocumentBlock> {
+
+    /**
+     * 按顺序查询文档所有分块的标识信息（不含内容）
+     */
+    List<DocumentBlock> selectRefs(@Param("documentId") Long documentId);
+
+    /**
+     * 按排序键分页读取分块内容（afterSortKey 之后的 limit 块）
+     */
+    List<DocumentBlock> selectPage(@Param("documentId") Long documentId,
+                                   @Param("afterSortKey") Long afterSortKey,
+                                   @Param("limit") int limit);
+
+    /**
+     * 多行批量插入分块
+     */
+    int insertBatch(@Param("blocks") List<DocumentBlock> blocks);
+}
@@ -3,8 +3,10 @@ package org.zsy.bysj.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
+import org.zsy.bysj.dto.DocumentSummary;
 import org.zsy.bysj.model.Document;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 /**
@@ -14,10 +16,23 @@ import java.util.List;
 public interface DocumentMapper extends BaseMapper<Document> {
 
     /**
-     * 查询回收站（已删除文档），用于绕过 MyBatis-Plus 可能注入的逻辑删除过滤。
-     * 注意：这里必须使用自定义 SQL，避免 selectList/selectById 自动带上 is_deleted=0 的条件。
+     * 按创建者查询文档摘要（不含内容），按 (updated_at, id) 降序键集分页：
+     * 传入上一页最后一条的 updatedAt/id 时只返回排在其后的记录，limit 为空时不限条数。
+     * 注意：这里必须使用自定义 SQL，回收站查询 deleted=1 时要绕过 MyBatis-Plus 注入的 is_deleted=0 条件。
      */
-    List<Document> selectDeletedDocumentsByCreatorId(@Param("userId") Long userId);
+    List<DocumentSummary> selectSummariesByCreatorId(@Param("userId") Long userId,
+                                                     @Param("deleted") int deleted,
+                                                     @Param("beforeUpdatedAt") LocalDateTime beforeUpdatedAt,
+                                                     @Param("beforeId") Long beforeId,
+                                                     @Param("limit") Integer limit);
+
+    /**
+     * 查询通过权限表共享给用户的未删除文档的摘要（关联权限表），分页方式同上
+     */
+    List<DocumentSummary> selectSharedSummaries(@Param("userId") Long userId,
+                                                @Param("beforeUpdatedAt") LocalDateTime beforeUpdatedAt,
+                                                @Param("beforeId") Long beforeId,
+                                                @Param("limit") Integer limit);
 
     /**
      * 物理删除文档（不可恢复）
@@ -2,12 +2,46 @@ package org.zsy.bysj.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 import org.zsy.bysj.model.DocumentOperation;
 
+import java.util.List;
+
 /**
  * 文档操作Mapper接口
  */
 @Mapper
 public interface DocumentOperationMapper extends BaseMapper<DocumentOperation> {
-}
 
+    /**
+     * 多行批量插入操作记录（同一版本已有记录时覆盖）
+     */
+    int insertBatch(@Param("operations") List<DocumentOperation> operations);
+
+    /**
+     * 按版本范围 (fromRevision, toRevision] 读取操作记录，按版本升序；
+     * toRevision、limit 为空时不限。沿主键 (document_id, revision) 范围扫描
+     */
+    List<DocumentOperation> selectRange(@Param("documentId") Long documentId,
+                                        @Param("fromRevision") Integer fromRevision,
+                                        @Param("toRevision") Integer toRevision,
+                                        @Param("limit") Integer limit);
+
+    /**
+     * 删除指定版本之后的操作记录（回滚后旧的版本号会被重新使用）
+     */
+    int deleteAfterRevision(@Param("documentId") Long documentId, @Param("revision") Integer revision);
+
+    /**
+     * 删除指定版本及之前的操作记录（已写入归档分段后调用）
+     */
+    int deleteUpToRevision(@Param("documentId") Long documentId, @Param("revision") Integer revision);
+
+    /**
+     * 按文档ID升序查询 afterDocumentId 之后操作记录条数不少于 minRows 的文档，最多 limit 个
+     * （返回的记录只含 documentId 与文档当前版本号 revision），供归档任务分批使用
+     */
+    List<DocumentOperation> selectArchiveCandidates(@Param("afterDocumentId") Long afterDocumentId,
+                                                    @Param("minRows") int minRows,
+                                                    @Param("limit") int limit);
+}
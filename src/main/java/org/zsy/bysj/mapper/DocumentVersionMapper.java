@@ -2,12 +2,49 @@ package org.zsy.bysj.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 import org.zsy.bysj.model.DocumentVersion;
 
+import java.util.List;
+
 /**
  * 文档版本Mapper接口
  */
 @Mapper
 public interface DocumentVersionMapper extends BaseMapper<DocumentVersion> {
-}
 
+    /**
+     * 查询文档所有版本记录（按版本号降序）
+     */
+    List<DocumentVersion> selectByDocumentId(@Param("documentId") Long documentId);
+
+    /**
+     * 查询指定版本号的记录（可能有重复记录，最新写入的在前）
+     */
+    List<DocumentVersion> selectByVersion(@Param("documentId") Long documentId,
+                                          @Param("version") Integer version);
+
+    /**
+     * 在当前事务中锁定文档行（SELECT ... FOR UPDATE），同一文档的版本写入在事务提交前互斥
+     */
+    Long lockDocument(@Param("documentId") Long documentId);
+
+    /**
+     * 查询文档最近写入的一条版本记录
+     */
+    DocumentVersion selectLatest(@Param("documentId") Long documentId);
+
+    /**
+     * 查询以指定记录为基准存储差量的版本记录
+     */
+    List<DocumentVersion> selectDependents(@Param("baseId") Long baseId);
+
+    /**
+     * 修改版本记录的存储方式与内容（content 需由调用方预先编码）
+     */
+    int updateStorage(@Param("id") Long id,
+                      @Param("storageType") String storageType,
+                      @Param("baseId") Long baseId,
+                      @Param("chainLength") Integer chainLength,
+                      @Param("content") String content);
+}
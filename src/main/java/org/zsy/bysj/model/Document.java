@@ -1,26 +1,38 @@
 package org.zsy.bysj.model;
 
 import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
 import com.baomidou.mybatisplus.annotation.TableId;
 import com.baomidou.mybatisplus.annotation.TableName;
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.fasterxml.jackson.datatype.jsr310.ser.LocalDateTimeSerializer;
 import lombok.Data;
+import org.zsy.bysj.handler.CompressedTextTypeHandler;
 import java.time.LocalDateTime;
 
 /**
  * 文档实体类
  */
 @Data
-@TableName("document")
+@TableName(value = "document", autoResultMap = true)
 public class Document {
     @TableId(type = IdType.AUTO)
     private Long id;
     private String title;
-    private String content; // JSON格式存储文档内容
+    @TableField(typeHandler = CompressedTextTypeHandler.class)
+    private String content; // JSON格式存储文档内容（分块存储时数据库中为空，读取时由分块拼接）
+    @JsonIgnore
+    private String contentLayout; // 内容存储方式：INLINE（content 列，默认）/BLOCK（document_block 分块）
+    private String formatSpans; // 格式区间（JSON，由 FORMAT 操作维护）
+    private String engineMode; // 协同引擎：OT（默认）/CRDT
+    @JsonIgnore
+    private String crdtState; // CRDT 模式下的文档状态（紧凑编码，Base64）
     private Long creatorId;
     private Integer version;
+    @JsonIgnore
+    private Long fencingToken; // 最近一次落库时持有的文档锁令牌（LOCK 模式）
     private Boolean isDeleted;
     @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
     @JsonSerialize(using = LocalDateTimeSerializer.class)
@@ -29,4 +41,3 @@ public class Document {
     @JsonSerialize(using = LocalDateTimeSerializer.class)
     private LocalDateTime updatedAt;
 }
-
@@ -0,0 +1,23 @@
+package org.zsy.bysj.model;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * 文档内容分块实体类（文档以分块方式存储时，按 sortKey 顺序拼接即为完整内容）
+ */
+@Data
+@TableName("document_block")
+public class DocumentBlock {
+    @TableId(type = IdType.AUTO)
+    private Long id;
+    private Long documentId;
+    private Long sortKey; // 排序键（稀疏分配，插入新块时取相邻两块之间的值）
+    private String content;
+    private Long contentHash; // 内容哈希，用于比对哪些块发生了变化
+    private Integer length;
+    private LocalDateTime updatedAt;
+}
@@ -16,12 +16,13 @@ public class DocumentOperation {
     private Long id;
     private Long documentId;
     private Long userId;
-    private String operationType; // INSERT/DELETE/RETAIN
-    private String operationData; // JSON格式
+    private String operationType; // INSERT/DELETE/RETAIN/DELTA/FORMAT
+    private String operationData; // JSON格式（DELTA 操作为 {"ops":[...]}，FORMAT 操作为格式属性）
     private Integer position;
     private Integer length;
     private Long timestamp;
-    private Integer version;
+    private Integer version; // 操作应用前的文档版本（基准版本）
+    private Integer revision; // 操作提交后的文档版本，与 document_id 组成主键，每个版本一行
     private LocalDateTime createdAt;
 }
 
@@ -1,24 +1,34 @@
 package org.zsy.bysj.model;
 
 import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
 import com.baomidou.mybatisplus.annotation.TableId;
 import com.baomidou.mybatisplus.annotation.TableName;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
+import org.zsy.bysj.handler.ArchivedTextTypeHandler;
 import java.time.LocalDateTime;
 
 /**
  * 文档版本实体类
  */
 @Data
-@TableName("document_version")
+@TableName(value = "document_version", autoResultMap = true)
 public class DocumentVersion {
     @TableId(type = IdType.AUTO)
     private Long id;
     private Long documentId;
     private Integer version;
+    @TableField(typeHandler = ArchivedTextTypeHandler.class)
     private String content;
-    private String snapshot; // JSON格式的快照
+    @TableField(typeHandler = ArchivedTextTypeHandler.class)
+    private String snapshot; // JSON格式的快照（文档元数据与该版本的操作，内容只存于 content）
+    @JsonIgnore
+    private String storageType; // FULL：content 为完整内容；DELTA：content 为作用于 baseId 记录内容的反向差量（Delta JSON）
+    @JsonIgnore
+    private Long baseId;
+    @JsonIgnore
+    private Integer chainLength; // FULL 记录下方依赖它的差量记录数（差量链长度）
     private Long createdBy;
     private LocalDateTime createdAt;
 }
-
@@ -0,0 +1,73 @@
+package org.zsy.bysj.service;
+
+import org.zsy.bysj.dto.WebSocketMessage;
+
+/**
+ * 集群文档归属服务接口
+ * 节点成员记录在Redis中，按一致性哈希环把每个文档分配给唯一的节点，由该节点持有内存会话并排序编辑；
+ * 其他节点把操作转发给所属节点，所属节点的广播再转发回各节点的 WebSocket 订阅者
+ */
+public interface ClusterService {
+
+    /**
+     * 是否启用集群模式（collab.cluster.enabled），未启用时本节点处理所有文档
+     */
+    boolean isEnabled();
+
+    /**
+     * 当前节点ID
+     */
+    String getNodeId();
+
+    /**
+     * 按哈希环计算文档所属的节点ID
+     */
+    String ownerOf(Long documentId);
+
+    /**
+     * 按哈希环判断文档是否属于当前节点
+     */
+    boolean isOwner(Long documentId);
+
+    /**
+     * 声明持有文档会话：没有节点持有时由当前节点持有
+     * @param documentId 文档ID
+     * @return 持有会话的节点ID（可能是其他尚未交出会话的节点）
+     */
+    String claim(Long documentId);
+
+    /**
+     * 交出文档会话（会话已落库并移除后调用）
+     */
+    void release(Long documentId);
+
+    /**
+     * 把操作转发给指定节点，由该节点直接处理（不再按哈希环转发）
+     */
+    void forward(String nodeId, WebSocketMessage message);
+
+    /**
+     * 把文档广播转发给其他节点，由它们发给本节点上的订阅者
+     */
+    void relayBroadcast(Long documentId, WebSocketMessage message);
+
+    /**
+     * 注册集群事件处理器（协同服务启动时调用）
+     */
+    void setListener(Listener listener);
+
+    /**
+     * 集群事件处理器
+     */
+    interface Listener {
+        /**
+         * 收到其他节点转发来的操作
+         */
+        void onForwardedOperation(WebSocketMessage message);
+
+        /**
+         * 成员变化后本节点不再拥有已加载的文档，需要落库并交出会话
+         */
+        void onOwnershipLost(Long documentId);
+    }
+}
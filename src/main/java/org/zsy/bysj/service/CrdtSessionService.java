@@ -0,0 +1,67 @@
+package org.zsy.bysj.service;
+
+import org.zsy.bysj.algorithm.Delta;
+import org.zsy.bysj.crdt.CrdtOperation;
+import org.zsy.bysj.session.CrdtDocumentSession;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * CRDT 文档会话服务接口
+ * 管理 CRDT 模式文档在当前节点上的内存会话：操作无需加锁排序即可集成，落库在后台异步完成
+ */
+public interface CrdtSessionService {
+
+    /**
+     * 获取（必要时从数据库加载）CRDT 会话，文档不存在时返回null，文档未启用 CRDT 模式时抛出异常
+     */
+    CrdtDocumentSession getSession(Long documentId);
+
+    /**
+     * 获取已加载的 CRDT 会话，不触发加载
+     */
+    CrdtDocumentSession peekSession(Long documentId);
+
+    /**
+     * 当前节点已加载会话的文档ID
+     */
+    Set<Long> getLoadedDocumentIds();
+
+    /**
+     * 集成客户端发来的 CRDT 操作
+     */
+    CrdtDocumentSession.Applied applyOperation(Long documentId, Long userId, CrdtOperation operation);
+
+    /**
+     * 文档是否为 CRDT 模式（已加载 CRDT 会话，或数据库中的协同模式为 CRDT）
+     */
+    boolean isCrdtDocument(Long documentId);
+
+    /**
+     * 应用按位置编辑的客户端发来的 Delta：相对 baseVersion 之后的修改转换后，由服务端生成 CRDT 操作集成
+     *
+     * @return 生成的每个 CRDT 操作及其对可见文本的修改
+     */
+    List<CrdtDocumentSession.Applied> applyDelta(Long documentId, Long userId, Delta delta, Integer baseVersion);
+
+    /**
+     * 分配一个全局唯一的 CRDT 客户端ID（每个编辑器实例一个）
+     */
+    long allocateClientId();
+
+    /**
+     * 立即将会话中未落库的修改写入数据库
+     */
+    void flush(Long documentId);
+
+    /**
+     * 落库并移除会话（文档内容被整体替换或引擎模式切换前调用）
+     */
+    void invalidate(Long documentId);
+
+    /**
+     * 直接移除会话，不落库（文档被彻底删除时调用）
+     */
+    void discard(Long documentId);
+}
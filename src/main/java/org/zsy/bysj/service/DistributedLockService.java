@@ -1,5 +1,6 @@
 package org.zsy.bysj.service;
 
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -34,14 +35,36 @@ public interface DistributedLockService {
      * 释放文档操作锁
      */
     boolean releaseDocumentLock(Long documentId, Long userId);
-    
+
     /**
-     * 获取下一个操作序列号
+     * 获取本节点当前持有的文档锁令牌（fencing token）
+     * 令牌随每次获取单调递增，写入时携带，令牌较小的写入会被拒绝
+     * @param documentId 文档ID
+     * @return 令牌，未持有锁时返回0
      */
-    Long getNextSequence(Long documentId);
+    long getFencingToken(Long documentId);
     
     /**
-     * 获取当前操作序列号
+     * 租用一段文档版本号：把已租用的版本号上界提高到 max(当前上界, revision) + count
+     * 版本号本身由持有会话的节点连续分配（与 document.version 为同一个计数），租约只保证
+     * Redis中的上界不小于任何节点已分配的版本号，每 count 个版本才访问一次Redis
+     * @param documentId 文档ID
+     * @param revision 会话当前版本
+     * @param count 租用的版本数
+     * @return 租用前的上界（大于 revision 说明此前有节点分配过尚未落库的版本号）
+     */
+    long leaseRevisions(Long documentId, int revision, int count);
+
+    /**
+     * 归还未用完的版本号租约：上界仍为 leasedRevision（之后没有其他节点租用）时降回已落库的版本
+     * @param documentId 文档ID
+     * @param leasedRevision 本节点租到的上界
+     * @param revision 已落库的版本
+     */
+    void releaseRevisions(Long documentId, int leasedRevision, int revision);
+
+    /**
+     * 获取当前已租用的版本号上界
      */
     Long getCurrentSequence(Long documentId);
 
@@ -60,6 +83,14 @@ public interface DistributedLockService {
      */
     String dequeueOperation(Long documentId);
 
+    /**
+     * 一次取出锁队列头部最多 max 个等待的操作（持锁者批量处理）
+     * @param documentId 文档ID
+     * @param max 最多取出的条数
+     * @return 按入队顺序排列的操作数据，队列为空时返回空列表
+     */
+    List<String> dequeueOperations(Long documentId, int max);
+
     /**
      * 获取锁队列长度
      * @param documentId 文档ID
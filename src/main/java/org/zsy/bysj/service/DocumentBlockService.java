@@ -0,0 +1,36 @@
+package org.zsy.bysj.service;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * 文档内容分块存储服务接口
+ * 文档内容切分为若干块存入 document_block 表，编辑后只改写发生变化的块
+ */
+public interface DocumentBlockService {
+
+    /**
+     * 新写入的内容是否使用分块存储（collab.storage.block-layout）
+     */
+    boolean isEnabled();
+
+    /**
+     * 将文档内容写入分块表：与上次写入的分块比对，只更新、插入或删除变化的块
+     */
+    void writeContent(Long documentId, String content);
+
+    /**
+     * 读取并拼接文档的全部分块
+     */
+    String readContent(Long documentId);
+
+    /**
+     * 按顺序逐页读取分块并写出，不在内存中拼接完整内容
+     */
+    void streamContent(Long documentId, Writer writer) throws IOException;
+
+    /**
+     * 丢弃缓存的分块标识信息（会话移除或内容被整体替换后调用，下次写入时从数据库重新读取）
+     */
+    void evict(Long documentId);
+}
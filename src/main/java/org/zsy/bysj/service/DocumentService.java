@@ -1,9 +1,13 @@
 package org.zsy.bysj.service;
 
+import org.zsy.bysj.dto.DocumentSummary;
 import org.zsy.bysj.model.Document;
 import org.zsy.bysj.model.DocumentOperation;
 import org.zsy.bysj.model.DocumentVersion;
 import org.zsy.bysj.algorithm.Operation;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
 import java.util.List;
 
 /**
@@ -20,6 +24,16 @@ public interface DocumentService {
      * 根据ID获取文档
      */
     Document getDocumentById(Long documentId);
+
+    /**
+     * 获取文档标题（只查询标题，不读取内容；文档不存在时返回null）
+     */
+    String getDocumentTitle(Long documentId);
+
+    /**
+     * 将文档当前内容写出到 writer（分块存储的文档逐块写出，不拼接完整内容）
+     */
+    void streamDocumentContent(Long documentId, Writer writer) throws IOException;
     
     /**
      * 更新文档内容
@@ -37,14 +51,15 @@ public interface DocumentService {
     List<DocumentOperation> getDocumentOperations(Long documentId, Integer fromVersion);
     
     /**
-     * 获取用户的所有文档（创建的）
+     * 获取用户创建的文档摘要（不含内容）
+     * 按更新时间降序，beforeUpdatedAt/beforeId 为上一页最后一条（为空表示第一页），limit 为空时返回全部
      */
-    List<Document> getUserDocuments(Long userId);
+    List<DocumentSummary> getUserDocuments(Long userId, LocalDateTime beforeUpdatedAt, Long beforeId, Integer limit);
     
     /**
-     * 获取用户被共享的文档
+     * 获取用户被共享的文档摘要（不含内容），分页方式同上
      */
-    List<Document> getSharedDocuments(Long userId);
+    List<DocumentSummary> getSharedDocuments(Long userId, LocalDateTime beforeUpdatedAt, Long beforeId, Integer limit);
     
     /**
      * 删除文档
@@ -62,9 +77,9 @@ public interface DocumentService {
     void restoreDocument(Long documentId, Long userId);
 
     /**
-     * 获取当前用户的“已删除文档”（回收站）
+     * 获取当前用户的“已删除文档”摘要（回收站，不含内容），分页方式同上
      */
-    List<Document> getDeletedDocuments(Long userId);
+    List<DocumentSummary> getDeletedDocuments(Long userId, LocalDateTime beforeUpdatedAt, Long beforeId, Integer limit);
 
     /**
      * 彻底删除文档（不可恢复）
@@ -90,5 +105,9 @@ public interface DocumentService {
      * 回滚到指定版本
      */
     Document rollbackToVersion(Long documentId, Integer targetVersion, Long userId);
-}
 
+    /**
+     * 切换文档协同模式（OT / CRDT）
+     */
+    void updateEngineMode(Long documentId, String mode, Long userId);
+}
@@ -0,0 +1,63 @@
+package org.zsy.bysj.service;
+
+import org.zsy.bysj.algorithm.Delta;
+import org.zsy.bysj.algorithm.Operation;
+import org.zsy.bysj.algorithm.RichTextOperation;
+import org.zsy.bysj.session.CommittedOperation;
+import org.zsy.bysj.session.DocumentSession;
+
+import java.util.Set;
+
+/**
+ * 文档编辑会话服务接口
+ * 管理每个文档在当前节点上的内存会话，负责操作的内存应用与后台落库
+ */
+public interface DocumentSessionService {
+
+    /**
+     * 获取（必要时从数据库加载）文档会话，文档不存在或已删除时返回null
+     */
+    DocumentSession getSession(Long documentId);
+
+    /**
+     * 获取已加载的文档会话，不触发加载
+     */
+    DocumentSession peekSession(Long documentId);
+
+    /**
+     * 当前节点已加载会话的文档ID
+     */
+    Set<Long> getLoadedDocumentIds();
+
+    /**
+     * 在内存会话中应用操作，返回实际提交的操作
+     *
+     * @param baseVersion 客户端编辑时所基于的文档版本，为null时直接应用到当前版本（不做转换）
+     */
+    CommittedOperation applyOperation(Long documentId, Long userId, Operation operation, Integer baseVersion);
+
+    /**
+     * 在内存会话中应用 Delta 操作，语义与 applyOperation 相同
+     */
+    CommittedOperation applyDelta(Long documentId, Long userId, Delta delta, Integer baseVersion);
+
+    /**
+     * 在内存会话中应用格式操作（FORMAT），只更新格式区间并记录操作日志，语义与 applyOperation 相同
+     */
+    CommittedOperation applyFormat(Long documentId, Long userId, RichTextOperation format, Integer baseVersion);
+
+    /**
+     * 立即将会话中未落库的修改写入数据库
+     */
+    void flush(Long documentId);
+
+    /**
+     * 落库并移除会话（文档内容被整体替换、回滚或删除前调用）
+     */
+    void invalidate(Long documentId);
+
+    /**
+     * 直接丢弃会话，不落库（彻底删除文档时调用）
+     */
+    void discard(Long documentId);
+}
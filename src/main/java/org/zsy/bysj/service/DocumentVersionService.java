@@ -0,0 +1,27 @@
+package org.zsy.bysj.service;
+
+import org.zsy.bysj.model.DocumentVersion;
+
+import java.util.List;
+
+/**
+ * 文档版本存储服务接口
+ * 最新的版本保存完整内容，较早的版本保存相对后一个版本的反向差量，每隔若干个版本保留一个完整关键帧
+ */
+public interface DocumentVersionService {
+
+    /**
+     * 保存版本快照（content 为该版本的完整内容）：同一版本号已存在时覆盖，否则作为最新版本追加
+     */
+    void saveVersion(DocumentVersion version);
+
+    /**
+     * 获取文档所有版本（按版本号降序，content 为完整内容）
+     */
+    List<DocumentVersion> listVersions(Long documentId);
+
+    /**
+     * 获取指定版本（content 为完整内容），不存在时返回 null
+     */
+    DocumentVersion getVersion(Long documentId, Integer version);
+}
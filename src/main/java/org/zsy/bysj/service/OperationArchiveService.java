@@ -0,0 +1,37 @@
+package org.zsy.bysj.service;
+
+import org.zsy.bysj.model.DocumentOperation;
+
+import java.util.List;
+
+/**
+ * 操作日志归档服务接口
+ * 较早的操作记录从 document_operation 表移入本地磁盘上压缩的只读分段文件，读取时通过内存映射访问
+ */
+public interface OperationArchiveService {
+
+    /**
+     * 把各文档较早的操作记录移入归档分段（定时任务，collab.archive.enabled 开启时执行）
+     */
+    void archiveOldOperations();
+
+    /**
+     * 已归档的最大版本号：该版本及之前的记录以归档分段为准，没有归档时为 0
+     */
+    int getArchivedRevision(Long documentId);
+
+    /**
+     * 从归档分段读取版本范围 (fromRevision, toRevision] 内的记录（按版本升序，limit 为空时不限）
+     */
+    List<DocumentOperation> readArchived(Long documentId, int fromRevision, int toRevision, Integer limit);
+
+    /**
+     * 删除指定版本之后的归档记录（回滚后旧的版本号会被重新使用）
+     */
+    void truncateAfter(Long documentId, int revision);
+
+    /**
+     * 删除文档的全部归档（文档被彻底删除时调用）
+     */
+    void discard(Long documentId);
+}
@@ -0,0 +1,21 @@
+package org.zsy.bysj.service;
+
+import org.zsy.bysj.dto.WebSocketMessage;
+
+/**
+ * 操作合并服务接口
+ * 位于操作处理流程的入口，把同一用户在短时间窗口内连续输入/删除的操作合并后再交给协同服务处理
+ */
+public interface OperationCoalescingService {
+
+    /**
+     * 提交客户端发来的操作消息
+     * 可合并的操作会在窗口内暂存，窗口到期、遇到不可合并的操作或达到批量上限时再统一处理
+     */
+    void submit(WebSocketMessage message);
+
+    /**
+     * 立即处理指定用户在文档中暂存的操作
+     */
+    void flush(Long documentId, Long userId);
+}
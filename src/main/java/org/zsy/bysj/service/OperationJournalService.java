@@ -0,0 +1,44 @@
+package org.zsy.bysj.service;
+
+import org.zsy.bysj.journal.RecoveredDocument;
+import org.zsy.bysj.model.DocumentOperation;
+
+import java.util.List;
+
+/**
+ * 本地操作日志服务接口
+ * 已提交的操作在确认给客户端之前先追加到本节点内存映射、带校验和的日志文件中；
+ * 检查点记录各文档已写入数据库的位置，节点崩溃重启后把检查点之后的操作重放回文档会话
+ */
+public interface OperationJournalService {
+
+    /**
+     * 是否启用（collab.journal.enabled）
+     */
+    boolean isEnabled();
+
+    /**
+     * 追加一条已提交的操作，返回日志序号；未启用或写入失败时返回 0（写入失败只记录日志，不影响编辑）
+     */
+    long append(DocumentOperation operation);
+
+    /**
+     * 文档落库成功：序号不超过 sequence 的记录在操作记录也写入数据库后不再需要重放
+     */
+    void markFlushed(Long documentId, long sequence);
+
+    /**
+     * 文档的日志记录全部作废（会话被丢弃、文档被替换或删除），之前的记录不再重放
+     */
+    void discard(Long documentId);
+
+    /**
+     * 取出启动时扫描到的、检查点之后的操作（只返回一次）
+     */
+    List<RecoveredDocument> takeRecovered();
+
+    /**
+     * 写入检查点并删除已全部落库的分段文件（定时任务）
+     */
+    void checkpoint();
+}
@@ -0,0 +1,42 @@
+package org.zsy.bysj.service;
+
+import org.zsy.bysj.model.DocumentOperation;
+
+import java.util.List;
+
+/**
+ * 操作日志服务接口
+ * 缓冲待写入的 document_operation 记录，由后台线程按文档顺序批量写入数据库；
+ * 读取时合并归档分段与数据库中的记录
+ */
+public interface OperationLogService {
+
+    /**
+     * 追加同一文档的操作记录（按版本顺序）
+     * 队列已满时最多阻塞 collab.oplog.offer-timeout-ms，返回实际接收的条数，未接收的部分由调用方稍后重试
+     */
+    int append(Long documentId, List<DocumentOperation> operations);
+
+    /**
+     * 等待指定文档已接收的操作记录全部写入数据库（读取操作日志前调用）
+     *
+     * @return 超时仍未写完时返回 false
+     */
+    boolean awaitWritten(Long documentId, long timeoutMs);
+
+    /**
+     * 读取版本范围 (fromRevision, toRevision] 内的操作记录，按版本升序（toRevision、limit 为空时不限）：
+     * 已归档的部分从归档分段读取，其余从数据库读取
+     */
+    List<DocumentOperation> readRange(Long documentId, int fromRevision, Integer toRevision, Integer limit);
+
+    /**
+     * 删除指定版本之后的操作记录（数据库与归档，回滚后调用）
+     */
+    void truncateAfter(Long documentId, int revision);
+
+    /**
+     * 丢弃指定文档尚未写入的操作记录及其归档（文档被彻底删除时调用）
+     */
+    void discard(Long documentId);
+}
@@ -3,6 +3,7 @@ package org.zsy.bysj.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import org.zsy.bysj.model.DocumentPermission;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 权限服务接口
@@ -28,6 +29,11 @@ public interface PermissionService extends IService<DocumentPermission> {
      * 删除文档权限
      */
     void removePermission(Long documentId, Long userId);
+
+    /**
+     * 删除文档的所有权限（彻底删除文档时），并清除相关用户的成员关系缓存
+     */
+    void removeDocumentPermissions(Long documentId);
     
     /**
      * 获取文档的所有权限
@@ -38,5 +44,11 @@ public interface PermissionService extends IService<DocumentPermission> {
      * 获取用户的所有权限
      */
     List<DocumentPermission> getUserPermissions(Long userId);
+
+    /**
+     * 获取用户的成员关系（文档ID -> 权限类型，不含自己创建的文档）
+     * 缓存在 Redis 中，权限增删改提交后失效
+     */
+    Map<Long, String> getUserMemberships(Long userId);
 }
 
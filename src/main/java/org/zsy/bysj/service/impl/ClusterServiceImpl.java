@@ -0,0 +1,329 @@
+package org.zsy.bysj.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.zsy.bysj.cluster.ConsistentHashRing;
+import org.zsy.bysj.constant.RedisKeyConstant;
+import org.zsy.bysj.dto.WebSocketMessage;
+import org.zsy.bysj.service.ClusterService;
+import org.zsy.bysj.service.CrdtSessionService;
+import org.zsy.bysj.service.DocumentSessionService;
+
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 集群文档归属服务实现类（基于Redis）
+ *
+ * 各节点定时把心跳时间写入 cluster_nodes，超过 node-ttl-ms 未心跳的节点视为离开；成员变化时通过
+ * cluster_membership 频道通知其他节点立即重建哈希环。哈希环只决定文档“应该”属于哪个节点，
+ * 实际持有会话的节点记录在 document_owner:{文档ID}（带租约，心跳时续期）：成员变化后原节点在处理完
+ * 已排队的操作、落库并移除会话后才交出，新节点在此之前把操作转发给原节点，两边不会同时持有会话。
+ */
+@Service
+public class ClusterServiceImpl implements ClusterService {
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private DocumentSessionService documentSessionService;
+
+    @Autowired
+    private CrdtSessionService crdtSessionService;
+
+    @Value("${collab.cluster.enabled:false}")
+    private boolean enabled;
+
+    @Value("${collab.cluster.node-id:}")
+    private String nodeId = "";
+
+    @Value("${collab.cluster.virtual-nodes:128}")
+    private int virtualNodes;
+
+    @Value("${collab.cluster.node-ttl-ms:6000}")
+    private long nodeTtlMs;
+
+    @Value("${collab.cluster.claim-lease-ms:10000}")
+    private long claimLeaseMs;
+
+    // KEYS: 持有节点  ARGV: 节点ID, 租约毫秒；返回持有会话的节点ID
+    private static final String CLAIM_SCRIPT =
+        "local owner = redis.call('get', KEYS[1]) " +
+        "if not owner then " +
+        "    redis.call('set', KEYS[1], ARGV[1], 'PX', ARGV[2]) " +
+        "    return ARGV[1] " +
+        "end " +
+        "if owner == ARGV[1] then " +
+        "    redis.call('pexpire', KEYS[1], ARGV[2]) " +
+        "end " +
+        "return owner";
+
+    // KEYS: 持有节点  ARGV: 节点ID, 租约毫秒
+    private static final String RENEW_SCRIPT =
+        "if redis.call('get', KEYS[1]) == ARGV[1] then " +
+        "    return redis.call('pexpire', KEYS[1], ARGV[2]) " +
+        "else " +
+        "    return 0 " +
+        "end";
+
+    // KEYS: 持有节点  ARGV: 节点ID
+    private static final String RELEASE_SCRIPT =
+        "if redis.call('get', KEYS[1]) == ARGV[1] then " +
+        "    return redis.call('del', KEYS[1]) " +
+        "else " +
+        "    return 0 " +
+        "end";
+
+    private static final DefaultRedisScript<String> CLAIM = new DefaultRedisScript<>(CLAIM_SCRIPT, String.class);
+    private static final DefaultRedisScript<Long> RENEW = new DefaultRedisScript<>(RENEW_SCRIPT, Long.class);
+    private static final DefaultRedisScript<Long> RELEASE = new DefaultRedisScript<>(RELEASE_SCRIPT, Long.class);
+
+    private volatile ConsistentHashRing ring = new ConsistentHashRing(Collections.emptySet(), 0);
+    private volatile Listener listener;
+    private final Set<Long> claimed = ConcurrentHashMap.newKeySet(); // 本节点持有会话的文档
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        if (nodeId == null || nodeId.isBlank()) {
+            nodeId = defaultNodeId();
+        }
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> onForwarded(message.getBody()),
+                new ChannelTopic(RedisKeyConstant.buildClusterNodeChannel(nodeId)));
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> onBroadcast(message.getBody()),
+                new ChannelTopic(RedisKeyConstant.CLUSTER_BROADCAST_CHANNEL));
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> heartbeat(),
+                new ChannelTopic(RedisKeyConstant.CLUSTER_MEMBERSHIP_CHANNEL));
+        heartbeat();
+        stringRedisTemplate.convertAndSend(RedisKeyConstant.CLUSTER_MEMBERSHIP_CHANNEL, nodeId);
+        System.out.println("集群节点已加入: nodeId=" + nodeId + ", 成员=" + ring.getNodes());
+    }
+
+    /**
+     * 优雅离开：交出本节点持有的所有会话后退出成员列表
+     */
+    @PreDestroy
+    public void leave() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            stringRedisTemplate.opsForZSet().remove(RedisKeyConstant.CLUSTER_NODES_KEY, nodeId);
+            for (Long documentId : loadedDocumentIds()) {
+                documentSessionService.invalidate(documentId);
+                crdtSessionService.invalidate(documentId);
+                release(documentId);
+            }
+            stringRedisTemplate.convertAndSend(RedisKeyConstant.CLUSTER_MEMBERSHIP_CHANNEL, nodeId);
+            System.out.println("集群节点已离开: nodeId=" + nodeId);
+        } catch (Exception e) {
+            System.err.println("集群节点离开失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 心跳：更新本节点的心跳时间，续期持有的会话，并按最新成员重建哈希环
+     */
+    @Scheduled(fixedDelayString = "${collab.cluster.heartbeat-ms:2000}")
+    public void heartbeat() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            stringRedisTemplate.opsForZSet().add(RedisKeyConstant.CLUSTER_NODES_KEY, nodeId, System.currentTimeMillis());
+            for (Long documentId : claimed) {
+                Long renewed = stringRedisTemplate.execute(RENEW,
+                        Collections.singletonList(RedisKeyConstant.buildDocumentOwnerKey(documentId)),
+                        nodeId, String.valueOf(claimLeaseMs));
+                if (renewed == null || renewed == 0) {
+                    claimed.remove(documentId);
+                }
+            }
+            refresh();
+        } catch (Exception e) {
+            System.err.println("集群心跳失败: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public String ownerOf(Long documentId) {
+        String owner = ring.ownerOf(documentId);
+        return owner != null ? owner : nodeId;
+    }
+
+    @Override
+    public boolean isOwner(Long documentId) {
+        return !enabled || nodeId.equals(ownerOf(documentId));
+    }
+
+    @Override
+    public String claim(Long documentId) {
+        if (!enabled) {
+            return nodeId;
+        }
+        String owner = stringRedisTemplate.execute(CLAIM,
+                Collections.singletonList(RedisKeyConstant.buildDocumentOwnerKey(documentId)),
+                nodeId, String.valueOf(claimLeaseMs));
+        if (owner == null) {
+            return nodeId; // Redis 不可用时由本节点处理，落库时的版本条件仍能发现冲突
+        }
+        if (nodeId.equals(owner)) {
+            claimed.add(documentId);
+        }
+        return owner;
+    }
+
+    @Override
+    public void release(Long documentId) {
+        if (!enabled) {
+            return;
+        }
+        claimed.remove(documentId);
+        stringRedisTemplate.execute(RELEASE,
+                Collections.singletonList(RedisKeyConstant.buildDocumentOwnerKey(documentId)), nodeId);
+    }
+
+    @Override
+    public void forward(String targetNodeId, WebSocketMessage message) {
+        try {
+            stringRedisTemplate.convertAndSend(RedisKeyConstant.buildClusterNodeChannel(targetNodeId),
+                    objectMapper.writeValueAsString(message));
+        } catch (Exception e) {
+            System.err.println("转发操作失败: nodeId=" + targetNodeId + ", documentId=" + message.getDocumentId()
+                    + ", " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void relayBroadcast(Long documentId, WebSocketMessage message) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Map<String, Object> envelope = new HashMap<>();
+            envelope.put("origin", nodeId);
+            envelope.put("documentId", documentId);
+            envelope.put("message", message);
+            stringRedisTemplate.convertAndSend(RedisKeyConstant.CLUSTER_BROADCAST_CHANNEL,
+                    objectMapper.writeValueAsString(envelope));
+        } catch (Exception e) {
+            System.err.println("转发文档广播失败: documentId=" + documentId + ", " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 读取存活节点并重建哈希环，交出不再属于本节点的会话
+     */
+    private synchronized void refresh() {
+        long expiredBefore = System.currentTimeMillis() - nodeTtlMs;
+        stringRedisTemplate.opsForZSet().removeRangeByScore(RedisKeyConstant.CLUSTER_NODES_KEY, 0, expiredBefore);
+        Set<String> members = stringRedisTemplate.opsForZSet()
+                .rangeByScore(RedisKeyConstant.CLUSTER_NODES_KEY, expiredBefore, Double.MAX_VALUE);
+        Set<String> nodes = members != null ? new HashSet<>(members) : new HashSet<>();
+        nodes.add(nodeId);
+        if (!nodes.equals(ring.getNodes())) {
+            ring = new ConsistentHashRing(nodes, virtualNodes);
+            System.out.println("集群成员变化，重建哈希环: 成员=" + ring.getNodes());
+        }
+
+        // 每次都检查：交出期间又被加载的会话在下一次心跳时交出
+        Set<Long> held = loadedDocumentIds();
+        held.addAll(claimed);
+        for (Long documentId : held) {
+            if (!isOwner(documentId)) {
+                Listener current = listener;
+                if (current != null) {
+                    current.onOwnershipLost(documentId);
+                } else {
+                    documentSessionService.invalidate(documentId);
+                    crdtSessionService.invalidate(documentId);
+                    release(documentId);
+                }
+            }
+        }
+    }
+
+    private void onForwarded(byte[] body) {
+        try {
+            WebSocketMessage message = objectMapper.readValue(new String(body, StandardCharsets.UTF_8), WebSocketMessage.class);
+            Listener current = listener;
+            if (current != null) {
+                current.onForwardedOperation(message);
+            }
+        } catch (Exception e) {
+            System.err.println("处理转发的操作失败: " + e.getMessage());
+        }
+    }
+
+    private void onBroadcast(byte[] body) {
+        try {
+            Map<?, ?> envelope = objectMapper.readValue(new String(body, StandardCharsets.UTF_8), Map.class);
+            if (nodeId.equals(envelope.get("origin"))) {
+                return; // 本节点发出的广播已在本地发送
+            }
+            messagingTemplate.convertAndSend("/topic/document/" + envelope.get("documentId"), envelope.get("message"));
+        } catch (Exception e) {
+            System.err.println("处理转发的文档广播失败: " + e.getMessage());
+        }
+    }
+
+    private Set<Long> loadedDocumentIds() {
+        Set<Long> ids = new HashSet<>(documentSessionService.getLoadedDocumentIds());
+        ids.addAll(crdtSessionService.getLoadedDocumentIds());
+        return ids;
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "node";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
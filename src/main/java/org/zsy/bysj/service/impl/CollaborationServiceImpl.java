@@ -1,31 +1,57 @@
 package org.zsy.bysj.service.impl;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.context.event.EventListener;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
+import org.zsy.bysj.algorithm.Delta;
 import org.zsy.bysj.algorithm.Operation;
+import org.zsy.bysj.algorithm.RichTextOperation;
+import org.zsy.bysj.crdt.CrdtOperation;
 import org.zsy.bysj.dto.OperationDTO;
+import org.zsy.bysj.event.DocumentResyncEvent;
 import org.zsy.bysj.dto.WebSocketMessage;
-import org.zsy.bysj.model.Document;
+import org.zsy.bysj.service.ClusterService;
 import org.zsy.bysj.service.CollaborationService;
+import org.zsy.bysj.service.CrdtSessionService;
 import org.zsy.bysj.service.DistributedLockService;
 import org.zsy.bysj.service.DocumentService;
+import org.zsy.bysj.service.DocumentSessionService;
+import org.zsy.bysj.session.DocumentSession;
 import org.zsy.bysj.service.OfflineSyncService;
 import org.zsy.bysj.service.UserService;
 import org.zsy.bysj.model.User;
 import org.zsy.bysj.constant.RedisKeyConstant;
+import org.zsy.bysj.session.CommittedOperation;
+import org.zsy.bysj.session.CrdtDocumentSession;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
  * 协同编辑服务实现类
+ *
+ * 默认（collab.ordering.mode=MAILBOX）每个文档一个邮箱，同一文档的操作按到达顺序由单一线程依次处理；
+ * 文档的权威状态只在本进程的内存会话中，因此不需要跨进程的分布式锁。需要跨节点互斥的部署可改为 LOCK 模式。
  */
 @Service
 public class CollaborationServiceImpl implements CollaborationService {
 
+    public static final String ORDERING_MAILBOX = "MAILBOX";
+    public static final String ORDERING_LOCK = "LOCK";
+
+    // 邮箱中的交出标记：排在它之前的操作处理完后落库并交出会话（集群模式）
+    private static final String HANDOFF = "HANDOFF";
+
     @Autowired
     private DocumentService documentService;
 
@@ -47,13 +73,104 @@ public class CollaborationServiceImpl implements CollaborationService {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private DocumentSessionService documentSessionService;
+
+    @Autowired
+    private CrdtSessionService crdtSessionService;
+
+    @Autowired
+    private ClusterService clusterService;
+
+    @Value("${collab.ordering.mode:MAILBOX}")
+    private String orderingMode = ORDERING_MAILBOX;
+
+    @Value("${collab.ordering.drain-budget:256}")
+    private int drainBudget = 256;
+
+    private final Map<Long, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    private final ExecutorService mailboxExecutor = createMailboxExecutor();
+
+    /**
+     * 一个文档待处理的操作；draining 为 true 时已有线程在处理，其他线程只入队
+     */
+    private static class Mailbox {
+        final Long documentId;
+        final ArrayDeque<WebSocketMessage> pending = new ArrayDeque<>();
+        boolean draining;
+        boolean retired; // 已从 mailboxes 中移除，入队方需重新获取
+
+        Mailbox(Long documentId) {
+            this.documentId = documentId;
+        }
+    }
+
+    private static ExecutorService createMailboxExecutor() {
+        return Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "document-mailbox");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PostConstruct
+    public void registerClusterListener() {
+        clusterService.setListener(new ClusterService.Listener() {
+            @Override
+            public void onForwardedOperation(WebSocketMessage message) {
+                handleLocally(message);
+            }
+
+            @Override
+            public void onOwnershipLost(Long documentId) {
+                handOffDocument(documentId);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        mailboxExecutor.shutdown();
+    }
+
     @Override
     public void handleOperation(WebSocketMessage message) {
+        // 集群模式：文档由哈希环上的所属节点处理，其他节点只转发
+        if (clusterService.isEnabled() && !clusterService.isOwner(message.getDocumentId())) {
+            clusterService.forward(clusterService.ownerOf(message.getDocumentId()), message);
+            return;
+        }
+        handleLocally(message);
+    }
+
+    /**
+     * 在本节点处理操作（本节点是所属节点，或操作由其他节点转发而来）
+     */
+    private void handleLocally(WebSocketMessage message) {
         Long documentId = message.getDocumentId();
         Long userId = message.getUserId();
 
+        if (clusterService.isEnabled() && documentSessionService.peekSession(documentId) == null
+                && crdtSessionService.peekSession(documentId) == null) {
+            // 会话尚未在本节点加载：成员变化后原节点可能还没交出会话，此时操作交给仍持有会话的节点
+            String holder = clusterService.isOwner(documentId)
+                    ? clusterService.claim(documentId) : clusterService.ownerOf(documentId);
+            if (!clusterService.getNodeId().equals(holder)) {
+                clusterService.forward(holder, message);
+                return;
+            }
+        }
+
         System.out.println("开始处理操作: 用户" + userId + " 在文档" + documentId + " 中执行操作");
 
+        // CRDT 操作可交换，直接集成并广播，不经过分布式锁与序列号
+        if (message.getData() instanceof Map
+                && "CRDT".equals(((Map<String, Object>) message.getData()).get("type"))) {
+            handleCrdtOperation(message);
+            return;
+        }
+
         // 检查用户是否在线，如果离线则保存到离线队列
         if (offlineSyncService.isUserOffline(documentId, userId)) {
             System.out.println("用户" + userId + "离线，保存操作到离线队列");
@@ -63,6 +180,21 @@ public class CollaborationServiceImpl implements CollaborationService {
             return;
         }
         
+        if (ORDERING_LOCK.equals(orderingMode)) {
+            handleWithDocumentLock(message);
+            return;
+        }
+        // 同一文档的操作进入该文档的邮箱，由单一线程按到达顺序处理，顺序来自队列而不是分布式锁
+        enqueue(message);
+    }
+
+    /**
+     * 分布式锁模式（collab.ordering.mode=LOCK）：持有文档锁时处理，拿不到锁时进入锁队列
+     */
+    private void handleWithDocumentLock(WebSocketMessage message) {
+        Long documentId = message.getDocumentId();
+        Long userId = message.getUserId();
+
         // 尝试获取分布式锁，支持队列等待（最多等待2秒）
         boolean lockAcquired = distributedLockService.tryDocumentLockWithQueue(documentId, userId, 2000);
         System.out.println("尝试获取分布式锁: " + (lockAcquired ? "成功" : "失败"));
@@ -88,46 +220,251 @@ public class CollaborationServiceImpl implements CollaborationService {
             }
             return;
         }
+
+        // 本次持锁的令牌随会话落库，锁过期后旧持有者的写入会被数据库拒绝
+        long fencingToken = distributedLockService.getFencingToken(documentId);
+        DocumentSession session = fencingToken > 0 ? documentSessionService.getSession(documentId) : null;
+        if (session != null) {
+            session.fence(fencingToken);
+        }
         
+        try {
+            applyAndBroadcast(message);
+            // 持锁期间把等待中的操作一并处理，不再每个排队操作各自获取一次锁
+            drainLockQueue(documentId);
+        } finally {
+            // 释放锁；释放前最后一次取队列之后才入队的操作由下一个持锁者处理
+            distributedLockService.releaseDocumentLockAndProcessQueue(documentId, userId, queuedOperationHandler());
+            System.out.println("释放分布式锁并处理队列");
+        }
+    }
+
+    /**
+     * 持锁时按 drain-budget 分批取出锁队列中的操作，依次转换、应用后合并为一帧 OPERATION_BATCH 广播，
+     * 直到队列为空；处理过排队操作时在释放锁前落库一次
+     */
+    private void drainLockQueue(Long documentId) {
+        boolean drained = false;
+        while (true) {
+            List<String> queued = distributedLockService.dequeueOperations(documentId, Math.max(1, drainBudget));
+            if (queued.isEmpty()) {
+                break;
+            }
+            List<WebSocketMessage> applied = new ArrayList<>(queued.size());
+            for (String operationData : queued) {
+                WebSocketMessage queuedMessage = parseQueuedOperation(operationData);
+                WebSocketMessage response = queuedMessage != null ? applyOperation(queuedMessage) : null;
+                if (response != null) {
+                    applied.add(response);
+                }
+            }
+            if (!applied.isEmpty()) {
+                WebSocketMessage batch = new WebSocketMessage();
+                batch.setType("OPERATION_BATCH");
+                batch.setDocumentId(documentId);
+                batch.setTimestamp(System.currentTimeMillis());
+                batch.setData(applied); // 按提交顺序排列的 OPERATION 消息
+                broadcastToDocument(documentId, batch, null);
+                drained = true;
+            }
+            System.out.println("批量处理锁队列中的操作: documentId=" + documentId + ", 条数=" + queued.size()
+                    + ", 已应用=" + applied.size());
+        }
+        if (drained) {
+            documentSessionService.flush(documentId);
+        }
+    }
+
+    /**
+     * 释放锁后队列中仍有操作时的处理器：重新进入 handleOperation，由新的持锁者批量处理其余操作
+     */
+    private DistributedLockService.OperationHandler queuedOperationHandler() {
+        return new DistributedLockService.OperationHandler() {
+            @Override
+            public void handleOperation(String operationData) {
+                WebSocketMessage queuedMessage = parseQueuedOperation(operationData);
+                if (queuedMessage != null) {
+                    System.out.println("处理队列中的操作: userId=" + queuedMessage.getUserId() + ", documentId=" + queuedMessage.getDocumentId());
+                    CollaborationServiceImpl.this.handleOperation(queuedMessage);
+                }
+            }
+        };
+    }
+
+    /**
+     * 反序列化锁队列中的操作数据，格式错误时返回null
+     */
+    private WebSocketMessage parseQueuedOperation(String operationData) {
+        try {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> operationMap = objectMapper.readValue(operationData, Map.class);
+            WebSocketMessage queuedMessage = new WebSocketMessage();
+            queuedMessage.setType("OPERATION");
+            queuedMessage.setDocumentId(Long.valueOf(operationMap.get("documentId").toString()));
+            queuedMessage.setUserId(Long.valueOf(operationMap.get("userId").toString()));
+            queuedMessage.setData(operationMap.get("data"));
+            queuedMessage.setTimestamp(operationMap.get("timestamp") != null
+                    ? Long.valueOf(operationMap.get("timestamp").toString()) : System.currentTimeMillis());
+            return queuedMessage;
+        } catch (Exception e) {
+            System.err.println("解析队列操作失败: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 把操作放入文档的邮箱：邮箱空闲时由当前线程直接处理（无需线程切换），
+     * 正在被其他线程处理时只入队并立即返回，不占用 STOMP 入站线程等待
+     */
+    private void enqueue(WebSocketMessage message) {
+        Long documentId = message.getDocumentId();
+        while (true) {
+            Mailbox mailbox = mailboxes.computeIfAbsent(documentId, Mailbox::new);
+            synchronized (mailbox) {
+                if (mailbox.retired) {
+                    continue; // 已被移除，重新获取
+                }
+                mailbox.pending.add(message);
+                if (mailbox.draining) {
+                    return;
+                }
+                mailbox.draining = true;
+            }
+            drain(mailbox);
+            return;
+        }
+    }
+
+    /**
+     * 依次处理邮箱中的操作直到邮箱为空；一次处理超过 drain-budget 条时交给邮箱线程池继续，避免长期占用调用方线程
+     */
+    private void drain(Mailbox mailbox) {
+        int processed = 0;
+        while (true) {
+            WebSocketMessage next;
+            synchronized (mailbox) {
+                if (mailbox.pending.isEmpty()) {
+                    mailbox.draining = false;
+                    mailbox.retired = true;
+                    mailboxes.remove(mailbox.documentId, mailbox);
+                    return;
+                }
+                if (processed >= drainBudget && handOff(mailbox)) {
+                    return;
+                }
+                next = mailbox.pending.poll();
+            }
+            if (HANDOFF.equals(next.getType())) {
+                releaseOwnership(next.getDocumentId());
+            } else {
+                applyAndBroadcast(next);
+            }
+            processed++;
+        }
+    }
+
+    /**
+     * 成员变化后文档不再属于本节点：邮箱模式下排在已入队的操作之后交出，保证这些操作先落库
+     */
+    private void handOffDocument(Long documentId) {
+        if (ORDERING_LOCK.equals(orderingMode)) {
+            releaseOwnership(documentId);
+            return;
+        }
+        WebSocketMessage marker = new WebSocketMessage();
+        marker.setType(HANDOFF);
+        marker.setDocumentId(documentId);
+        marker.setTimestamp(System.currentTimeMillis());
+        try {
+            mailboxExecutor.execute(() -> enqueue(marker)); // 不占用心跳与订阅线程
+        } catch (RejectedExecutionException e) {
+            releaseOwnership(documentId);
+        }
+    }
+
+    private void releaseOwnership(Long documentId) {
+        if (clusterService.isOwner(documentId)) {
+            return; // 成员再次变化，文档又回到本节点
+        }
+        documentSessionService.invalidate(documentId);
+        crdtSessionService.invalidate(documentId);
+        clusterService.release(documentId);
+        System.out.println("文档会话已交出: documentId=" + documentId + ", 所属节点=" + clusterService.ownerOf(documentId));
+    }
+
+    private boolean handOff(Mailbox mailbox) {
+        try {
+            mailboxExecutor.execute(() -> drain(mailbox));
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false; // 线程池已关闭，由当前线程继续处理
+        }
+    }
+
+    /**
+     * 解析、转换并应用一个操作，然后广播转换后的操作
+     */
+    private void applyAndBroadcast(WebSocketMessage message) {
+        WebSocketMessage response = applyOperation(message);
+        if (response != null) {
+            System.out.println("构建响应消息完成，开始广播...");
+            // 广播给文档的所有用户（排除发送者，因为发送者已经应用了操作）
+            broadcastToDocument(message.getDocumentId(), response, message.getUserId());
+            System.out.println("消息广播完成");
+        }
+    }
+
+    /**
+     * 解析、转换并应用一个操作，返回待广播的 OPERATION 消息（处理失败时返回null）
+     */
+    private WebSocketMessage applyOperation(WebSocketMessage message) {
+        Long documentId = message.getDocumentId();
+        Long userId = message.getUserId();
         try {
             // 解析操作
             Map<String, Object> dataMap = (Map<String, Object>) message.getData();
             System.out.println("解析操作数据: " + dataMap);
             OperationDTO opDTO = parseOperationDTO(dataMap);
             System.out.println("转换后的操作DTO: " + opDTO);
-            System.out.println("操作类型检查: type=" + opDTO.getType() + ", equals FORMAT=" + "FORMAT".equals(opDTO.getType()));
-            
-            // FORMAT操作直接广播，不经过OT算法（格式信息在HTML中，不需要文本转换）
-            if ("FORMAT".equals(opDTO.getType()) || "format".equalsIgnoreCase(opDTO.getType())) {
-                System.out.println("检测到FORMAT操作，直接广播");
-                // 获取操作序列号
-                Long sequence = distributedLockService.getNextSequence(documentId);
-                opDTO.setVersion(sequence.intValue());
-                
-                // 构建广播消息
-                WebSocketMessage response = new WebSocketMessage();
-                response.setType("OPERATION");
-                response.setDocumentId(documentId);
-                response.setUserId(userId);
-                response.setTimestamp(System.currentTimeMillis());
-                response.setData(opDTO);
-                
-                // 直接广播FORMAT操作，前端会直接应用格式
-                broadcastToDocument(documentId, response, userId);
-                System.out.println("FORMAT操作广播完成");
-                return;
+            if (isCrdtDocument(documentId)) {
+                return applyToCrdtDocument(documentId, userId, opDTO);
             }
             
-            Operation operation = convertToOperation(opDTO);
-            System.out.println("转换后的Operation: type=" + operation.getType() + ", data=" + operation.getData() + ", position=" + operation.getPosition());
-
-            // 获取操作序列号
-            Long sequence = distributedLockService.getNextSequence(documentId);
-            opDTO.setVersion(sequence.intValue());
-            System.out.println("获取操作序列号: " + sequence);
-
-            // 应用操作到文档
-            Document document = documentService.applyOperation(documentId, operation, userId);
+            // 应用操作到文档（在内存会话中完成，落库在后台异步进行）
+            // 携带 baseVersion 时只相对该版本之后提交的操作做转换，广播转换后的操作
+            CommittedOperation committed;
+            if ("DELTA".equals(opDTO.getType())) {
+                committed = documentSessionService.applyDelta(
+                        documentId, userId, opDTO.getDelta(), opDTO.getBaseVersion());
+            } else if ("FORMAT".equalsIgnoreCase(opDTO.getType())) {
+                // FORMAT 操作用 RichTextOTAlgorithm 转换范围，只更新格式区间并记录操作日志，不再依赖整篇内容保存
+                committed = documentSessionService.applyFormat(
+                        documentId, userId, opDTO.toFormatOperation(), opDTO.getBaseVersion());
+            } else {
+                Operation operation = convertToOperation(opDTO);
+                System.out.println("转换后的Operation: type=" + operation.getType() + ", data=" + operation.getData() + ", position=" + operation.getPosition());
+                committed = documentSessionService.applyOperation(
+                        documentId, userId, operation, opDTO.getBaseVersion());
+            }
+            if (committed.getDelta() != null) {
+                // Delta（包括与 Delta 并发、被转换为 Delta 的位置操作）以 delta 字段广播，前端直接交给 Quill 应用
+                opDTO.setType("DELTA");
+                opDTO.setDelta(committed.getDelta());
+            } else if (committed.getFormat() != null) {
+                RichTextOperation format = committed.getFormat();
+                opDTO.setType("FORMAT");
+                opDTO.setPosition(format.getPosition());
+                opDTO.setLength(format.getLength());
+                opDTO.setAttributes(format.getAttributes());
+            } else {
+                Operation applied = committed.getOperation();
+                opDTO.setType(applied.getType());
+                opDTO.setData(applied.getData());
+                opDTO.setPosition(applied.getPosition());
+                opDTO.setLength(applied.getLength());
+            }
+            opDTO.setBaseVersion(committed.getBaseVersion());
+            opDTO.setVersion(committed.getBaseVersion() + 1); // 提交后的文档版本，与 document.version 为同一计数
 
             // 构建广播消息 - 使用 OPERATION 类型，包含操作数据
             WebSocketMessage response = new WebSocketMessage();
@@ -138,49 +475,112 @@ public class CollaborationServiceImpl implements CollaborationService {
 
             // 将操作DTO作为data发送，这样其他客户端可以直接应用操作
             response.setData(opDTO);
-
-            System.out.println("构建响应消息完成，开始广播...");
-
-            // 广播给文档的所有用户（排除发送者，因为发送者已经应用了操作）
-            broadcastToDocument(documentId, response, userId);
-            System.out.println("消息广播完成");
+            return response;
         } catch (Exception e) {
             System.out.println("操作处理过程中发生错误: " + e.getMessage());
             e.printStackTrace();
-        } finally {
-            // 释放锁并处理队列中的下一个操作
-            distributedLockService.releaseDocumentLockAndProcessQueue(documentId, userId, new DistributedLockService.OperationHandler() {
-                @Override
-                public void handleOperation(String operationData) {
-                    try {
-                        // 反序列化操作数据
-                        @SuppressWarnings("unchecked")
-                        Map<String, Object> operationMap = objectMapper.readValue(operationData, Map.class);
-                        Long queuedUserId = Long.valueOf(operationMap.get("userId").toString());
-                        Long queuedDocumentId = Long.valueOf(operationMap.get("documentId").toString());
-
-                        System.out.println("处理队列中的操作: userId=" + queuedUserId + ", documentId=" + queuedDocumentId);
-
-                        // 构造WebSocketMessage并递归处理
-                        WebSocketMessage queuedMessage = new WebSocketMessage();
-                        queuedMessage.setType("OPERATION");
-                        queuedMessage.setDocumentId(queuedDocumentId);
-                        queuedMessage.setUserId(queuedUserId);
-                        queuedMessage.setData(operationMap.get("data"));
-                        queuedMessage.setTimestamp(Long.valueOf(operationMap.get("timestamp").toString()));
-
-                        // 递归处理队列中的操作（直接调用，不通过OperationHandler）
-                        CollaborationServiceImpl.this.handleOperation(queuedMessage);
-                    } catch (Exception e) {
-                        System.err.println("处理队列操作失败: " + e.getMessage());
-                        e.printStackTrace();
-                    }
-                }
-            });
-            System.out.println("释放分布式锁并处理队列");
+            return null;
         }
     }
 
+    /**
+     * 处理 CRDT 模式文档的操作：集成到会话后广播原始 CRDT 操作，
+     * 同时附带对可见文本的修改（Delta），供按位置渲染的客户端直接应用
+     */
+    private void handleCrdtOperation(WebSocketMessage message) {
+        Long documentId = message.getDocumentId();
+        Long userId = message.getUserId();
+        try {
+            Map<String, Object> dataMap = (Map<String, Object>) message.getData();
+            CrdtOperation operation = objectMapper.convertValue(dataMap.get("crdt"), CrdtOperation.class);
+            CrdtDocumentSession.Applied applied = crdtSessionService.applyOperation(documentId, userId, operation);
+            if (applied.getEffect().isNoop()) {
+                return; // 重复投递的操作
+            }
+            broadcastToDocument(documentId, toCrdtMessage(documentId, userId, applied), userId);
+        } catch (Exception e) {
+            System.out.println("CRDT操作处理过程中发生错误: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 文档是否为 CRDT 模式（已加载 OT 会话时不再查询）
+     */
+    private boolean isCrdtDocument(Long documentId) {
+        return documentSessionService.peekSession(documentId) == null && crdtSessionService.isCrdtDocument(documentId);
+    }
+
+    /**
+     * CRDT 模式文档收到按位置描述的操作（当前编辑器发送的 DELTA 等）：由 CRDT 会话转换后生成 CRDT 操作集成，
+     * 生成多个操作时合并为一帧 OPERATION_BATCH；格式属性在 CRDT 模式下不保存
+     */
+    private WebSocketMessage applyToCrdtDocument(Long documentId, Long userId, OperationDTO opDTO) {
+        Delta delta;
+        if ("DELTA".equals(opDTO.getType())) {
+            delta = opDTO.getDelta();
+        } else if ("FORMAT".equalsIgnoreCase(opDTO.getType())) {
+            delta = opDTO.toFormatOperation().toDelta();
+        } else {
+            delta = Delta.fromOperation(convertToOperation(opDTO));
+        }
+        List<CrdtDocumentSession.Applied> applied = crdtSessionService.applyDelta(
+                documentId, userId, delta, opDTO.getBaseVersion());
+        if (applied.isEmpty()) {
+            return null;
+        }
+        if (applied.size() == 1) {
+            return toCrdtMessage(documentId, userId, applied.get(0));
+        }
+        List<WebSocketMessage> messages = new ArrayList<>(applied.size());
+        for (CrdtDocumentSession.Applied item : applied) {
+            messages.add(toCrdtMessage(documentId, userId, item));
+        }
+        WebSocketMessage batch = new WebSocketMessage();
+        batch.setType("OPERATION_BATCH");
+        batch.setDocumentId(documentId);
+        batch.setUserId(userId);
+        batch.setTimestamp(System.currentTimeMillis());
+        batch.setData(messages);
+        return batch;
+    }
+
+    /**
+     * 广播集成后的 CRDT 操作，附带对可见文本的修改（Delta），供按位置渲染的客户端直接应用
+     */
+    private WebSocketMessage toCrdtMessage(Long documentId, Long userId, CrdtDocumentSession.Applied applied) {
+        OperationDTO opDTO = new OperationDTO();
+        opDTO.setType("CRDT");
+        opDTO.setCrdt(applied.getOperation());
+        opDTO.setDelta(applied.getEffect());
+        opDTO.setVersion(applied.getVersion());
+        opDTO.setTimestamp(System.currentTimeMillis());
+
+        WebSocketMessage response = new WebSocketMessage();
+        response.setType("OPERATION");
+        response.setDocumentId(documentId);
+        response.setUserId(userId);
+        response.setTimestamp(System.currentTimeMillis());
+        response.setData(opDTO);
+        return response;
+    }
+
+    /**
+     * 接管文档后发现之前的节点可能广播过未落库的操作：把会话的当前内容与版本广播给在线用户，客户端以此为准重新同步
+     */
+    @EventListener
+    public void onDocumentResync(DocumentResyncEvent event) {
+        WebSocketMessage message = new WebSocketMessage();
+        message.setType("DOCUMENT_UPDATED");
+        message.setDocumentId(event.getDocumentId());
+        message.setTimestamp(System.currentTimeMillis());
+        Map<String, Object> data = new HashMap<>();
+        data.put("content", event.getContent());
+        data.put("version", event.getVersion());
+        message.setData(data);
+        broadcastToDocument(event.getDocumentId(), message, null);
+    }
+
     @Override
     public void handleCursorMove(Long documentId, Long userId, Integer position) {
         // 保存用户光标位置
@@ -294,35 +694,10 @@ public class CollaborationServiceImpl implements CollaborationService {
         // 标记用户为离线
         offlineSyncService.markUserOffline(documentId, userId);
         
-        // 释放锁并处理队列中的下一个操作（如果持有）
-        distributedLockService.releaseDocumentLockAndProcessQueue(documentId, userId, new DistributedLockService.OperationHandler() {
-            @Override
-            public void handleOperation(String operationData) {
-                try {
-                    // 反序列化操作数据
-                    @SuppressWarnings("unchecked")
-                    Map<String, Object> operationMap = objectMapper.readValue(operationData, Map.class);
-                    Long queuedUserId = Long.valueOf(operationMap.get("userId").toString());
-                    Long queuedDocumentId = Long.valueOf(operationMap.get("documentId").toString());
-
-                    System.out.println("用户离开时处理队列中的操作: userId=" + queuedUserId + ", documentId=" + queuedDocumentId);
-
-                    // 构造WebSocketMessage并递归处理
-                    WebSocketMessage queuedMessage = new WebSocketMessage();
-                    queuedMessage.setType("OPERATION");
-                    queuedMessage.setDocumentId(queuedDocumentId);
-                    queuedMessage.setUserId(queuedUserId);
-                    queuedMessage.setData(operationMap.get("data"));
-                    queuedMessage.setTimestamp(Long.valueOf(operationMap.get("timestamp").toString()));
-
-                    // 递归处理队列中的操作（直接调用，不通过OperationHandler）
-                    CollaborationServiceImpl.this.handleOperation(queuedMessage);
-                } catch (Exception e) {
-                    System.err.println("用户离开时处理队列操作失败: " + e.getMessage());
-                    e.printStackTrace();
-                }
-            }
-        });
+        // 释放锁并处理队列中的下一个操作（如果持有，邮箱模式下不使用文档锁）
+        if (ORDERING_LOCK.equals(orderingMode)) {
+            distributedLockService.releaseDocumentLockAndProcessQueue(documentId, userId, queuedOperationHandler());
+        }
         
         // 通知其他用户
         WebSocketMessage message = new WebSocketMessage();
@@ -350,6 +725,7 @@ public class CollaborationServiceImpl implements CollaborationService {
         System.out.println("排除用户ID: " + excludeUserId);
         System.out.println("消息数据: " + message.getData());
         messagingTemplate.convertAndSend(destination, message);
+        clusterService.relayBroadcast(documentId, message); // 其他节点上的订阅者
         System.out.println("消息广播完成");
     }
 
@@ -360,7 +736,8 @@ public class CollaborationServiceImpl implements CollaborationService {
         OperationDTO opDTO = new OperationDTO();
         opDTO.setType((String) dataMap.get("type"));
         opDTO.setData((String) dataMap.get("data"));
-        opDTO.setPosition(((Number) dataMap.get("position")).intValue());
+        opDTO.setPosition(dataMap.get("position") != null ?
+                ((Number) dataMap.get("position")).intValue() : 0);
         opDTO.setLength(dataMap.get("length") != null ? 
                 ((Number) dataMap.get("length")).intValue() : 0);
         
@@ -374,6 +751,12 @@ public class CollaborationServiceImpl implements CollaborationService {
         if (dataMap.get("formatValue") != null) {
             opDTO.setFormatValue(dataMap.get("formatValue"));
         }
+        if (dataMap.get("delta") != null) {
+            opDTO.setDelta(objectMapper.convertValue(dataMap.get("delta"), Delta.class));
+        }
+        if (dataMap.get("baseVersion") != null) {
+            opDTO.setBaseVersion(((Number) dataMap.get("baseVersion")).intValue());
+        }
         
         opDTO.setTimestamp(System.currentTimeMillis());
         return opDTO;
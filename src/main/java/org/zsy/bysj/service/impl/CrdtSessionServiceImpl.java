@@ -0,0 +1,385 @@
+package org.zsy.bysj.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.zsy.bysj.algorithm.Delta;
+import org.zsy.bysj.constant.RedisKeyConstant;
+import org.zsy.bysj.crdt.CrdtOperation;
+import org.zsy.bysj.event.DocumentResyncEvent;
+import org.zsy.bysj.event.PermissionChangedEvent;
+import org.zsy.bysj.mapper.DocumentMapper;
+import org.zsy.bysj.model.Document;
+import org.zsy.bysj.service.CrdtSessionService;
+import org.zsy.bysj.service.DocumentBlockService;
+import org.zsy.bysj.service.PermissionService;
+import org.zsy.bysj.session.CrdtDocumentSession;
+import org.zsy.bysj.util.ContentCodec;
+
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CRDT 文档会话服务实现类
+ *
+ * 与 OT 模式不同，CRDT 操作可交换，集成时只需会话对象锁，不获取分布式锁、不分配操作序列号；
+ * 文档文本与编码后的 CRDT 状态由落库线程异步写入，连续的多次编辑合并为一次落库。
+ */
+@Service
+public class CrdtSessionServiceImpl implements CrdtSessionService {
+
+    public static final String ENGINE_MODE_CRDT = "CRDT";
+
+    @Autowired
+    private DocumentMapper documentMapper;
+
+    @Autowired
+    private PermissionService permissionService;
+
+    @Autowired
+    private DocumentBlockService documentBlockService;
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Value("${collab.session.history-size:1024}")
+    private int historySize;
+
+    @Value("${collab.session.idle-timeout-ms:600000}")
+    private long idleTimeoutMs;
+
+    private final Map<Long, CrdtDocumentSession> sessions = new ConcurrentHashMap<>();
+
+    @Value("${collab.persist.flush-interval-ms:1000}")
+    private long flushIntervalMs;
+
+    @Value("${collab.persist.flush-max-revisions:200}")
+    private int flushMaxRevisions;
+
+    private final ScheduledThreadPoolExecutor flushExecutor = createFlushExecutor();
+
+    @Override
+    public CrdtDocumentSession getSession(Long documentId) {
+        return sessions.computeIfAbsent(documentId, this::loadSession);
+    }
+
+    @Override
+    public CrdtDocumentSession peekSession(Long documentId) {
+        return sessions.get(documentId);
+    }
+
+    @Override
+    public Set<Long> getLoadedDocumentIds() {
+        return new HashSet<>(sessions.keySet());
+    }
+
+    @Override
+    public CrdtDocumentSession.Applied applyOperation(Long documentId, Long userId, CrdtOperation operation) {
+        if (operation == null) {
+            throw new RuntimeException("CRDT 操作不能为空");
+        }
+        CrdtDocumentSession session = getSession(documentId);
+        if (session == null) {
+            throw new RuntimeException("文档不存在");
+        }
+        if (!hasWritePermission(session, userId)) {
+            throw new RuntimeException("无权限编辑此文档");
+        }
+        CrdtDocumentSession.Applied applied = session.apply(operation);
+        scheduleFlush(session);
+        return applied;
+    }
+
+    @Override
+    public boolean isCrdtDocument(Long documentId) {
+        if (sessions.containsKey(documentId)) {
+            return true;
+        }
+        Document document = documentMapper.selectById(documentId);
+        return document != null && ENGINE_MODE_CRDT.equals(document.getEngineMode());
+    }
+
+    @Override
+    public List<CrdtDocumentSession.Applied> applyDelta(Long documentId, Long userId, Delta delta, Integer baseVersion) {
+        if (delta == null) {
+            throw new RuntimeException("Delta 不能为空");
+        }
+        CrdtDocumentSession session = getSession(documentId);
+        if (session == null) {
+            throw new RuntimeException("文档不存在");
+        }
+        if (!hasWritePermission(session, userId)) {
+            throw new RuntimeException("无权限编辑此文档");
+        }
+        if (session.getServerClient() == 0) {
+            // 每个会话分配一个客户端ID，服务端生成的字符标识不会与其他会话或客户端冲突
+            long clientId = allocateClientId();
+            synchronized (session) {
+                if (session.getServerClient() == 0) {
+                    session.setServerClient(clientId);
+                }
+            }
+        }
+        List<CrdtDocumentSession.Applied> applied = session.applyDelta(delta, baseVersion);
+        if (!applied.isEmpty()) {
+            scheduleFlush(session);
+        }
+        return applied;
+    }
+
+    @Override
+    public long allocateClientId() {
+        Long clientId = redisTemplate.opsForValue().increment(RedisKeyConstant.CRDT_CLIENT_ID_KEY);
+        if (clientId == null) {
+            throw new RuntimeException("分配CRDT客户端ID失败");
+        }
+        return clientId;
+    }
+
+    @Override
+    public void flush(Long documentId) {
+        CrdtDocumentSession session = sessions.get(documentId);
+        if (session != null) {
+            flushSession(session);
+        }
+    }
+
+    @Override
+    public void invalidate(Long documentId) {
+        CrdtDocumentSession session = sessions.get(documentId);
+        if (session == null) {
+            return;
+        }
+        flushSession(session);
+        sessions.remove(documentId, session);
+    }
+
+    @Override
+    public void discard(Long documentId) {
+        sessions.remove(documentId);
+    }
+
+    /**
+     * 权限变更后清除对应会话中的写权限缓存
+     */
+    @EventListener
+    public void onPermissionChanged(PermissionChangedEvent event) {
+        CrdtDocumentSession session = sessions.get(event.getDocumentId());
+        if (session == null) {
+            return;
+        }
+        if (event.getUserId() != null) {
+            session.getWritePermissions().remove(event.getUserId());
+        } else {
+            session.getWritePermissions().clear();
+        }
+    }
+
+    /**
+     * 定期回收长时间无编辑且已全部落库的会话
+     */
+    @Scheduled(fixedDelayString = "${collab.session.evict-interval-ms:60000}")
+    public void evictIdleSessions() {
+        long now = System.currentTimeMillis();
+        for (CrdtDocumentSession session : sessions.values()) {
+            if (now - session.getLastAccessTime() < idleTimeoutMs) {
+                continue;
+            }
+            flushSession(session);
+            if (!session.isDirty()) {
+                sessions.remove(session.getDocumentId(), session);
+                System.out.println("回收空闲CRDT文档会话: documentId=" + session.getDocumentId());
+            }
+        }
+    }
+
+    /**
+     * 应用关闭前将所有会话落库
+     */
+    @PreDestroy
+    public void shutdown() {
+        flushExecutor.shutdown();
+        try {
+            flushExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (CrdtDocumentSession session : sessions.values()) {
+            flushSession(session);
+        }
+    }
+
+    private CrdtDocumentSession loadSession(Long documentId) {
+        Document document = documentMapper.selectById(documentId);
+        if (document == null || Boolean.TRUE.equals(document.getIsDeleted())) {
+            return null;
+        }
+        if (!ENGINE_MODE_CRDT.equals(document.getEngineMode())) {
+            throw new RuntimeException("文档未启用CRDT模式");
+        }
+        if (DocumentBlockServiceImpl.LAYOUT_BLOCK.equals(document.getContentLayout())) {
+            document.setContent(documentBlockService.readContent(documentId));
+        }
+        System.out.println("加载CRDT文档会话: documentId=" + documentId + ", version=" + document.getVersion());
+        return new CrdtDocumentSession(document, historySize);
+    }
+
+    private boolean hasWritePermission(CrdtDocumentSession session, Long userId) {
+        if (userId.equals(session.getCreatorId())) {
+            return true;
+        }
+        return session.getWritePermissions().computeIfAbsent(userId,
+                id -> permissionService.hasPermission(session.getDocumentId(), id, "WRITE"));
+    }
+
+    /**
+     * 安排一次异步落库：未落库版本数达到 flush-max-revisions 时立即落库，
+     * 否则在 flush-interval-ms 后落库，期间的编辑合并为一次写入
+     */
+    private void scheduleFlush(CrdtDocumentSession session) {
+        if (session.getUnflushedCount() >= flushMaxRevisions) {
+            if (!session.markImmediateFlushScheduled()) {
+                return;
+            }
+            try {
+                flushExecutor.execute(() -> {
+                    session.clearImmediateFlushScheduled();
+                    flushSession(session);
+                });
+            } catch (RejectedExecutionException e) {
+                session.clearImmediateFlushScheduled();
+                System.err.println("提交CRDT文档落库任务失败: " + e.getMessage());
+            }
+            return;
+        }
+        scheduleDelayedFlush(session);
+    }
+
+    /**
+     * 在 flush-interval-ms 后落库；已有待执行的延迟落库任务时不重复提交（落库失败后的重试也走这里）
+     */
+    private void scheduleDelayedFlush(CrdtDocumentSession session) {
+        if (!session.markFlushScheduled()) {
+            return;
+        }
+        try {
+            flushExecutor.schedule(() -> {
+                session.clearFlushScheduled();
+                flushSession(session);
+            }, flushIntervalMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            session.clearFlushScheduled();
+            System.err.println("提交CRDT文档落库任务失败: " + e.getMessage());
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor createFlushExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "crdt-document-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 关闭时不再等待延迟任务，由 shutdown() 直接将所有会话落库
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        return executor;
+    }
+
+    /**
+     * 按版本号条件更新文档文本与 CRDT 状态
+     */
+    private void flushSession(CrdtDocumentSession session) {
+        session.getFlushLock().lock();
+        try {
+            CrdtDocumentSession.FlushSnapshot snapshot = session.drainForFlush();
+            if (snapshot == null) {
+                return;
+            }
+            Long documentId = session.getDocumentId();
+            UpdateWrapper<Document> updateWrapper = new UpdateWrapper<>();
+            updateWrapper.eq("id", documentId)
+                         .eq("version", snapshot.getFromVersion())
+                         .eq("engine_mode", ENGINE_MODE_CRDT)
+                         .set("content", ContentCodec.encode(snapshot.getContent(), ContentCodec.HOT_LEVEL))
+                         .set("content_layout", DocumentBlockServiceImpl.LAYOUT_INLINE) // CRDT 模式的文本随状态整体写入
+                         .set("crdt_state", snapshot.getCrdtState())
+                         .set("version", snapshot.getToVersion())
+                         .set("updated_at", LocalDateTime.now());
+            int updateCount = documentMapper.update(null, updateWrapper);
+            if (updateCount == 0) {
+                resolveConflict(session, snapshot.getFromVersion());
+                return;
+            }
+            session.markPersisted(snapshot.getToVersion());
+            redisTemplate.delete(RedisKeyConstant.buildDocumentCacheKey(documentId));
+        } catch (Exception e) {
+            System.err.println("CRDT文档落库失败，稍后重试: documentId=" + session.getDocumentId() + ", " + e.getMessage());
+            scheduleDelayedFlush(session);
+        } finally {
+            session.getFlushLock().unlock();
+        }
+    }
+
+    /**
+     * 落库版本冲突（其他节点已写入新的状态）：停用当前会话，从数据库重新加载，
+     * 把未落库的操作重放到新会话上（CRDT 操作可交换、可重复，已包含在数据库状态中的操作不产生修改），
+     * 再通知在线客户端以新会话的内容为准重新同步
+     */
+    private void resolveConflict(CrdtDocumentSession session, int expectedVersion) {
+        Long documentId = session.getDocumentId();
+        List<CrdtOperation> unpersisted = session.retire();
+        sessions.remove(documentId, session);
+        System.err.println("CRDT文档落库版本冲突，重新加载后重放未落库的操作: documentId=" + documentId
+                + ", expectedVersion=" + expectedVersion + ", 操作数=" + unpersisted.size());
+
+        CrdtDocumentSession reloaded;
+        try {
+            reloaded = getSession(documentId);
+        } catch (Exception e) {
+            reloaded = null; // 已切换为 OT 模式
+        }
+        if (reloaded == null) {
+            System.err.println("文档已删除或不再是CRDT模式，丢弃未落库的CRDT操作: documentId=" + documentId
+                    + ", 操作数=" + unpersisted.size());
+            Document current = documentMapper.selectById(documentId);
+            if (current != null && !Boolean.TRUE.equals(current.getIsDeleted())) {
+                if (DocumentBlockServiceImpl.LAYOUT_BLOCK.equals(current.getContentLayout())) {
+                    current.setContent(documentBlockService.readContent(documentId));
+                }
+                int version = current.getVersion() != null ? current.getVersion() : 1;
+                eventPublisher.publishEvent(new DocumentResyncEvent(documentId, version, current.getContent()));
+            }
+            return;
+        }
+
+        int replayed = 0;
+        try {
+            for (CrdtOperation operation : unpersisted) {
+                reloaded.apply(operation);
+                replayed++;
+            }
+        } catch (Exception e) {
+            System.err.println("重放未落库的CRDT操作失败，以数据库中的状态为准: documentId=" + documentId
+                    + ", 丢弃操作数=" + (unpersisted.size() - replayed) + ", " + e.getMessage());
+        }
+        if (reloaded.isDirty()) {
+            scheduleFlush(reloaded);
+        }
+        eventPublisher.publishEvent(new DocumentResyncEvent(documentId, reloaded.getVersion(), reloaded.getContent()));
+    }
+}
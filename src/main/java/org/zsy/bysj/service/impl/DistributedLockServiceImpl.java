@@ -1,17 +1,37 @@
 package org.zsy.bysj.service.impl;
 
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
 import org.zsy.bysj.constant.RedisKeyConstant;
 import org.zsy.bysj.service.DistributedLockService;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 分布式锁服务实现类（基于Redis）
+ *
+ * 文档锁的获取、续期、释放都由 Lua 脚本原子完成（DefaultRedisScript 以 EVALSHA 执行，脚本只在 Redis 中加载一次）：
+ * 获取时从计数器取一个单调递增的令牌（fencing token），锁的值为 "用户ID:令牌"，过期由 PX 租约保证，不再解析值中的时间戳；
+ * 持有期间后台按租约的 1/3 续期；释放时比较值后删除并在 document_lock_released:{文档ID} 频道发布消息，
+ * 等待方订阅该频道，收到消息后立即重试，不再每 50ms 轮询。持有者崩溃时等待方最多等到租约到期。
+ * 令牌随写入一起落库，数据库中令牌更大的写入会拒绝令牌较小（租约已失效）的写入。
  */
 @Service
 public class DistributedLockServiceImpl implements DistributedLockService {
@@ -19,21 +39,102 @@ public class DistributedLockServiceImpl implements DistributedLockService {
     @Autowired
     private RedisTemplate<String, Object> redisTemplate;
 
-    private static final String LOCK_SCRIPT = 
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${collab.lock.lease-ms:10000}")
+    private long leaseMs;
+
+    private static final String LOCK_SCRIPT =
         "if redis.call('get', KEYS[1]) == ARGV[1] then " +
         "    return redis.call('del', KEYS[1]) " +
         "else " +
         "    return 0 " +
         "end";
 
-    private static final String LOCK_ACQUIRE_SCRIPT =
-        "if redis.call('setnx', KEYS[1], ARGV[1]) == 1 then " +
-        "    redis.call('expire', KEYS[1], ARGV[2]) " +
+    // KEYS: 锁, 令牌计数器  ARGV: 持有者, 租约毫秒；成功返回令牌，失败返回 -剩余租约毫秒
+    private static final String DOCUMENT_LOCK_ACQUIRE_SCRIPT =
+        "local ttl = redis.call('pttl', KEYS[1]) " +
+        "if ttl == -2 then " +
+        "    local token = redis.call('incr', KEYS[2]) " +
+        "    redis.call('set', KEYS[1], ARGV[1] .. ':' .. token, 'PX', ARGV[2]) " +
+        "    return token " +
+        "end " +
+        "if ttl < 1 then ttl = 1 end " +
+        "return -ttl";
+
+    // KEYS: 锁  ARGV: 锁的值, 租约毫秒
+    private static final String DOCUMENT_LOCK_RENEW_SCRIPT =
+        "if redis.call('get', KEYS[1]) == ARGV[1] then " +
+        "    return redis.call('pexpire', KEYS[1], ARGV[2]) " +
+        "else " +
+        "    return 0 " +
+        "end";
+
+    // KEYS: 锁  ARGV: 锁的值, 释放通知频道
+    private static final String DOCUMENT_LOCK_RELEASE_SCRIPT =
+        "if redis.call('get', KEYS[1]) == ARGV[1] then " +
+        "    redis.call('del', KEYS[1]) " +
+        "    redis.call('publish', ARGV[2], ARGV[1]) " +
         "    return 1 " +
         "else " +
         "    return 0 " +
         "end";
 
+    // KEYS: 版本号上界  ARGV: 会话当前版本, 租用数量；返回租用前的上界
+    private static final String REVISION_LEASE_SCRIPT =
+        "local previous = tonumber(redis.call('get', KEYS[1]) or '0') " +
+        "local base = math.max(previous, tonumber(ARGV[1])) " +
+        "redis.call('set', KEYS[1], base + tonumber(ARGV[2])) " +
+        "return previous";
+
+    // KEYS: 版本号上界  ARGV: 本节点租到的上界, 已落库的版本
+    private static final String REVISION_RELEASE_SCRIPT =
+        "if tonumber(redis.call('get', KEYS[1]) or '0') == tonumber(ARGV[1]) then " +
+        "    redis.call('set', KEYS[1], ARGV[2]) " +
+        "    return 1 " +
+        "else " +
+        "    return 0 " +
+        "end";
+
+    private static final DefaultRedisScript<Long> RELEASE = new DefaultRedisScript<>(LOCK_SCRIPT, Long.class);
+    private static final DefaultRedisScript<Long> DOCUMENT_ACQUIRE = new DefaultRedisScript<>(DOCUMENT_LOCK_ACQUIRE_SCRIPT, Long.class);
+    private static final DefaultRedisScript<Long> DOCUMENT_RENEW = new DefaultRedisScript<>(DOCUMENT_LOCK_RENEW_SCRIPT, Long.class);
+    private static final DefaultRedisScript<Long> DOCUMENT_RELEASE = new DefaultRedisScript<>(DOCUMENT_LOCK_RELEASE_SCRIPT, Long.class);
+    private static final DefaultRedisScript<Long> REVISION_LEASE = new DefaultRedisScript<>(REVISION_LEASE_SCRIPT, Long.class);
+    private static final DefaultRedisScript<Long> REVISION_RELEASE = new DefaultRedisScript<>(REVISION_RELEASE_SCRIPT, Long.class);
+
+    /**
+     * 本节点持有的文档锁
+     */
+    private static class HeldLock {
+        final String value;
+        final long token;
+        volatile ScheduledFuture<?> renewal;
+
+        HeldLock(String value, long token) {
+            this.value = value;
+            this.token = token;
+        }
+    }
+
+    /**
+     * 本节点上等待同一文档锁的线程共用的释放信号；generation 在每次收到释放通知时递增
+     */
+    private static class ReleaseSignal {
+        long generation;
+        int waiting;
+        boolean retired; // 已从 signals 中移除，等待方需重新获取
+    }
+
+    private final Map<Long, HeldLock> held = new ConcurrentHashMap<>();
+    private final Map<Long, ReleaseSignal> signals = new ConcurrentHashMap<>();
+    private final AtomicBoolean subscribed = new AtomicBoolean(false);
+    private final ScheduledThreadPoolExecutor renewer = createRenewer();
+
     @Override
     public boolean tryLock(String key, String value, long timeout, TimeUnit unit) {
         try {
@@ -50,16 +151,11 @@ public class DistributedLockServiceImpl implements DistributedLockService {
     @Override
     public boolean releaseLock(String key, String value) {
         try {
-            // 获取当前锁的值
-            String currentValue = (String) redisTemplate.opsForValue().get(key);
-            if (currentValue != null && currentValue.equals(value)) {
-                redisTemplate.delete(key);
-                System.out.println("锁释放成功: key=" + key);
-                return true;
-            } else {
-                System.out.println("锁释放失败: 值不匹配或锁不存在, current=" + currentValue + ", expected=" + value);
-                return false;
-            }
+            // 比较与删除在同一脚本中完成，不会误删其他持有者刚获取的锁
+            Long result = redisTemplate.execute(RELEASE, Collections.singletonList(key), value);
+            boolean released = result != null && result > 0;
+            System.out.println("锁释放" + (released ? "成功" : "失败（值不匹配或锁不存在）") + ": key=" + key);
+            return released;
         } catch (Exception e) {
             System.out.println("释放锁异常: " + e.getMessage());
             return false;
@@ -68,81 +164,68 @@ public class DistributedLockServiceImpl implements DistributedLockService {
 
     @Override
     public boolean tryDocumentLock(Long documentId, Long userId, long timeout, TimeUnit unit) {
-        String key = RedisKeyConstant.buildDocumentLockKey(documentId);
-        String value = userId.toString() + ":" + System.currentTimeMillis();
-
-        // 检查锁状态
-        Object currentLock = redisTemplate.opsForValue().get(key);
-        if (currentLock != null) {
-            // 检查锁是否已过期（超过5秒）
-            String lockValue = currentLock.toString();
-            if (lockValue.contains(":")) {
-                try {
-                    long lockTime = Long.parseLong(lockValue.split(":")[1]);
-                    long currentTime = System.currentTimeMillis();
-                    if (currentTime - lockTime > 5000) { // 5秒超时
-                        System.out.println("检测到过期锁，强制删除: " + lockValue);
-                        redisTemplate.delete(key);
-                        currentLock = null;
-                    }
-                } catch (Exception e) {
-                    System.out.println("解析锁时间戳失败: " + lockValue);
-                }
-            }
-        }
-
-        System.out.println("尝试获取锁: key=" + key + ", currentLock=" + currentLock + ", userId=" + userId);
-
-        boolean result = tryLock(key, value, timeout, unit);
-        System.out.println("锁获取结果: " + result + ", value=" + value);
-        return result;
+        return acquireDocumentLock(documentId, userId, unit.toMillis(timeout)) > 0;
     }
 
     @Override
     public boolean releaseDocumentLock(Long documentId, Long userId) {
-        String key = RedisKeyConstant.buildDocumentLockKey(documentId);
-        String value = userId.toString();
-
-        // 获取当前锁的值
-        Object currentValue = redisTemplate.opsForValue().get(key);
-        System.out.println("释放锁: key=" + key + ", currentValue=" + currentValue + ", userId=" + userId);
-
-        if (currentValue != null) {
-            String currentValueStr = currentValue.toString();
-            boolean isOwner = currentValueStr.startsWith(value + ":");
-            System.out.println("锁拥有者检查: 期望前缀='" + value + ":', 当前值='" + currentValueStr + "', 是否匹配=" + isOwner);
-
-            if (isOwner) {
-                boolean result = releaseLock(key, currentValueStr);
-                System.out.println("锁释放结果: " + result);
-                return result;
-            } else {
-                System.out.println("锁释放失败：当前用户不是锁的拥有者");
+        HeldLock lock = held.get(documentId);
+        if (lock == null || !lock.value.startsWith(userId + ":")) {
+            System.out.println("锁释放失败：当前用户不是锁的拥有者, documentId=" + documentId + ", userId=" + userId);
+            return false;
+        }
+        held.remove(documentId, lock);
+        if (lock.renewal != null) {
+            lock.renewal.cancel(false);
+        }
+        signalRelease(documentId); // 本节点的等待方不必等发布消息绕一圈
+        try {
+            Long result = stringRedisTemplate.execute(DOCUMENT_RELEASE,
+                    Collections.singletonList(RedisKeyConstant.buildDocumentLockKey(documentId)),
+                    lock.value, RedisKeyConstant.buildDocumentLockReleasedChannel(documentId));
+            boolean released = result != null && result > 0;
+            if (!released) {
+                System.out.println("锁释放失败：租约已过期, documentId=" + documentId + ", token=" + lock.token);
             }
-        } else {
-            System.out.println("锁释放失败：锁不存在");
+            return released;
+        } catch (Exception e) {
+            System.err.println("释放文档锁异常: documentId=" + documentId + ", " + e.getMessage());
+            return false;
         }
-        return false;
     }
 
     @Override
-    public Long getNextSequence(Long documentId) {
-        String key = RedisKeyConstant.buildDocumentSequenceKey(documentId);
-        return redisTemplate.opsForValue().increment(key);
+    public long getFencingToken(Long documentId) {
+        HeldLock lock = held.get(documentId);
+        return lock != null ? lock.token : 0L;
+    }
+
+    @Override
+    public long leaseRevisions(Long documentId, int revision, int count) {
+        Long previous = stringRedisTemplate.execute(REVISION_LEASE,
+                Collections.singletonList(RedisKeyConstant.buildDocumentSequenceKey(documentId)),
+                String.valueOf(revision), String.valueOf(count));
+        return previous != null ? previous : 0L;
+    }
+
+    @Override
+    public void releaseRevisions(Long documentId, int leasedRevision, int revision) {
+        stringRedisTemplate.execute(REVISION_RELEASE,
+                Collections.singletonList(RedisKeyConstant.buildDocumentSequenceKey(documentId)),
+                String.valueOf(leasedRevision), String.valueOf(revision));
     }
 
     @Override
     public Long getCurrentSequence(Long documentId) {
-        String key = RedisKeyConstant.buildDocumentSequenceKey(documentId);
-        Object value = redisTemplate.opsForValue().get(key);
-        return value != null ? Long.valueOf(value.toString()) : 0L;
+        String value = stringRedisTemplate.opsForValue().get(RedisKeyConstant.buildDocumentSequenceKey(documentId));
+        return value != null ? Long.valueOf(value) : 0L;
     }
 
     @Override
     public void queueOperation(Long documentId, Long userId, String operation) {
         String queueKey = RedisKeyConstant.buildDocumentLockQueueKey(documentId);
-        String queueItem = userId + ":" + System.currentTimeMillis() + ":" + operation;
-        redisTemplate.opsForList().rightPush(queueKey, queueItem);
+        // 原样入队：出队方按 JSON 解析，操作数据中已包含用户ID与时间戳
+        redisTemplate.opsForList().rightPush(queueKey, operation);
         // 设置队列过期时间为1小时，避免积压
         redisTemplate.expire(queueKey, 1, TimeUnit.HOURS);
         System.out.println("操作已加入队列: documentId=" + documentId + ", userId=" + userId + ", queueLength=" + getQueueLength(documentId));
@@ -158,6 +241,21 @@ public class DistributedLockServiceImpl implements DistributedLockService {
         return item != null ? item.toString() : null;
     }
 
+    @Override
+    public List<String> dequeueOperations(Long documentId, int max) {
+        String queueKey = RedisKeyConstant.buildDocumentLockQueueKey(documentId);
+        // LPOP key count：一次往返取出一批
+        List<Object> items = redisTemplate.opsForList().leftPop(queueKey, max);
+        if (items == null || items.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> operations = new ArrayList<>(items.size());
+        for (Object item : items) {
+            operations.add(item.toString());
+        }
+        return operations;
+    }
+
     @Override
     public Long getQueueLength(Long documentId) {
         String queueKey = RedisKeyConstant.buildDocumentLockQueueKey(documentId);
@@ -167,88 +265,168 @@ public class DistributedLockServiceImpl implements DistributedLockService {
 
     @Override
     public boolean tryDocumentLockWithQueue(Long documentId, Long userId, long maxWaitTime) {
-        String lockKey = RedisKeyConstant.buildDocumentLockKey(documentId);
-        String lockValue = userId.toString() + ":" + System.currentTimeMillis();
-
         long startTime = System.currentTimeMillis();
-        while (System.currentTimeMillis() - startTime < maxWaitTime) {
-            // 尝试获取锁
-            Boolean lockAcquired = redisTemplate.opsForValue().setIfAbsent(lockKey, lockValue, 30, TimeUnit.SECONDS);
-            if (lockAcquired != null && lockAcquired) {
-                System.out.println("获取文档锁成功: documentId=" + documentId + ", userId=" + userId + ", 等待时间=" + (System.currentTimeMillis() - startTime) + "ms");
-                return true;
-            }
-
-            // 检查锁是否过期，如果过期则强制清理
-            Object currentLock = redisTemplate.opsForValue().get(lockKey);
-            if (currentLock != null) {
-                String lockValueStr = currentLock.toString();
-                if (lockValueStr.contains(":")) {
-                    try {
-                        long lockTime = Long.parseLong(lockValueStr.split(":")[1]);
-                        long currentTime = System.currentTimeMillis();
-                        if (currentTime - lockTime > 30000) { // 30秒超时
-                            System.out.println("检测到过期锁，强制删除: " + lockValueStr);
-                            redisTemplate.delete(lockKey);
-                            // 再次尝试获取锁
-                            continue;
-                        }
-                    } catch (Exception e) {
-                        System.out.println("解析锁时间戳失败: " + lockValueStr);
+        long deadline = startTime + maxWaitTime;
+        ReleaseSignal signal = joinWaiters(documentId);
+        try {
+            while (true) {
+                long seen;
+                synchronized (signal) {
+                    seen = signal.generation;
+                }
+                long result = acquireDocumentLock(documentId, userId, leaseMs);
+                if (result > 0) {
+                    System.out.println("获取文档锁成功: documentId=" + documentId + ", userId=" + userId
+                            + ", token=" + result + ", 等待时间=" + (System.currentTimeMillis() - startTime) + "ms");
+                    return true;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    System.out.println("获取文档锁超时: documentId=" + documentId + ", userId=" + userId + ", 等待时间=" + maxWaitTime + "ms");
+                    return false;
+                }
+                subscribeReleases();
+                // 等待释放通知；持有者崩溃不会发布通知，最多等到其租约到期
+                long wait = result < 0 ? Math.min(remaining, -result) : Math.min(remaining, 50);
+                synchronized (signal) {
+                    if (signal.generation == seen) {
+                        signal.wait(wait);
                     }
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            leaveWaiters(documentId, signal);
+        }
+    }
 
-            // 短暂等待后重试
-            try {
-                Thread.sleep(50); // 50ms
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                return false;
+    @Override
+    public boolean releaseDocumentLockAndProcessQueue(Long documentId, Long userId, OperationHandler operationHandler) {
+        boolean released = releaseDocumentLock(documentId, userId);
+        if (released) {
+            System.out.println("文档锁释放成功: documentId=" + documentId + ", userId=" + userId);
+
+            // 检查队列中是否有等待的操作
+            String nextOperation = dequeueOperation(documentId);
+            if (nextOperation != null && operationHandler != null) {
+                try {
+                    System.out.println("处理队列中的下一个操作: " + nextOperation);
+                    operationHandler.handleOperation(nextOperation);
+                } catch (Exception e) {
+                    System.err.println("处理队列操作失败: " + e.getMessage());
+                }
             }
         }
+        return released;
+    }
 
-        System.out.println("获取文档锁超时: documentId=" + documentId + ", userId=" + userId + ", 等待时间=" + maxWaitTime + "ms");
-        return false;
+    @PreDestroy
+    public void shutdown() {
+        renewer.shutdownNow();
+        for (Map.Entry<Long, HeldLock> entry : held.entrySet()) {
+            String owner = entry.getValue().value;
+            releaseDocumentLock(entry.getKey(), Long.valueOf(owner.substring(0, owner.indexOf(':'))));
+        }
     }
 
-    @Override
-    public boolean releaseDocumentLockAndProcessQueue(Long documentId, Long userId, OperationHandler operationHandler) {
+    /**
+     * 执行一次获取脚本：成功时记录持有的锁并开始续期，返回令牌；失败返回 -剩余租约毫秒（Redis 异常时返回 0）
+     */
+    private long acquireDocumentLock(Long documentId, Long userId, long lease) {
         String lockKey = RedisKeyConstant.buildDocumentLockKey(documentId);
-        String expectedValue = userId.toString();
-
-        // 获取当前锁的值
-        Object currentValue = redisTemplate.opsForValue().get(lockKey);
-        if (currentValue != null) {
-            String currentValueStr = currentValue.toString();
-            boolean isOwner = currentValueStr.startsWith(expectedValue + ":");
-
-            if (isOwner) {
-                // 释放锁
-                boolean released = releaseLock(lockKey, currentValueStr);
-                if (released) {
-                    System.out.println("文档锁释放成功: documentId=" + documentId + ", userId=" + userId);
-
-                    // 检查队列中是否有等待的操作
-                    String nextOperation = dequeueOperation(documentId);
-                    if (nextOperation != null && operationHandler != null) {
-                        try {
-                            System.out.println("处理队列中的下一个操作: " + nextOperation);
-                            operationHandler.handleOperation(nextOperation);
-                        } catch (Exception e) {
-                            System.err.println("处理队列操作失败: " + e.getMessage());
-                        }
-                    }
+        Long result;
+        try {
+            result = stringRedisTemplate.execute(DOCUMENT_ACQUIRE,
+                    Arrays.asList(lockKey, RedisKeyConstant.buildDocumentLockTokenKey(documentId)),
+                    String.valueOf(userId), String.valueOf(lease));
+        } catch (Exception e) {
+            System.err.println("获取文档锁异常: documentId=" + documentId + ", " + e.getMessage());
+            return 0;
+        }
+        if (result == null || result <= 0) {
+            return result != null ? result : 0;
+        }
+        HeldLock lock = new HeldLock(userId + ":" + result, result);
+        held.put(documentId, lock);
+        long period = Math.max(1, lease / 3);
+        lock.renewal = renewer.scheduleAtFixedRate(() -> renew(documentId, lock, lease), period, period, TimeUnit.MILLISECONDS);
+        return result;
+    }
+
+    private void renew(Long documentId, HeldLock lock, long lease) {
+        try {
+            Long result = stringRedisTemplate.execute(DOCUMENT_RENEW,
+                    Collections.singletonList(RedisKeyConstant.buildDocumentLockKey(documentId)),
+                    lock.value, String.valueOf(lease));
+            if (result == null || result == 0) {
+                // 租约已失效（如长时间停顿），之后带此令牌的写入会被数据库拒绝
+                System.err.println("文档锁续期失败，锁已丢失: documentId=" + documentId + ", token=" + lock.token);
+                held.remove(documentId, lock);
+                lock.renewal.cancel(false);
+            }
+        } catch (Exception e) {
+            System.err.println("文档锁续期异常: documentId=" + documentId + ", " + e.getMessage());
+        }
+    }
+
+    private ReleaseSignal joinWaiters(Long documentId) {
+        while (true) {
+            ReleaseSignal signal = signals.computeIfAbsent(documentId, id -> new ReleaseSignal());
+            synchronized (signal) {
+                if (!signal.retired) {
+                    signal.waiting++;
+                    return signal;
                 }
-                return released;
-            } else {
-                System.out.println("锁释放失败：当前用户不是锁的拥有者");
-                return false;
             }
-        } else {
-            System.out.println("锁释放失败：锁不存在");
-            return false;
         }
     }
-}
 
+    private void leaveWaiters(Long documentId, ReleaseSignal signal) {
+        synchronized (signal) {
+            if (--signal.waiting == 0) {
+                signal.retired = true;
+                signals.remove(documentId, signal);
+            }
+        }
+    }
+
+    private void signalRelease(Long documentId) {
+        ReleaseSignal signal = signals.get(documentId);
+        if (signal != null) {
+            synchronized (signal) {
+                signal.generation++;
+                signal.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 首次需要等待时订阅所有文档的锁释放频道（整个节点共用一个订阅连接）
+     */
+    private void subscribeReleases() {
+        if (!subscribed.compareAndSet(false, true)) {
+            return;
+        }
+        String channelPrefix = RedisKeyConstant.DOCUMENT_LOCK_RELEASED_CHANNEL;
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+            try {
+                signalRelease(Long.valueOf(channel.substring(channelPrefix.length())));
+            } catch (NumberFormatException e) {
+                System.err.println("无法识别的锁释放频道: " + channel);
+            }
+        }, new PatternTopic(channelPrefix + "*"));
+    }
+
+    private static ScheduledThreadPoolExecutor createRenewer() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "document-lock-renewal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+}
@@ -0,0 +1,219 @@
+package org.zsy.bysj.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.zsy.bysj.algorithm.ContentChunker;
+import org.zsy.bysj.mapper.DocumentBlockMapper;
+import org.zsy.bysj.model.DocumentBlock;
+import org.zsy.bysj.service.DocumentBlockService;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 文档内容分块存储服务实现类
+ *
+ * 内容按 {@link ContentChunker} 切分，与上次写入的分块按哈希比对首尾相同的部分，
+ * 中间变化的块优先原地更新，多出的块删除，新增的块取相邻排序键之间的值插入；
+ * 排序键之间没有空位时整篇重写。同一文档的写入由会话落库锁串行化。
+ */
+@Service
+public class DocumentBlockServiceImpl implements DocumentBlockService {
+
+    public static final String LAYOUT_INLINE = "INLINE";
+    public static final String LAYOUT_BLOCK = "BLOCK";
+
+    private static final long SORT_KEY_GAP = 1L << 20;
+    private static final int PAGE_SIZE = 64;
+
+    @Autowired
+    private DocumentBlockMapper documentBlockMapper;
+
+    @Value("${collab.storage.block-layout:false}")
+    private boolean blockLayout;
+
+    @Value("${collab.storage.block-size:4096}")
+    private int blockSize;
+
+    // 最近一次写入后的分块标识信息（不含内容），按排序键有序
+    private final Map<Long, List<DocumentBlock>> blockRefs = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean isEnabled() {
+        return blockLayout;
+    }
+
+    @Override
+    @Transactional
+    public void writeContent(Long documentId, String content) {
+        List<String> chunks = ContentChunker.split(content != null ? content : "", blockSize);
+        long[] hashes = new long[chunks.size()];
+        for (int i = 0; i < chunks.size(); i++) {
+            hashes[i] = ContentChunker.hash(chunks.get(i));
+        }
+        evictOnRollback(documentId);
+        List<DocumentBlock> old = blockRefs.get(documentId);
+        if (old == null) {
+            old = documentBlockMapper.selectRefs(documentId);
+        }
+        if (old.isEmpty()) {
+            // 首次以分块方式写入（由 content 列转换而来），直接批量插入
+            rewriteAll(documentId, chunks, hashes);
+            return;
+        }
+
+        int prefix = 0;
+        while (prefix < old.size() && prefix < chunks.size() && sameBlock(old.get(prefix), chunks.get(prefix), hashes[prefix])) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < old.size() - prefix && suffix < chunks.size() - prefix
+                && sameBlock(old.get(old.size() - 1 - suffix), chunks.get(chunks.size() - 1 - suffix),
+                        hashes[chunks.size() - 1 - suffix])) {
+            suffix++;
+        }
+        int oldMiddle = old.size() - prefix - suffix;
+        int newMiddle = chunks.size() - prefix - suffix;
+        if (oldMiddle == 0 && newMiddle == 0) {
+            blockRefs.put(documentId, old);
+            return;
+        }
+
+        int paired = Math.min(oldMiddle, newMiddle);
+        int inserted = newMiddle - paired;
+        long lowKey = prefix + paired > 0 ? old.get(prefix + paired - 1).getSortKey() : 0;
+        long highKey = suffix > 0 ? old.get(old.size() - suffix).getSortKey() : lowKey + SORT_KEY_GAP * (inserted + 1);
+        if (inserted > 0 && highKey - lowKey <= inserted) {
+            rewriteAll(documentId, chunks, hashes);
+            return;
+        }
+
+        List<DocumentBlock> result = new ArrayList<>(chunks.size());
+        result.addAll(old.subList(0, prefix));
+        // 变化的块原地更新（保留排序键）
+        for (int i = 0; i < paired; i++) {
+            DocumentBlock ref = old.get(prefix + i);
+            String chunk = chunks.get(prefix + i);
+            DocumentBlock block = toRef(ref.getId(), documentId, ref.getSortKey(), hashes[prefix + i], chunk.length());
+            block.setContent(chunk);
+            documentBlockMapper.updateById(block);
+            block.setContent(null);
+            result.add(block);
+        }
+        // 多出的旧块删除
+        if (oldMiddle > paired) {
+            List<Long> ids = new ArrayList<>(oldMiddle - paired);
+            for (int i = prefix + paired; i < prefix + oldMiddle; i++) {
+                ids.add(old.get(i).getId());
+            }
+            documentBlockMapper.deleteByIds(ids);
+        }
+        // 新增的块插入到相邻两块的排序键之间
+        long step = (highKey - lowKey) / (inserted + 1);
+        for (int i = 0; i < inserted; i++) {
+            int index = prefix + paired + i;
+            DocumentBlock block = toRef(null, documentId, lowKey + step * (i + 1), hashes[index], chunks.get(index).length());
+            block.setContent(chunks.get(index));
+            documentBlockMapper.insert(block);
+            block.setContent(null);
+            result.add(block);
+        }
+        result.addAll(old.subList(old.size() - suffix, old.size()));
+        blockRefs.put(documentId, result);
+    }
+
+    @Override
+    public String readContent(Long documentId) {
+        StringWriter writer = new StringWriter();
+        try {
+            streamContent(documentId, writer);
+        } catch (IOException e) {
+            throw new RuntimeException("读取文档分块失败", e);
+        }
+        return writer.toString();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void streamContent(Long documentId, Writer writer) throws IOException {
+        long afterSortKey = Long.MIN_VALUE;
+        while (true) {
+            List<DocumentBlock> page = documentBlockMapper.selectPage(documentId, afterSortKey, PAGE_SIZE);
+            for (DocumentBlock block : page) {
+                writer.write(block.getContent());
+                afterSortKey = block.getSortKey();
+            }
+            if (page.size() < PAGE_SIZE) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void evict(Long documentId) {
+        blockRefs.remove(documentId);
+    }
+
+    /**
+     * 所在事务回滚时丢弃缓存的分块标识信息（其中可能包含已回滚的行），下次写入时从数据库重新读取
+     */
+    private void evictOnRollback(Long documentId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    blockRefs.remove(documentId);
+                }
+            }
+        });
+    }
+
+    /**
+     * 删除全部分块后按新的排序键整篇重写
+     */
+    private void rewriteAll(Long documentId, List<String> chunks, long[] hashes) {
+        documentBlockMapper.delete(new QueryWrapper<DocumentBlock>().eq("document_id", documentId));
+        List<DocumentBlock> batch = new ArrayList<>(PAGE_SIZE);
+        for (int i = 0; i < chunks.size(); i++) {
+            DocumentBlock block = toRef(null, documentId, SORT_KEY_GAP * (i + 1), hashes[i], chunks.get(i).length());
+            block.setContent(chunks.get(i));
+            batch.add(block);
+            if (batch.size() == PAGE_SIZE) {
+                documentBlockMapper.insertBatch(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            documentBlockMapper.insertBatch(batch);
+        }
+        // 批量插入不回填 ID，下次写入时再从数据库读取
+        blockRefs.remove(documentId);
+    }
+
+    private static boolean sameBlock(DocumentBlock ref, String chunk, long hash) {
+        return ref.getContentHash() == hash && ref.getLength() == chunk.length();
+    }
+
+    private static DocumentBlock toRef(Long id, Long documentId, long sortKey, long hash, int length) {
+        DocumentBlock ref = new DocumentBlock();
+        ref.setId(id);
+        ref.setDocumentId(documentId);
+        ref.setSortKey(sortKey);
+        ref.setContentHash(hash);
+        ref.setLength(length);
+        return ref;
+    }
+}
@@ -3,11 +3,12 @@ package org.zsy.bysj.service.impl;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.zsy.bysj.algorithm.OTAlgorithm;
 import org.zsy.bysj.algorithm.Operation;
+import org.zsy.bysj.dto.DocumentSummary;
 import org.zsy.bysj.mapper.DocumentMapper;
 import org.zsy.bysj.mapper.CommentMapper;
 import org.zsy.bysj.mapper.DocumentOperationMapper;
@@ -15,12 +16,21 @@ import org.zsy.bysj.mapper.DocumentVersionMapper;
 import org.zsy.bysj.model.Document;
 import org.zsy.bysj.model.DocumentOperation;
 import org.zsy.bysj.model.DocumentVersion;
-import org.zsy.bysj.model.DocumentPermission;
+import org.zsy.bysj.service.CrdtSessionService;
+import org.zsy.bysj.service.DocumentBlockService;
 import org.zsy.bysj.service.DocumentService;
+import org.zsy.bysj.service.DocumentSessionService;
+import org.zsy.bysj.service.DocumentVersionService;
+import org.zsy.bysj.service.OperationLogService;
 import org.zsy.bysj.service.PermissionService;
+import org.zsy.bysj.session.CrdtDocumentSession;
+import org.zsy.bysj.session.DocumentSession;
 import org.zsy.bysj.constant.RedisKeyConstant;
+import org.zsy.bysj.util.ContentCodec;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -52,7 +62,26 @@ public class DocumentServiceImpl implements DocumentService {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private DocumentSessionService documentSessionService;
+
+    @Autowired
+    private CrdtSessionService crdtSessionService;
+
+    @Autowired
+    private OperationLogService operationLogService;
+
+    @Autowired
+    private DocumentBlockService documentBlockService;
+
+    @Autowired
+    private DocumentVersionService documentVersionService;
+
+    @Value("${collab.oplog.await-timeout-ms:5000}")
+    private long operationLogAwaitMs;
+
     private static final int CACHE_EXPIRE_HOURS = 24;
+    private static final int MAX_PAGE_SIZE = 200;
 
     @Override
     @Transactional
@@ -101,6 +130,9 @@ public class DocumentServiceImpl implements DocumentService {
         if (document == null) {
             document = documentMapper.selectById(documentId);
             if (document != null) {
+                if (DocumentBlockServiceImpl.LAYOUT_BLOCK.equals(document.getContentLayout())) {
+                    document.setContent(documentBlockService.readContent(documentId));
+                }
                 cacheDocument(document);
             }
         }
@@ -109,17 +141,71 @@ public class DocumentServiceImpl implements DocumentService {
         if (document != null && document.getIsDeleted() != null && document.getIsDeleted()) {
             return null;
         }
+
+        // 文档正在被协同编辑时，以内存会话中的最新内容和版本为准
+        if (document != null) {
+            DocumentSession session = documentSessionService.peekSession(documentId);
+            if (session != null) {
+                session.copyStateTo(document);
+            }
+            CrdtDocumentSession crdtSession = crdtSessionService.peekSession(documentId);
+            if (crdtSession != null) {
+                crdtSession.copyStateTo(document);
+            }
+        }
         return document;
     }
 
+    @Override
+    public String getDocumentTitle(Long documentId) {
+        Document document = documentMapper.selectOne(new QueryWrapper<Document>()
+                .select("id", "title", "is_deleted")
+                .eq("id", documentId));
+        if (document == null || Boolean.TRUE.equals(document.getIsDeleted())) {
+            return null;
+        }
+        return document.getTitle();
+    }
+
+    @Override
+    public void streamDocumentContent(Long documentId, Writer writer) throws IOException {
+        // 正在协同编辑的文档以内存会话为准
+        DocumentSession session = documentSessionService.peekSession(documentId);
+        if (session != null) {
+            writer.write(session.getContent());
+            return;
+        }
+        CrdtDocumentSession crdtSession = crdtSessionService.peekSession(documentId);
+        if (crdtSession != null) {
+            writer.write(crdtSession.getContent());
+            return;
+        }
+        Document document = documentMapper.selectById(documentId);
+        if (document == null || Boolean.TRUE.equals(document.getIsDeleted())) {
+            throw new RuntimeException("文档不存在");
+        }
+        if (DocumentBlockServiceImpl.LAYOUT_BLOCK.equals(document.getContentLayout())) {
+            documentBlockService.streamContent(documentId, writer);
+        } else if (document.getContent() != null) {
+            writer.write(document.getContent());
+        }
+    }
+
     @Override
     @Transactional
     public void updateDocumentContent(Long documentId, String content, Integer version) {
+        // 整体替换内容前，先把内存会话中的编辑落库并移除会话
+        documentSessionService.invalidate(documentId);
+        crdtSessionService.invalidate(documentId);
+
         // 先更新文档内容（添加版本检查，避免并发更新冲突）
         UpdateWrapper<Document> updateWrapper = new UpdateWrapper<>();
         updateWrapper.eq("id", documentId)
                      .eq("version", version) // 添加版本检查，避免并发更新冲突
-                     .set("content", content)
+                     .set("content", ContentCodec.encode(content, ContentCodec.HOT_LEVEL))
+                     .set("content_layout", DocumentBlockServiceImpl.LAYOUT_INLINE) // 整体替换的内容直接写入 content 列
+                     .set("format_spans", null) // 整体替换内容后原有格式区间失效，格式以新内容为准
+                     .set("crdt_state", null) // CRDT 状态同样以新内容重建
                      .set("version", version + 1)
                      .set("updated_at", LocalDateTime.now());
         int updateCount = documentMapper.update(null, updateWrapper);
@@ -131,11 +217,8 @@ public class DocumentServiceImpl implements DocumentService {
         
         // 注意：快照创建已移除，只在保存时创建快照（见 DocumentController.updateDocumentContent）
         
-        // 更新缓存
-        Document document = documentMapper.selectById(documentId);
-        if (document != null) {
-            cacheDocument(document);
-        }
+        // 清除缓存，下次读取时再加载（不在写路径上回读整篇内容）
+        redisTemplate.delete(RedisKeyConstant.buildDocumentCacheKey(documentId));
     }
     
     /**
@@ -160,43 +243,9 @@ public class DocumentServiceImpl implements DocumentService {
     }
 
     @Override
-    @Transactional
     public Document applyOperation(Long documentId, Operation operation, Long userId) {
-        Document document = getDocumentById(documentId);
-        if (document == null) {
-            throw new RuntimeException("文档不存在");
-        }
-
-                    // 检查用户是否有编辑权限
-                    boolean hasWritePermission = permissionService.hasPermission(documentId, userId, "WRITE");
-                    System.out.println("权限检查: 用户" + userId + " 对文档" + documentId + " 的写权限 = " + hasWritePermission);
-                    if (!hasWritePermission) {
-                        throw new RuntimeException("无权限编辑此文档");
-                    }
-
-        // 获取自用户上次操作以来的所有操作（使用MyBatis Plus的QueryWrapper）
-        QueryWrapper<DocumentOperation> queryWrapper = new QueryWrapper<>();
-        queryWrapper.eq("document_id", documentId)
-                   .gt("version", document.getVersion())
-                   .orderByAsc("timestamp");
-        List<DocumentOperation> operations = documentOperationMapper.selectList(queryWrapper);
-
-        // 对操作进行转换（OT算法）
-        Operation transformedOp = operation;
-        for (DocumentOperation op : operations) {
-            Operation op2 = parseOperation(op);
-            transformedOp = OTAlgorithm.transform(transformedOp, op2);
-        }
-
-        // 应用转换后的操作
-        String currentContent = document.getContent();
-        String newContent = OTAlgorithm.apply(currentContent, transformedOp);
-        
-        // 更新文档
-        updateDocumentContent(documentId, newContent, document.getVersion());
-
-        // 保存操作记录
-        saveOperation(documentId, userId, transformedOp, document.getVersion());
+        // 在内存会话中完成转换与应用，落库由会话服务在后台异步完成
+        documentSessionService.applyOperation(documentId, userId, operation, null);
 
         // 返回更新后的文档
         return getDocumentById(documentId);
@@ -204,46 +253,22 @@ public class DocumentServiceImpl implements DocumentService {
 
     @Override
     public List<DocumentOperation> getDocumentOperations(Long documentId, Integer fromVersion) {
-        QueryWrapper<DocumentOperation> queryWrapper = new QueryWrapper<>();
-        queryWrapper.eq("document_id", documentId)
-                   .gt("version", fromVersion)
-                   .orderByAsc("timestamp");
-        return documentOperationMapper.selectList(queryWrapper);
+        // 基准版本 > fromVersion，即提交后的版本 > fromVersion + 1
+        return operationLogService.readRange(documentId, fromVersion + 1, null, null);
     }
 
     @Override
-    public List<Document> getUserDocuments(Long userId) {
-        QueryWrapper<Document> wrapper = new QueryWrapper<>();
-        wrapper.eq("creator_id", userId)
-               .eq("is_deleted", 0)
-               .orderByDesc("updated_at");
-        return documentMapper.selectList(wrapper);
+    public List<DocumentSummary> getUserDocuments(Long userId, LocalDateTime beforeUpdatedAt, Long beforeId, Integer limit) {
+        return documentMapper.selectSummariesByCreatorId(userId, 0, beforeUpdatedAt, beforeId, pageLimit(limit));
     }
 
     @Override
-    public List<Document> getSharedDocuments(Long userId) {
-        // 获取用户的所有权限记录
-        List<org.zsy.bysj.model.DocumentPermission> permissions = permissionService.getUserPermissions(userId);
-        if (permissions == null || permissions.isEmpty()) {
-            return new java.util.ArrayList<>();
-        }
-        
-        // 提取文档ID列表
-        List<Long> documentIds = permissions.stream()
-            .map(org.zsy.bysj.model.DocumentPermission::getDocumentId)
-            .distinct()
-            .collect(java.util.stream.Collectors.toList());
-        
-        if (documentIds.isEmpty()) {
+    public List<DocumentSummary> getSharedDocuments(Long userId, LocalDateTime beforeUpdatedAt, Long beforeId, Integer limit) {
+        // 成员关系（有缓存）为空时不必查询数据库
+        if (permissionService.getUserMemberships(userId).isEmpty()) {
             return new java.util.ArrayList<>();
         }
-        
-        // 查询这些文档（排除已删除的）
-        QueryWrapper<Document> wrapper = new QueryWrapper<>();
-        wrapper.in("id", documentIds)
-               .eq("is_deleted", 0)
-               .orderByDesc("updated_at");
-        return documentMapper.selectList(wrapper);
+        return documentMapper.selectSharedSummaries(userId, beforeUpdatedAt, beforeId, pageLimit(limit));
     }
 
     @Override
@@ -254,6 +279,9 @@ public class DocumentServiceImpl implements DocumentService {
             throw new RuntimeException("无权删除该文档");
         }
 
+        documentSessionService.invalidate(documentId);
+        crdtSessionService.invalidate(documentId);
+
         // 逻辑删除：避免物理删除导致无法恢复
         UpdateWrapper<Document> updateWrapper = new UpdateWrapper<>();
         updateWrapper.eq("id", documentId)
@@ -293,6 +321,30 @@ public class DocumentServiceImpl implements DocumentService {
         redisTemplate.delete(RedisKeyConstant.buildDocumentCacheKey(documentId));
     }
 
+    @Override
+    @Transactional
+    public void updateEngineMode(Long documentId, String mode, Long userId) {
+        if (!permissionService.hasPermission(documentId, userId, "ADMIN")) {
+            throw new RuntimeException("无权修改该文档的协同模式");
+        }
+        if (!"OT".equals(mode) && !CrdtSessionServiceImpl.ENGINE_MODE_CRDT.equals(mode)) {
+            throw new RuntimeException("不支持的协同模式: " + mode);
+        }
+
+        // 切换前两种会话都先落库并移除，之后按新模式重新加载
+        documentSessionService.invalidate(documentId);
+        crdtSessionService.invalidate(documentId);
+
+        UpdateWrapper<Document> updateWrapper = new UpdateWrapper<>();
+        updateWrapper.eq("id", documentId)
+                .set("engine_mode", mode)
+                .set("crdt_state", null) // 以当前文本重新初始化 CRDT 状态
+                .set("updated_at", LocalDateTime.now());
+        documentMapper.update(null, updateWrapper);
+
+        redisTemplate.delete(RedisKeyConstant.buildDocumentCacheKey(documentId));
+    }
+
     @Override
     @Transactional
     public void restoreDocument(Long documentId, Long userId) {
@@ -311,10 +363,10 @@ public class DocumentServiceImpl implements DocumentService {
     }
 
     @Override
-    public List<Document> getDeletedDocuments(Long userId) {
+    public List<DocumentSummary> getDeletedDocuments(Long userId, LocalDateTime beforeUpdatedAt, Long beforeId, Integer limit) {
         // 回收站：当前用户创建的已删除文档
         // 注意：这里必须走自定义 SQL，避免 MyBatis-Plus 自动注入 is_deleted=0 逻辑删除过滤条件
-        return documentMapper.selectDeletedDocumentsByCreatorId(userId);
+        return documentMapper.selectSummariesByCreatorId(userId, 1, beforeUpdatedAt, beforeId, pageLimit(limit));
     }
 
     @Override
@@ -325,14 +377,16 @@ public class DocumentServiceImpl implements DocumentService {
             throw new RuntimeException("无权彻底删除该文档");
         }
 
+        documentSessionService.discard(documentId);
+        crdtSessionService.discard(documentId);
+        operationLogService.discard(documentId);
+
         // 清理关联数据：权限、操作历史、版本快照、评论
         // 说明：document 表使用自定义 SQL 做物理删除，避免逻辑删除过滤影响
         documentMapper.forceDeleteById(documentId);
 
         // permission/comment/operation/version 等表通常不参与 document 的逻辑删除，因此可直接 delete
-        permissionService.remove(
-                new QueryWrapper<DocumentPermission>().eq("document_id", documentId)
-        );
+        permissionService.removeDocumentPermissions(documentId);
         documentOperationMapper.delete(
                 new QueryWrapper<org.zsy.bysj.model.DocumentOperation>().eq("document_id", documentId)
         );
@@ -355,52 +409,19 @@ public class DocumentServiceImpl implements DocumentService {
             throw new RuntimeException("文档不存在");
         }
 
-        // 检查该版本是否已存在快照（可能有重复记录）
-        QueryWrapper<DocumentVersion> queryWrapper = new QueryWrapper<>();
-        queryWrapper.eq("document_id", documentId)
-                   .eq("version", version)
-                   .orderByDesc("created_at"); // 按创建时间降序，最新的在前
-        List<DocumentVersion> existingList = documentVersionMapper.selectList(queryWrapper);
-
-        if (existingList != null && !existingList.isEmpty()) {
-            // 如果存在多条记录，先删除所有旧记录
-            if (existingList.size() > 1) {
-                List<Long> idsToDelete = existingList.stream()
-                    .map(DocumentVersion::getId)
-                    .collect(java.util.stream.Collectors.toList());
-                documentVersionMapper.deleteBatchIds(idsToDelete);
-                
-                // 创建新的快照
-                DocumentVersion documentVersion = new DocumentVersion();
-                documentVersion.setDocumentId(documentId);
-                documentVersion.setVersion(version);
-                documentVersion.setContent(document.getContent());
-                documentVersion.setSnapshot(buildSnapshot(document));
-                documentVersion.setCreatedBy(document.getCreatorId());
-                documentVersion.setCreatedAt(LocalDateTime.now());
-                documentVersionMapper.insert(documentVersion);
-            } else {
-                // 只有一条记录，更新即可
-                DocumentVersion existing = existingList.get(0);
-                existing.setContent(document.getContent());
-                existing.setSnapshot(buildSnapshot(document));
-                documentVersionMapper.updateById(existing);
-            }
-        } else {
-            // 创建新的版本快照
-            DocumentVersion documentVersion = new DocumentVersion();
-            documentVersion.setDocumentId(documentId);
-            documentVersion.setVersion(version);
-            documentVersion.setContent(document.getContent());
-            documentVersion.setSnapshot(buildSnapshot(document));
-            documentVersion.setCreatedBy(document.getCreatorId());
-            documentVersion.setCreatedAt(LocalDateTime.now());
-            documentVersionMapper.insert(documentVersion);
-        }
+        // 同一版本号已存在时覆盖，否则作为最新版本追加（较早的版本改存为反向差量）
+        DocumentVersion documentVersion = new DocumentVersion();
+        documentVersion.setDocumentId(documentId);
+        documentVersion.setVersion(version);
+        documentVersion.setContent(document.getContent());
+        documentVersion.setSnapshot(buildSnapshot(document));
+        documentVersion.setCreatedBy(document.getCreatorId());
+        documentVersion.setCreatedAt(LocalDateTime.now());
+        documentVersionService.saveVersion(documentVersion);
     }
 
     /**
-     * 构建文档快照（JSON格式，包含文档元数据）
+     * 构建文档快照（JSON格式，包含文档元数据和该版本的操作；内容已存于 document_version.content，不再重复写入）
      */
     private String buildSnapshot(Document document) {
         try {
@@ -408,18 +429,14 @@ public class DocumentServiceImpl implements DocumentService {
             java.util.Map<String, Object> snapshot = new java.util.HashMap<>();
             snapshot.put("id", document.getId());
             snapshot.put("title", document.getTitle());
-            snapshot.put("content", document.getContent());
             snapshot.put("creatorId", document.getCreatorId());
             snapshot.put("version", document.getVersion());
             snapshot.put("createdAt", document.getCreatedAt());
             snapshot.put("updatedAt", document.getUpdatedAt());
             
-            // 获取该版本的所有操作
-            QueryWrapper<DocumentOperation> opWrapper = new QueryWrapper<>();
-            opWrapper.eq("document_id", document.getId())
-                    .eq("version", document.getVersion())
-                    .orderByAsc("timestamp");
-            List<DocumentOperation> operations = documentOperationMapper.selectList(opWrapper);
+            // 获取基于该版本的操作（提交后的版本为 version + 1）
+            List<DocumentOperation> operations = operationLogService.readRange(
+                    document.getId(), document.getVersion(), document.getVersion() + 1, null);
             snapshot.put("operations", operations);
             
             return objectMapper.writeValueAsString(snapshot);
@@ -430,21 +447,12 @@ public class DocumentServiceImpl implements DocumentService {
 
     @Override
     public List<DocumentVersion> getDocumentVersions(Long documentId) {
-        QueryWrapper<DocumentVersion> wrapper = new QueryWrapper<>();
-        wrapper.eq("document_id", documentId)
-               .orderByDesc("version");
-        return documentVersionMapper.selectList(wrapper);
+        return documentVersionService.listVersions(documentId);
     }
 
     @Override
     public DocumentVersion getVersionSnapshot(Long documentId, Integer version) {
-        QueryWrapper<DocumentVersion> wrapper = new QueryWrapper<>();
-        wrapper.eq("document_id", documentId)
-               .eq("version", version)
-               .orderByDesc("created_at") // 按创建时间降序，获取最新的
-               .last("LIMIT 1"); // 只取第一条
-        List<DocumentVersion> list = documentVersionMapper.selectList(wrapper);
-        return list != null && !list.isEmpty() ? list.get(0) : null;
+        return documentVersionService.getVersion(documentId, version);
     }
 
     @Override
@@ -469,10 +477,24 @@ public class DocumentServiceImpl implements DocumentService {
         // 创建当前版本的快照（保存当前状态）
         createVersionSnapshot(documentId, document.getVersion());
 
+        // 回滚会整体替换内容，先将内存会话落库并移除
+        documentSessionService.invalidate(documentId);
+        crdtSessionService.invalidate(documentId);
+
+        // 回滚后的内容即版本 targetVersion + 1，基于 targetVersion 及之后的旧操作记录（revision > targetVersion）
+        // 不再对应当前文档，等待写完后删除，客户端补齐历史时读不到它们而重新同步
+        if (!operationLogService.awaitWritten(documentId, operationLogAwaitMs)) {
+            throw new RuntimeException("操作记录尚未写入完成，请稍后重试");
+        }
+        operationLogService.truncateAfter(documentId, targetVersion);
+
         // 回滚到目标版本
         UpdateWrapper<Document> updateWrapper = new UpdateWrapper<>();
         updateWrapper.eq("id", documentId)
-                     .set("content", targetVersionSnapshot.getContent())
+                     .set("content", ContentCodec.encode(targetVersionSnapshot.getContent(), ContentCodec.HOT_LEVEL))
+                     .set("content_layout", DocumentBlockServiceImpl.LAYOUT_INLINE)
+                     .set("format_spans", null)
+                     .set("crdt_state", null)
                      .set("version", targetVersion + 1) // 新版本号
                      .set("updated_at", LocalDateTime.now());
         documentMapper.update(null, updateWrapper);
@@ -485,33 +507,13 @@ public class DocumentServiceImpl implements DocumentService {
     }
 
     /**
-     * 保存操作记录
-     */
-    private void saveOperation(Long documentId, Long userId, Operation operation, Integer version) {
-        DocumentOperation docOp = new DocumentOperation();
-        docOp.setDocumentId(documentId);
-        docOp.setUserId(userId);
-        docOp.setOperationType(operation.getType());
-        docOp.setOperationData(operation.getData());
-        docOp.setPosition(operation.getPosition());
-        docOp.setLength(operation.getLength());
-        docOp.setTimestamp(System.currentTimeMillis());
-        docOp.setVersion(version);
-        
-        documentOperationMapper.insert(docOp);
-    }
-
-    /**
-     * 解析操作
+     * 列表分页条数：未指定时不限，超过上限时按上限返回
      */
-    private Operation parseOperation(DocumentOperation docOp) {
-        if ("INSERT".equals(docOp.getOperationType())) {
-            return Operation.insert(docOp.getOperationData(), docOp.getPosition());
-        } else if ("DELETE".equals(docOp.getOperationType())) {
-            return Operation.delete(docOp.getPosition(), docOp.getLength());
-        } else {
-            return Operation.retain(docOp.getPosition(), docOp.getLength());
+    private static Integer pageLimit(Integer limit) {
+        if (limit == null || limit <= 0) {
+            return null;
         }
+        return Math.min(limit, MAX_PAGE_SIZE);
     }
 
     /**
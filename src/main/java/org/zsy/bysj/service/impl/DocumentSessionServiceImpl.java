@@ -0,0 +1,636 @@
+package org.zsy.bysj.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.zsy.bysj.algorithm.Delta;
+import org.zsy.bysj.algorithm.Operation;
+import org.zsy.bysj.algorithm.RichTextOperation;
+import org.zsy.bysj.constant.RedisKeyConstant;
+import org.zsy.bysj.event.DocumentResyncEvent;
+import org.zsy.bysj.event.PermissionChangedEvent;
+import org.zsy.bysj.mapper.DocumentMapper;
+import org.zsy.bysj.model.Document;
+import org.zsy.bysj.journal.RecoveredDocument;
+import org.zsy.bysj.model.DocumentOperation;
+import org.zsy.bysj.service.DistributedLockService;
+import org.zsy.bysj.service.DocumentBlockService;
+import org.zsy.bysj.service.DocumentSessionService;
+import org.zsy.bysj.service.OperationJournalService;
+import org.zsy.bysj.service.OperationLogService;
+import org.zsy.bysj.service.PermissionService;
+import org.zsy.bysj.session.CommittedOperation;
+import org.zsy.bysj.session.DocumentSession;
+import org.zsy.bysj.util.ContentCodec;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 文档编辑会话服务实现类
+ *
+ * 编辑热路径只做：会话查找 -> 写权限（缓存）-> 内存中转换并应用；
+ * 内容与操作记录由单独的落库线程异步写入数据库，连续的多次编辑会合并为一次落库。
+ * 开启本地操作日志（collab.journal.enabled）时，操作在确认前追加到本地日志，节点崩溃重启后从日志重放未落库的编辑。
+ */
+@Service
+public class DocumentSessionServiceImpl implements DocumentSessionService {
+
+    @Autowired
+    private DocumentMapper documentMapper;
+
+    @Autowired
+    private OperationLogService operationLogService;
+
+    @Autowired
+    private DocumentBlockService documentBlockService;
+
+    @Autowired
+    private OperationJournalService operationJournalService;
+
+    @Autowired
+    private PermissionService permissionService;
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private DistributedLockService distributedLockService;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${collab.session.history-size:1024}")
+    private int historySize;
+
+    @Value("${collab.session.idle-timeout-ms:600000}")
+    private long idleTimeoutMs;
+
+    @Value("${collab.oplog.await-timeout-ms:5000}")
+    private long operationLogAwaitMs;
+
+    private final Map<Long, DocumentSession> sessions = new ConcurrentHashMap<>();
+
+    @Value("${collab.persist.flush-interval-ms:1000}")
+    private long flushIntervalMs;
+
+    @Value("${collab.persist.flush-max-revisions:200}")
+    private int flushMaxRevisions;
+
+    @Value("${collab.sequence.block-size:1000}")
+    private int revisionBlockSize;
+
+    private final ScheduledThreadPoolExecutor flushExecutor = createFlushExecutor();
+
+    @Override
+    public DocumentSession getSession(Long documentId) {
+        return sessions.computeIfAbsent(documentId, this::loadSession);
+    }
+
+    @Override
+    public DocumentSession peekSession(Long documentId) {
+        return sessions.get(documentId);
+    }
+
+    @Override
+    public Set<Long> getLoadedDocumentIds() {
+        return new HashSet<>(sessions.keySet());
+    }
+
+    @Override
+    public CommittedOperation applyOperation(Long documentId, Long userId, Operation operation, Integer baseVersion) {
+        DocumentSession session = getWritableSession(documentId, userId);
+        CommittedOperation committed;
+        if (baseVersion == null) {
+            committed = session.apply(userId, operation);
+        } else {
+            committed = applyFromBaseVersion(session, baseVersion,
+                    olderOperations -> session.apply(userId, operation, baseVersion, olderOperations));
+        }
+        scheduleFlush(session);
+        return committed;
+    }
+
+    @Override
+    public CommittedOperation applyDelta(Long documentId, Long userId, Delta delta, Integer baseVersion) {
+        if (delta == null) {
+            throw new RuntimeException("Delta 不能为空");
+        }
+        DocumentSession session = getWritableSession(documentId, userId);
+        CommittedOperation committed;
+        if (baseVersion == null) {
+            committed = session.applyDelta(userId, delta);
+        } else {
+            committed = applyFromBaseVersion(session, baseVersion,
+                    olderOperations -> session.applyDelta(userId, delta, baseVersion, olderOperations));
+        }
+        scheduleFlush(session);
+        return committed;
+    }
+
+    @Override
+    public CommittedOperation applyFormat(Long documentId, Long userId, RichTextOperation format, Integer baseVersion) {
+        if (format == null || !"FORMAT".equals(format.getType())) {
+            throw new RuntimeException("格式操作无效");
+        }
+        DocumentSession session = getWritableSession(documentId, userId);
+        CommittedOperation committed;
+        if (baseVersion == null) {
+            committed = session.applyFormat(userId, format);
+        } else {
+            committed = applyFromBaseVersion(session, baseVersion,
+                    olderOperations -> session.applyFormat(userId, format, baseVersion, olderOperations));
+        }
+        scheduleFlush(session);
+        return committed;
+    }
+
+    private DocumentSession getWritableSession(Long documentId, Long userId) {
+        DocumentSession session = getSession(documentId);
+        if (session == null) {
+            throw new RuntimeException("文档不存在");
+        }
+        if (!hasWritePermission(session, userId)) {
+            throw new RuntimeException("无权限编辑此文档");
+        }
+        ensureRevisionLease(session);
+        return session;
+    }
+
+    /**
+     * 版本号由会话连续分配（即 document.version），提交的版本超过已租用的上界前续租一段，每 block-size 个版本才访问一次Redis。
+     * 会话首次租用时若上界高于当前版本，说明之前持有会话的节点分配过未落库（可能已广播）的版本号，通知客户端重新同步
+     */
+    private void ensureRevisionLease(DocumentSession session) {
+        synchronized (session) {
+            int version = session.getVersion();
+            if (version < session.getLeasedRevision()) {
+                return;
+            }
+            boolean first = session.getLeasedRevision() == 0;
+            long previous;
+            try {
+                previous = distributedLockService.leaseRevisions(session.getDocumentId(), version, revisionBlockSize);
+            } catch (Exception e) {
+                // 未取得租约时不能在本地延长上界（其他节点可能分配同一段版本号），拒绝本次编辑，下次提交时重试
+                System.err.println("租用文档版本号失败: documentId=" + session.getDocumentId() + ", " + e.getMessage());
+                throw new RuntimeException("分配文档版本号失败，请稍后重试");
+            }
+            session.setLeasedRevision((int) Math.max(previous, version) + revisionBlockSize);
+            if (first && previous > version) {
+                System.out.println("文档版本号租约上界高于会话版本，通知客户端重新同步: documentId=" + session.getDocumentId()
+                        + ", version=" + version + ", leased=" + previous);
+                eventPublisher.publishEvent(new DocumentResyncEvent(session.getDocumentId(), version, session.getContent()));
+            }
+        }
+    }
+
+    /**
+     * 会话已全部落库并移除时归还未用完的版本号，之后加载会话的节点不会误判需要重新同步
+     */
+    private void releaseRevisionLease(DocumentSession session) {
+        int leasedRevision = session.getLeasedRevision();
+        if (leasedRevision == 0 || session.isDirty()) {
+            return; // 仍有未落库的版本：保留上界，接管的节点据此通知客户端重新同步
+        }
+        try {
+            distributedLockService.releaseRevisions(session.getDocumentId(), leasedRevision, session.getVersion());
+        } catch (Exception e) {
+            System.err.println("归还文档版本号失败: documentId=" + session.getDocumentId() + ", " + e.getMessage());
+        }
+    }
+
+    /**
+     * 相对 baseVersion 之后已提交的操作转换并应用
+     * 通常只用到会话中的环形缓冲区；客户端落后超过缓冲区容量时，才从数据库补齐更早的操作记录
+     *
+     * @param applier 以补齐的历史操作为参数执行转换与应用，历史不足时返回null
+     */
+    private CommittedOperation applyFromBaseVersion(DocumentSession session, int baseVersion,
+                                                    Function<List<CommittedOperation>, CommittedOperation> applier) {
+        List<CommittedOperation> olderOperations = Collections.emptyList();
+        for (int attempt = 0; attempt < 3; attempt++) {
+            CommittedOperation committed = applier.apply(olderOperations);
+            if (committed != null) {
+                return committed;
+            }
+            olderOperations = loadOperationsSince(session, baseVersion);
+        }
+        throw new RuntimeException("操作基准版本过旧，请重新同步文档");
+    }
+
+    /**
+     * 从数据库读取基准版本 >= baseVersion 的操作记录（先落库并等待操作日志写完，保证数据库中的记录是连续的）
+     */
+    private List<CommittedOperation> loadOperationsSince(DocumentSession session, int baseVersion) {
+        flushSession(session);
+        if (!operationLogService.awaitWritten(session.getDocumentId(), operationLogAwaitMs)) {
+            throw new RuntimeException("操作记录尚未写入完成，请稍后重试");
+        }
+        System.out.println("客户端版本落后于内存操作缓冲区，从数据库补齐: documentId="
+                + session.getDocumentId() + ", baseVersion=" + baseVersion);
+
+        // 基准版本 >= baseVersion 即提交后的版本 > baseVersion，每个版本一行
+        List<DocumentOperation> rows = operationLogService.readRange(session.getDocumentId(), baseVersion, null, null);
+
+        List<CommittedOperation> result = new ArrayList<>(rows.size());
+        for (DocumentOperation row : rows) {
+            result.add(DocumentSession.toCommittedOperation(row));
+        }
+        return result;
+    }
+
+    @Override
+    public void flush(Long documentId) {
+        DocumentSession session = sessions.get(documentId);
+        if (session != null) {
+            flushSession(session);
+        }
+    }
+
+    @Override
+    public void invalidate(Long documentId) {
+        DocumentSession session = sessions.get(documentId);
+        if (session == null) {
+            return;
+        }
+        flushSession(session);
+        sessions.remove(documentId, session);
+        documentBlockService.evict(documentId);
+        releaseRevisionLease(session);
+        if (!session.isDirty()) {
+            // 文档接下来会被整体替换或回滚，已落库的日志记录不能再被重放
+            operationJournalService.discard(documentId);
+        }
+    }
+
+    @Override
+    public void discard(Long documentId) {
+        sessions.remove(documentId);
+        documentBlockService.evict(documentId);
+        operationJournalService.discard(documentId);
+    }
+
+    /**
+     * 权限变更后清除对应会话中的写权限缓存
+     */
+    @EventListener
+    public void onPermissionChanged(PermissionChangedEvent event) {
+        DocumentSession session = sessions.get(event.getDocumentId());
+        if (session == null) {
+            return;
+        }
+        if (event.getUserId() != null) {
+            session.getWritePermissions().remove(event.getUserId());
+        } else {
+            session.getWritePermissions().clear();
+        }
+    }
+
+    /**
+     * 定期回收长时间无编辑且已全部落库的会话
+     */
+    @Scheduled(fixedDelayString = "${collab.session.evict-interval-ms:60000}")
+    public void evictIdleSessions() {
+        long now = System.currentTimeMillis();
+        for (DocumentSession session : sessions.values()) {
+            if (now - session.getLastAccessTime() < idleTimeoutMs) {
+                continue;
+            }
+            flushSession(session);
+            if (!session.isDirty()) {
+                sessions.remove(session.getDocumentId(), session);
+                documentBlockService.evict(session.getDocumentId());
+                releaseRevisionLease(session);
+                System.out.println("回收空闲文档会话: documentId=" + session.getDocumentId());
+            }
+        }
+    }
+
+    /**
+     * 启动时把本地操作日志中检查点之后的操作重放回文档会话并落库：
+     * 版本号不超过数据库中文档版本的操作内容已落库，只补写可能尚未写入的操作记录；其余按版本顺序重放
+     */
+    @PostConstruct
+    public void recoverFromJournal() {
+        for (RecoveredDocument recovered : operationJournalService.takeRecovered()) {
+            try {
+                recoverDocument(recovered);
+            } catch (Exception e) {
+                System.err.println("从本地操作日志恢复文档失败: documentId=" + recovered.getDocumentId() + ", " + e.getMessage());
+            }
+        }
+    }
+
+    private void recoverDocument(RecoveredDocument recovered) {
+        Long documentId = recovered.getDocumentId();
+        DocumentSession session = getSession(documentId);
+        if (session == null) {
+            operationJournalService.discard(documentId); // 文档已删除
+            return;
+        }
+        List<DocumentOperation> persisted = new ArrayList<>();
+        int replayed = 0;
+        for (DocumentOperation operation : recovered.getOperations()) {
+            if (replayed == 0 && operation.getRevision() <= session.getVersion()) {
+                persisted.add(operation);
+                continue;
+            }
+            if (!session.replay(operation)) {
+                System.err.println("本地操作日志版本不连续，停止重放: documentId=" + documentId
+                        + ", revision=" + operation.getRevision() + ", currentVersion=" + session.getVersion());
+                break;
+            }
+            replayed++;
+        }
+        if (!persisted.isEmpty()) {
+            operationLogService.append(documentId, persisted);
+        }
+        session.advanceJournalSequence(recovered.getLastSequence());
+        System.out.println("从本地操作日志恢复文档: documentId=" + documentId + ", 重放版本数=" + replayed
+                + ", 补写操作记录数=" + persisted.size());
+        flushSession(session);
+    }
+
+    /**
+     * 应用关闭前将所有会话落库
+     */
+    @PreDestroy
+    public void shutdown() {
+        flushExecutor.shutdown();
+        try {
+            flushExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (DocumentSession session : sessions.values()) {
+            flushSession(session);
+            releaseRevisionLease(session);
+        }
+    }
+
+    private DocumentSession loadSession(Long documentId) {
+        Document document = documentMapper.selectById(documentId);
+        if (document == null || Boolean.TRUE.equals(document.getIsDeleted())) {
+            return null;
+        }
+        if (CrdtSessionServiceImpl.ENGINE_MODE_CRDT.equals(document.getEngineMode())) {
+            throw new RuntimeException("文档已启用CRDT模式，请使用CRDT操作编辑");
+        }
+        if (DocumentBlockServiceImpl.LAYOUT_BLOCK.equals(document.getContentLayout())) {
+            document.setContent(documentBlockService.readContent(documentId));
+        }
+        System.out.println("加载文档会话: documentId=" + documentId + ", version=" + document.getVersion());
+        DocumentSession session = new DocumentSession(document, historySize);
+        if (operationJournalService.isEnabled()) {
+            session.setJournal(operationJournalService::append);
+        }
+        return session;
+    }
+
+    private boolean hasWritePermission(DocumentSession session, Long userId) {
+        if (userId.equals(session.getCreatorId())) {
+            return true;
+        }
+        return session.getWritePermissions().computeIfAbsent(userId,
+                id -> permissionService.hasPermission(session.getDocumentId(), id, "WRITE"));
+    }
+
+    /**
+     * 安排一次异步落库：未落库版本数达到 flush-max-revisions 时立即落库，
+     * 否则在 flush-interval-ms 后落库，期间的编辑合并为一次写入
+     */
+    private void scheduleFlush(DocumentSession session) {
+        if (session.getUnflushedCount() >= flushMaxRevisions) {
+            if (!session.markImmediateFlushScheduled()) {
+                return;
+            }
+            try {
+                flushExecutor.execute(() -> {
+                    session.clearImmediateFlushScheduled();
+                    flushSession(session);
+                });
+            } catch (RejectedExecutionException e) {
+                session.clearImmediateFlushScheduled();
+                System.err.println("提交文档落库任务失败: " + e.getMessage());
+            }
+            return;
+        }
+        scheduleDelayedFlush(session);
+    }
+
+    /**
+     * 在 flush-interval-ms 后落库；已有待执行的延迟落库任务时不重复提交（落库失败后的重试也走这里）
+     */
+    private void scheduleDelayedFlush(DocumentSession session) {
+        if (!session.markFlushScheduled()) {
+            return;
+        }
+        try {
+            flushExecutor.schedule(() -> {
+                session.clearFlushScheduled();
+                flushSession(session);
+            }, flushIntervalMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            session.clearFlushScheduled();
+            System.err.println("提交文档落库任务失败: " + e.getMessage());
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor createFlushExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "document-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 关闭时不再等待延迟任务，由 shutdown() 直接将所有会话落库
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        return executor;
+    }
+
+    /**
+     * 在同一事务中按版本号（及文档锁令牌）条件更新文档，更新成功后才改写分块表，
+     * 版本冲突或被更大的令牌拒绝时分块表保持不变
+     *
+     * @return 更新的文档行数（0 表示版本冲突或已被拒绝）
+     */
+    private int persistContent(Long documentId, DocumentSession.FlushSnapshot snapshot) {
+        Integer updateCount = transactionTemplate.execute(status -> {
+            UpdateWrapper<Document> updateWrapper = new UpdateWrapper<>();
+            updateWrapper.eq("id", documentId)
+                         .eq("version", snapshot.getFromVersion());
+            if (snapshot.getFencingToken() > 0) {
+                // 文档锁令牌：锁已过期并被他人以更大令牌获取时，旧持有者的写入不会生效
+                updateWrapper.le("fencing_token", snapshot.getFencingToken())
+                             .set("fencing_token", snapshot.getFencingToken());
+            }
+            String content = snapshot.getContent().toString();
+            boolean blockLayout = documentBlockService.isEnabled();
+            if (blockLayout) {
+                // 分块存储：document 行只更新版本等元数据，变化的块在版本检查通过后改写
+                updateWrapper.set("content", null)
+                             .set("content_layout", DocumentBlockServiceImpl.LAYOUT_BLOCK);
+            } else {
+                updateWrapper.set("content", ContentCodec.encode(content, ContentCodec.HOT_LEVEL))
+                             .set("content_layout", DocumentBlockServiceImpl.LAYOUT_INLINE);
+            }
+            updateWrapper.set("format_spans", snapshot.getFormatSpans())
+                         .set("version", snapshot.getToVersion())
+                         .set("updated_at", LocalDateTime.now());
+            int updated = documentMapper.update(null, updateWrapper);
+            if (updated == 1 && blockLayout) {
+                documentBlockService.writeContent(documentId, content);
+            }
+            return updated;
+        });
+        return updateCount != null ? updateCount : 0;
+    }
+
+    /**
+     * 将会话中的增量写入数据库：先按版本号条件更新文档内容（见 persistContent），更新成功后再把操作记录交给操作日志写入服务，
+     * 版本冲突时不会留下高于文档版本的操作记录
+     */
+    private void flushSession(DocumentSession session) {
+        session.getFlushLock().lock();
+        try {
+            DocumentSession.FlushSnapshot snapshot = session.drainForFlush();
+            if (snapshot == null) {
+                return;
+            }
+            Long documentId = session.getDocumentId();
+            List<DocumentOperation> operations = snapshot.getOperations();
+
+            if (snapshot.getToVersion() != snapshot.getFromVersion()) {
+                int updateCount;
+                try {
+                    updateCount = persistContent(documentId, snapshot);
+                } catch (Exception e) {
+                    session.restorePending(operations);
+                    throw e;
+                }
+                if (updateCount == 0) {
+                    resolveConflict(session, snapshot);
+                    return;
+                }
+                session.markPersisted(snapshot.getToVersion());
+            }
+
+            // 操作记录交给操作日志写入服务批量写入；队列已满时未接收的部分放回会话，稍后重试
+            int accepted = operationLogService.append(documentId, operations);
+            if (accepted < operations.size()) {
+                session.restorePending(operations.subList(accepted, operations.size()));
+                System.err.println("操作日志写入队列已满，稍后重试: documentId=" + documentId
+                        + ", 未写入条数=" + (operations.size() - accepted));
+                scheduleDelayedFlush(session);
+                return;
+            }
+            operationJournalService.markFlushed(documentId, snapshot.getJournalSequence());
+            if (snapshot.getToVersion() != snapshot.getFromVersion()) {
+                redisTemplate.delete(RedisKeyConstant.buildDocumentCacheKey(documentId));
+            }
+        } catch (Exception e) {
+            // 未落库的版本仍保留在会话中，稍后重试，已确认的编辑不会丢失
+            System.err.println("文档落库失败，稍后重试: documentId=" + session.getDocumentId() + ", " + e.getMessage());
+            scheduleDelayedFlush(session);
+        } finally {
+            session.getFlushLock().unlock();
+        }
+    }
+
+    /**
+     * 落库版本冲突：数据库中的文档已被其他途径修改（整体替换、回滚或其他节点写入），或落库被更大的文档锁令牌拒绝。
+     * 丢弃本会话；数据库中有冲突之后连续的操作记录时，把已确认但未落库的编辑相对这些操作转换后重新提交到新加载的会话，
+     * 否则以数据库中的内容为准。两种情况都通知客户端按服务端内容重新同步
+     */
+    private void resolveConflict(DocumentSession session, DocumentSession.FlushSnapshot snapshot) {
+        Long documentId = session.getDocumentId();
+        int fromVersion = snapshot.getFromVersion();
+        List<DocumentOperation> persisted = new ArrayList<>();
+        List<DocumentOperation> unpersisted = new ArrayList<>();
+        for (DocumentOperation operation : snapshot.getOperations()) {
+            (operation.getRevision() <= fromVersion ? persisted : unpersisted).add(operation);
+        }
+        unpersisted.addAll(session.retire()); // 取出之后提交的操作，会话不再接受新的编辑
+        sessions.remove(documentId, session);
+        documentBlockService.evict(documentId);
+        if (!persisted.isEmpty()) {
+            operationLogService.append(documentId, persisted); // 上次落库时已写入文档内容的版本
+        }
+        // 本会话的日志记录作废；转换后重新提交的操作会以新的序号写入日志
+        operationJournalService.discard(documentId);
+        System.err.println("文档落库版本冲突，会话已丢弃: documentId=" + documentId
+                + ", expectedVersion=" + fromVersion + ", 未落库操作数=" + unpersisted.size());
+
+        DocumentSession reloaded;
+        try {
+            reloaded = getSession(documentId);
+        } catch (Exception e) {
+            System.err.println("重新加载文档会话失败: documentId=" + documentId + ", " + e.getMessage());
+            return;
+        }
+        if (reloaded == null) {
+            return; // 文档已删除
+        }
+        if (!unpersisted.isEmpty()) {
+            if (rebase(session, reloaded, fromVersion, unpersisted)) {
+                System.out.println("未落库的操作已转换到数据库中的最新版本: documentId=" + documentId
+                        + ", 操作数=" + unpersisted.size() + ", version=" + reloaded.getVersion());
+                scheduleFlush(reloaded);
+            } else {
+                System.err.println("无法转换未落库的操作，以数据库中的内容为准: documentId=" + documentId
+                        + ", 丢弃操作数=" + unpersisted.size());
+            }
+        }
+        eventPublisher.publishEvent(new DocumentResyncEvent(documentId, reloaded.getVersion(), reloaded.getContent()));
+    }
+
+    /**
+     * 读取数据库中 fromVersion 之后的操作记录，把未落库的操作相对它们转换后提交到新会话
+     * 数据库版本没有前进（被文档锁令牌拒绝）或已回退（回滚、整体替换后记录不连续）时不转换
+     */
+    private boolean rebase(DocumentSession stale, DocumentSession reloaded, int fromVersion,
+                           List<DocumentOperation> unpersisted) {
+        Long documentId = reloaded.getDocumentId();
+        try {
+            Document current = documentMapper.selectById(documentId);
+            if (current == null || current.getVersion() == null || current.getVersion() <= fromVersion
+                    || !operationLogService.awaitWritten(documentId, operationLogAwaitMs)) {
+                return false;
+            }
+            List<CommittedOperation> concurrent = new ArrayList<>();
+            for (DocumentOperation row : operationLogService.readRange(documentId, fromVersion, null, null)) {
+                concurrent.add(DocumentSession.toCommittedOperation(row));
+            }
+            // 旧会话租用的版本号上界仍有效，新会话沿用，不再当作其他节点遗留的版本
+            if (reloaded.getLeasedRevision() == 0) {
+                reloaded.setLeasedRevision(stale.getLeasedRevision());
+            }
+            ensureRevisionLease(reloaded);
+            return reloaded.rebase(fromVersion, unpersisted, concurrent);
+        } catch (Exception e) {
+            System.err.println("转换未落库的操作失败: documentId=" + documentId + ", " + e.getMessage());
+            return false;
+        }
+    }
+}
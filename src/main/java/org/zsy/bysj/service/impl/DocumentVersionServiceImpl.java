@@ -0,0 +1,218 @@
+package org.zsy.bysj.service.impl;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.zsy.bysj.algorithm.Delta;
+import org.zsy.bysj.algorithm.DocumentBuffer;
+import org.zsy.bysj.algorithm.TextDiff;
+import org.zsy.bysj.mapper.DocumentVersionMapper;
+import org.zsy.bysj.model.DocumentVersion;
+import org.zsy.bysj.service.DocumentVersionService;
+import org.zsy.bysj.util.ContentCodec;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 文档版本存储服务实现类
+ *
+ * 每次追加新版本时，新版本保存完整内容，原先最新的版本改存为“把新版本内容变回它自己”的反向差量，
+ * 于是版本记录通过 base_id 连成一条指向较新版本的链，链的一端是完整内容（关键帧）。
+ * 关键帧下方的差量记录数达到 keyframe-interval - 1 后，原最新版本保留完整内容成为新的关键帧，
+ * 因此还原任意版本最多沿链走 keyframe-interval - 1 步。差量不比完整内容小时同样保留完整内容。
+ * 升级前写入的记录 storage_type 为空，按完整内容处理。
+ * 写入时在事务内锁定文档行，同一文档的版本写入（包括其他节点）依次执行。
+ */
+@Service
+public class DocumentVersionServiceImpl implements DocumentVersionService {
+
+    public static final String STORAGE_FULL = "FULL";
+    public static final String STORAGE_DELTA = "DELTA";
+
+    // 链损坏（如 base_id 成环）时的保护上限
+    private static final int MAX_CHAIN_HOPS = 4096;
+
+    @Autowired
+    private DocumentVersionMapper documentVersionMapper;
+
+    @Value("${collab.version.keyframe-interval:16}")
+    private int keyframeInterval;
+
+    @Override
+    @Transactional
+    public void saveVersion(DocumentVersion version) {
+        String content = version.getContent() != null ? version.getContent() : "";
+        // 读最新版本 → 插入 → 把它改存为差量是一次读改写，同一文档的并发快照需串行，否则差量链会指错基准
+        documentVersionMapper.lockDocument(version.getDocumentId());
+        List<DocumentVersion> existingList =
+                documentVersionMapper.selectByVersion(version.getDocumentId(), version.getVersion());
+        if (!existingList.isEmpty()) {
+            overwrite(existingList, content, version.getSnapshot());
+            return;
+        }
+
+        // 决定原最新版本能否改存为相对新版本的反向差量
+        DocumentVersion head = documentVersionMapper.selectLatest(version.getDocumentId());
+        String reverseDelta = null;
+        int chainLength = 0;
+        if (head != null && !isDelta(head) && chainLength(head) + 1 < keyframeInterval) {
+            String headContent = head.getContent() != null ? head.getContent() : "";
+            String json = TextDiff.diff(content, headContent).toJson();
+            if (json.length() < headContent.length()) {
+                reverseDelta = json;
+                chainLength = chainLength(head) + 1;
+            }
+        }
+
+        DocumentVersion row = new DocumentVersion();
+        row.setDocumentId(version.getDocumentId());
+        row.setVersion(version.getVersion());
+        row.setContent(content);
+        row.setSnapshot(version.getSnapshot());
+        row.setStorageType(STORAGE_FULL);
+        row.setChainLength(chainLength);
+        row.setCreatedBy(version.getCreatedBy());
+        row.setCreatedAt(version.getCreatedAt());
+        documentVersionMapper.insert(row);
+
+        if (reverseDelta != null) {
+            documentVersionMapper.updateStorage(head.getId(), STORAGE_DELTA, row.getId(), 0,
+                    ContentCodec.encode(reverseDelta, ContentCodec.ARCHIVE_LEVEL));
+        }
+    }
+
+    @Override
+    public List<DocumentVersion> listVersions(Long documentId) {
+        List<DocumentVersion> rows = documentVersionMapper.selectByDocumentId(documentId);
+        Map<Long, DocumentVersion> byId = new HashMap<>();
+        for (DocumentVersion row : rows) {
+            byId.put(row.getId(), row);
+        }
+        // 链上的记录都在同一文档内，按已读出的记录还原，已还原的内容复用
+        Map<Long, String> resolved = new HashMap<>();
+        for (DocumentVersion row : rows) {
+            resolve(row, byId, resolved);
+        }
+        for (DocumentVersion row : rows) {
+            toFull(row, resolved.get(row.getId()));
+        }
+        return rows;
+    }
+
+    @Override
+    public DocumentVersion getVersion(Long documentId, Integer version) {
+        List<DocumentVersion> list = documentVersionMapper.selectByVersion(documentId, version);
+        if (list.isEmpty()) {
+            return null;
+        }
+        DocumentVersion row = list.get(0);
+        toFull(row, reconstruct(row));
+        return row;
+    }
+
+    /**
+     * 覆盖已存在的同版本号记录：内容变化时，先把依赖它的差量改为相对新内容计算，再改存完整内容
+     */
+    private void overwrite(List<DocumentVersion> existingList, String content, String snapshot) {
+        DocumentVersion existing = existingList.get(0);
+        String previous = reconstruct(existing);
+        if (!content.equals(previous)) {
+            for (DocumentVersion dependent : documentVersionMapper.selectDependents(existing.getId())) {
+                String text = applyDelta(previous, dependent.getContent());
+                documentVersionMapper.updateStorage(dependent.getId(), STORAGE_DELTA, existing.getId(), 0,
+                        ContentCodec.encode(TextDiff.diff(content, text).toJson(), ContentCodec.ARCHIVE_LEVEL));
+            }
+            // 无法得知下方链长，按已满处理，下一个版本追加时它保留为关键帧
+            documentVersionMapper.updateStorage(existing.getId(), STORAGE_FULL, null,
+                    Math.max(0, keyframeInterval - 1), ContentCodec.encode(content, ContentCodec.ARCHIVE_LEVEL));
+        }
+        DocumentVersion update = new DocumentVersion();
+        update.setId(existing.getId());
+        update.setSnapshot(snapshot);
+        documentVersionMapper.updateById(update);
+
+        // 历史遗留的重复记录：没有其他记录依赖时删除
+        for (DocumentVersion duplicate : existingList.subList(1, existingList.size())) {
+            if (documentVersionMapper.selectDependents(duplicate.getId()).isEmpty()) {
+                documentVersionMapper.deleteById(duplicate.getId());
+            }
+        }
+    }
+
+    /**
+     * 沿 base_id 找到最近的完整内容，再依次应用反向差量还原该记录的内容
+     */
+    private String reconstruct(DocumentVersion row) {
+        Deque<DocumentVersion> deltas = new ArrayDeque<>();
+        DocumentVersion current = row;
+        while (isDelta(current)) {
+            deltas.push(current);
+            current = documentVersionMapper.selectById(current.getBaseId());
+            if (current == null || deltas.size() > MAX_CHAIN_HOPS) {
+                throw new RuntimeException("版本差量链已损坏: versionId=" + row.getId());
+            }
+        }
+        String content = current.getContent() != null ? current.getContent() : "";
+        while (!deltas.isEmpty()) {
+            content = applyDelta(content, deltas.pop().getContent());
+        }
+        return content;
+    }
+
+    private String resolve(DocumentVersion row, Map<Long, DocumentVersion> byId, Map<Long, String> resolved) {
+        String cached = resolved.get(row.getId());
+        if (cached != null) {
+            return cached;
+        }
+        Deque<DocumentVersion> deltas = new ArrayDeque<>();
+        DocumentVersion current = row;
+        String content = null;
+        while (content == null && isDelta(current)) {
+            deltas.push(current);
+            Long baseId = current.getBaseId();
+            current = byId.get(baseId);
+            if (current == null) {
+                current = documentVersionMapper.selectById(baseId);
+            }
+            if (current == null || deltas.size() > MAX_CHAIN_HOPS) {
+                throw new RuntimeException("版本差量链已损坏: versionId=" + row.getId());
+            }
+            content = resolved.get(current.getId());
+        }
+        if (content == null) {
+            content = current.getContent() != null ? current.getContent() : "";
+            resolved.put(current.getId(), content);
+        }
+        while (!deltas.isEmpty()) {
+            DocumentVersion delta = deltas.pop();
+            content = applyDelta(content, delta.getContent());
+            resolved.put(delta.getId(), content);
+        }
+        return content;
+    }
+
+    private static String applyDelta(String content, String deltaJson) {
+        DocumentBuffer buffer = new DocumentBuffer(content);
+        Delta.fromJson(deltaJson).applyTo(buffer);
+        return buffer.toString();
+    }
+
+    private static void toFull(DocumentVersion row, String content) {
+        row.setContent(content);
+        row.setStorageType(STORAGE_FULL);
+        row.setBaseId(null);
+    }
+
+    private static boolean isDelta(DocumentVersion row) {
+        return STORAGE_DELTA.equals(row.getStorageType());
+    }
+
+    private static int chainLength(DocumentVersion row) {
+        return row.getChainLength() != null ? row.getChainLength() : 0;
+    }
+}
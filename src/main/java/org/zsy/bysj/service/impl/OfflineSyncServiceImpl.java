@@ -7,13 +7,17 @@ import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 import org.zsy.bysj.algorithm.Operation;
 import org.zsy.bysj.algorithm.OTAlgorithm;
+import org.zsy.bysj.algorithm.RichTextOTAlgorithm;
+import org.zsy.bysj.algorithm.RichTextOperation;
 import org.zsy.bysj.constant.RedisKeyConstant;
 import org.zsy.bysj.dto.OperationDTO;
 import org.zsy.bysj.model.Document;
 import org.zsy.bysj.model.DocumentOperation;
-import org.zsy.bysj.mapper.DocumentOperationMapper;
 import org.zsy.bysj.service.DocumentService;
+import org.zsy.bysj.service.CrdtSessionService;
+import org.zsy.bysj.service.DocumentSessionService;
 import org.zsy.bysj.service.OfflineSyncService;
+import org.zsy.bysj.service.OperationLogService;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -33,7 +37,13 @@ public class OfflineSyncServiceImpl implements OfflineSyncService {
     private DocumentService documentService;
 
     @Autowired
-    private DocumentOperationMapper documentOperationMapper;
+    private DocumentSessionService documentSessionService;
+
+    @Autowired
+    private CrdtSessionService crdtSessionService;
+
+    @Autowired
+    private OperationLogService operationLogService;
 
     @Autowired
     private ObjectMapper objectMapper;
@@ -156,8 +166,19 @@ public class OfflineSyncServiceImpl implements OfflineSyncService {
                 
                 while (!success && retryCount < maxRetries) {
                     try {
-                        Operation operation = convertToOperation(opDTO);
-                        documentService.applyOperation(documentId, operation, userId);
+                        if ("DELTA".equals(opDTO.getType()) && crdtSessionService.isCrdtDocument(documentId)) {
+                            // CRDT 模式文档：由 CRDT 会话转换后生成 CRDT 操作集成
+                            crdtSessionService.applyDelta(documentId, userId, opDTO.getDelta(), opDTO.getBaseVersion());
+                        } else if ("DELTA".equals(opDTO.getType())) {
+                            // Delta 由会话按其 baseVersion 转换后应用
+                            documentSessionService.applyDelta(documentId, userId, opDTO.getDelta(), opDTO.getBaseVersion());
+                        } else if ("FORMAT".equals(opDTO.getType())) {
+                            // 格式操作已在冲突解决时完成转换，只更新格式区间
+                            documentSessionService.applyFormat(documentId, userId, opDTO.toFormatOperation(), null);
+                        } else {
+                            Operation operation = convertToOperation(opDTO);
+                            documentService.applyOperation(documentId, operation, userId);
+                        }
                         syncedOps.add(opDTO);
                         success = true;
                     } catch (Exception e) {
@@ -230,6 +251,22 @@ public class OfflineSyncServiceImpl implements OfflineSyncService {
         // 对每个离线操作，相对于所有服务器操作进行OT转换
         List<OperationDTO> resolvedOps = new ArrayList<>();
         for (OperationDTO offlineOp : offlineOps) {
+            if ("DELTA".equals(offlineOp.getType())) {
+                // Delta 携带 baseVersion，应用时由会话完成转换
+                resolvedOps.add(offlineOp);
+                continue;
+            }
+            if ("FORMAT".equals(offlineOp.getType())) {
+                // 格式范围用富文本OT算法相对服务器操作转换
+                RichTextOperation format = offlineOp.toFormatOperation();
+                for (Operation serverOp : serverOperations) {
+                    format = RichTextOTAlgorithm.transform(format, RichTextOperation.fromOperation(serverOp));
+                }
+                offlineOp.setPosition(format.getPosition());
+                offlineOp.setLength(format.getLength());
+                resolvedOps.add(offlineOp);
+                continue;
+            }
             Operation op = convertToOperation(offlineOp);
             
             // 相对于所有服务器操作进行转换
@@ -257,14 +294,8 @@ public class OfflineSyncServiceImpl implements OfflineSyncService {
      * 获取服务器在指定版本范围内的操作
      */
     private List<DocumentOperation> getServerOperations(Long documentId, Integer fromVersion, Integer toVersion) {
-        // 从数据库查询指定版本范围内的操作
-        return documentOperationMapper.selectList(
-            new com.baomidou.mybatisplus.core.conditions.query.QueryWrapper<DocumentOperation>()
-                .eq("document_id", documentId)
-                .ge("version", fromVersion)
-                .lt("version", toVersion)
-                .orderByAsc("version")
-        );
+        // 基准版本在 [fromVersion, toVersion) 内的操作，即提交后的版本在 (fromVersion, toVersion] 内
+        return operationLogService.readRange(documentId, fromVersion, toVersion, null);
     }
 
     /**
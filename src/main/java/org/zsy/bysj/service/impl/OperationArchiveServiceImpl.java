@@ -0,0 +1,279 @@
+package org.zsy.bysj.service.impl;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.zsy.bysj.archive.OperationSegment;
+import org.zsy.bysj.mapper.DocumentOperationMapper;
+import org.zsy.bysj.model.DocumentOperation;
+import org.zsy.bysj.service.OperationArchiveService;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 操作日志归档服务实现类
+ *
+ * 每个文档一个目录，目录下每个分段文件保存一段连续版本的记录，文件名为 首版本-末版本.seg。
+ * 归档顺序为：写分段文件（临时文件刷盘后改名）→ 更新已归档版本号 → 删除数据库中对应的记录；
+ * 中途失败时数据库中残留的记录在下次归档时删除，读取方以已归档版本号为界，不会读到重复记录。
+ * 同一文档的归档、截断、删除操作互斥，读取不加锁（分段文件写入后不再修改）。
+ */
+@Service
+public class OperationArchiveServiceImpl implements OperationArchiveService {
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("(\\d+)-(\\d+)\\.seg");
+
+    @Autowired
+    private DocumentOperationMapper documentOperationMapper;
+
+    @Value("${collab.archive.enabled:false}")
+    private boolean enabled;
+
+    @Value("${collab.archive.dir:data/oplog}")
+    private String archiveDir;
+
+    @Value("${collab.archive.retain-revisions:1000}")
+    private int retainRevisions;
+
+    @Value("${collab.archive.segment-records:5000}")
+    private int segmentRecords;
+
+    @Value("${collab.archive.block-records:256}")
+    private int blockRecords;
+
+    @Value("${collab.archive.mapped-segments:256}")
+    private int mappedSegments;
+
+    @Value("${collab.archive.max-documents-per-run:100}")
+    private int maxDocumentsPerRun;
+
+    // 上一轮处理到的文档ID，下一轮从其后继续；一轮不足一批说明已到末尾，从头开始
+    private long candidateCursor;
+
+    private final Map<Long, DocumentArchive> archives = new ConcurrentHashMap<>();
+
+    // 最近读取过的分段保持映射，超出上限时释放最久未用的（映射由 GC 回收）
+    private final Map<Path, OperationSegment> mapped = Collections.synchronizedMap(
+            new LinkedHashMap<Path, OperationSegment>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Path, OperationSegment> eldest) {
+                    return size() > Math.max(1, mappedSegments);
+                }
+            });
+
+    /**
+     * 分段文件的版本范围
+     */
+    private static class SegmentRef {
+        final int firstRevision;
+        final int lastRevision;
+        final Path file;
+
+        SegmentRef(int firstRevision, int lastRevision, Path file) {
+            this.firstRevision = firstRevision;
+            this.lastRevision = lastRevision;
+            this.file = file;
+        }
+    }
+
+    /**
+     * 一个文档的归档：分段按末版本号排序
+     */
+    private static class DocumentArchive {
+        final NavigableMap<Integer, SegmentRef> segments = new ConcurrentSkipListMap<>();
+        volatile int archivedRevision;
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${collab.archive.interval-ms:600000}")
+    public void archiveOldOperations() {
+        if (!enabled) {
+            return;
+        }
+        List<DocumentOperation> candidates;
+        try {
+            candidates = documentOperationMapper.selectArchiveCandidates(candidateCursor,
+                    retainRevisions + segmentRecords, maxDocumentsPerRun);
+        } catch (Exception e) {
+            System.err.println("查询待归档文档失败: " + e.getMessage());
+            return;
+        }
+        candidateCursor = candidates.size() < maxDocumentsPerRun ? 0
+                : candidates.get(candidates.size() - 1).getDocumentId();
+        for (DocumentOperation candidate : candidates) {
+            try {
+                archiveDocument(candidate.getDocumentId(), candidate.getRevision() - retainRevisions);
+            } catch (Exception e) {
+                System.err.println("归档操作记录失败: documentId=" + candidate.getDocumentId() + ", " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 把版本号不超过 cutoff 的记录按 segment-records 条一段写入归档并从数据库删除
+     */
+    void archiveDocument(Long documentId, int cutoff) throws IOException {
+        DocumentArchive archive = archive(documentId);
+        synchronized (archive) {
+            int watermark = archive.archivedRevision;
+            if (watermark > 0) {
+                // 上次写入分段后未来得及删除的记录
+                documentOperationMapper.deleteUpToRevision(documentId, watermark);
+            }
+            while (watermark < cutoff) {
+                List<DocumentOperation> rows = documentOperationMapper.selectRange(documentId, watermark, cutoff, segmentRecords);
+                if (rows.isEmpty()) {
+                    break;
+                }
+                int first = rows.get(0).getRevision();
+                int last = rows.get(rows.size() - 1).getRevision();
+                SegmentRef segment = writeSegment(documentId, first, last, rows);
+                archive.segments.put(last, segment);
+                archive.archivedRevision = last;
+                documentOperationMapper.deleteUpToRevision(documentId, last);
+                watermark = last;
+                System.out.println("归档操作记录: documentId=" + documentId + ", 版本 " + first + "-" + last
+                        + ", 条数=" + rows.size());
+            }
+        }
+    }
+
+    @Override
+    public int getArchivedRevision(Long documentId) {
+        return archive(documentId).archivedRevision;
+    }
+
+    @Override
+    public List<DocumentOperation> readArchived(Long documentId, int fromRevision, int toRevision, Integer limit) {
+        int max = limit != null ? limit : Integer.MAX_VALUE;
+        List<DocumentOperation> result = new ArrayList<>();
+        for (SegmentRef segment : archive(documentId).segments.tailMap(fromRevision, false).values()) {
+            if (segment.firstRevision > toRevision || result.size() >= max) {
+                break;
+            }
+            try {
+                open(segment).read(documentId, fromRevision, toRevision, max, result);
+            } catch (IOException e) {
+                throw new RuntimeException("读取操作日志归档失败: " + segment.file, e);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void truncateAfter(Long documentId, int revision) {
+        DocumentArchive archive = archive(documentId);
+        synchronized (archive) {
+            List<SegmentRef> affected = new ArrayList<>(archive.segments.tailMap(revision, false).values());
+            try {
+                for (SegmentRef segment : affected) {
+                    if (segment.firstRevision <= revision) {
+                        // 跨越截断点的分段：保留的部分重写为新分段
+                        List<DocumentOperation> kept = new ArrayList<>();
+                        open(segment).read(documentId, segment.firstRevision - 1, revision, Integer.MAX_VALUE, kept);
+                        if (!kept.isEmpty()) {
+                            int last = kept.get(kept.size() - 1).getRevision();
+                            archive.segments.put(last, writeSegment(documentId, segment.firstRevision, last, kept));
+                        }
+                    }
+                    archive.segments.remove(segment.lastRevision);
+                    mapped.remove(segment.file);
+                    Files.deleteIfExists(segment.file);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("截断操作日志归档失败: documentId=" + documentId, e);
+            } finally {
+                archive.archivedRevision = archive.segments.isEmpty() ? 0 : archive.segments.lastKey();
+            }
+        }
+    }
+
+    @Override
+    public void discard(Long documentId) {
+        DocumentArchive archive = archive(documentId);
+        synchronized (archive) {
+            for (SegmentRef segment : archive.segments.values()) {
+                mapped.remove(segment.file);
+                try {
+                    Files.deleteIfExists(segment.file);
+                } catch (IOException e) {
+                    System.err.println("删除操作日志归档失败: " + segment.file + ", " + e.getMessage());
+                }
+            }
+            archive.segments.clear();
+            archive.archivedRevision = 0;
+            try {
+                Files.deleteIfExists(directory(documentId));
+            } catch (IOException e) {
+                System.err.println("删除操作日志归档目录失败: documentId=" + documentId + ", " + e.getMessage());
+            }
+            archives.remove(documentId, archive);
+        }
+    }
+
+    private SegmentRef writeSegment(Long documentId, int first, int last, List<DocumentOperation> rows) throws IOException {
+        Path directory = directory(documentId);
+        Files.createDirectories(directory);
+        Path file = directory.resolve(String.format("%010d-%010d.seg", first, last));
+        OperationSegment.write(file, rows, Math.max(1, blockRecords));
+        return new SegmentRef(first, last, file);
+    }
+
+    private OperationSegment open(SegmentRef segment) throws IOException {
+        OperationSegment opened = mapped.get(segment.file);
+        if (opened == null) {
+            opened = OperationSegment.open(segment.file);
+            mapped.put(segment.file, opened);
+        }
+        return opened;
+    }
+
+    /**
+     * 首次访问时扫描文档的归档目录
+     */
+    private DocumentArchive archive(Long documentId) {
+        return archives.computeIfAbsent(documentId, id -> {
+            DocumentArchive archive = new DocumentArchive();
+            Path directory = directory(id);
+            if (!Files.isDirectory(directory)) {
+                return archive;
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    Matcher matcher = SEGMENT_NAME.matcher(name);
+                    if (matcher.matches()) {
+                        int first = Integer.parseInt(matcher.group(1));
+                        int last = Integer.parseInt(matcher.group(2));
+                        archive.segments.put(last, new SegmentRef(first, last, file));
+                    } else if (name.endsWith(".tmp")) {
+                        Files.deleteIfExists(file); // 写入中断留下的临时文件
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("读取操作日志归档目录失败: " + directory, e);
+            }
+            archive.archivedRevision = archive.segments.isEmpty() ? 0 : archive.segments.lastKey();
+            return archive;
+        });
+    }
+
+    private Path directory(Long documentId) {
+        return Paths.get(archiveDir, String.valueOf(documentId));
+    }
+}
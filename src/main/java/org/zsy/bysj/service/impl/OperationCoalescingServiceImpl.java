@@ -0,0 +1,346 @@
+package org.zsy.bysj.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.zsy.bysj.algorithm.Delta;
+import org.zsy.bysj.algorithm.OTAlgorithm;
+import org.zsy.bysj.algorithm.Operation;
+import org.zsy.bysj.dto.WebSocketMessage;
+import org.zsy.bysj.service.CollaborationService;
+import org.zsy.bysj.service.OperationCoalescingService;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 操作合并服务实现类
+ *
+ * 前端每输入一个字符就会发送一个 INSERT，每个操作都要经过加锁、取序列号、转换、应用和广播。
+ * 这里按（文档, 用户）暂存最近一个操作，窗口期内同一用户、同一基准版本的相邻 INSERT/DELETE
+ * 用 {@link OTAlgorithm#canMerge} / {@link OTAlgorithm#mergeOperations} 合并为一个操作，
+ * 连续的 DELTA 用 {@link Delta#compose} 合并，窗口到期后才进入协同服务。同一用户的操作始终按到达顺序处理：遇到不可合并的操作时先处理暂存的操作。
+ *
+ * 在 buffer 的锁内只把合并结果移入待处理队列，由取得处理权的线程在锁外按顺序交给协同服务
+ * （LOCK 模式下处理一个操作可能等待文档锁），期间同一用户提交的操作只需入队，不会阻塞在 buffer 锁上。
+ */
+@Service
+public class OperationCoalescingServiceImpl implements OperationCoalescingService {
+
+    @Autowired
+    private CollaborationService collaborationService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${collab.coalesce.window-ms:20}")
+    private long windowMs;
+
+    @Value("${collab.coalesce.max-batch:64}")
+    private int maxBatch;
+
+    private final Map<String, PendingBuffer> buffers = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler;
+
+    public OperationCoalescingServiceImpl(@Value("${collab.coalesce.threads:2}") int threads) {
+        this.scheduler = Executors.newScheduledThreadPool(Math.max(1, threads), r -> {
+            Thread thread = new Thread(r, "operation-coalesce");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void submit(WebSocketMessage message) {
+        if (windowMs <= 0 || message.getDocumentId() == null || message.getUserId() == null
+                || !(message.getData() instanceof Map)) {
+            collaborationService.handleOperation(message);
+            return;
+        }
+
+        Map<String, Object> dataMap = (Map<String, Object>) message.getData();
+        Object operation = toMergeable(dataMap);
+        String key = key(message.getDocumentId(), message.getUserId());
+
+        while (true) {
+            PendingBuffer buffer = buffers.computeIfAbsent(key, k -> new PendingBuffer());
+            boolean drain;
+            synchronized (buffer) {
+                if (buffer.retired) {
+                    continue; // 已被移除，重新获取
+                }
+                if (operation != null && buffer.canAppend(dataMap, operation)) {
+                    buffer.append(operation);
+                    if (buffer.count >= maxBatch) {
+                        swap(buffer);
+                    }
+                } else {
+                    // 不能与暂存操作合并：暂存的操作先入队，保证同一用户的操作顺序不变
+                    swap(buffer);
+                    if (operation == null) {
+                        buffer.ready.addLast(message);
+                    } else {
+                        buffer.start(message, dataMap, operation);
+                        long generation = buffer.generation;
+                        buffer.timer = scheduler.schedule(() -> expire(key, buffer, generation), windowMs, TimeUnit.MILLISECONDS);
+                    }
+                }
+                drain = buffer.claimDrain();
+            }
+            if (drain) {
+                drain(key, buffer);
+            }
+            return;
+        }
+    }
+
+    @Override
+    public void flush(Long documentId, Long userId) {
+        String key = key(documentId, userId);
+        PendingBuffer buffer = buffers.get(key);
+        if (buffer == null) {
+            return;
+        }
+        flush(key, buffer);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        List<String> keys = new ArrayList<>(buffers.keySet());
+        for (String key : keys) {
+            PendingBuffer buffer = buffers.get(key);
+            if (buffer == null) {
+                continue;
+            }
+            flush(key, buffer);
+        }
+    }
+
+    private void flush(String key, PendingBuffer buffer) {
+        boolean drain;
+        synchronized (buffer) {
+            swap(buffer);
+            drain = buffer.claimDrain();
+            retire(key, buffer);
+        }
+        if (drain) {
+            drain(key, buffer);
+        }
+    }
+
+    /**
+     * 窗口到期：处理暂存的操作（期间已开始新一批时，只处理当前这一批）
+     */
+    private void expire(String key, PendingBuffer buffer, long generation) {
+        boolean drain;
+        synchronized (buffer) {
+            if (buffer.generation != generation || buffer.message == null) {
+                return;
+            }
+            buffer.timer = null;
+            swap(buffer);
+            drain = buffer.claimDrain();
+        }
+        if (drain) {
+            drain(key, buffer);
+        }
+    }
+
+    /**
+     * 把暂存的合并结果移入待处理队列，调用方需持有 buffer 的锁
+     */
+    private void swap(PendingBuffer buffer) {
+        if (buffer.message == null) {
+            return;
+        }
+        if (buffer.timer != null) {
+            buffer.timer.cancel(false);
+            buffer.timer = null;
+        }
+        WebSocketMessage merged = buffer.toMessage();
+        if (buffer.count > 1) {
+            System.out.println("合并操作: 用户" + merged.getUserId() + " 在文档" + merged.getDocumentId()
+                    + " 中的 " + buffer.count + " 个操作合并为1个");
+        }
+        buffer.reset();
+        buffer.ready.addLast(merged);
+    }
+
+    /**
+     * 在 buffer 锁外按入队顺序处理待处理队列，直到队列为空；只有取得处理权的线程调用
+     */
+    private void drain(String key, PendingBuffer buffer) {
+        while (true) {
+            WebSocketMessage next;
+            synchronized (buffer) {
+                next = buffer.ready.pollFirst();
+                if (next == null) {
+                    buffer.draining = false;
+                    retire(key, buffer);
+                    return;
+                }
+            }
+            try {
+                collaborationService.handleOperation(next);
+            } catch (Exception e) {
+                System.err.println("处理合并后的操作失败: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 没有暂存、待处理和正在处理的操作时移除 buffer，调用方需持有 buffer 的锁
+     */
+    private void retire(String key, PendingBuffer buffer) {
+        if (buffer.message == null && buffer.ready.isEmpty() && !buffer.draining) {
+            buffer.retired = true;
+            buffers.remove(key, buffer);
+        }
+    }
+
+    /**
+     * 解析可合并的操作：不带格式信息的 INSERT/DELETE 返回 Operation，DELTA 返回 Delta，
+     * 其余操作（RETAIN、FORMAT 等）返回null，原样处理
+     */
+    private Object toMergeable(Map<String, Object> dataMap) {
+        Object type = dataMap.get("type");
+        if ("DELTA".equals(type)) {
+            if (dataMap.get("delta") == null) {
+                return null;
+            }
+            try {
+                return objectMapper.convertValue(dataMap.get("delta"), Delta.class);
+            } catch (IllegalArgumentException e) {
+                return null; // 交给协同服务按原样处理并报告错误
+            }
+        }
+        if (dataMap.get("formatType") != null || !(dataMap.get("position") instanceof Number)) {
+            return null;
+        }
+        int position = ((Number) dataMap.get("position")).intValue();
+        if ("INSERT".equals(type)) {
+            Object data = dataMap.get("data");
+            if (!(data instanceof String) || ((String) data).isEmpty()) {
+                return null;
+            }
+            return Operation.insert((String) data, position);
+        }
+        if ("DELETE".equals(type)) {
+            if (!(dataMap.get("length") instanceof Number)) {
+                return null;
+            }
+            int length = ((Number) dataMap.get("length")).intValue();
+            return length > 0 ? Operation.delete(position, length) : null;
+        }
+        return null;
+    }
+
+    private static String key(Long documentId, Long userId) {
+        return documentId + ":" + userId;
+    }
+
+    /**
+     * 某个用户在某个文档中暂存的操作
+     */
+    private static class PendingBuffer {
+        private WebSocketMessage message;
+        private Map<String, Object> dataMap;
+        private Operation operation;
+        private Delta delta;
+        private int count;
+        private long generation;
+        private ScheduledFuture<?> timer;
+        private boolean retired;
+        private final ArrayDeque<WebSocketMessage> ready = new ArrayDeque<>(); // 已移出、等待交给协同服务的消息
+        private boolean draining; // 是否有线程正在处理 ready
+
+        /**
+         * 队列非空且没有线程在处理时取得处理权
+         */
+        boolean claimDrain() {
+            if (draining || ready.isEmpty()) {
+                return false;
+            }
+            draining = true;
+            return true;
+        }
+
+        void start(WebSocketMessage message, Map<String, Object> dataMap, Object operation) {
+            this.message = message;
+            this.dataMap = dataMap;
+            this.operation = operation instanceof Operation ? (Operation) operation : null;
+            this.delta = operation instanceof Delta ? (Delta) operation : null;
+            this.count = 1;
+            this.generation++;
+        }
+
+        boolean canAppend(Map<String, Object> next, Object nextOperation) {
+            if (message == null || !Objects.equals(baseVersion(dataMap), baseVersion(next))) {
+                return false;
+            }
+            if (delta != null) {
+                return nextOperation instanceof Delta;
+            }
+            return nextOperation instanceof Operation
+                    && Objects.equals(dataMap.get("attributes"), next.get("attributes"))
+                    && OTAlgorithm.canMerge(operation, (Operation) nextOperation);
+        }
+
+        void append(Object nextOperation) {
+            if (delta != null) {
+                delta = delta.compose((Delta) nextOperation);
+            } else {
+                operation = OTAlgorithm.mergeOperations(operation, (Operation) nextOperation);
+            }
+            count++;
+        }
+
+        WebSocketMessage toMessage() {
+            Map<String, Object> data = new HashMap<>(dataMap);
+            if (delta != null) {
+                data.put("delta", delta);
+            } else {
+                data.put("type", operation.getType());
+                data.put("data", operation.getData());
+                data.put("position", operation.getPosition());
+                data.put("length", operation.getLength());
+            }
+
+            WebSocketMessage merged = new WebSocketMessage();
+            merged.setType(message.getType());
+            merged.setDocumentId(message.getDocumentId());
+            merged.setUserId(message.getUserId());
+            merged.setTimestamp(message.getTimestamp());
+            merged.setData(data);
+            return merged;
+        }
+
+        void reset() {
+            message = null;
+            dataMap = null;
+            operation = null;
+            delta = null;
+            count = 0;
+        }
+
+        private static Integer baseVersion(Map<String, Object> dataMap) {
+            Object value = dataMap.get("baseVersion");
+            return value instanceof Number ? ((Number) value).intValue() : null;
+        }
+    }
+}
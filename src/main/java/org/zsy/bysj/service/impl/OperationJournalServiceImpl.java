@@ -0,0 +1,351 @@
+package org.zsy.bysj.service.impl;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.zsy.bysj.archive.OperationRecordCodec;
+import org.zsy.bysj.journal.JournalSegment;
+import org.zsy.bysj.journal.RecoveredDocument;
+import org.zsy.bysj.model.DocumentOperation;
+import org.zsy.bysj.service.OperationJournalService;
+import org.zsy.bysj.service.OperationLogService;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * 本地操作日志服务实现类
+ *
+ * 所有文档共用一个按序号递增的日志，分段文件名为首条序号（%020d.jnl），写满后切换到新分段。
+ * 检查点文件记录每个文档已不需要重放的最大序号：文档落库成功并且对应的操作记录也已写入数据库后，
+ * 由定时任务推进检查点、刷盘并删除其中所有文档都已越过检查点的分段。
+ * 未开启 force-on-append 时每条记录只写入页缓存（进程崩溃不丢失），定时任务每次刷盘，断电时最多丢失一个检查点间隔内的记录。
+ */
+@Service
+public class OperationJournalServiceImpl implements OperationJournalService {
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("(\\d+)\\.jnl");
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int CHECKPOINT_MAGIC = 0x4F50434B; // "OPCK"
+
+    @Autowired
+    private OperationLogService operationLogService;
+
+    @Value("${collab.journal.enabled:false}")
+    private boolean enabled;
+
+    @Value("${collab.journal.dir:data/journal}")
+    private String journalDir;
+
+    @Value("${collab.journal.segment-bytes:67108864}")
+    private int segmentBytes;
+
+    @Value("${collab.journal.force-on-append:false}")
+    private boolean forceOnAppend;
+
+    private final List<JournalSegment> sealed = new ArrayList<>(); // 已写满或启动前留下的分段，按序号升序
+    private JournalSegment active;
+    private long lastSequence;
+
+    private final Map<Long, Long> checkpoints = new HashMap<>(); // 文档ID -> 不需要重放的最大序号（已写入检查点文件的部分以此为准）
+    private final Map<Long, Long> flushed = new ConcurrentHashMap<>(); // 已落库、等待操作记录写入数据库后推进检查点
+    private boolean checkpointDirty;
+
+    private List<RecoveredDocument> recovered = new ArrayList<>();
+
+    /**
+     * 读取检查点并扫描已有分段，收集检查点之后的记录，然后新建一个分段用于追加
+     */
+    @PostConstruct
+    public synchronized void open() {
+        if (!enabled) {
+            return;
+        }
+        Path directory = Paths.get(journalDir);
+        try {
+            Files.createDirectories(directory);
+            readCheckpoint(directory.resolve(CHECKPOINT_FILE));
+
+            TreeMap<Long, Path> files = new TreeMap<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path file : stream) {
+                    Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                    if (matcher.matches()) {
+                        files.put(Long.parseLong(matcher.group(1)), file);
+                    } else if (file.getFileName().toString().endsWith(".tmp")) {
+                        Files.deleteIfExists(file); // 写入中断留下的检查点临时文件
+                    }
+                }
+            }
+
+            Map<Long, List<DocumentOperation>> pending = new LinkedHashMap<>();
+            Map<Long, Long> pendingSequence = new HashMap<>();
+            for (Path file : files.values()) {
+                JournalSegment segment = JournalSegment.scan(file, (sequence, operation) -> {
+                    Long documentId = operation.getDocumentId();
+                    if (sequence > checkpoints.getOrDefault(documentId, 0L)) {
+                        pending.computeIfAbsent(documentId, id -> new ArrayList<>()).add(operation);
+                        pendingSequence.put(documentId, sequence);
+                    }
+                });
+                if (segment.getLastSequence() < segment.getFirstSequence()) {
+                    Files.deleteIfExists(file); // 没有有效记录的分段
+                    continue;
+                }
+                lastSequence = Math.max(lastSequence, segment.getLastSequence());
+                sealed.add(segment);
+            }
+            for (Map.Entry<Long, List<DocumentOperation>> entry : pending.entrySet()) {
+                recovered.add(new RecoveredDocument(entry.getKey(), entry.getValue(), pendingSequence.get(entry.getKey())));
+            }
+            active = createSegment(lastSequence + 1);
+            System.out.println("本地操作日志已打开: dir=" + directory.toAbsolutePath() + ", 分段数=" + sealed.size()
+                    + ", 待恢复文档数=" + recovered.size());
+        } catch (IOException e) {
+            throw new RuntimeException("打开本地操作日志失败: " + directory, e);
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public synchronized long append(DocumentOperation operation) {
+        if (!enabled || active == null) {
+            return 0;
+        }
+        long sequence = lastSequence + 1;
+        try {
+            byte[] payload = encode(sequence, operation);
+            if (!active.append(sequence, operation.getDocumentId(), payload)) {
+                active.seal();
+                sealed.add(active);
+                active = createSegment(sequence);
+                if (!active.append(sequence, operation.getDocumentId(), payload)) {
+                    throw new IOException("记录超过分段大小: " + payload.length + " 字节");
+                }
+            }
+            if (forceOnAppend) {
+                active.force();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("写入本地操作日志失败: documentId=" + operation.getDocumentId()
+                    + ", revision=" + operation.getRevision() + ", " + e.getMessage());
+            return 0;
+        }
+        lastSequence = sequence;
+        return sequence;
+    }
+
+    @Override
+    public void markFlushed(Long documentId, long sequence) {
+        if (enabled && sequence > 0) {
+            flushed.merge(documentId, sequence, Math::max);
+        }
+    }
+
+    @Override
+    public synchronized void discard(Long documentId) {
+        if (!enabled || active == null) {
+            return;
+        }
+        flushed.remove(documentId);
+        advanceCheckpoint(documentId, lastSequence);
+        // 立即写入检查点：回滚后版本号会被重新使用，作废的记录不能在崩溃后被重放
+        try {
+            writeCheckpoint(Paths.get(journalDir).resolve(CHECKPOINT_FILE));
+            checkpointDirty = false;
+        } catch (IOException e) {
+            System.err.println("写入操作日志检查点失败: documentId=" + documentId + ", " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized List<RecoveredDocument> takeRecovered() {
+        List<RecoveredDocument> result = recovered;
+        recovered = new ArrayList<>();
+        return result;
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${collab.journal.checkpoint-interval-ms:1000}")
+    public void checkpoint() {
+        if (!enabled) {
+            return;
+        }
+        // 操作记录仍在写入队列中的文档暂不推进，重放时还需要这些记录补齐 document_operation
+        Map<Long, Long> ready = new HashMap<>();
+        for (Map.Entry<Long, Long> entry : flushed.entrySet()) {
+            if (operationLogService.awaitWritten(entry.getKey(), 0)) {
+                ready.put(entry.getKey(), entry.getValue());
+            }
+        }
+        synchronized (this) {
+            if (active == null) {
+                return;
+            }
+            for (Map.Entry<Long, Long> entry : ready.entrySet()) {
+                flushed.remove(entry.getKey(), entry.getValue());
+                advanceCheckpoint(entry.getKey(), entry.getValue());
+            }
+            active.force();
+            if (!checkpointDirty) {
+                return;
+            }
+            try {
+                writeCheckpoint(Paths.get(journalDir).resolve(CHECKPOINT_FILE));
+                checkpointDirty = false;
+            } catch (IOException e) {
+                System.err.println("写入操作日志检查点失败: " + e.getMessage());
+                return;
+            }
+            deleteCheckpointedSegments();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        checkpoint();
+        synchronized (this) {
+            if (active != null) {
+                active.seal();
+            }
+        }
+    }
+
+    private void advanceCheckpoint(Long documentId, long sequence) {
+        Long previous = checkpoints.get(documentId);
+        if (previous == null || previous < sequence) {
+            checkpoints.put(documentId, sequence);
+            checkpointDirty = true;
+        }
+    }
+
+    /**
+     * 删除其中每个文档都已越过检查点的已封存分段；之后不再出现在任何分段中的文档从检查点中移除
+     */
+    private void deleteCheckpointedSegments() {
+        boolean deleted = false;
+        for (int i = 0; i < sealed.size(); ) {
+            JournalSegment segment = sealed.get(i);
+            if (!coveredByCheckpoint(segment)) {
+                i++;
+                continue;
+            }
+            try {
+                Files.deleteIfExists(segment.getFile());
+                sealed.remove(i);
+                deleted = true;
+            } catch (IOException e) {
+                System.err.println("删除操作日志分段失败: " + segment.getFile() + ", " + e.getMessage());
+                i++;
+            }
+        }
+        if (!deleted) {
+            return;
+        }
+        checkpoints.keySet().removeIf(documentId -> !active.getDocumentSequence().containsKey(documentId)
+                && sealed.stream().noneMatch(segment -> segment.getDocumentSequence().containsKey(documentId)));
+        checkpointDirty = true;
+    }
+
+    private boolean coveredByCheckpoint(JournalSegment segment) {
+        for (Map.Entry<Long, Long> entry : segment.getDocumentSequence().entrySet()) {
+            if (checkpoints.getOrDefault(entry.getKey(), 0L) < entry.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private JournalSegment createSegment(long firstSequence) throws IOException {
+        Path file = Paths.get(journalDir).resolve(String.format("%020d.jnl", firstSequence));
+        return JournalSegment.create(file, firstSequence, segmentBytes);
+    }
+
+    private static byte[] encode(long sequence, DocumentOperation operation) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(sequence);
+        out.writeLong(operation.getDocumentId());
+        OperationRecordCodec.write(out, operation);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 检查点文件：MAGIC(int) 最大序号(long) 条数(int) 每条 文档ID(long) 序号(long)，末尾为前面内容的 CRC32(int)
+     * 最大序号保证分段全部删除后重启，新记录的序号仍大于检查点中的序号
+     */
+    private void writeCheckpoint(Path file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + checkpoints.size() * 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(CHECKPOINT_MAGIC);
+        out.writeLong(lastSequence);
+        out.writeInt(checkpoints.size());
+        for (Map.Entry<Long, Long> entry : checkpoints.entrySet()) {
+            out.writeLong(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+        out.flush();
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, bytes.toByteArray());
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void readCheckpoint(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        CRC32 crc = new CRC32();
+        if (bytes.length >= 20) {
+            crc.update(bytes, 0, bytes.length - Integer.BYTES);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (bytes.length < 20 || in.readInt() != CHECKPOINT_MAGIC
+                || ByteBuffer.wrap(bytes, bytes.length - Integer.BYTES, Integer.BYTES).getInt() != (int) crc.getValue()) {
+            // 检查点损坏时重放全部分段：已落库的记录在恢复时只补写操作记录
+            System.err.println("操作日志检查点文件损坏，将重放全部记录: " + file);
+            return;
+        }
+        lastSequence = in.readLong();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            checkpoints.put(in.readLong(), in.readLong());
+        }
+    }
+}
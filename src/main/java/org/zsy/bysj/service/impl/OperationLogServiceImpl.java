@@ -0,0 +1,289 @@
+package org.zsy.bysj.service.impl;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.zsy.bysj.mapper.DocumentOperationMapper;
+import org.zsy.bysj.model.DocumentOperation;
+import org.zsy.bysj.service.OperationArchiveService;
+import org.zsy.bysj.service.OperationLogService;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 操作日志写入服务实现类
+ *
+ * 每个文档一个待写入队列，文档按 ID 固定分配到某个写入线程，同一文档的记录按追加顺序逐批写入；
+ * 每批用一条多行 INSERT 写入（单条语句要么全部成功要么全部失败，失败时整批放回队首稍后重试）。
+ * 所有文档共享一个容量上限，数据库写入跟不上时 append 阻塞等待，超时后由调用方保留记录稍后重试。
+ */
+@Service
+public class OperationLogServiceImpl implements OperationLogService {
+
+    @Autowired
+    private DocumentOperationMapper documentOperationMapper;
+
+    @Autowired
+    private OperationArchiveService operationArchiveService;
+
+    @Value("${collab.oplog.batch-size:500}")
+    private int batchSize;
+
+    @Value("${collab.oplog.offer-timeout-ms:5000}")
+    private long offerTimeoutMs;
+
+    @Value("${collab.oplog.retry-delay-ms:1000}")
+    private long retryDelayMs;
+
+    private final int queueCapacity;
+    private final Semaphore capacity;
+    private final ScheduledThreadPoolExecutor[] writers;
+    private final Map<Long, LogQueue> queues = new ConcurrentHashMap<>();
+
+    public OperationLogServiceImpl(@Value("${collab.oplog.queue-capacity:20000}") int queueCapacity,
+                                   @Value("${collab.oplog.writer-threads:2}") int writerThreads) {
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.capacity = new Semaphore(this.queueCapacity);
+        this.writers = new ScheduledThreadPoolExecutor[Math.max(1, writerThreads)];
+        for (int i = 0; i < writers.length; i++) {
+            ScheduledThreadPoolExecutor writer = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread thread = new Thread(r, "operation-log-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            writer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            writers[i] = writer;
+        }
+    }
+
+    /**
+     * 一个文档的待写入队列
+     */
+    private static class LogQueue {
+        final ArrayDeque<DocumentOperation> pending = new ArrayDeque<>();
+        int inFlight; // 正在写入的条数
+        boolean draining; // 已有写入任务在处理该队列
+        boolean retired; // 已从 queues 中移除，追加方需重新获取
+    }
+
+    @Override
+    public int append(Long documentId, List<DocumentOperation> operations) {
+        int chunk = Math.max(1, Math.min(batchSize, queueCapacity));
+        int accepted = 0;
+        while (accepted < operations.size()) {
+            int count = Math.min(chunk, operations.size() - accepted);
+            if (!acquire(count)) {
+                break;
+            }
+            enqueue(documentId, operations.subList(accepted, accepted + count));
+            accepted += count;
+        }
+        return accepted;
+    }
+
+    @Override
+    public boolean awaitWritten(Long documentId, long timeoutMs) {
+        LogQueue queue = queues.get(documentId);
+        if (queue == null) {
+            return true;
+        }
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (queue) {
+            while (!queue.retired && (!queue.pending.isEmpty() || queue.inFlight > 0)) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    queue.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public List<DocumentOperation> readRange(Long documentId, int fromRevision, Integer toRevision, Integer limit) {
+        // 先读数据库再确认已归档版本号：归档任务先更新已归档版本号再删除数据库记录，
+        // 因此数据库中读不到的记录一定已在归档中
+        int archivedBefore = operationArchiveService.getArchivedRevision(documentId);
+        List<DocumentOperation> rows = documentOperationMapper.selectRange(
+                documentId, Math.max(fromRevision, archivedBefore), toRevision, limit);
+        int archived = operationArchiveService.getArchivedRevision(documentId);
+        if (fromRevision >= archived) {
+            return rows;
+        }
+        int archiveTo = toRevision != null ? Math.min(toRevision, archived) : archived;
+        List<DocumentOperation> result = operationArchiveService.readArchived(documentId, fromRevision, archiveTo, limit);
+        for (DocumentOperation row : rows) {
+            if (limit != null && result.size() >= limit) {
+                break;
+            }
+            if (row.getRevision() > archived) {
+                result.add(row);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void truncateAfter(Long documentId, int revision) {
+        documentOperationMapper.deleteAfterRevision(documentId, revision);
+        operationArchiveService.truncateAfter(documentId, revision);
+    }
+
+    @Override
+    public void discard(Long documentId) {
+        operationArchiveService.discard(documentId);
+        LogQueue queue = queues.remove(documentId);
+        if (queue == null) {
+            return;
+        }
+        synchronized (queue) {
+            queue.retired = true;
+            capacity.release(queue.pending.size());
+            queue.pending.clear();
+            queue.notifyAll();
+        }
+    }
+
+    /**
+     * 应用关闭前停止写入线程，并在当前线程写完所有剩余记录
+     */
+    @PreDestroy
+    public void shutdown() {
+        for (ScheduledThreadPoolExecutor writer : writers) {
+            writer.shutdown();
+        }
+        for (ScheduledThreadPoolExecutor writer : writers) {
+            try {
+                writer.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Map.Entry<Long, LogQueue> entry : queues.entrySet()) {
+            LogQueue queue = entry.getValue();
+            synchronized (queue) {
+                while (!queue.pending.isEmpty()) {
+                    List<DocumentOperation> batch = pollBatch(queue);
+                    try {
+                        documentOperationMapper.insertBatch(batch);
+                    } catch (Exception e) {
+                        System.err.println("关闭时写入操作记录失败: documentId=" + entry.getKey()
+                                + ", 丢失条数=" + (batch.size() + queue.pending.size()) + ", " + e.getMessage());
+                        queue.pending.clear();
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean acquire(int permits) {
+        try {
+            return capacity.tryAcquire(permits, offerTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void enqueue(Long documentId, List<DocumentOperation> operations) {
+        while (true) {
+            LogQueue queue = queues.computeIfAbsent(documentId, id -> new LogQueue());
+            boolean start;
+            synchronized (queue) {
+                if (queue.retired) {
+                    continue; // 已被移除，重新获取
+                }
+                queue.pending.addAll(operations);
+                start = !queue.draining;
+                queue.draining = true;
+            }
+            if (start) {
+                schedule(documentId, queue, 0);
+            }
+            return;
+        }
+    }
+
+    private void schedule(Long documentId, LogQueue queue, long delayMs) {
+        ScheduledThreadPoolExecutor writer = writers[Math.floorMod(documentId, writers.length)];
+        try {
+            writer.schedule(() -> drain(documentId, queue), delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // 已关闭：剩余记录由 shutdown() 写入
+            synchronized (queue) {
+                queue.draining = false;
+            }
+        }
+    }
+
+    /**
+     * 写入一批记录后重新提交自身，使同一写入线程上的其他文档也能轮到
+     */
+    private void drain(Long documentId, LogQueue queue) {
+        List<DocumentOperation> batch;
+        synchronized (queue) {
+            if (queue.retired) {
+                return;
+            }
+            batch = pollBatch(queue);
+            if (batch.isEmpty()) {
+                queue.draining = false;
+                queue.retired = true;
+                queues.remove(documentId, queue);
+                queue.notifyAll();
+                return;
+            }
+            queue.inFlight = batch.size();
+        }
+
+        try {
+            documentOperationMapper.insertBatch(batch);
+        } catch (Exception e) {
+            synchronized (queue) {
+                queue.inFlight = 0;
+                if (queue.retired) {
+                    capacity.release(batch.size());
+                    queue.notifyAll();
+                    return;
+                }
+                for (int i = batch.size() - 1; i >= 0; i--) {
+                    queue.pending.addFirst(batch.get(i));
+                }
+            }
+            System.err.println("批量写入操作记录失败，稍后重试: documentId=" + documentId
+                    + ", 条数=" + batch.size() + ", " + e.getMessage());
+            schedule(documentId, queue, retryDelayMs);
+            return;
+        }
+
+        capacity.release(batch.size());
+        synchronized (queue) {
+            queue.inFlight = 0;
+            queue.notifyAll();
+        }
+        schedule(documentId, queue, 0);
+    }
+
+    private List<DocumentOperation> pollBatch(LogQueue queue) {
+        List<DocumentOperation> batch = new ArrayList<>(Math.min(batchSize, queue.pending.size()));
+        while (batch.size() < batchSize && !queue.pending.isEmpty()) {
+            batch.add(queue.pending.poll());
+        }
+        return batch;
+    }
+}
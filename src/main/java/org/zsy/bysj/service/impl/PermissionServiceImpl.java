@@ -3,8 +3,16 @@ package org.zsy.bysj.service.impl;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.zsy.bysj.constant.RedisKeyConstant;
+import org.zsy.bysj.event.PermissionChangedEvent;
 import org.zsy.bysj.mapper.DocumentMapper;
 import org.zsy.bysj.mapper.DocumentPermissionMapper;
 import org.zsy.bysj.model.Document;
@@ -12,7 +20,11 @@ import org.zsy.bysj.model.DocumentPermission;
 import org.zsy.bysj.service.PermissionService;
 
 import java.time.LocalDateTime;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 权限服务实现类
@@ -23,41 +35,52 @@ public class PermissionServiceImpl extends ServiceImpl<DocumentPermissionMapper,
     @Autowired
     private DocumentMapper documentMapper;
 
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    // 标记缓存已加载的字段（文档ID从 1 开始，不会与之冲突）
+    private static final String MEMBERSHIP_LOADED_FIELD = "_";
+    private static final long MEMBERSHIP_TTL_MINUTES = 30;
+
     @Override
     public boolean hasPermission(Long documentId, Long userId, String permissionType) {
         System.out.println("检查权限: documentId=" + documentId + ", userId=" + userId + ", permissionType=" + permissionType);
 
         // 首先检查用户是否是文档的创建者（创建者拥有所有权限）
-        Document document = documentMapper.selectById(documentId);
-        if (document != null && document.getCreatorId() != null && document.getCreatorId().equals(userId)) {
+        // 只查询 creator_id，避免为一次权限判断读取整篇文档内容
+        Document document = documentMapper.selectOne(new QueryWrapper<Document>()
+                .select("id", "creator_id")
+                .eq("id", documentId));
+        if (document == null) {
+            return false;
+        }
+        if (document.getCreatorId() != null && document.getCreatorId().equals(userId)) {
             System.out.println("用户" + userId + "是文档创建者，拥有所有权限");
             return true; // 创建者拥有所有权限
         }
 
-        // 检查权限表
-        QueryWrapper<DocumentPermission> wrapper = new QueryWrapper<>();
-        wrapper.eq("document_id", documentId)
-               .eq("user_id", userId);
-        DocumentPermission permission = this.getOne(wrapper);
+        // 检查成员关系（Redis 缓存，未命中时读权限表）
+        String granted = getUserMemberships(userId).get(documentId);
 
-        System.out.println("数据库权限记录: " + permission);
-
-        if (permission == null) {
+        if (granted == null) {
             System.out.println("用户" + userId + "没有在权限表中找到记录");
             return false;
         }
 
         // 检查权限级别
         if ("ADMIN".equals(permissionType)) {
-            boolean hasAdmin = "ADMIN".equals(permission.getPermissionType());
-            System.out.println("ADMIN权限检查: " + hasAdmin + " (当前权限: " + permission.getPermissionType() + ")");
+            boolean hasAdmin = "ADMIN".equals(granted);
+            System.out.println("ADMIN权限检查: " + hasAdmin + " (当前权限: " + granted + ")");
             return hasAdmin;
         } else if ("WRITE".equals(permissionType)) {
-            boolean hasWrite = "ADMIN".equals(permission.getPermissionType()) || "WRITE".equals(permission.getPermissionType());
-            System.out.println("WRITE权限检查: " + hasWrite + " (当前权限: " + permission.getPermissionType() + ")");
+            boolean hasWrite = "ADMIN".equals(granted) || "WRITE".equals(granted);
+            System.out.println("WRITE权限检查: " + hasWrite + " (当前权限: " + granted + ")");
             return hasWrite;
         } else {
-            System.out.println("READ权限检查: true (当前权限: " + permission.getPermissionType() + ")");
+            System.out.println("READ权限检查: true (当前权限: " + granted + ")");
             return true; // READ权限最低，有权限就能读
         }
     }
@@ -81,6 +104,7 @@ public class PermissionServiceImpl extends ServiceImpl<DocumentPermissionMapper,
             permission.setCreatedAt(LocalDateTime.now());
             this.save(permission);
         }
+        eventPublisher.publishEvent(new PermissionChangedEvent(documentId, userId));
     }
 
     @Override
@@ -94,6 +118,7 @@ public class PermissionServiceImpl extends ServiceImpl<DocumentPermissionMapper,
         if (permission != null) {
             permission.setPermissionType(permissionType);
             this.updateById(permission);
+            eventPublisher.publishEvent(new PermissionChangedEvent(documentId, userId));
         }
     }
 
@@ -104,6 +129,19 @@ public class PermissionServiceImpl extends ServiceImpl<DocumentPermissionMapper,
         wrapper.eq("document_id", documentId)
                .eq("user_id", userId);
         this.remove(wrapper);
+        eventPublisher.publishEvent(new PermissionChangedEvent(documentId, userId));
+    }
+
+    @Override
+    @Transactional
+    public void removeDocumentPermissions(Long documentId) {
+        List<DocumentPermission> permissions = this.list(new QueryWrapper<DocumentPermission>()
+                .select("user_id")
+                .eq("document_id", documentId));
+        this.remove(new QueryWrapper<DocumentPermission>().eq("document_id", documentId));
+        for (DocumentPermission permission : permissions) {
+            eventPublisher.publishEvent(new PermissionChangedEvent(documentId, permission.getUserId()));
+        }
     }
 
     @Override
@@ -119,5 +157,83 @@ public class PermissionServiceImpl extends ServiceImpl<DocumentPermissionMapper,
         wrapper.eq("user_id", userId);
         return this.list(wrapper);
     }
+
+    @Override
+    public Map<Long, String> getUserMemberships(Long userId) {
+        String key = RedisKeyConstant.buildUserMembershipKey(userId);
+        String generationKey = RedisKeyConstant.buildUserMembershipGenerationKey(userId);
+        Object generation = null;
+        try {
+            Map<Object, Object> cached = redisTemplate.opsForHash().entries(key);
+            if (!cached.isEmpty()) {
+                Map<Long, String> memberships = new HashMap<>();
+                for (Map.Entry<Object, Object> entry : cached.entrySet()) {
+                    if (!MEMBERSHIP_LOADED_FIELD.equals(entry.getKey())) {
+                        memberships.put(Long.valueOf(entry.getKey().toString()), String.valueOf(entry.getValue()));
+                    }
+                }
+                return memberships;
+            }
+            // 查询数据库之前读取代数：查询期间有权限变更提交时代数会变化，查到的数据不再回填
+            generation = redisTemplate.opsForValue().get(generationKey);
+        } catch (Exception e) {
+            System.err.println("读取成员关系缓存失败，改为查询数据库: userId=" + userId + ", " + e.getMessage());
+        }
+
+        // 只读取文档ID和权限类型两列
+        List<DocumentPermission> permissions = this.list(new QueryWrapper<DocumentPermission>()
+                .select("document_id", "permission_type")
+                .eq("user_id", userId));
+        Map<Long, String> memberships = new HashMap<>();
+        Map<String, Object> hash = new HashMap<>();
+        hash.put(MEMBERSHIP_LOADED_FIELD, ""); // 没有任何共享文档时也缓存，避免反复查询
+        for (DocumentPermission permission : permissions) {
+            memberships.put(permission.getDocumentId(), permission.getPermissionType());
+            hash.put(String.valueOf(permission.getDocumentId()), permission.getPermissionType());
+        }
+        Object expectedGeneration = generation;
+        try {
+            List<Object> written = redisTemplate.execute(new SessionCallback<List<Object>>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> List<Object> execute(RedisOperations<K, V> operations) {
+                    RedisOperations<String, Object> redis = (RedisOperations<String, Object>) operations;
+                    // WATCH 代数后再比较，比较与写入之间的变更会使 EXEC 失败
+                    redis.watch(generationKey);
+                    if (!Objects.equals(expectedGeneration, redis.opsForValue().get(generationKey))) {
+                        redis.unwatch();
+                        return null;
+                    }
+                    redis.multi();
+                    redis.opsForHash().putAll(key, hash);
+                    redis.expire(key, MEMBERSHIP_TTL_MINUTES, TimeUnit.MINUTES);
+                    return redis.exec();
+                }
+            });
+            if (written == null || written.isEmpty()) {
+                System.out.println("成员关系在查询期间发生变更，不回填缓存: userId=" + userId);
+            }
+        } catch (Exception e) {
+            System.err.println("写入成员关系缓存失败: userId=" + userId + ", " + e.getMessage());
+        }
+        return memberships;
+    }
+
+    /**
+     * 权限变更提交后先增加代数再清除该用户的成员关系缓存（在事务内清除时，并发读取可能把提交前的数据重新写回缓存）；
+     * 提交前已开始查询数据库的读取读到的代数已过期，不会把旧数据写回
+     */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onPermissionChanged(PermissionChangedEvent event) {
+        if (event.getUserId() == null) {
+            return;
+        }
+        try {
+            redisTemplate.opsForValue().increment(RedisKeyConstant.buildUserMembershipGenerationKey(event.getUserId()));
+            redisTemplate.delete(RedisKeyConstant.buildUserMembershipKey(event.getUserId()));
+        } catch (Exception e) {
+            System.err.println("清除成员关系缓存失败: userId=" + event.getUserId() + ", " + e.getMessage());
+        }
+    }
 }
 
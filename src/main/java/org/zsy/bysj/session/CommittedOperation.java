@@ -0,0 +1,49 @@
+package org.zsy.bysj.session;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.zsy.bysj.algorithm.Delta;
+import org.zsy.bysj.algorithm.Operation;
+import org.zsy.bysj.algorithm.RichTextOperation;
+
+/**
+ * 已提交的操作（会话内的操作历史记录）
+ */
+@Data
+@AllArgsConstructor
+public class CommittedOperation {
+    private Long documentId;
+    private Long userId;
+    private Operation operation; // 经过OT转换后实际应用到文档的操作（Delta 操作时为null）
+    private Delta delta; // 经过转换后实际应用到文档的 Delta（位置操作时为null）
+    private RichTextOperation format; // 格式操作（FORMAT），此时 operation 为覆盖同一范围的 RETAIN
+    private Integer baseVersion; // 操作应用前的文档版本
+    private Long timestamp;
+
+    public CommittedOperation(Long documentId, Long userId, Operation operation,
+                              Integer baseVersion, Long timestamp) {
+        this(documentId, userId, operation, null, null, baseVersion, timestamp);
+    }
+
+    public CommittedOperation(Long documentId, Long userId, Operation operation, Delta delta,
+                              Integer baseVersion, Long timestamp) {
+        this(documentId, userId, operation, delta, null, baseVersion, timestamp);
+    }
+
+    /**
+     * 以 Delta 形式表示的操作（位置操作会被转换为等价的 Delta）
+     */
+    public Delta toDelta() {
+        if (delta != null) {
+            return delta;
+        }
+        return format != null ? format.toDelta() : Delta.fromOperation(operation);
+    }
+
+    /**
+     * 操作应用后的文档版本
+     */
+    public Integer getResultVersion() {
+        return baseVersion + 1;
+    }
+}
@@ -0,0 +1,278 @@
+package org.zsy.bysj.session;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.zsy.bysj.algorithm.Delta;
+import org.zsy.bysj.algorithm.DeltaOp;
+import org.zsy.bysj.crdt.CrdtOperation;
+import org.zsy.bysj.crdt.RgaDocument;
+import org.zsy.bysj.model.Document;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * CRDT 模式下的文档编辑会话
+ *
+ * 操作按字符标识集成，可交换且可重复，只需在会话对象锁内完成内存修改，
+ * 不经过分布式锁和操作序列号；版本号用于落库时的条件更新，
+ * 以及转换按位置编辑的客户端发来的 Delta（保留最近若干版本对可见文本的修改）。
+ * 未落库的操作另外保留，落库版本冲突时重放到从数据库重新加载的状态上（操作可交换、可重复）。
+ */
+public class CrdtDocumentSession {
+
+    private final Long documentId;
+    private final Long creatorId;
+    private final RgaDocument document;
+    private int version;
+    private int persistedVersion;
+    private final int historyLimit;
+    private final ArrayDeque<Delta> effects = new ArrayDeque<>(); // 最近的修改，最后一个对应 version - 1 -> version
+    private long serverClient; // 服务端代按位置编辑的客户端生成 CRDT 操作时使用的客户端ID（0 表示尚未分配）
+    private final ArrayDeque<Applied> unpersisted = new ArrayDeque<>(); // 版本大于 persistedVersion 的操作，按集成顺序
+    private boolean retired; // 落库冲突后被替换，不再接受操作
+
+    // 写权限缓存（userId -> 是否可写），权限变更时由事件清除
+    private final Map<Long, Boolean> writePermissions = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean immediateFlushScheduled = new AtomicBoolean(false);
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private volatile long lastAccessTime = System.currentTimeMillis();
+
+    public CrdtDocumentSession(Document document, int historyLimit) {
+        this.historyLimit = Math.max(1, historyLimit);
+        this.documentId = document.getId();
+        this.creatorId = document.getCreatorId();
+        this.document = document.getCrdtState() != null && !document.getCrdtState().isEmpty()
+                ? RgaDocument.fromBase64(document.getCrdtState())
+                : RgaDocument.fromText(document.getContent());
+        this.version = document.getVersion() != null ? document.getVersion() : 1;
+        this.persistedVersion = this.version;
+    }
+
+    /**
+     * 集成一个 CRDT 操作，返回对可见文本的修改与集成后的版本
+     */
+    public synchronized Applied apply(CrdtOperation operation) {
+        ensureActive();
+        lastAccessTime = System.currentTimeMillis();
+        Delta effect = document.apply(operation);
+        if (effect.isNoop()) {
+            return new Applied(operation, effect, version);
+        }
+        return record(operation, effect);
+    }
+
+    /**
+     * 应用按位置描述的修改（来自按位置编辑的客户端）：先相对 baseVersion 之后的修改转换，
+     * 再按位置生成 CRDT 操作集成；retain 上的格式属性不保存（CRDT 模式只保存文本）
+     *
+     * @param baseVersion 客户端编辑时的版本，为空时直接应用到当前版本
+     * @return 生成的每个 CRDT 操作及其对可见文本的修改，按集成顺序排列
+     */
+    public synchronized List<Applied> applyDelta(Delta delta, Integer baseVersion) {
+        ensureActive();
+        if (serverClient == 0) {
+            throw new RuntimeException("尚未分配服务端CRDT客户端ID");
+        }
+        lastAccessTime = System.currentTimeMillis();
+        Delta transformed = delta;
+        if (baseVersion != null && baseVersion < version) {
+            if (baseVersion < version - effects.size() || baseVersion < 1) {
+                throw new RuntimeException("操作基准版本过旧，请重新同步文档");
+            }
+            int skip = effects.size() - (version - baseVersion);
+            for (Delta effect : effects) {
+                if (skip-- > 0) {
+                    continue;
+                }
+                transformed = effect.transform(transformed, true);
+            }
+        }
+
+        List<Applied> result = new ArrayList<>();
+        int cursor = 0;
+        for (DeltaOp op : transformed.getOps()) {
+            if (op.isRetainOp()) {
+                cursor = Math.min(cursor + op.getRetain(), document.length());
+            } else if (op.isInsertOp()) {
+                CrdtOperation operation = document.insertAt(serverClient, cursor, op.getInsertText());
+                // 嵌入对象在 CRDT 文本中以占位符保存，广播时保留原对象
+                Delta effect = new Delta().retain(cursor).push(new DeltaOp(op.getInsert(), null, null, null));
+                result.add(record(operation, effect));
+                cursor += op.length();
+            } else if (op.isDeleteOp()) {
+                int length = Math.min(op.getDelete(), document.length() - cursor);
+                if (length > 0) {
+                    CrdtOperation operation = document.deleteAt(cursor, length);
+                    Delta effect = new Delta().retain(cursor).delete(length);
+                    result.add(record(operation, effect));
+                }
+            }
+        }
+        return result;
+    }
+
+    private Applied record(CrdtOperation operation, Delta effect) {
+        version++;
+        effects.addLast(effect);
+        if (effects.size() > historyLimit) {
+            effects.removeFirst();
+        }
+        Applied applied = new Applied(operation, effect, version);
+        unpersisted.addLast(applied);
+        return applied;
+    }
+
+    public synchronized long getServerClient() {
+        return serverClient;
+    }
+
+    public synchronized void setServerClient(long serverClient) {
+        this.serverClient = serverClient;
+    }
+
+    /**
+     * 取出待落库的数据：回收墓碑后编码 CRDT 状态
+     */
+    public synchronized FlushSnapshot drainForFlush() {
+        if (version == persistedVersion) {
+            return null;
+        }
+        document.collectGarbage();
+        return new FlushSnapshot(document.getText(), document.toBase64(), persistedVersion, version);
+    }
+
+    public synchronized void markPersisted(int persisted) {
+        if (persisted > persistedVersion) {
+            persistedVersion = persisted;
+        }
+        while (!unpersisted.isEmpty() && unpersisted.peekFirst().getVersion() <= persistedVersion) {
+            unpersisted.removeFirst();
+        }
+    }
+
+    /**
+     * 落库版本冲突后停用会话，返回尚未落库的操作（按集成顺序），由重新加载的会话重放
+     */
+    public synchronized List<CrdtOperation> retire() {
+        retired = true;
+        List<CrdtOperation> operations = new ArrayList<>(unpersisted.size());
+        for (Applied applied : unpersisted) {
+            operations.add(applied.getOperation());
+        }
+        unpersisted.clear();
+        return operations;
+    }
+
+    private void ensureActive() {
+        if (retired) {
+            throw new RuntimeException("文档会话已失效，请重新同步文档");
+        }
+    }
+
+    /**
+     * 客户端初始化所需的状态（编码后的 CRDT 文档、版本与最大时钟）
+     */
+    public synchronized State snapshotState() {
+        document.collectGarbage();
+        return new State(document.toBase64(), version, document.getMaxClock());
+    }
+
+    public synchronized void copyStateTo(Document target) {
+        target.setContent(document.getText());
+        target.setVersion(version);
+    }
+
+    public synchronized int getUnflushedCount() {
+        return version - persistedVersion;
+    }
+
+    public synchronized boolean isDirty() {
+        return version != persistedVersion;
+    }
+
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    public synchronized String getContent() {
+        return document.getText();
+    }
+
+    public Long getDocumentId() {
+        return documentId;
+    }
+
+    public Long getCreatorId() {
+        return creatorId;
+    }
+
+    public Map<Long, Boolean> getWritePermissions() {
+        return writePermissions;
+    }
+
+    public long getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    public boolean markFlushScheduled() {
+        return flushScheduled.compareAndSet(false, true);
+    }
+
+    public void clearFlushScheduled() {
+        flushScheduled.set(false);
+    }
+
+    public boolean markImmediateFlushScheduled() {
+        return immediateFlushScheduled.compareAndSet(false, true);
+    }
+
+    public void clearImmediateFlushScheduled() {
+        immediateFlushScheduled.set(false);
+    }
+
+    public ReentrantLock getFlushLock() {
+        return flushLock;
+    }
+
+    /**
+     * 一次集成的结果
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Applied {
+        private final CrdtOperation operation;
+        private final Delta effect;
+        private final int version;
+    }
+
+    /**
+     * 客户端初始化状态
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class State {
+        private final String state;
+        private final int version;
+        private final int maxClock;
+    }
+
+    /**
+     * 一次落库所需的数据
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class FlushSnapshot {
+        private final String content;
+        private final String crdtState;
+        private final int fromVersion;
+        private final int toVersion;
+    }
+}
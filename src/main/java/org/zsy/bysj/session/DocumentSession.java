@@ -0,0 +1,586 @@
+package org.zsy.bysj.session;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.zsy.bysj.algorithm.AttributeSpanIndex;
+import org.zsy.bysj.algorithm.Delta;
+import org.zsy.bysj.algorithm.DeltaOp;
+import org.zsy.bysj.algorithm.DocumentBuffer;
+import org.zsy.bysj.algorithm.OTAlgorithm;
+import org.zsy.bysj.algorithm.Operation;
+import org.zsy.bysj.algorithm.PrimitiveOperation;
+import org.zsy.bysj.algorithm.RichTextOTAlgorithm;
+import org.zsy.bysj.algorithm.RichTextOperation;
+import org.zsy.bysj.algorithm.Rope;
+import org.zsy.bysj.model.Document;
+import org.zsy.bysj.model.DocumentOperation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+/**
+ * 文档编辑会话（单个文档在当前节点上的权威内存状态）
+ *
+ * 持有文档的当前内容（DocumentBuffer）、格式区间索引、版本号和最近已提交操作的环形缓冲区，操作的转换与应用完全在内存中完成；
+ * 落库由 DocumentSessionService 在后台异步完成，不在编辑热路径上。
+ * 所有状态修改都在会话对象锁内进行。
+ */
+public class DocumentSession {
+
+    private final Long documentId;
+    private final Long creatorId;
+
+    private final DocumentBuffer buffer;
+    private String contentCache; // 最近一次生成的内容字符串，仅在版本未变化时复用
+    private int contentCacheVersion = -1;
+    private final AttributeSpanIndex formats; // 格式区间（FORMAT 操作与 Delta 上的属性）
+    private int version; // 当前版本号（与 document.version 一致）
+    private int persistedVersion; // 已写入数据库的版本号
+
+    private final OperationRingBuffer history; // 最近提交的操作，按基准版本连续存放
+    private final PrimitiveOperation transformScratch = new PrimitiveOperation(); // 转换时复用的实例
+    private final List<DocumentOperation> pendingOperations = new ArrayList<>(); // 尚未落库的操作记录
+    private ToLongFunction<DocumentOperation> journal; // 本地操作日志，提交时追加，返回日志序号
+    private long journalSequence; // 最近一次提交写入本地操作日志的序号
+    private long fencingToken; // 本节点持有过的最大文档锁令牌（LOCK 模式），落库时作为条件
+    private int leasedRevision; // 已从Redis租用的版本号上界，提交的版本号超过它之前需要续租（0 表示尚未租用）
+    private boolean retired; // 会话已被丢弃，不再接受新的编辑
+
+    // 写权限缓存（userId -> 是否可写），权限变更时由事件清除
+    private final Map<Long, Boolean> writePermissions = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false); // 已安排延迟落库
+    private final AtomicBoolean immediateFlushScheduled = new AtomicBoolean(false); // 已安排立即落库
+    private final ReentrantLock flushLock = new ReentrantLock(); // 保证同一会话的落库串行执行
+    private volatile long lastAccessTime = System.currentTimeMillis();
+
+    public DocumentSession(Document document, int historyLimit) {
+        this.documentId = document.getId();
+        this.creatorId = document.getCreatorId();
+        this.history = new OperationRingBuffer(historyLimit);
+        this.buffer = new DocumentBuffer(document.getContent() != null ? document.getContent() : "");
+        this.formats = AttributeSpanIndex.fromJson(document.getFormatSpans());
+        this.version = document.getVersion() != null ? document.getVersion() : 1;
+        this.persistedVersion = this.version;
+    }
+
+    /**
+     * 在当前版本上应用操作（不做转换，用于未携带基准版本的旧客户端）
+     */
+    public synchronized CommittedOperation apply(Long userId, Operation operation) {
+        return commit(userId, operation);
+    }
+
+    /**
+     * 应用基于 baseVersion 编辑的操作：先相对 baseVersion 之后已提交的操作依次转换，再应用到当前版本
+     *
+     * @param olderOperations 环形缓冲区之前的历史操作（从数据库补齐，按版本升序），不需要时传空列表
+     * @return 已提交的操作（转换后）；环形缓冲区与 olderOperations 不足以覆盖 baseVersion 之后的历史时返回null
+     */
+    public synchronized CommittedOperation apply(Long userId, Operation operation, int baseVersion,
+                                                 List<CommittedOperation> olderOperations) {
+        if (baseVersion > version || baseVersion < 1) {
+            throw new RuntimeException("操作基准版本无效: baseVersion=" + baseVersion + ", currentVersion=" + version);
+        }
+        if (baseVersion == version) {
+            return commit(userId, operation);
+        }
+
+        List<CommittedOperation> concurrent = concurrentSince(baseVersion, olderOperations);
+        if (concurrent == null) {
+            return null;
+        }
+        for (CommittedOperation committed : concurrent) {
+            if (committed.getDelta() != null) {
+                // 并发操作中有 Delta 时，统一按 Delta 转换
+                return commitDelta(userId, transformDelta(Delta.fromOperation(operation), concurrent));
+            }
+        }
+        // 在复用的基本类型实例上逐个转换，重放过程不产生新对象
+        PrimitiveOperation transformed = transformScratch.copyFrom(operation);
+        for (CommittedOperation committed : concurrent) {
+            PrimitiveOperation reference = history.getPrimitive(committed.getBaseVersion());
+            if (reference == null) {
+                reference = PrimitiveOperation.from(committed.getOperation()); // 从数据库补齐的历史
+            }
+            OTAlgorithm.transform(transformed, reference, transformed);
+        }
+        return commit(userId, transformed.toOperation());
+    }
+
+    /**
+     * 在当前版本上应用 Delta（不做转换）
+     */
+    public synchronized CommittedOperation applyDelta(Long userId, Delta delta) {
+        return commitDelta(userId, delta);
+    }
+
+    /**
+     * 应用基于 baseVersion 编辑的 Delta，语义与 {@link #apply(Long, Operation, int, List)} 相同
+     */
+    public synchronized CommittedOperation applyDelta(Long userId, Delta delta, int baseVersion,
+                                                      List<CommittedOperation> olderOperations) {
+        if (baseVersion > version || baseVersion < 1) {
+            throw new RuntimeException("操作基准版本无效: baseVersion=" + baseVersion + ", currentVersion=" + version);
+        }
+        if (baseVersion == version) {
+            return commitDelta(userId, delta);
+        }
+        List<CommittedOperation> concurrent = concurrentSince(baseVersion, olderOperations);
+        if (concurrent == null) {
+            return null;
+        }
+        return commitDelta(userId, transformDelta(delta, concurrent));
+    }
+
+    /**
+     * 在当前版本上应用格式操作（不做转换）
+     */
+    public synchronized CommittedOperation applyFormat(Long userId, RichTextOperation format) {
+        return commitFormat(userId, format);
+    }
+
+    /**
+     * 应用基于 baseVersion 编辑的格式操作，语义与 {@link #apply(Long, Operation, int, List)} 相同
+     * 格式范围用 RichTextOTAlgorithm 相对并发的位置操作转换；并发操作中有 Delta 时按 Delta 转换
+     */
+    public synchronized CommittedOperation applyFormat(Long userId, RichTextOperation format, int baseVersion,
+                                                       List<CommittedOperation> olderOperations) {
+        if (baseVersion > version || baseVersion < 1) {
+            throw new RuntimeException("操作基准版本无效: baseVersion=" + baseVersion + ", currentVersion=" + version);
+        }
+        if (baseVersion == version) {
+            return commitFormat(userId, format);
+        }
+        List<CommittedOperation> concurrent = concurrentSince(baseVersion, olderOperations);
+        if (concurrent == null) {
+            return null;
+        }
+        for (CommittedOperation committed : concurrent) {
+            if (committed.getDelta() != null) {
+                return commitDelta(userId, transformDelta(format.toDelta(), concurrent));
+            }
+        }
+        RichTextOperation transformed = format;
+        for (CommittedOperation committed : concurrent) {
+            if (committed.getFormat() == null) {
+                // 并发的格式操作不移动位置，重叠部分以后提交的格式为准
+                transformed = RichTextOTAlgorithm.transform(transformed,
+                        RichTextOperation.fromOperation(committed.getOperation()));
+            }
+        }
+        return commitFormat(userId, transformed);
+    }
+
+    /**
+     * 依次相对已提交的操作转换 Delta，已提交的操作优先（与 OTAlgorithm.transform 的规则一致）
+     */
+    private Delta transformDelta(Delta delta, List<CommittedOperation> concurrent) {
+        Delta transformed = delta;
+        for (CommittedOperation committed : concurrent) {
+            transformed = committed.toDelta().transform(transformed, true);
+        }
+        return transformed;
+    }
+
+    /**
+     * 把另一个会话中未能落库的操作（基准版本从 baseVersion 起连续）重新提交到本会话：
+     * 每个操作依次相对本会话 baseVersion 之后已提交的操作转换（已提交的操作优先），
+     * 同时把这些已提交的操作转换到该操作之后，供下一个操作继续转换
+     *
+     * @param olderOperations 环形缓冲区之前的历史操作（从数据库读取，按版本升序）
+     * @return 历史不足以覆盖 baseVersion 之后的操作或操作版本不连续时返回 false，此时不提交任何操作
+     */
+    public synchronized boolean rebase(int baseVersion, List<DocumentOperation> operations,
+                                       List<CommittedOperation> olderOperations) {
+        if (baseVersion > version || baseVersion < 1) {
+            return false;
+        }
+        for (int i = 0; i < operations.size(); i++) {
+            if (operations.get(i).getVersion() == null || operations.get(i).getVersion() != baseVersion + i) {
+                return false;
+            }
+        }
+        List<CommittedOperation> concurrent = concurrentSince(baseVersion, olderOperations);
+        if (concurrent == null) {
+            return false;
+        }
+        List<Delta> committed = new ArrayList<>(concurrent.size());
+        for (CommittedOperation operation : concurrent) {
+            committed.add(operation.toDelta());
+        }
+        for (DocumentOperation row : operations) {
+            Delta delta = toCommittedOperation(row).toDelta();
+            for (int i = 0; i < committed.size(); i++) {
+                Delta other = committed.get(i);
+                Delta transformed = other.transform(delta, true);
+                committed.set(i, delta.transform(other, false));
+                delta = transformed;
+            }
+            commitDelta(row.getUserId(), delta);
+        }
+        return true;
+    }
+
+    /**
+     * 环形缓冲区是否包含 baseVersion 之后的全部已提交操作
+     */
+    public synchronized boolean coversHistorySince(int baseVersion) {
+        return baseVersion >= version || history.covers(baseVersion);
+    }
+
+    /**
+     * 收集基准版本在 [baseVersion, version) 内的已提交操作，历史不连续时返回null
+     */
+    private List<CommittedOperation> concurrentSince(int baseVersion, List<CommittedOperation> olderOperations) {
+        int ringStart = history.size() > 0 ? history.oldestBaseVersion() : version;
+        List<CommittedOperation> result = new ArrayList<>(version - baseVersion);
+        if (baseVersion < ringStart) {
+            for (CommittedOperation older : olderOperations) {
+                int v = older.getBaseVersion();
+                if (v >= baseVersion && v < ringStart) {
+                    result.add(older);
+                }
+            }
+        }
+        result.addAll(history.since(baseVersion));
+
+        if (result.size() != version - baseVersion) {
+            return null;
+        }
+        for (int i = 0; i < result.size(); i++) {
+            if (result.get(i).getBaseVersion() != baseVersion + i) {
+                return null;
+            }
+        }
+        return result;
+    }
+
+    private CommittedOperation commit(Long userId, Operation operation) {
+        ensureActive();
+        lastAccessTime = System.currentTimeMillis();
+
+        int baseVersion = version;
+        OTAlgorithm.apply(buffer, operation);
+        formats.apply(operation);
+        version++;
+
+        CommittedOperation committed = new CommittedOperation(documentId, userId, operation, baseVersion, lastAccessTime);
+        history.add(committed);
+        record(toDocumentOperation(committed));
+        return committed;
+    }
+
+    private CommittedOperation commitDelta(Long userId, Delta delta) {
+        ensureActive();
+        lastAccessTime = System.currentTimeMillis();
+
+        int baseVersion = version;
+        delta.applyTo(buffer);
+        formats.apply(delta);
+        version++;
+
+        CommittedOperation committed = new CommittedOperation(documentId, userId, null, delta, baseVersion, lastAccessTime);
+        history.add(committed);
+        record(toDocumentOperation(committed));
+        return committed;
+    }
+
+    /**
+     * 提交格式操作：只修改格式区间索引，文本内容不变
+     * 在历史中以覆盖同一范围的 RETAIN 表示，后续位置操作相对它转换时位置不变
+     */
+    private CommittedOperation commitFormat(Long userId, RichTextOperation format) {
+        ensureActive();
+        lastAccessTime = System.currentTimeMillis();
+
+        int baseVersion = version;
+        formats.apply(format);
+        version++;
+
+        CommittedOperation committed = new CommittedOperation(documentId, userId,
+                Operation.retain(format.getPosition(), format.getLength()), null, format, baseVersion, lastAccessTime);
+        history.add(committed);
+        record(toDocumentOperation(committed));
+        return committed;
+    }
+
+    private void ensureActive() {
+        if (retired) {
+            throw new RuntimeException("文档会话已失效，请重新同步文档");
+        }
+    }
+
+    /**
+     * 加入待落库队列，并在返回（确认给客户端）之前追加到本地操作日志
+     */
+    private void record(DocumentOperation row) {
+        pendingOperations.add(row);
+        if (journal != null) {
+            journalSequence = Math.max(journalSequence, journal.applyAsLong(row));
+        }
+    }
+
+    /**
+     * 按原版本号重放本地操作日志中的已提交操作（崩溃恢复时使用，不做转换，不再写入日志）
+     *
+     * @return 操作的基准版本不是当前版本时返回 false
+     */
+    public synchronized boolean replay(DocumentOperation row) {
+        if (row.getVersion() == null || row.getVersion() != version) {
+            return false;
+        }
+        CommittedOperation committed = toCommittedOperation(row);
+        if (committed.getDelta() != null) {
+            committed.getDelta().applyTo(buffer);
+            formats.apply(committed.getDelta());
+        } else if (committed.getFormat() != null) {
+            formats.apply(committed.getFormat());
+        } else {
+            OTAlgorithm.apply(buffer, committed.getOperation());
+            formats.apply(committed.getOperation());
+        }
+        version++;
+        history.add(committed);
+        pendingOperations.add(row);
+        return true;
+    }
+
+    /**
+     * 恢复后待落库的操作对应的日志序号，落库成功后据此推进检查点
+     */
+    public synchronized void advanceJournalSequence(long sequence) {
+        journalSequence = Math.max(journalSequence, sequence);
+    }
+
+    /**
+     * 记录获取文档锁时得到的令牌，之后的落库以令牌不小于数据库中的令牌为条件
+     */
+    public synchronized void fence(long token) {
+        fencingToken = Math.max(fencingToken, token);
+    }
+
+    public synchronized void setJournal(ToLongFunction<DocumentOperation> journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * 取出待落库的数据（内容快照 + 操作记录），在锁内完成以保证两者一致
+     * 内容以不可变 Rope 快照返回，转换为字符串的开销由调用方在锁外承担
+     */
+    public synchronized FlushSnapshot drainForFlush() {
+        if (version == persistedVersion && pendingOperations.isEmpty()) {
+            return null;
+        }
+        List<DocumentOperation> operations = new ArrayList<>(pendingOperations);
+        pendingOperations.clear();
+        return new FlushSnapshot(buffer.snapshot(), formats.toJson(), persistedVersion, version, operations, journalSequence,
+                fencingToken);
+    }
+
+    /**
+     * 落库失败时将操作记录放回队列头部，等待下一次落库
+     */
+    public synchronized void restorePending(List<DocumentOperation> operations) {
+        pendingOperations.addAll(0, operations);
+    }
+
+    /**
+     * 丢弃会话：之后的编辑被拒绝，返回尚未取出的待落库操作记录
+     */
+    public synchronized List<DocumentOperation> retire() {
+        retired = true;
+        List<DocumentOperation> remaining = new ArrayList<>(pendingOperations);
+        pendingOperations.clear();
+        return remaining;
+    }
+
+    /**
+     * 标记某个版本已成功落库
+     */
+    public synchronized void markPersisted(int persisted) {
+        if (persisted > persistedVersion) {
+            persistedVersion = persisted;
+        }
+    }
+
+    /**
+     * 将会话中的最新内容与版本覆盖到文档对象上
+     */
+    public synchronized void copyStateTo(Document document) {
+        document.setContent(getContent());
+        document.setFormatSpans(formats.toJson());
+        document.setVersion(version);
+    }
+
+    /**
+     * 尚未落库的版本数（已确认给客户端但还只存在于内存中的编辑）
+     */
+    public synchronized int getUnflushedCount() {
+        return version - persistedVersion;
+    }
+
+    public synchronized boolean isDirty() {
+        return version != persistedVersion || !pendingOperations.isEmpty();
+    }
+
+    public synchronized int getLeasedRevision() {
+        return leasedRevision;
+    }
+
+    public synchronized void setLeasedRevision(int leasedRevision) {
+        this.leasedRevision = leasedRevision;
+    }
+
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    /**
+     * 当前内容字符串（同一版本只生成一次）
+     */
+    public synchronized String getContent() {
+        if (contentCacheVersion != version) {
+            contentCache = buffer.toString();
+            contentCacheVersion = version;
+        }
+        return contentCache;
+    }
+
+    /**
+     * 当前内容的不可变快照
+     */
+    public synchronized Rope getContentSnapshot() {
+        return buffer.snapshot();
+    }
+
+    /**
+     * 当前格式区间（JSON）
+     */
+    public synchronized String getFormatSpans() {
+        return formats.toJson();
+    }
+
+    /**
+     * 最近的操作历史（按版本升序）
+     */
+    public synchronized List<CommittedOperation> getHistory() {
+        return history.since(0);
+    }
+
+    public Long getDocumentId() {
+        return documentId;
+    }
+
+    public Long getCreatorId() {
+        return creatorId;
+    }
+
+    public Map<Long, Boolean> getWritePermissions() {
+        return writePermissions;
+    }
+
+    public long getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    /**
+     * 尝试标记“已安排落库”，返回 true 表示由调用方负责提交落库任务
+     */
+    public boolean markFlushScheduled() {
+        return flushScheduled.compareAndSet(false, true);
+    }
+
+    public void clearFlushScheduled() {
+        flushScheduled.set(false);
+    }
+
+    /**
+     * 尝试标记“已安排立即落库”（未落库版本数达到阈值时使用）
+     */
+    public boolean markImmediateFlushScheduled() {
+        return immediateFlushScheduled.compareAndSet(false, true);
+    }
+
+    public void clearImmediateFlushScheduled() {
+        immediateFlushScheduled.set(false);
+    }
+
+    public ReentrantLock getFlushLock() {
+        return flushLock;
+    }
+
+    /**
+     * 由操作记录还原已提交的操作（toDocumentOperation 的逆过程）
+     */
+    public static CommittedOperation toCommittedOperation(DocumentOperation row) {
+        if ("DELTA".equals(row.getOperationType())) {
+            return new CommittedOperation(row.getDocumentId(), row.getUserId(), null,
+                    Delta.fromJson(row.getOperationData()), row.getVersion(), row.getTimestamp());
+        }
+        if ("FORMAT".equals(row.getOperationType())) {
+            RichTextOperation format = RichTextOperation.format(row.getPosition(), row.getLength(),
+                    AttributeSpanIndex.attributesFromJson(row.getOperationData()));
+            return new CommittedOperation(row.getDocumentId(), row.getUserId(),
+                    Operation.retain(row.getPosition(), row.getLength()), null, format,
+                    row.getVersion(), row.getTimestamp());
+        }
+        Operation operation = new Operation(row.getOperationType(), row.getOperationData(),
+                row.getPosition(), row.getLength());
+        return new CommittedOperation(row.getDocumentId(), row.getUserId(), operation,
+                row.getVersion(), row.getTimestamp());
+    }
+
+    private DocumentOperation toDocumentOperation(CommittedOperation committed) {
+        DocumentOperation docOp = new DocumentOperation();
+        docOp.setDocumentId(documentId);
+        docOp.setUserId(committed.getUserId());
+        if (committed.getDelta() != null) {
+            // Delta 以 JSON 形式整体保存，position/length 记录修改起点与长度变化量
+            Delta delta = committed.getDelta();
+            List<DeltaOp> ops = delta.getOps();
+            docOp.setOperationType("DELTA");
+            docOp.setOperationData(delta.toJson());
+            docOp.setPosition(!ops.isEmpty() && ops.get(0).isRetainOp() && ops.get(0).getAttributes() == null
+                    ? ops.get(0).getRetain() : 0);
+            docOp.setLength(delta.changeLength());
+        } else if (committed.getFormat() != null) {
+            // 格式操作只记录范围和属性，几十个字节即可持久化一次格式修改
+            RichTextOperation format = committed.getFormat();
+            docOp.setOperationType("FORMAT");
+            docOp.setOperationData(AttributeSpanIndex.attributesToJson(format.getAttributes()));
+            docOp.setPosition(format.getPosition());
+            docOp.setLength(format.getLength());
+        } else {
+            Operation operation = committed.getOperation();
+            docOp.setOperationType(operation.getType());
+            docOp.setOperationData(operation.getData());
+            docOp.setPosition(operation.getPosition());
+            docOp.setLength(operation.getLength());
+        }
+        docOp.setTimestamp(committed.getTimestamp());
+        docOp.setVersion(committed.getBaseVersion());
+        docOp.setRevision(committed.getResultVersion());
+        return docOp;
+    }
+
+    /**
+     * 一次落库所需的数据
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class FlushSnapshot {
+        private final Rope content;
+        private final String formatSpans;
+        private final int fromVersion;
+        private final int toVersion;
+        private final List<DocumentOperation> operations;
+        private final long journalSequence; // 已写入本地操作日志的最大序号（未启用时为 0）
+        private final long fencingToken; // 文档锁令牌（未使用文档锁时为 0）
+    }
+}
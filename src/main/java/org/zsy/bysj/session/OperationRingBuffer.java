@@ -0,0 +1,130 @@
+package org.zsy.bysj.session;
+
+import org.zsy.bysj.algorithm.PrimitiveOperation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 有界的已提交操作环形缓冲区
+ *
+ * 按基准版本号（baseVersion）连续存放最近提交的操作，容量满后覆盖最旧的操作。
+ * 位置操作同时以 PrimitiveOperation 形式保存在可复用的槽位中，重放历史做转换时不需要再做类型转换和分配。
+ * 非线程安全，由 DocumentSession 在会话锁内访问。
+ */
+public class OperationRingBuffer {
+
+    private final CommittedOperation[] slots;
+    private final PrimitiveOperation[] primitives; // 与 slots 对应，槽位对象在覆盖时复用
+    private final boolean[] primitiveValid; // 对应槽位是否为位置操作
+    private int head; // 最旧操作所在的槽位
+    private int size;
+
+    public OperationRingBuffer(int capacity) {
+        this.slots = new CommittedOperation[Math.max(1, capacity)];
+        this.primitives = new PrimitiveOperation[slots.length];
+        this.primitiveValid = new boolean[slots.length];
+    }
+
+    /**
+     * 追加一个操作，其 baseVersion 必须紧接在上一个操作之后
+     */
+    public void add(CommittedOperation operation) {
+        if (size > 0 && operation.getBaseVersion() != newestBaseVersion() + 1) {
+            // 版本不连续（例如会话被整体重置），清空旧历史
+            clear();
+        }
+        int tail = (head + size) % slots.length;
+        slots[tail] = operation;
+        if (operation.getOperation() != null) {
+            if (primitives[tail] == null) {
+                primitives[tail] = new PrimitiveOperation();
+            }
+            primitives[tail].copyFrom(operation.getOperation());
+            primitiveValid[tail] = true;
+        } else {
+            primitiveValid[tail] = false;
+        }
+        if (size < slots.length) {
+            size++;
+        } else {
+            head = (head + 1) % slots.length;
+        }
+    }
+
+    /**
+     * 缓冲区中最旧操作的基准版本，为空时返回 -1
+     */
+    public int oldestBaseVersion() {
+        return size == 0 ? -1 : slots[head].getBaseVersion();
+    }
+
+    private int newestBaseVersion() {
+        return slots[(head + size - 1) % slots.length].getBaseVersion();
+    }
+
+    /**
+     * 是否包含从 fromVersion 开始的全部操作
+     */
+    public boolean covers(int fromVersion) {
+        return size > 0 && fromVersion >= oldestBaseVersion();
+    }
+
+    /**
+     * 获取基准版本为 baseVersion 的操作，不在缓冲区中时返回null
+     */
+    public CommittedOperation get(int baseVersion) {
+        if (size == 0) {
+            return null;
+        }
+        int offset = baseVersion - oldestBaseVersion();
+        if (offset < 0 || offset >= size) {
+            return null;
+        }
+        return slots[(head + offset) % slots.length];
+    }
+
+    /**
+     * 获取基准版本为 baseVersion 的位置操作的基本类型形式，不在缓冲区中或不是位置操作时返回null
+     * 返回的对象属于缓冲区，调用方只能读取，且不能在下一次 add 之后继续持有
+     */
+    public PrimitiveOperation getPrimitive(int baseVersion) {
+        if (size == 0) {
+            return null;
+        }
+        int offset = baseVersion - oldestBaseVersion();
+        if (offset < 0 || offset >= size) {
+            return null;
+        }
+        int slot = (head + offset) % slots.length;
+        return primitiveValid[slot] ? primitives[slot] : null;
+    }
+
+    /**
+     * 获取基准版本 >= fromVersion 的全部操作（按版本升序）
+     */
+    public List<CommittedOperation> since(int fromVersion) {
+        List<CommittedOperation> result = new ArrayList<>();
+        if (size == 0) {
+            return result;
+        }
+        int offset = Math.max(0, fromVersion - oldestBaseVersion());
+        for (int i = offset; i < size; i++) {
+            result.add(slots[(head + i) % slots.length]);
+        }
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = null;
+            primitiveValid[i] = false;
+        }
+        head = 0;
+        size = 0;
+    }
+}
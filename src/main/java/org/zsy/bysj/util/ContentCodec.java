@@ -0,0 +1,100 @@
+package org.zsy.bysj.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 文本内容压缩编解码工具类
+ *
+ * 编码后的文本格式为：标记字符 \u0001 + 编码类型 + 数据，仍可存入 TEXT 列。编码类型：
+ * D = Deflate（数据为 Base64），R = 原文（数据即原文，用于转义本身以标记字符开头的文本）。
+ * 不带标记的文本按原文处理，因此已有的未压缩数据无需迁移，读取时按需解压即可。
+ * 较短的文本或压缩后没有变小的文本保持原样；以标记字符开头的原文总是转义，解码时不会被误认为压缩数据。
+ */
+public class ContentCodec {
+
+    private static final char MARKER = '\u0001';
+    private static final char DEFLATE = 'D';
+    private static final char RAW = 'R';
+    private static final int MIN_LENGTH = 512;
+
+    /** 热数据（文档当前内容）：优先压缩速度 */
+    public static final int HOT_LEVEL = Deflater.BEST_SPEED;
+
+    /** 冷数据（历史版本）：优先压缩率 */
+    public static final int ARCHIVE_LEVEL = Deflater.BEST_COMPRESSION;
+
+    /**
+     * 判断文本是否为编码格式（压缩或转义）
+     */
+    public static boolean isEncoded(String text) {
+        return text != null && text.length() >= 2 && text.charAt(0) == MARKER;
+    }
+
+    /**
+     * 按指定压缩级别编码，不值得压缩时返回原文（以标记字符开头的原文转义后返回）
+     */
+    public static String encode(String text, int level) {
+        if (text == null || text.length() < MIN_LENGTH) {
+            return escape(text);
+        }
+        byte[] raw = text.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            String encoded = MARKER + String.valueOf(DEFLATE) + Base64.getEncoder().encodeToString(out.toByteArray());
+            return encoded.length() < raw.length ? encoded : escape(text);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static String escape(String text) {
+        return text != null && !text.isEmpty() && text.charAt(0) == MARKER ? MARKER + String.valueOf(RAW) + text : text;
+    }
+
+    /**
+     * 解码编码后的文本，原文直接返回
+     */
+    public static String decode(String text) {
+        if (!isEncoded(text)) {
+            return text;
+        }
+        if (text.charAt(1) == RAW) {
+            return text.substring(2);
+        }
+        if (text.charAt(1) != DEFLATE) {
+            throw new RuntimeException("不支持的内容编码类型: " + text.charAt(1));
+        }
+        byte[] compressed = Base64.getDecoder().decode(text.substring(2));
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                out.write(buffer, 0, count);
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new RuntimeException("内容解压失败", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -7,6 +7,7 @@ import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.stereotype.Controller;
 import org.zsy.bysj.dto.WebSocketMessage;
 import org.zsy.bysj.service.CollaborationService;
+import org.zsy.bysj.service.OperationCoalescingService;
 import org.zsy.bysj.util.JwtUtil;
 
 import java.util.HashSet;
@@ -23,6 +24,9 @@ public class WebSocketController {
     @Autowired
     private CollaborationService collaborationService;
 
+    @Autowired
+    private OperationCoalescingService operationCoalescingService;
+
     @Autowired
     private JwtUtil jwtUtil;
 
@@ -63,8 +67,8 @@ public class WebSocketController {
             
             System.out.println("收到操作消息: 用户" + userId + " 在文档" + message.getDocumentId() + " 中执行操作");
             
-            // 处理操作
-            collaborationService.handleOperation(message);
+            // 处理操作（先经过合并窗口，连续输入会合并为一个操作再进入协同处理）
+            operationCoalescingService.submit(message);
         } catch (Exception e) {
             System.err.println("处理操作消息失败: " + e.getMessage());
             e.printStackTrace();
@@ -159,6 +163,8 @@ public class WebSocketController {
             }
 
             System.out.println("用户 " + userId + " 离开文档 " + message.getDocumentId());
+            // 离开前先处理合并窗口中尚未提交的操作
+            operationCoalescingService.flush(message.getDocumentId(), userId);
             collaborationService.userLeaveDocument(message.getDocumentId(), userId);
         } catch (Exception e) {
             System.err.println("处理离开消息失败: " + e.getMessage());
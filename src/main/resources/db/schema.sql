@@ -19,13 +19,19 @@ CREATE TABLE IF NOT EXISTS `document` (
     `id` BIGINT PRIMARY KEY AUTO_INCREMENT,
     `title` VARCHAR(255) NOT NULL COMMENT '文档标题',
     `content` LONGTEXT COMMENT '文档内容（JSON格式）',
+    `content_layout` VARCHAR(10) DEFAULT 'INLINE' COMMENT '内容存储方式：INLINE（content列）/BLOCK（document_block分块）',
+    `format_spans` MEDIUMTEXT COMMENT '格式区间（JSON，由FORMAT操作维护）',
+    `engine_mode` VARCHAR(10) DEFAULT 'OT' COMMENT '协同引擎：OT/CRDT',
+    `crdt_state` LONGTEXT COMMENT 'CRDT模式下的文档状态（紧凑编码，Base64）',
     `creator_id` BIGINT NOT NULL COMMENT '创建者ID',
     `version` INT DEFAULT 1 COMMENT '当前版本号',
+    `fencing_token` BIGINT NOT NULL DEFAULT 0 COMMENT '最近一次落库时持有的文档锁令牌',
     `is_deleted` TINYINT DEFAULT 0 COMMENT '是否删除',
     `created_at` DATETIME DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
     `updated_at` DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
     INDEX `idx_creator_id` (`creator_id`),
-    INDEX `idx_created_at` (`created_at`)
+    INDEX `idx_created_at` (`created_at`),
+    INDEX `idx_creator_updated` (`creator_id`, `is_deleted`, `updated_at`, `id`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='文档表';
 
 -- 文档版本表
@@ -35,9 +41,13 @@ CREATE TABLE IF NOT EXISTS `document_version` (
     `version` INT NOT NULL COMMENT '版本号',
     `content` LONGTEXT COMMENT '文档内容快照',
     `snapshot` LONGTEXT COMMENT '版本快照（JSON）',
+    `storage_type` VARCHAR(10) DEFAULT 'FULL' COMMENT '内容存储方式：FULL（完整内容）/DELTA（相对base_id版本的反向差量）',
+    `base_id` BIGINT COMMENT '差量的基准版本记录ID',
+    `chain_length` INT DEFAULT 0 COMMENT '完整内容记录下方的差量链长度',
     `created_by` BIGINT NOT NULL COMMENT '创建者ID',
     `created_at` DATETIME DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
     INDEX `idx_document_version` (`document_id`, `version`),
+    INDEX `idx_base_id` (`base_id`),
     FOREIGN KEY (`document_id`) REFERENCES `document`(`id`) ON DELETE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='文档版本表';
 
@@ -49,28 +59,42 @@ CREATE TABLE IF NOT EXISTS `document_permission` (
     `permission_type` VARCHAR(20) NOT NULL COMMENT '权限类型：READ/WRITE/ADMIN',
     `created_at` DATETIME DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
     UNIQUE KEY `uk_document_user` (`document_id`, `user_id`),
-    INDEX `idx_user_id` (`user_id`),
+    INDEX `idx_user_document` (`user_id`, `document_id`),
     FOREIGN KEY (`document_id`) REFERENCES `document`(`id`) ON DELETE CASCADE,
     FOREIGN KEY (`user_id`) REFERENCES `user`(`id`) ON DELETE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='文档权限表';
 
 -- 文档操作日志表（用于OT算法）
 CREATE TABLE IF NOT EXISTS `document_operation` (
-    `id` BIGINT PRIMARY KEY AUTO_INCREMENT,
+    `id` BIGINT NOT NULL AUTO_INCREMENT,
     `document_id` BIGINT NOT NULL COMMENT '文档ID',
+    `revision` INT NOT NULL COMMENT '操作提交后的文档版本（每个版本一行）',
     `user_id` BIGINT NOT NULL COMMENT '用户ID',
-    `operation_type` VARCHAR(20) NOT NULL COMMENT '操作类型：INSERT/DELETE/RETAIN',
+    `operation_type` VARCHAR(20) NOT NULL COMMENT '操作类型：INSERT/DELETE/RETAIN/DELTA/FORMAT',
     `operation_data` TEXT COMMENT '操作数据（JSON格式）',
     `position` INT NOT NULL COMMENT '操作位置',
     `length` INT DEFAULT 0 COMMENT '操作长度',
     `timestamp` BIGINT NOT NULL COMMENT '时间戳（用于排序）',
     `version` INT NOT NULL COMMENT '操作时的文档版本',
     `created_at` DATETIME DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
-    INDEX `idx_document_timestamp` (`document_id`, `timestamp`),
-    INDEX `idx_document_version` (`document_id`, `version`),
+    PRIMARY KEY (`document_id`, `revision`),
+    UNIQUE KEY `uk_id` (`id`),
     FOREIGN KEY (`document_id`) REFERENCES `document`(`id`) ON DELETE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='文档操作日志表';
 
+-- 文档内容分块表（content_layout = BLOCK 时按 sort_key 顺序拼接为完整内容，编辑只改写变化的块）
+CREATE TABLE IF NOT EXISTS `document_block` (
+    `id` BIGINT PRIMARY KEY AUTO_INCREMENT,
+    `document_id` BIGINT NOT NULL COMMENT '文档ID',
+    `sort_key` BIGINT NOT NULL COMMENT '排序键（稀疏分配）',
+    `content` MEDIUMTEXT NOT NULL COMMENT '块内容',
+    `content_hash` BIGINT NOT NULL COMMENT '块内容哈希',
+    `length` INT NOT NULL COMMENT '块长度（字符数）',
+    `updated_at` DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+    UNIQUE KEY `uk_document_sort_key` (`document_id`, `sort_key`),
+    FOREIGN KEY (`document_id`) REFERENCES `document`(`id`) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='文档内容分块表';
+
 -- 评论表
 CREATE TABLE IF NOT EXISTS `comment` (
     `id` BIGINT PRIMARY KEY AUTO_INCREMENT,
@@ -126,3 +150,17 @@ CREATE TABLE IF NOT EXISTS `chat_message` (
     FOREIGN KEY (`sender_id`) REFERENCES `user`(`id`) ON DELETE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='聊天消息表';
 
+
+-- 已有数据库升级（按需执行）
+-- ALTER TABLE `document` ADD COLUMN `format_spans` MEDIUMTEXT COMMENT '格式区间（JSON，由FORMAT操作维护）' AFTER `content`;
+-- ALTER TABLE `document` ADD COLUMN `engine_mode` VARCHAR(10) DEFAULT 'OT' COMMENT '协同引擎：OT/CRDT' AFTER `format_spans`;
+-- ALTER TABLE `document` ADD COLUMN `crdt_state` LONGTEXT COMMENT 'CRDT模式下的文档状态（紧凑编码，Base64）' AFTER `engine_mode`;
+-- ALTER TABLE `document` ADD COLUMN `content_layout` VARCHAR(10) DEFAULT 'INLINE' COMMENT '内容存储方式：INLINE（content列）/BLOCK（document_block分块）' AFTER `content`;
+-- ALTER TABLE `document_version` ADD COLUMN `storage_type` VARCHAR(10) DEFAULT 'FULL' COMMENT '内容存储方式：FULL（完整内容）/DELTA（相对base_id版本的反向差量）' AFTER `snapshot`, ADD COLUMN `base_id` BIGINT COMMENT '差量的基准版本记录ID' AFTER `storage_type`, ADD COLUMN `chain_length` INT DEFAULT 0 COMMENT '完整内容记录下方的差量链长度' AFTER `base_id`, ADD INDEX `idx_base_id` (`base_id`);
+-- ALTER TABLE `document` ADD INDEX `idx_creator_updated` (`creator_id`, `is_deleted`, `updated_at`, `id`);
+-- ALTER TABLE `document_operation` ADD COLUMN `revision` INT NULL COMMENT '操作提交后的文档版本（每个版本一行）' AFTER `document_id`;
+-- UPDATE `document_operation` SET `revision` = `version` + 1;
+-- DELETE o1 FROM `document_operation` o1 JOIN `document_operation` o2 ON o1.`document_id` = o2.`document_id` AND o1.`revision` = o2.`revision` AND o1.`id` > o2.`id`;
+-- ALTER TABLE `document_operation` MODIFY `revision` INT NOT NULL COMMENT '操作提交后的文档版本（每个版本一行）', DROP PRIMARY KEY, ADD UNIQUE KEY `uk_id` (`id`), ADD PRIMARY KEY (`document_id`, `revision`), DROP INDEX `idx_document_timestamp`, DROP INDEX `idx_document_version`;
+-- ALTER TABLE `document_permission` DROP INDEX `idx_user_id`, ADD INDEX `idx_user_document` (`user_id`, `document_id`);
+-- ALTER TABLE `document` ADD COLUMN `fencing_token` BIGINT NOT NULL DEFAULT 0 COMMENT '最近一次落库时持有的文档锁令牌' AFTER `version`;
@@ -0,0 +1,99 @@
+package org.zsy.bysj.algorithm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AttributeSpanIndexTests {
+
+    private static final String[] KEYS = {"bold", "italic", "color"};
+
+    @Test
+    void matchesPerCharacterModel() {
+        Random random = new Random(5);
+        AttributeSpanIndex index = new AttributeSpanIndex();
+        List<Map<String, Object>> model = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            model.add(Collections.emptyMap());
+        }
+
+        for (int step = 0; step < 20_000; step++) {
+            int size = model.size();
+            int choice = random.nextInt(3);
+            if (choice == 0 || size < 10) {
+                int position = random.nextInt(size + 1);
+                int length = 1 + random.nextInt(5);
+                // 插入点两侧格式相同时新文本继承该格式，否则无格式
+                Map<String, Object> inherited = position > 0 && position < size
+                        && model.get(position - 1).equals(model.get(position))
+                        ? model.get(position) : Collections.emptyMap();
+                for (int i = 0; i < length; i++) {
+                    model.add(position, inherited);
+                }
+                index.insert(position, length);
+            } else if (choice == 1) {
+                int position = random.nextInt(size);
+                int length = 1 + random.nextInt(Math.min(8, size - position));
+                model.subList(position, position + length).clear();
+                index.delete(position, length);
+            } else {
+                int position = random.nextInt(size);
+                int length = 1 + random.nextInt(Math.min(30, size - position));
+                Map<String, Object> attributes = new HashMap<>();
+                attributes.put(KEYS[random.nextInt(KEYS.length)], random.nextBoolean() ? null : random.nextInt(3));
+                for (int i = position; i < position + length; i++) {
+                    Map<String, Object> merged = new HashMap<>(model.get(i));
+                    attributes.forEach((key, value) -> {
+                        if (value == null) {
+                            merged.remove(key);
+                        } else {
+                            merged.put(key, value);
+                        }
+                    });
+                    model.set(i, merged);
+                }
+                index.format(position, length, attributes);
+            }
+            assertMatches(model, index, step);
+        }
+
+        assertMatches(model, AttributeSpanIndex.fromJson(index.toJson()), -1);
+    }
+
+    @Test
+    void appliesDeltaAttributes() {
+        AttributeSpanIndex index = new AttributeSpanIndex();
+        Map<String, Object> bold = Collections.singletonMap("bold", true);
+        index.apply(new Delta().retain(2).insert("abc", bold));
+        index.apply(new Delta().retain(1).retain(3, bold));
+        index.apply(new Delta().retain(4).delete(1));
+
+        assertEquals(1, index.getSpans().size());
+        assertEquals(new AttributeSpanIndex.Span(1, 4, bold), index.getSpans().get(0));
+    }
+
+    private static void assertMatches(List<Map<String, Object>> model, AttributeSpanIndex index, int step) {
+        List<AttributeSpanIndex.Span> spans = index.getSpans();
+        int previousEnd = -1;
+        for (AttributeSpanIndex.Span span : spans) {
+            // 区间有序、不重叠、非空，且相接的区间格式不同
+            assertEquals(true, span.getStart() < span.getEnd() && span.getStart() >= previousEnd, "step " + step);
+            previousEnd = span.getEnd();
+        }
+        for (int i = 1; i < spans.size(); i++) {
+            if (spans.get(i - 1).getEnd() == spans.get(i).getStart()) {
+                assertEquals(false, spans.get(i - 1).getAttributes().equals(spans.get(i).getAttributes()), "step " + step);
+            }
+        }
+        for (int i = 0; i < model.size(); i++) {
+            assertEquals(model.get(i), index.attributesAt(i), "step " + step + ", position " + i);
+        }
+    }
+}
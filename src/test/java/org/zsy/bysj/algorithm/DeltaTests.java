@@ -0,0 +1,174 @@
+package org.zsy.bysj.algorithm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeltaTests {
+
+    private static final int ROUNDS = 20_000;
+
+    @Test
+    void composeMatchesSequentialApply() {
+        Random random = new Random(17);
+        for (int i = 0; i < ROUNDS; i++) {
+            String base = randomText(random);
+            Delta first = randomDelta(random, base.length());
+            String afterFirst = apply(base, first);
+            Delta second = randomDelta(random, afterFirst.length());
+            assertEquals(apply(afterFirst, second), apply(base, first.compose(second)),
+                    first + " compose " + second);
+        }
+    }
+
+    @Test
+    void transformConverges() {
+        Random random = new Random(19);
+        for (int i = 0; i < ROUNDS; i++) {
+            String base = randomText(random);
+            Delta a = randomDelta(random, base.length());
+            Delta b = randomDelta(random, base.length());
+            // a 先提交（优先），b 相对 a 转换；反之 a 相对 b 转换，两条路径结果一致
+            String viaA = apply(apply(base, a), a.transform(b, true));
+            String viaB = apply(apply(base, b), b.transform(a, false));
+            assertEquals(viaA, viaB, a + " vs " + b);
+        }
+    }
+
+    @Test
+    void transformKeepsPriorityInsertFirst() {
+        Delta a = new Delta().retain(2).insert("A");
+        Delta b = new Delta().retain(2).insert("B");
+        assertEquals("abAB", apply("ab", a.compose(a.transform(b, true))));
+        assertEquals("abBA", apply("ab", a.compose(a.transform(b, false))));
+    }
+
+    @Test
+    void transformPositionFollowsEdits() {
+        Delta delta = new Delta().retain(2).insert("xyz").delete(3);
+        assertEquals(1, delta.transformPosition(1, false)); // 修改之前的位置不变
+        assertEquals(5, delta.transformPosition(2, false)); // 插入点上的位置移到插入内容之后
+        assertEquals(2, delta.transformPosition(2, true)); // 优先时留在插入内容之前
+        assertEquals(5, delta.transformPosition(4, false)); // 被删除范围内的位置移到删除点
+        assertEquals(7, delta.transformPosition(7, false)); // 之后的位置 +3 -3
+
+        Random random = new Random(23);
+        for (int i = 0; i < ROUNDS; i++) {
+            String base = randomText(random);
+            if (base.isEmpty()) {
+                continue;
+            }
+            Delta edit = randomDelta(random, base.length());
+            int index = random.nextInt(base.length());
+            String after = apply(base, edit);
+            int transformed = edit.transformPosition(index, false);
+            assertTrue(transformed >= 0 && transformed <= after.length(), edit + " at " + index);
+            if (!isDeleted(edit, index)) {
+                // 未被删除的字符转换后的位置上仍是同一个字符
+                assertEquals(base.charAt(index), after.charAt(transformed), edit + " at " + index);
+            }
+        }
+    }
+
+    @Test
+    void invertRestoresBase() {
+        Random random = new Random(29);
+        for (int i = 0; i < ROUNDS; i++) {
+            String base = randomText(random);
+            Delta delta = randomDelta(random, base.length());
+            Delta inverted = delta.invert(Rope.of(base));
+            assertEquals(base, apply(apply(base, delta), inverted), delta.toString());
+        }
+    }
+
+    @Test
+    void embedInsertsAreSingleCharacterOps() {
+        Delta quill = Delta.fromJson(
+                "{\"ops\":[{\"retain\":2},{\"insert\":{\"image\":\"a.png\"}},{\"insert\":{\"video\":\"b.mp4\"}},{\"insert\":\"x\"}]}");
+        assertEquals(4, quill.getOps().size()); // 嵌入对象不与相邻插入合并
+        assertEquals(3, quill.changeLength());
+        assertEquals("ab" + DeltaOp.EMBED_PLACEHOLDER + DeltaOp.EMBED_PLACEHOLDER + "xcd", apply("abcd", quill));
+        assertEquals(quill, Delta.fromJson(quill.toJson()));
+
+        // 并发插入相对嵌入对象转换时按长度 1 移动
+        Delta concurrent = new Delta().retain(3).insert("!");
+        assertEquals(new Delta().retain(6).insert("!"), quill.transform(concurrent, true));
+
+        // 组合后嵌入对象保持原样，可被格式 retain 修改属性
+        Map<String, Object> width = Collections.singletonMap("width", "100");
+        Delta composed = quill.compose(new Delta().retain(2).retain(1, width));
+        assertEquals(DeltaOp.embed(Collections.singletonMap("image", "a.png"), width), composed.getOps().get(1));
+
+        // 删除嵌入对象
+        Delta delete = new Delta().retain(2).delete(1);
+        assertEquals("ab" + DeltaOp.EMBED_PLACEHOLDER + "xcd", apply(apply("abcd", quill), delete));
+    }
+
+    private static boolean isDeleted(Delta delta, int index) {
+        int cursor = 0;
+        for (DeltaOp op : delta.getOps()) {
+            if (op.isInsertOp()) {
+                continue;
+            }
+            if (index < cursor + op.length()) {
+                return op.isDeleteOp();
+            }
+            cursor += op.length();
+        }
+        return false;
+    }
+
+    private static String apply(String text, Delta delta) {
+        DocumentBuffer buffer = new DocumentBuffer(text);
+        delta.applyTo(buffer);
+        return buffer.toString();
+    }
+
+    private static String randomText(Random random) {
+        StringBuilder text = new StringBuilder();
+        int length = random.nextInt(12);
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('a' + random.nextInt(26)));
+        }
+        return text.toString();
+    }
+
+    /**
+     * 在长度为 length 的文档上随机生成 retain（可带格式）/insert（文本或嵌入对象）/delete 分量
+     */
+    private static Delta randomDelta(Random random, int length) {
+        Delta delta = new Delta();
+        int cursor = 0;
+        while (random.nextInt(4) != 0) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    delta.insert(String.valueOf((char) ('A' + random.nextInt(26))).repeat(1 + random.nextInt(3)),
+                            random.nextBoolean() ? null : Collections.singletonMap("bold", true));
+                    break;
+                case 1:
+                    delta.insertEmbed(Collections.singletonMap("image", "img" + random.nextInt(3)), null);
+                    break;
+                case 2:
+                    if (cursor < length) {
+                        int count = 1 + random.nextInt(length - cursor);
+                        delta.delete(count);
+                        cursor += count;
+                    }
+                    break;
+                default:
+                    if (cursor < length) {
+                        int count = 1 + random.nextInt(length - cursor);
+                        delta.retain(count, random.nextInt(3) == 0 ? Collections.singletonMap("italic", true) : null);
+                        cursor += count;
+                    }
+                    break;
+            }
+        }
+        return delta.chop();
+    }
+}
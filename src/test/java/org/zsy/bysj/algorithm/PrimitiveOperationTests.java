@@ -0,0 +1,99 @@
+package org.zsy.bysj.algorithm;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PrimitiveOperationTests {
+
+    private static final int HISTORY_SIZE = 1024;
+    private static final int ROUNDS = 200;
+
+    private static volatile Object sink; // 防止转换结果被 JIT 优化掉
+
+    @Test
+    void transformMatchesOperationTransform() {
+        Random random = new Random(7);
+        PrimitiveOperation out = new PrimitiveOperation();
+        for (int i = 0; i < 100_000; i++) {
+            Operation op1 = randomOperation(random);
+            Operation op2 = randomOperation(random);
+            Operation expected = OTAlgorithm.transform(op1, op2);
+            OTAlgorithm.transform(PrimitiveOperation.from(op1), PrimitiveOperation.from(op2), out);
+            assertEquals(expected, out.toOperation(), op1 + " vs " + op2);
+        }
+    }
+
+    @Test
+    void replayingHistoryDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        Random random = new Random(11);
+        Operation[] history = new Operation[HISTORY_SIZE];
+        PrimitiveOperation[] primitiveHistory = new PrimitiveOperation[HISTORY_SIZE];
+        for (int i = 0; i < HISTORY_SIZE; i++) {
+            history[i] = randomOperation(random);
+            primitiveHistory[i] = PrimitiveOperation.from(history[i]);
+        }
+        Operation incoming = Operation.insert("x", 999);
+        PrimitiveOperation scratch = new PrimitiveOperation();
+
+        // 预热，避免把 JIT 编译期间的分配计入结果
+        for (int i = 0; i < 50; i++) {
+            sink = replay(incoming, history);
+            sink = replay(incoming, primitiveHistory, scratch);
+        }
+
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ROUNDS; i++) {
+            sink = replay(incoming, history);
+        }
+        long objectBytes = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ROUNDS; i++) {
+            sink = replay(incoming, primitiveHistory, scratch);
+        }
+        long primitiveBytes = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        long steps = (long) ROUNDS * HISTORY_SIZE;
+        System.out.printf("重放 %d 步转换: Operation 分配 %d 字节 (%.1f 字节/步), PrimitiveOperation 分配 %d 字节 (%.3f 字节/步)%n",
+                steps, objectBytes, (double) objectBytes / steps, primitiveBytes, (double) primitiveBytes / steps);
+
+        assertTrue(primitiveBytes < 16 * 1024, "PrimitiveOperation 版本重放历史不应分配对象: " + primitiveBytes);
+    }
+
+    private static Operation replay(Operation incoming, Operation[] history) {
+        Operation transformed = incoming;
+        for (Operation reference : history) {
+            transformed = OTAlgorithm.transform(transformed, reference);
+        }
+        return transformed;
+    }
+
+    private static PrimitiveOperation replay(Operation incoming, PrimitiveOperation[] history, PrimitiveOperation scratch) {
+        PrimitiveOperation transformed = scratch.copyFrom(incoming);
+        for (PrimitiveOperation reference : history) {
+            OTAlgorithm.transform(transformed, reference, transformed);
+        }
+        return transformed;
+    }
+
+    private static Operation randomOperation(Random random) {
+        int position = random.nextInt(1000);
+        switch (random.nextInt(3)) {
+            case 0:
+                return Operation.insert("ab".substring(0, 1 + random.nextInt(2)), position);
+            case 1:
+                return Operation.delete(position, 1 + random.nextInt(20));
+            default:
+                return Operation.retain(position, 1 + random.nextInt(20));
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.zsy.bysj.algorithm;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RopeTests {
+
+    private static final int LEAF = Rope.MAX_LEAF;
+
+    @Test
+    void editsAcrossLeafBoundaries() {
+        String text = text(LEAF * 3);
+        Rope rope = Rope.of(text);
+        assertValid(rope);
+        assertEquals(text, rope.toString());
+
+        // 恰好填满、超出叶子容量的插入，以及叶子边界两侧的插入
+        for (int position : new int[]{0, LEAF - 1, LEAF, LEAF + 1, text.length()}) {
+            for (int size : new int[]{1, LEAF - 1, LEAF, LEAF + 1, LEAF * 2 + 7}) {
+                String inserted = "x".repeat(size);
+                Rope edited = rope.insert(position, inserted);
+                assertValid(edited);
+                assertEquals(new StringBuilder(text).insert(position, inserted).toString(), edited.toString());
+            }
+        }
+
+        // 跨越一个或多个叶子的删除与截取
+        int[][] ranges = {{0, LEAF}, {LEAF - 1, LEAF + 1}, {LEAF / 2, LEAF * 2 + LEAF / 2}, {1, text.length() - 1},
+                {0, text.length()}};
+        for (int[] range : ranges) {
+            Rope deleted = rope.delete(range[0], range[1] - range[0]);
+            assertValid(deleted);
+            assertEquals(new StringBuilder(text).delete(range[0], range[1]).toString(), deleted.toString());
+            assertEquals(text.substring(range[0], range[1]), rope.substring(range[0], range[1]));
+        }
+        assertEquals(0, rope.delete(0, text.length()).length());
+
+        // 修改不影响旧版本（快照）
+        assertEquals(text, rope.toString());
+        assertSame(rope, rope.insert(3, ""));
+        assertSame(rope, rope.delete(3, 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> rope.insert(text.length() + 1, "x"));
+        assertThrows(IndexOutOfBoundsException.class, () -> rope.delete(text.length() - 1, 2));
+        assertThrows(IndexOutOfBoundsException.class, () -> rope.substring(2, 1));
+        assertThrows(IndexOutOfBoundsException.class, () -> rope.charAt(text.length()));
+    }
+
+    @Test
+    void randomEditsMatchStringBuilder() {
+        Random random = new Random(31);
+        StringBuilder oracle = new StringBuilder();
+        DocumentBuffer buffer = new DocumentBuffer();
+        for (int i = 0; i < 5_000; i++) {
+            if (oracle.length() == 0 || random.nextInt(5) < 3) {
+                // 偶尔插入整段内容，使叶子拆分和子树连接都会发生
+                int position = random.nextInt(oracle.length() + 1);
+                String text = randomText(random, random.nextInt(10) == 0 ? 1 + random.nextInt(LEAF * 3) : 1 + random.nextInt(8));
+                oracle.insert(position, text);
+                buffer.insert(position, text);
+            } else {
+                int position = random.nextInt(oracle.length());
+                int limit = random.nextInt(10) == 0 ? LEAF * 2 : 16;
+                int length = 1 + random.nextInt(Math.min(oracle.length() - position, limit));
+                oracle.delete(position, position + length);
+                buffer.delete(position, length);
+            }
+
+            assertEquals(oracle.length(), buffer.length());
+            if (i % 50 == 0) {
+                assertValid(buffer.snapshot());
+                assertEquals(oracle.toString(), buffer.toString());
+                if (oracle.length() > 0) {
+                    int start = random.nextInt(oracle.length());
+                    int end = start + random.nextInt(oracle.length() - start + 1);
+                    assertEquals(oracle.substring(start, end), buffer.substring(start, end));
+                    assertEquals(oracle.charAt(start), buffer.charAt(start));
+                }
+            }
+        }
+        assertValid(buffer.snapshot());
+        assertEquals(oracle.toString(), buffer.toString());
+    }
+
+    @Test
+    void sequentialTypingStaysBalanced() {
+        // 在末尾逐字输入：每次修改都落在最右侧路径上，检查旋转后仍保持平衡
+        DocumentBuffer buffer = new DocumentBuffer();
+        StringBuilder oracle = new StringBuilder();
+        for (int i = 0; i < LEAF * 64; i++) {
+            char c = (char) ('a' + i % 26);
+            buffer.insert(buffer.length(), String.valueOf(c));
+            oracle.append(c);
+        }
+        assertValid(buffer.snapshot());
+        assertEquals(oracle.toString(), buffer.toString());
+
+        // 从开头逐段删除
+        while (buffer.length() > 0) {
+            buffer.delete(0, 100);
+            oracle.delete(0, 100);
+            assertEquals(oracle.length(), buffer.length());
+        }
+        assertValid(buffer.snapshot());
+    }
+
+    /**
+     * 检查结构不变式：叶子不超过 MAX_LEAF，内部节点的长度与高度一致且左右子树高度差不超过1
+     *
+     * @return 子树高度
+     */
+    private static int assertValid(Rope node) {
+        String leaf = (String) ReflectionTestUtils.getField(node, "leaf");
+        int height = (int) ReflectionTestUtils.getField(node, "height");
+        if (leaf != null) {
+            assertTrue(leaf.length() <= LEAF, "叶子长度 " + leaf.length());
+            assertEquals(0, height);
+            return 0;
+        }
+        Rope left = (Rope) ReflectionTestUtils.getField(node, "left");
+        Rope right = (Rope) ReflectionTestUtils.getField(node, "right");
+        assertTrue(left.length() > 0 && right.length() > 0, "内部节点含空子树");
+        int leftHeight = assertValid(left);
+        int rightHeight = assertValid(right);
+        assertTrue(Math.abs(leftHeight - rightHeight) <= 1, "左右高度 " + leftHeight + "/" + rightHeight);
+        assertEquals(Math.max(leftHeight, rightHeight) + 1, height);
+        assertEquals(left.length() + right.length(), node.length());
+        return height;
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('a' + random.nextInt(26)));
+        }
+        return text.toString();
+    }
+
+    private static String text(int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('a' + i % 26));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,51 @@
+package org.zsy.bysj.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConsistentHashRingTests {
+
+    private static final int DOCUMENTS = 30_000;
+
+    /**
+     * 文档大致均匀分布；加入节点时只有移到新节点的文档改变归属，约占 1/节点数
+     */
+    @Test
+    void joinMovesOnlyDocumentsToNewNode() {
+        List<String> nodes = Arrays.asList("node-a", "node-b", "node-c");
+        ConsistentHashRing before = new ConsistentHashRing(nodes, 128);
+        ConsistentHashRing after = new ConsistentHashRing(Arrays.asList("node-c", "node-d", "node-a", "node-b"), 128);
+
+        Map<String, Integer> counts = new HashMap<>();
+        int moved = 0;
+        for (long id = 1; id <= DOCUMENTS; id++) {
+            String owner = before.ownerOf(id);
+            counts.merge(owner, 1, Integer::sum);
+            String newOwner = after.ownerOf(id);
+            if (!owner.equals(newOwner)) {
+                assertEquals("node-d", newOwner, "document " + id);
+                moved++;
+            }
+        }
+        for (String node : nodes) {
+            int count = counts.getOrDefault(node, 0);
+            assertTrue(Math.abs(count - DOCUMENTS / 3) < DOCUMENTS / 3 * 0.25, node + ": " + count);
+        }
+        assertTrue(Math.abs(moved - DOCUMENTS / 4) < DOCUMENTS / 4 * 0.3, "moved " + moved);
+
+        // 节点离开后其余文档的归属不变
+        ConsistentHashRing left = new ConsistentHashRing(Arrays.asList("node-a", "node-c"), 128);
+        for (long id = 1; id <= DOCUMENTS; id++) {
+            if (!"node-b".equals(before.ownerOf(id))) {
+                assertEquals(before.ownerOf(id), left.ownerOf(id));
+            }
+        }
+    }
+}
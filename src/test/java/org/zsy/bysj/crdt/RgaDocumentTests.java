@@ -0,0 +1,144 @@
+package org.zsy.bysj.crdt;
+
+import org.junit.jupiter.api.Test;
+import org.zsy.bysj.algorithm.Delta;
+import org.zsy.bysj.algorithm.DocumentBuffer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RgaDocumentTests {
+
+    /**
+     * 星形拓扑：客户端本地编辑后发给服务端，服务端集成后按 FIFO 转发给其他客户端；
+     * 静默后各副本文本一致，且服务端返回的可见修改能把旧文本推进到新文本
+     */
+    @Test
+    void replicasConvergeThroughServer() {
+        Random random = new Random(11);
+        int clients = 4;
+        RgaDocument server = RgaDocument.fromText("hello world");
+        List<RgaDocument> replicas = new ArrayList<>();
+        List<Queue<CrdtOperation>> inbox = new ArrayList<>();
+        List<Queue<CrdtOperation>> outbox = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            replicas.add(RgaDocument.decode(server.encode()));
+            inbox.add(new ArrayDeque<>());
+            outbox.add(new ArrayDeque<>());
+        }
+
+        for (int step = 0; step < 5_000; step++) {
+            int c = random.nextInt(clients);
+            RgaDocument replica = replicas.get(c);
+            int action = random.nextInt(4);
+            if (action == 0 && !outbox.get(c).isEmpty()) {
+                CrdtOperation operation = outbox.get(c).poll();
+                DocumentBuffer buffer = new DocumentBuffer(server.getText());
+                Delta effect = server.apply(operation);
+                effect.applyTo(buffer);
+                assertEquals(server.getText(), buffer.toString(), "step " + step);
+                for (int other = 0; other < clients; other++) {
+                    if (other != c) {
+                        inbox.get(other).add(operation);
+                    }
+                }
+            } else if (action == 1 && !inbox.get(c).isEmpty()) {
+                replica.apply(inbox.get(c).poll());
+            } else if (action == 2 && replica.length() > 0) {
+                int index = random.nextInt(replica.length());
+                int length = 1 + random.nextInt(Math.min(4, replica.length() - index));
+                outbox.get(c).add(replica.deleteAt(index, length));
+            } else {
+                int index = random.nextInt(replica.length() + 1);
+                outbox.get(c).add(replica.insertAt(c + 1, index, randomText(random)));
+            }
+            if (step % 500 == 0) {
+                server.collectGarbage();
+            }
+        }
+
+        // 排空所有队列
+        for (int c = 0; c < clients; c++) {
+            while (!outbox.get(c).isEmpty()) {
+                CrdtOperation operation = outbox.get(c).poll();
+                server.apply(operation);
+                for (int other = 0; other < clients; other++) {
+                    if (other != c) {
+                        inbox.get(other).add(operation);
+                    }
+                }
+            }
+        }
+        for (int c = 0; c < clients; c++) {
+            while (!inbox.get(c).isEmpty()) {
+                replicas.get(c).apply(inbox.get(c).poll());
+            }
+            assertEquals(server.getText(), replicas.get(c).getText(), "client " + c);
+        }
+
+        // 回收墓碑并编码往返后，仍可继续编辑
+        int itemsBefore = server.getItemCount();
+        server.collectGarbage();
+        assertTrue(server.getItemCount() <= itemsBefore);
+        RgaDocument restored = RgaDocument.decode(server.encode());
+        assertEquals(server.getText(), restored.getText());
+        assertEquals(server.getMaxClock(), restored.getMaxClock());
+
+        CrdtOperation insert = replicas.get(0).insertAt(1, replicas.get(0).length() / 2, "xyz");
+        restored.apply(insert);
+        server.apply(insert);
+        assertEquals(replicas.get(0).getText(), restored.getText());
+        assertEquals(replicas.get(0).getText(), server.getText());
+    }
+
+    /**
+     * 同一组操作以任意顺序（满足因果依赖）集成，结果相同；重复集成不产生修改
+     */
+    @Test
+    void concurrentOperationsCommute() {
+        RgaDocument base = RgaDocument.fromText("abc");
+        RgaDocument a = RgaDocument.decode(base.encode());
+        RgaDocument b = RgaDocument.decode(base.encode());
+        RgaDocument c = RgaDocument.decode(base.encode());
+        List<CrdtOperation> operations = new ArrayList<>();
+        operations.add(a.insertAt(1, 1, "XX"));
+        operations.add(b.insertAt(2, 1, "YY"));
+        operations.add(c.deleteAt(0, 2));
+        operations.add(c.insertAt(3, 1, "Z"));
+
+        String expected = null;
+        Random random = new Random(3);
+        for (int round = 0; round < 20; round++) {
+            List<CrdtOperation> order = new ArrayList<>(operations);
+            Collections.shuffle(order, random);
+            RgaDocument replica = RgaDocument.decode(base.encode());
+            for (CrdtOperation operation : order) {
+                replica.apply(operation);
+            }
+            for (CrdtOperation operation : order) {
+                assertTrue(replica.apply(operation).isNoop());
+            }
+            if (expected == null) {
+                expected = replica.getText();
+            }
+            assertEquals(expected, replica.getText());
+        }
+        assertEquals(6, expected.length());
+    }
+
+    private static String randomText(Random random) {
+        int length = 1 + random.nextInt(3);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,98 @@
+package org.zsy.bysj.service.impl;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.zsy.bysj.crdt.CrdtOperation;
+import org.zsy.bysj.crdt.RgaDocument;
+import org.zsy.bysj.event.DocumentResyncEvent;
+import org.zsy.bysj.mapper.DocumentMapper;
+import org.zsy.bysj.model.Document;
+import org.zsy.bysj.session.CrdtDocumentSession;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CrdtSessionServiceTests {
+
+    private static final Long DOCUMENT_ID = 1L;
+    private static final Long CREATOR_ID = 2L;
+
+    private DocumentMapper documentMapper;
+    private ApplicationEventPublisher eventPublisher;
+    private CrdtSessionServiceImpl crdtSessionService;
+
+    @BeforeEach
+    void setUp() {
+        documentMapper = mock(DocumentMapper.class);
+        eventPublisher = mock(ApplicationEventPublisher.class);
+        crdtSessionService = new CrdtSessionServiceImpl();
+        ReflectionTestUtils.setField(crdtSessionService, "documentMapper", documentMapper);
+        ReflectionTestUtils.setField(crdtSessionService, "eventPublisher", eventPublisher);
+        ReflectionTestUtils.setField(crdtSessionService, "redisTemplate", mock(RedisTemplate.class));
+        ReflectionTestUtils.setField(crdtSessionService, "historySize", 16);
+        ReflectionTestUtils.setField(crdtSessionService, "flushIntervalMs", 60_000L); // 测试中只靠显式flush触发
+        ReflectionTestUtils.setField(crdtSessionService, "flushMaxRevisions", 1_000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        crdtSessionService.shutdown();
+    }
+
+    /**
+     * 落库时发现其他节点已写入新状态：未落库的操作重放到重新加载的状态上，两边的编辑都保留，并通知客户端重新同步
+     */
+    @Test
+    void versionConflictReplaysUnpersistedOperations() {
+        RgaDocument other = RgaDocument.fromText("hello");
+        other.insertAt(200L, 0, "X");
+        when(documentMapper.selectById(DOCUMENT_ID)).thenReturn(document("hello", null, 3), document("Xhello", other.toBase64(), 5));
+        when(documentMapper.update(any(), any())).thenReturn(0, 1);
+
+        RgaDocument client = RgaDocument.fromText("hello");
+        CrdtOperation operation = client.insertAt(100L, 5, "!");
+        CrdtDocumentSession stale = crdtSessionService.getSession(DOCUMENT_ID);
+        crdtSessionService.applyOperation(DOCUMENT_ID, CREATOR_ID, operation);
+
+        crdtSessionService.flush(DOCUMENT_ID);
+
+        CrdtDocumentSession reloaded = crdtSessionService.peekSession(DOCUMENT_ID);
+        assertNotSame(stale, reloaded);
+        assertEquals("Xhello!", reloaded.getContent());
+        assertEquals(6, reloaded.getVersion());
+        assertThrows(RuntimeException.class, () -> stale.apply(client.insertAt(100L, 0, "y")));
+
+        ArgumentCaptor<DocumentResyncEvent> event = ArgumentCaptor.forClass(DocumentResyncEvent.class);
+        verify(eventPublisher).publishEvent(event.capture());
+        assertEquals("Xhello!", event.getValue().getContent());
+        assertEquals(6, event.getValue().getVersion());
+
+        // 重放的操作随下一次落库写入
+        crdtSessionService.flush(DOCUMENT_ID);
+        verify(documentMapper, times(2)).update(any(), any());
+        assertFalse(reloaded.isDirty());
+    }
+
+    private static Document document(String content, String crdtState, int version) {
+        Document document = new Document();
+        document.setId(DOCUMENT_ID);
+        document.setCreatorId(CREATOR_ID);
+        document.setContent(content);
+        document.setCrdtState(crdtState);
+        document.setEngineMode(CrdtSessionServiceImpl.ENGINE_MODE_CRDT);
+        document.setVersion(version);
+        return document;
+    }
+}
@@ -0,0 +1,161 @@
+package org.zsy.bysj.service.impl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.zsy.bysj.algorithm.ContentChunker;
+import org.zsy.bysj.mapper.DocumentBlockMapper;
+import org.zsy.bysj.model.DocumentBlock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DocumentBlockServiceTests {
+
+    private static final Long DOCUMENT_ID = 1L;
+
+    private final TreeMap<Long, DocumentBlock> rows = new TreeMap<>(); // sortKey -> 行
+    private final AtomicInteger writes = new AtomicInteger();
+    private long nextId = 1;
+    private DocumentBlockServiceImpl blockService;
+
+    @BeforeEach
+    void setUp() {
+        DocumentBlockMapper mapper = mock(DocumentBlockMapper.class);
+        when(mapper.insert(any(DocumentBlock.class))).thenAnswer(invocation -> {
+            DocumentBlock block = invocation.getArgument(0);
+            block.setId(nextId++);
+            store(block);
+            return 1;
+        });
+        when(mapper.insertBatch(any())).thenAnswer(invocation -> {
+            List<DocumentBlock> blocks = invocation.getArgument(0);
+            for (DocumentBlock block : blocks) {
+                block.setId(nextId++);
+                store(block);
+            }
+            return blocks.size();
+        });
+        when(mapper.updateById(any(DocumentBlock.class))).thenAnswer(invocation -> {
+            DocumentBlock block = invocation.getArgument(0);
+            rows.values().removeIf(row -> row.getId().equals(block.getId()));
+            store(block);
+            return 1;
+        });
+        when(mapper.deleteByIds(any())).thenAnswer(invocation -> {
+            Collection<?> ids = invocation.getArgument(0);
+            writes.addAndGet(ids.size());
+            rows.values().removeIf(row -> ids.contains(row.getId()));
+            return ids.size();
+        });
+        when(mapper.delete(any())).thenAnswer(invocation -> {
+            int count = rows.size();
+            rows.clear();
+            return count;
+        });
+        when(mapper.selectRefs(anyLong())).thenAnswer(invocation -> {
+            List<DocumentBlock> refs = new ArrayList<>();
+            for (DocumentBlock row : rows.values()) {
+                DocumentBlock ref = copy(row);
+                ref.setContent(null);
+                refs.add(ref);
+            }
+            return refs;
+        });
+        when(mapper.selectPage(anyLong(), anyLong(), anyInt())).thenAnswer(invocation -> {
+            long after = invocation.getArgument(1);
+            int limit = invocation.getArgument(2);
+            List<DocumentBlock> page = new ArrayList<>();
+            for (DocumentBlock row : rows.tailMap(after, false).values()) {
+                if (page.size() == limit) {
+                    break;
+                }
+                page.add(copy(row));
+            }
+            return page;
+        });
+
+        blockService = new DocumentBlockServiceImpl();
+        ReflectionTestUtils.setField(blockService, "documentBlockMapper", mapper);
+        ReflectionTestUtils.setField(blockService, "blockSize", 256);
+    }
+
+    @Test
+    void localEditsRewriteOnlyTouchedBlocks() {
+        Random random = new Random(13);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 50_000; i++) {
+            text.append(i % 60 == 59 ? '\n' : (char) ('a' + random.nextInt(26)));
+        }
+        blockService.writeContent(DOCUMENT_ID, text.toString());
+        assertEquals(text.toString(), blockService.readContent(DOCUMENT_ID));
+
+        for (int step = 0; step < 300; step++) {
+            int position = random.nextInt(text.length());
+            if (random.nextBoolean()) {
+                text.insert(position, (char) ('A' + random.nextInt(26)));
+            } else {
+                text.deleteCharAt(position);
+            }
+            writes.set(0);
+            blockService.writeContent(DOCUMENT_ID, text.toString());
+            // 单字符编辑最多影响编辑所在的块及相邻块
+            assertTrue(writes.get() <= 4, "step " + step + " wrote " + writes.get() + " blocks");
+            if (step % 50 == 0) {
+                blockService.evict(DOCUMENT_ID); // 从数据库重新读取分块标识后结果一致
+            }
+        }
+        assertEquals(text.toString(), blockService.readContent(DOCUMENT_ID));
+
+        // 整体替换为完全不同的内容，再清空
+        blockService.writeContent(DOCUMENT_ID, "短内容");
+        assertEquals("短内容", blockService.readContent(DOCUMENT_ID));
+        blockService.writeContent(DOCUMENT_ID, "");
+        assertEquals("", blockService.readContent(DOCUMENT_ID));
+    }
+
+    @Test
+    void chunksRespectSizeBoundsAndSurrogatePairs() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) {
+            text.append("😀");
+        }
+        List<String> chunks = ContentChunker.split(text, 256);
+        assertEquals(text.toString(), String.join("", chunks));
+        for (int i = 0; i < chunks.size(); i++) {
+            String chunk = chunks.get(i);
+            assertTrue(chunk.length() <= 256 * 4 + 1);
+            assertTrue(i == chunks.size() - 1 || chunk.length() >= 64);
+            assertTrue(!Character.isLowSurrogate(chunk.charAt(0)));
+        }
+    }
+
+    private void store(DocumentBlock block) {
+        writes.incrementAndGet();
+        assertNull(rows.put(block.getSortKey(), copy(block)), "排序键重复");
+    }
+
+    private static DocumentBlock copy(DocumentBlock source) {
+        DocumentBlock block = new DocumentBlock();
+        block.setId(source.getId());
+        block.setDocumentId(source.getDocumentId());
+        block.setSortKey(source.getSortKey());
+        block.setContent(source.getContent());
+        block.setContentHash(source.getContentHash());
+        block.setLength(source.getLength());
+        return block;
+    }
+}
@@ -0,0 +1,153 @@
+package org.zsy.bysj.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.zsy.bysj.algorithm.Operation;
+import org.zsy.bysj.mapper.DocumentMapper;
+import org.zsy.bysj.mapper.DocumentOperationMapper;
+import org.zsy.bysj.model.Document;
+import org.zsy.bysj.model.DocumentOperation;
+import org.zsy.bysj.model.DocumentVersion;
+import org.zsy.bysj.service.CrdtSessionService;
+import org.zsy.bysj.service.DocumentSessionService;
+import org.zsy.bysj.service.DocumentVersionService;
+import org.zsy.bysj.service.OperationArchiveService;
+import org.zsy.bysj.session.CommittedOperation;
+import org.zsy.bysj.session.DocumentSession;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DocumentServiceTests {
+
+    private static final Long DOCUMENT_ID = 3L;
+    private static final Long CREATOR_ID = 1L;
+
+    private final TreeMap<Integer, DocumentOperation> table = new TreeMap<>(); // revision -> 行
+    private DocumentMapper documentMapper;
+    private DocumentVersionService documentVersionService;
+    private OperationLogServiceImpl logService;
+    private DocumentServiceImpl documentService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        DocumentOperationMapper operationMapper = mock(DocumentOperationMapper.class);
+        when(operationMapper.selectRange(anyLong(), anyInt(), any(), any())).thenAnswer(invocation -> {
+            int from = invocation.getArgument(1);
+            Integer to = invocation.getArgument(2);
+            List<DocumentOperation> rows = new ArrayList<>();
+            for (DocumentOperation row : table.tailMap(from, false).values()) {
+                if (to != null && row.getRevision() > to) {
+                    break;
+                }
+                rows.add(row);
+            }
+            return rows;
+        });
+        when(operationMapper.deleteAfterRevision(anyLong(), anyInt())).thenAnswer(invocation -> {
+            int revision = invocation.getArgument(1);
+            int count = table.tailMap(revision, false).size();
+            table.tailMap(revision, false).clear();
+            return count;
+        });
+        logService = new OperationLogServiceImpl(100, 1);
+        ReflectionTestUtils.setField(logService, "documentOperationMapper", operationMapper);
+        ReflectionTestUtils.setField(logService, "operationArchiveService", mock(OperationArchiveService.class));
+
+        RedisTemplate<String, Object> redisTemplate = mock(RedisTemplate.class);
+        when(redisTemplate.opsForValue()).thenReturn(mock(ValueOperations.class));
+        documentMapper = mock(DocumentMapper.class);
+        documentVersionService = mock(DocumentVersionService.class);
+
+        documentService = new DocumentServiceImpl();
+        ReflectionTestUtils.setField(documentService, "documentMapper", documentMapper);
+        ReflectionTestUtils.setField(documentService, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(documentService, "objectMapper", new ObjectMapper().findAndRegisterModules());
+        ReflectionTestUtils.setField(documentService, "documentSessionService", mock(DocumentSessionService.class));
+        ReflectionTestUtils.setField(documentService, "crdtSessionService", mock(CrdtSessionService.class));
+        ReflectionTestUtils.setField(documentService, "operationLogService", logService);
+        ReflectionTestUtils.setField(documentService, "documentVersionService", documentVersionService);
+        ReflectionTestUtils.setField(documentService, "operationLogAwaitMs", 1000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        logService.shutdown();
+    }
+
+    /**
+     * 回滚到版本5后文档为版本6：基于版本5的旧操作记录（revision 6）随之删除，
+     * 停留在版本5的客户端补齐历史时不会对着已失效的记录转换，而是重新同步
+     */
+    @Test
+    void catchUpAfterRollbackRequiresResync() {
+        for (int revision = 2; revision <= 10; revision++) {
+            table.put(revision, operation(revision));
+        }
+        DocumentVersion target = new DocumentVersion();
+        target.setDocumentId(DOCUMENT_ID);
+        target.setVersion(5);
+        target.setContent("abcd");
+        when(documentVersionService.getVersion(DOCUMENT_ID, 5)).thenReturn(target);
+        when(documentMapper.selectById(DOCUMENT_ID)).thenReturn(document("abcdefghi", 10), document("abcd", 6));
+
+        Document rolledBack = documentService.rollbackToVersion(DOCUMENT_ID, 5, CREATOR_ID);
+        assertEquals(6, rolledBack.getVersion());
+        assertEquals(List.of(2, 3, 4, 5), new ArrayList<>(table.keySet()));
+
+        List<CommittedOperation> older = new ArrayList<>();
+        for (DocumentOperation row : logService.readRange(DOCUMENT_ID, 5, null, null)) {
+            older.add(DocumentSession.toCommittedOperation(row));
+        }
+        assertTrue(older.isEmpty());
+
+        DocumentSession session = new DocumentSession(rolledBack, 16);
+        assertNull(session.apply(2L, Operation.insert("x", 4), 5, older));
+        assertEquals("abcd", session.getContent());
+
+        // 重新同步到版本6后的编辑正常提交
+        assertNotNull(session.apply(2L, Operation.insert("x", 4), 6, older));
+        assertEquals("abcdx", session.getContent());
+        assertEquals(7, session.getVersion());
+    }
+
+    private static DocumentOperation operation(int revision) {
+        DocumentOperation operation = new DocumentOperation();
+        operation.setDocumentId(DOCUMENT_ID);
+        operation.setRevision(revision);
+        operation.setVersion(revision - 1);
+        operation.setUserId(CREATOR_ID);
+        operation.setOperationType("INSERT");
+        operation.setOperationData(String.valueOf((char) ('a' + revision - 2)));
+        operation.setPosition(revision - 2);
+        operation.setLength(1);
+        operation.setTimestamp(1_700_000_000_000L + revision);
+        return operation;
+    }
+
+    private static Document document(String content, int version) {
+        Document document = new Document();
+        document.setId(DOCUMENT_ID);
+        document.setCreatorId(CREATOR_ID);
+        document.setContent(content);
+        document.setVersion(version);
+        return document;
+    }
+}
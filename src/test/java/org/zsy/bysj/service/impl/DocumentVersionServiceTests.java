@@ -0,0 +1,293 @@
+package org.zsy.bysj.service.impl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.zsy.bysj.algorithm.Delta;
+import org.zsy.bysj.algorithm.DocumentBuffer;
+import org.zsy.bysj.algorithm.TextDiff;
+import org.zsy.bysj.mapper.DocumentVersionMapper;
+import org.zsy.bysj.model.DocumentVersion;
+import org.zsy.bysj.util.ContentCodec;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DocumentVersionServiceTests {
+
+    private static final Long DOCUMENT_ID = 1L;
+    private static final int KEYFRAME_INTERVAL = 4;
+
+    private final TreeMap<Long, DocumentVersion> rows = new TreeMap<>(); // id -> 行
+    private long nextId = 1;
+    private DocumentVersionMapper mapper;
+    private DocumentVersionServiceImpl versionService;
+
+    @BeforeEach
+    void setUp() {
+        mapper = mock(DocumentVersionMapper.class);
+        when(mapper.insert(any(DocumentVersion.class))).thenAnswer(invocation -> {
+            DocumentVersion row = invocation.getArgument(0);
+            row.setId(nextId++);
+            rows.put(row.getId(), copy(row));
+            return 1;
+        });
+        when(mapper.updateById(any(DocumentVersion.class))).thenAnswer(invocation -> {
+            DocumentVersion update = invocation.getArgument(0);
+            rows.get(update.getId()).setSnapshot(update.getSnapshot());
+            return 1;
+        });
+        when(mapper.updateStorage(anyLong(), any(), any(), anyInt(), any())).thenAnswer(invocation -> {
+            DocumentVersion row = rows.get((Long) invocation.getArgument(0));
+            row.setStorageType(invocation.getArgument(1));
+            row.setBaseId(invocation.getArgument(2));
+            row.setChainLength(invocation.getArgument(3));
+            row.setContent(ContentCodec.decode(invocation.getArgument(4))); // 读取时由类型处理器解码
+            return 1;
+        });
+        when(mapper.deleteById(any(java.io.Serializable.class))).thenAnswer(invocation ->
+                rows.remove((Long) invocation.getArgument(0)) != null ? 1 : 0);
+        when(mapper.selectById(any(java.io.Serializable.class))).thenAnswer(invocation ->
+                copyOrNull(rows.get((Long) invocation.getArgument(0))));
+        when(mapper.selectLatest(anyLong())).thenAnswer(invocation ->
+                rows.isEmpty() ? null : copy(rows.lastEntry().getValue()));
+        when(mapper.selectByVersion(anyLong(), any())).thenAnswer(invocation -> {
+            Integer version = invocation.getArgument(1);
+            List<DocumentVersion> result = new ArrayList<>();
+            for (DocumentVersion row : rows.descendingMap().values()) {
+                if (row.getVersion().equals(version)) {
+                    result.add(copy(row));
+                }
+            }
+            return result;
+        });
+        when(mapper.selectByDocumentId(anyLong())).thenAnswer(invocation -> {
+            List<DocumentVersion> result = new ArrayList<>();
+            for (DocumentVersion row : rows.descendingMap().values()) {
+                result.add(copy(row));
+            }
+            result.sort(Comparator.comparing(DocumentVersion::getVersion).reversed());
+            return result;
+        });
+        when(mapper.selectDependents(anyLong())).thenAnswer(invocation -> {
+            Long baseId = invocation.getArgument(0);
+            List<DocumentVersion> result = new ArrayList<>();
+            for (DocumentVersion row : rows.values()) {
+                if (baseId.equals(row.getBaseId())) {
+                    result.add(copy(row));
+                }
+            }
+            return result;
+        });
+
+        versionService = new DocumentVersionServiceImpl();
+        ReflectionTestUtils.setField(versionService, "documentVersionMapper", mapper);
+        ReflectionTestUtils.setField(versionService, "keyframeInterval", KEYFRAME_INTERVAL);
+    }
+
+    /**
+     * 随机编辑并逐版本保存：每个版本都能还原，差量链长度不超过关键帧间隔，且大部分版本以差量存储
+     */
+    @Test
+    void everyVersionIsReconstructedFromChain() {
+        Random random = new Random(5);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 400; i++) {
+            text.append("段落").append(i).append(i % 7 == 0 ? "\n" : " ");
+        }
+        Map<Integer, String> expected = new TreeMap<>();
+        for (int version = 1; version <= 30; version++) {
+            for (int edit = 0; edit < 3; edit++) {
+                int position = random.nextInt(text.length());
+                if (random.nextBoolean()) {
+                    text.insert(position, "新增" + random.nextInt(1000));
+                } else {
+                    text.delete(position, Math.min(text.length(), position + 1 + random.nextInt(20)));
+                }
+            }
+            expected.put(version, text.toString());
+            save(version, text.toString());
+        }
+
+        for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), versionService.getVersion(DOCUMENT_ID, entry.getKey()).getContent(),
+                    "version " + entry.getKey());
+        }
+        List<DocumentVersion> versions = versionService.listVersions(DOCUMENT_ID);
+        assertEquals(expected.size(), versions.size());
+        for (DocumentVersion version : versions) {
+            assertEquals(expected.get(version.getVersion()), version.getContent());
+        }
+
+        int deltas = 0;
+        for (DocumentVersion row : rows.values()) {
+            int hops = 0;
+            DocumentVersion current = row;
+            while (DocumentVersionServiceImpl.STORAGE_DELTA.equals(current.getStorageType())) {
+                current = rows.get(current.getBaseId());
+                hops++;
+            }
+            assertTrue(hops < KEYFRAME_INTERVAL, "hops " + hops);
+            if (hops > 0) {
+                deltas++;
+            }
+        }
+        assertTrue(deltas >= expected.size() / 2, "deltas " + deltas);
+        assertEquals(DocumentVersionServiceImpl.STORAGE_FULL, rows.lastEntry().getValue().getStorageType());
+    }
+
+    /**
+     * 覆盖链中间的版本：依赖它的较早版本仍能正确还原
+     */
+    @Test
+    void overwritingVersionRebasesDependents() {
+        String base = "第一段内容。".repeat(100);
+        save(1, base);
+        save(2, base + "追加一句。");
+        save(3, base + "追加一句。再追加一句。");
+        save(2, "改写" + base + "追加一句。");
+
+        assertEquals(base, versionService.getVersion(DOCUMENT_ID, 1).getContent());
+        assertEquals("改写" + base + "追加一句。", versionService.getVersion(DOCUMENT_ID, 2).getContent());
+        assertEquals(base + "追加一句。再追加一句。", versionService.getVersion(DOCUMENT_ID, 3).getContent());
+        assertEquals(3, rows.size());
+    }
+
+    /**
+     * 追加新版本时另一请求覆盖了最新版本：文档行锁使两者串行，追加方不会用读到的旧内容把覆盖结果改回去
+     */
+    @Test
+    void concurrentOverwriteAndAppendKeepChainConsistent() throws Exception {
+        String base = "并发快照的正文内容。".repeat(50);
+        save(1, base + "一");
+        save(2, base + "二");
+
+        // 模拟数据库行锁：lockDocument 加锁，事务提交（saveVersion 返回）时释放
+        ReentrantLock rowLock = new ReentrantLock();
+        when(mapper.lockDocument(anyLong())).thenAnswer(invocation -> {
+            rowLock.lock();
+            return DOCUMENT_ID;
+        });
+        // 追加方读到最新版本后停下，等覆盖方完成（有行锁时覆盖方进不来，等待超时后继续）
+        CountDownLatch headRead = new CountDownLatch(1);
+        CountDownLatch overwritten = new CountDownLatch(1);
+        when(mapper.selectLatest(anyLong())).thenAnswer(invocation -> {
+            DocumentVersion head = copy(rows.lastEntry().getValue());
+            headRead.countDown();
+            overwritten.await(500, TimeUnit.MILLISECONDS);
+            return head;
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> append = executor.submit(() -> saveInTransaction(rowLock, 3, base + "三"));
+            Future<?> overwrite = executor.submit(() -> {
+                headRead.await();
+                saveInTransaction(rowLock, 2, "改写" + base + "二");
+                overwritten.countDown();
+                return null;
+            });
+            append.get(10, TimeUnit.SECONDS);
+            overwrite.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(3, rows.size());
+        assertEquals(base + "一", versionService.getVersion(DOCUMENT_ID, 1).getContent());
+        assertEquals("改写" + base + "二", versionService.getVersion(DOCUMENT_ID, 2).getContent());
+        assertEquals(base + "三", versionService.getVersion(DOCUMENT_ID, 3).getContent());
+    }
+
+    @Test
+    void diffRoundTrip() {
+        Random random = new Random(9);
+        for (int round = 0; round < 200; round++) {
+            String from = randomText(random, random.nextInt(600));
+            StringBuilder to = new StringBuilder(from);
+            for (int edit = random.nextInt(5); edit >= 0; edit--) {
+                int position = random.nextInt(to.length() + 1);
+                if (random.nextBoolean() || to.length() == position) {
+                    to.insert(position, randomText(random, 1 + random.nextInt(40)));
+                } else {
+                    to.delete(position, Math.min(to.length(), position + 1 + random.nextInt(40)));
+                }
+            }
+            Delta delta = TextDiff.diff(from, to.toString());
+            DocumentBuffer buffer = new DocumentBuffer(from);
+            delta.applyTo(buffer);
+            assertEquals(to.toString(), buffer.toString(), "round " + round);
+        }
+    }
+
+    private void save(int version, String content) {
+        DocumentVersion row = new DocumentVersion();
+        row.setDocumentId(DOCUMENT_ID);
+        row.setVersion(version);
+        row.setContent(content);
+        row.setSnapshot("{}");
+        row.setCreatedBy(1L);
+        versionService.saveVersion(row);
+    }
+
+    private void saveInTransaction(ReentrantLock rowLock, int version, String content) {
+        try {
+            save(version, content);
+        } finally {
+            while (rowLock.isHeldByCurrentThread()) {
+                rowLock.unlock();
+            }
+        }
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            int r = random.nextInt(30);
+            if (r < 26) {
+                sb.append((char) ('a' + r));
+            } else if (r < 29) {
+                sb.append(r == 28 ? '\n' : ' ');
+            } else {
+                sb.append("😀");
+            }
+        }
+        return sb.toString();
+    }
+
+    private static DocumentVersion copyOrNull(DocumentVersion row) {
+        return row != null ? copy(row) : null;
+    }
+
+    private static DocumentVersion copy(DocumentVersion row) {
+        DocumentVersion copy = new DocumentVersion();
+        copy.setId(row.getId());
+        copy.setDocumentId(row.getDocumentId());
+        copy.setVersion(row.getVersion());
+        copy.setContent(row.getContent());
+        copy.setSnapshot(row.getSnapshot());
+        copy.setStorageType(row.getStorageType());
+        copy.setBaseId(row.getBaseId());
+        copy.setChainLength(row.getChainLength());
+        copy.setCreatedBy(row.getCreatedBy());
+        return copy;
+    }
+}
@@ -0,0 +1,178 @@
+package org.zsy.bysj.service.impl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InOrder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.zsy.bysj.mapper.DocumentOperationMapper;
+import org.zsy.bysj.model.DocumentOperation;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class OperationArchiveServiceTests {
+
+    private static final Long DOCUMENT_ID = 7L;
+    private static final int REVISIONS = 2000;
+
+    @TempDir
+    Path archiveDir;
+
+    private final TreeMap<Integer, DocumentOperation> table = new TreeMap<>(); // revision -> 行
+    private DocumentOperationMapper mapper;
+    private OperationArchiveServiceImpl archiveService;
+    private OperationLogServiceImpl logService;
+
+    @BeforeEach
+    void setUp() {
+        mapper = mock(DocumentOperationMapper.class);
+        when(mapper.selectRange(anyLong(), anyInt(), any(), any())).thenAnswer(invocation -> {
+            int from = invocation.getArgument(1);
+            Integer to = invocation.getArgument(2);
+            Integer limit = invocation.getArgument(3);
+            List<DocumentOperation> rows = new ArrayList<>();
+            for (DocumentOperation row : table.tailMap(from, false).values()) {
+                if ((to != null && row.getRevision() > to) || (limit != null && rows.size() >= limit)) {
+                    break;
+                }
+                rows.add(row);
+            }
+            return rows;
+        });
+        when(mapper.deleteUpToRevision(anyLong(), anyInt())).thenAnswer(invocation -> {
+            int revision = invocation.getArgument(1);
+            int count = table.headMap(revision, true).size();
+            table.headMap(revision, true).clear();
+            return count;
+        });
+        when(mapper.deleteAfterRevision(anyLong(), anyInt())).thenAnswer(invocation -> {
+            int revision = invocation.getArgument(1);
+            int count = table.tailMap(revision, false).size();
+            table.tailMap(revision, false).clear();
+            return count;
+        });
+
+        for (int revision = 2; revision <= REVISIONS + 1; revision++) {
+            table.put(revision, operation(revision));
+        }
+        archiveService = newArchiveService();
+        logService = new OperationLogServiceImpl(100, 1);
+        ReflectionTestUtils.setField(logService, "documentOperationMapper", mapper);
+        ReflectionTestUtils.setField(logService, "operationArchiveService", archiveService);
+    }
+
+    /**
+     * 归档后数据库只保留最近的版本，按任意范围读取的结果与归档前一致；重启后从目录恢复归档
+     */
+    @Test
+    void archivedHistoryReadsLikeTable() throws Exception {
+        List<DocumentOperation> expected = new ArrayList<>(table.values());
+        archiveService.archiveDocument(DOCUMENT_ID, REVISIONS + 1 - 300);
+
+        assertEquals(300, table.size());
+        assertEquals(REVISIONS + 1 - 300, archiveService.getArchivedRevision(DOCUMENT_ID));
+        assertSameOperations(expected, logService.readRange(DOCUMENT_ID, 0, null, null));
+        assertSameOperations(expected.subList(776, 1500), logService.readRange(DOCUMENT_ID, 777, 1501, null));
+        assertSameOperations(expected.subList(1000, 1100), logService.readRange(DOCUMENT_ID, 1001, null, 100));
+        assertSameOperations(expected.subList(1650, 1750), logService.readRange(DOCUMENT_ID, 1651, 1751, null));
+
+        OperationArchiveServiceImpl restarted = newArchiveService();
+        assertEquals(archiveService.getArchivedRevision(DOCUMENT_ID), restarted.getArchivedRevision(DOCUMENT_ID));
+        assertSameOperations(expected.subList(0, 50), restarted.readArchived(DOCUMENT_ID, 0, 51, null));
+    }
+
+    /**
+     * 回滚截断：跨越截断点的分段只保留之前的记录
+     */
+    @Test
+    void truncateAfterRewritesStraddlingSegment() throws Exception {
+        List<DocumentOperation> expected = new ArrayList<>(table.values());
+        archiveService.archiveDocument(DOCUMENT_ID, REVISIONS + 1 - 300);
+
+        logService.truncateAfter(DOCUMENT_ID, 1234);
+
+        assertTrue(table.isEmpty());
+        assertEquals(1234, archiveService.getArchivedRevision(DOCUMENT_ID));
+        assertSameOperations(expected.subList(0, 1233), logService.readRange(DOCUMENT_ID, 0, null, null));
+        assertEquals(1234, newArchiveService().getArchivedRevision(DOCUMENT_ID));
+
+        logService.discard(DOCUMENT_ID);
+        assertEquals(0, archiveService.getArchivedRevision(DOCUMENT_ID));
+        assertTrue(logService.readRange(DOCUMENT_ID, 0, null, null).isEmpty());
+    }
+
+    /**
+     * 定时归档按文档ID分批取候选文档，一轮不足一批时下一轮从头开始
+     */
+    @Test
+    void scheduledArchivePagesThroughCandidates() {
+        DocumentOperation candidate = new DocumentOperation();
+        candidate.setDocumentId(DOCUMENT_ID);
+        candidate.setRevision(REVISIONS + 1);
+        when(mapper.selectArchiveCandidates(anyLong(), anyInt(), anyInt())).thenAnswer(invocation ->
+                (Long) invocation.getArgument(0) < DOCUMENT_ID ? List.of(candidate) : List.of());
+        ReflectionTestUtils.setField(archiveService, "enabled", true);
+        ReflectionTestUtils.setField(archiveService, "retainRevisions", 300);
+        ReflectionTestUtils.setField(archiveService, "maxDocumentsPerRun", 1);
+
+        archiveService.archiveOldOperations();
+        assertEquals(300, table.size());
+        assertEquals(REVISIONS + 1 - 300, archiveService.getArchivedRevision(DOCUMENT_ID));
+        archiveService.archiveOldOperations();
+        archiveService.archiveOldOperations();
+
+        InOrder inOrder = inOrder(mapper);
+        inOrder.verify(mapper).selectArchiveCandidates(0L, 800, 1);
+        inOrder.verify(mapper).selectArchiveCandidates(DOCUMENT_ID, 800, 1);
+        inOrder.verify(mapper).selectArchiveCandidates(0L, 800, 1);
+        assertEquals(300, table.size());
+    }
+
+    private OperationArchiveServiceImpl newArchiveService() {
+        OperationArchiveServiceImpl service = new OperationArchiveServiceImpl();
+        ReflectionTestUtils.setField(service, "documentOperationMapper", mapper);
+        ReflectionTestUtils.setField(service, "archiveDir", archiveDir.toString());
+        ReflectionTestUtils.setField(service, "segmentRecords", 500);
+        ReflectionTestUtils.setField(service, "blockRecords", 64);
+        ReflectionTestUtils.setField(service, "mappedSegments", 2);
+        return service;
+    }
+
+    private static DocumentOperation operation(int revision) {
+        DocumentOperation operation = new DocumentOperation();
+        operation.setDocumentId(DOCUMENT_ID);
+        operation.setRevision(revision);
+        operation.setVersion(revision - 1);
+        operation.setUserId((long) (revision % 5));
+        operation.setOperationType(revision % 3 == 0 ? "DELTA" : "INSERT");
+        operation.setOperationData(revision % 3 == 0 ? "{\"ops\":[{\"retain\":" + revision + "},{\"insert\":\"协同\"}]}" : "x" + revision);
+        operation.setPosition(revision % 97);
+        operation.setLength(revision % 3 == 0 ? 2 : 1);
+        operation.setTimestamp(1_700_000_000_000L + revision);
+        operation.setCreatedAt(LocalDateTime.of(2024, 1, 1, 0, 0).plusSeconds(revision));
+        return operation;
+    }
+
+    private static void assertSameOperations(List<DocumentOperation> expected, List<DocumentOperation> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            DocumentOperation a = expected.get(i);
+            DocumentOperation b = actual.get(i);
+            b.setId(a.getId());
+            assertEquals(a, b, "revision " + a.getRevision());
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.zsy.bysj.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.zsy.bysj.algorithm.Delta;
+import org.zsy.bysj.algorithm.OTAlgorithm;
+import org.zsy.bysj.algorithm.Operation;
+import org.zsy.bysj.dto.WebSocketMessage;
+import org.zsy.bysj.service.CollaborationService;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class OperationCoalescingServiceTests {
+
+    private CollaborationService collaborationService;
+    private OperationCoalescingServiceImpl coalescingService;
+
+    @BeforeEach
+    void setUp() {
+        collaborationService = mock(CollaborationService.class);
+        coalescingService = new OperationCoalescingServiceImpl(1);
+        ReflectionTestUtils.setField(coalescingService, "collaborationService", collaborationService);
+        ReflectionTestUtils.setField(coalescingService, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(coalescingService, "windowMs", 60_000L); // 测试中只靠显式flush触发
+        ReflectionTestUtils.setField(coalescingService, "maxBatch", 64);
+    }
+
+    @AfterEach
+    void tearDown() {
+        coalescingService.shutdown();
+    }
+
+    @Test
+    void typingAndBackspaceAreMergedIntoEquivalentOperations() {
+        String document = "hello world";
+        String expected = document;
+        String typed = "abcdefghij";
+        for (int i = 0; i < typed.length(); i++) {
+            Operation op = Operation.insert(typed.substring(i, i + 1), 5 + i);
+            expected = OTAlgorithm.apply(expected, op);
+            coalescingService.submit(message(positional(op)));
+        }
+        for (int i = 0; i < 3; i++) {
+            // 退格：每次删除光标前一个字符
+            Operation op = Operation.delete(5 + typed.length() - 1 - i, 1);
+            expected = OTAlgorithm.apply(expected, op);
+            coalescingService.submit(message(positional(op)));
+        }
+        coalescingService.flush(1L, 2L);
+
+        List<WebSocketMessage> dispatched = captureDispatched(2);
+        String result = document;
+        for (WebSocketMessage message : dispatched) {
+            Map<?, ?> data = (Map<?, ?>) message.getData();
+            Operation op = "INSERT".equals(data.get("type"))
+                    ? Operation.insert((String) data.get("data"), (Integer) data.get("position"))
+                    : Operation.delete((Integer) data.get("position"), (Integer) data.get("length"));
+            result = OTAlgorithm.apply(result, op);
+        }
+        assertEquals(expected, result);
+    }
+
+    @Test
+    void deltasAreComposedAndFormatBreaksTheBatch() {
+        coalescingService.submit(message(delta(new Delta().retain(3).insert("a"))));
+        coalescingService.submit(message(delta(new Delta().retain(4).insert("b"))));
+        Map<String, Object> format = new HashMap<>();
+        format.put("type", "FORMAT");
+        format.put("position", 0);
+        format.put("length", 5);
+        format.put("formatType", "bold");
+        coalescingService.submit(message(format));
+
+        List<WebSocketMessage> dispatched = captureDispatched(2);
+        assertEquals(new Delta().retain(3).insert("ab"), ((Map<?, ?>) dispatched.get(0).getData()).get("delta"));
+        assertEquals("FORMAT", ((Map<?, ?>) dispatched.get(1).getData()).get("type"));
+    }
+
+    @Test
+    void fullBatchIsDispatchedAndBufferRetired() {
+        ReflectionTestUtils.setField(coalescingService, "maxBatch", 2);
+        coalescingService.submit(message(positional(Operation.insert("a", 0))));
+        coalescingService.submit(message(positional(Operation.insert("b", 1))));
+
+        Map<?, ?> data = (Map<?, ?>) captureDispatched(1).get(0).getData();
+        assertEquals("ab", data.get("data"));
+        assertTrue(((Map<?, ?>) ReflectionTestUtils.getField(coalescingService, "buffers")).isEmpty());
+    }
+
+    private List<WebSocketMessage> captureDispatched(int expectedCalls) {
+        ArgumentCaptor<WebSocketMessage> captor = ArgumentCaptor.forClass(WebSocketMessage.class);
+        verify(collaborationService, times(expectedCalls)).handleOperation(captor.capture());
+        return captor.getAllValues();
+    }
+
+    private static WebSocketMessage message(Map<String, Object> data) {
+        WebSocketMessage message = new WebSocketMessage();
+        message.setType("OPERATION");
+        message.setDocumentId(1L);
+        message.setUserId(2L);
+        message.setTimestamp(System.currentTimeMillis());
+        message.setData(data);
+        return message;
+    }
+
+    private static Map<String, Object> positional(Operation op) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("type", op.getType());
+        data.put("data", op.getData());
+        data.put("position", op.getPosition());
+        data.put("length", op.getLength());
+        data.put("baseVersion", 7);
+        return data;
+    }
+
+    private static Map<String, Object> delta(Delta delta) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("type", "DELTA");
+        data.put("delta", delta);
+        data.put("baseVersion", 7);
+        return data;
+    }
+}
@@ -0,0 +1,149 @@
+package org.zsy.bysj.service.impl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.zsy.bysj.journal.RecoveredDocument;
+import org.zsy.bysj.model.DocumentOperation;
+import org.zsy.bysj.service.OperationLogService;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class OperationJournalServiceTests {
+
+    @TempDir
+    Path journalDir;
+
+    private OperationLogService operationLogService;
+
+    @BeforeEach
+    void setUp() {
+        operationLogService = mock(OperationLogService.class);
+        when(operationLogService.awaitWritten(anyLong(), anyLong())).thenReturn(true);
+    }
+
+    /**
+     * 未关闭即重启（模拟崩溃）：只恢复检查点之后的记录；全部落库后分段被删除，再次重启没有待恢复的记录
+     */
+    @Test
+    void recoversRecordsAfterCheckpoint() throws IOException {
+        OperationJournalServiceImpl journal = newJournal();
+        Map<Long, Long> sequenceOfRevision60 = new HashMap<>();
+        for (int revision = 2; revision <= 101; revision++) {
+            for (long documentId = 1; documentId <= 2; documentId++) {
+                long sequence = journal.append(operation(documentId, revision));
+                assertTrue(sequence > 0);
+                if (revision == 61) {
+                    sequenceOfRevision60.put(documentId, sequence);
+                }
+            }
+        }
+        journal.markFlushed(1L, sequenceOfRevision60.get(1L));
+        journal.checkpoint();
+        assertTrue(segmentCount() > 2);
+
+        OperationJournalServiceImpl restarted = newJournal();
+        List<RecoveredDocument> recovered = restarted.takeRecovered();
+        assertEquals(2, recovered.size());
+        for (RecoveredDocument document : recovered) {
+            int firstRevision = document.getDocumentId() == 1L ? 62 : 2;
+            assertEquals(102 - firstRevision, document.getOperations().size());
+            for (int i = 0; i < document.getOperations().size(); i++) {
+                assertEquals(operation(document.getDocumentId(), firstRevision + i), document.getOperations().get(i));
+            }
+        }
+        assertTrue(restarted.takeRecovered().isEmpty());
+
+        // 恢复后落库完成
+        for (RecoveredDocument document : recovered) {
+            restarted.markFlushed(document.getDocumentId(), document.getLastSequence());
+        }
+        restarted.checkpoint();
+        assertEquals(1, segmentCount());
+
+        OperationJournalServiceImpl again = newJournal();
+        assertTrue(again.takeRecovered().isEmpty());
+        long sequence = again.append(operation(1L, 102));
+        assertTrue(sequence > recovered.get(0).getLastSequence() && sequence > recovered.get(1).getLastSequence());
+    }
+
+    /**
+     * 分段末尾写了一半的记录（校验和不符）及其后的记录被丢弃；作废的文档不再恢复
+     */
+    @Test
+    void stopsAtTornRecord() throws IOException {
+        OperationJournalServiceImpl journal = newJournal();
+        for (int revision = 2; revision <= 11; revision++) {
+            journal.append(operation(1L, revision));
+            journal.append(operation(2L, revision));
+        }
+        journal.discard(2L);
+
+        Path segment = segments().get(0);
+        byte[] bytes = Files.readAllBytes(segment);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int position = 16;
+        for (int i = 0; i < 14; i++) { // 跳过前 14 条（文档 1 的版本 2~8 各一条）
+            position += 8 + buffer.getInt(position);
+        }
+        bytes[position + 8 + 20] ^= 0x5A;
+        Files.write(segment, bytes);
+
+        List<RecoveredDocument> recovered = newJournal().takeRecovered();
+        assertEquals(1, recovered.size());
+        List<DocumentOperation> operations = recovered.get(0).getOperations();
+        assertEquals(7, operations.size());
+        assertEquals(8, operations.get(6).getRevision());
+    }
+
+    private OperationJournalServiceImpl newJournal() {
+        OperationJournalServiceImpl journal = new OperationJournalServiceImpl();
+        ReflectionTestUtils.setField(journal, "operationLogService", operationLogService);
+        ReflectionTestUtils.setField(journal, "enabled", true);
+        ReflectionTestUtils.setField(journal, "journalDir", journalDir.toString());
+        ReflectionTestUtils.setField(journal, "segmentBytes", 4096);
+        journal.open();
+        return journal;
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> result = new ArrayList<>();
+        try (Stream<Path> files = Files.list(journalDir)) {
+            files.filter(file -> file.toString().endsWith(".jnl")).sorted().forEach(result::add);
+        }
+        return result;
+    }
+
+    private long segmentCount() throws IOException {
+        return segments().size();
+    }
+
+    private static DocumentOperation operation(long documentId, int revision) {
+        DocumentOperation operation = new DocumentOperation();
+        operation.setDocumentId(documentId);
+        operation.setRevision(revision);
+        operation.setVersion(revision - 1);
+        operation.setUserId(documentId + 10);
+        operation.setOperationType("INSERT");
+        operation.setOperationData("内容" + revision);
+        operation.setPosition(revision % 13);
+        operation.setLength(3);
+        operation.setTimestamp(1_700_000_000_000L + revision);
+        return operation;
+    }
+}
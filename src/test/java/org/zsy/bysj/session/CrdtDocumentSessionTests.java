@@ -0,0 +1,58 @@
+package org.zsy.bysj.session;
+
+import org.junit.jupiter.api.Test;
+import org.zsy.bysj.algorithm.Delta;
+import org.zsy.bysj.crdt.RgaDocument;
+import org.zsy.bysj.model.Document;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CrdtDocumentSessionTests {
+
+    /**
+     * 按位置编辑的客户端基于同一版本的并发修改，转换后生成的 CRDT 操作在副本上得到相同结果
+     */
+    @Test
+    void positionalDeltasAreTransformedAndReplicated() {
+        Document source = document("hello world", 3);
+        CrdtDocumentSession session = new CrdtDocumentSession(source, 16);
+        session.setServerClient(7L);
+        RgaDocument replica = RgaDocument.fromText("hello world");
+
+        List<CrdtDocumentSession.Applied> first = session.applyDelta(new Delta().retain(6).insert("big "), 3);
+        List<CrdtDocumentSession.Applied> second = session.applyDelta(new Delta().retain(5).delete(6).insert("!"), 3);
+        // 与 OT 一致：并发插入的 "big " 保留（Delta 规范化后插入位于删除之前）
+        assertEquals("hello!big ", session.getContent());
+        assertEquals(3 + first.size() + second.size(), session.getVersion());
+
+        for (CrdtDocumentSession.Applied applied : first) {
+            replica.apply(applied.getOperation());
+        }
+        for (CrdtDocumentSession.Applied applied : second) {
+            replica.apply(applied.getOperation());
+        }
+        assertEquals(session.getContent(), replica.getText());
+    }
+
+    @Test
+    void rejectsBaseVersionOutsideHistory() {
+        CrdtDocumentSession session = new CrdtDocumentSession(document("abc", 3), 1);
+        session.setServerClient(7L);
+        session.applyDelta(new Delta().insert("x"), 3);
+        session.applyDelta(new Delta().insert("y"), 4);
+        assertThrows(RuntimeException.class, () -> session.applyDelta(new Delta().insert("z"), 3));
+        assertEquals("yxabc", session.getContent());
+    }
+
+    private static Document document(String content, int version) {
+        Document document = new Document();
+        document.setId(1L);
+        document.setCreatorId(1L);
+        document.setContent(content);
+        document.setVersion(version);
+        return document;
+    }
+}
@@ -0,0 +1,66 @@
+package org.zsy.bysj.session;
+
+import org.junit.jupiter.api.Test;
+import org.zsy.bysj.algorithm.Delta;
+import org.zsy.bysj.algorithm.Operation;
+import org.zsy.bysj.model.Document;
+import org.zsy.bysj.model.DocumentOperation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DocumentSessionTests {
+
+    /**
+     * 落库冲突的会话中未落库的操作转换到另一会话已提交的操作之后，两边的编辑都保留
+     */
+    @Test
+    void rebaseKeepsBothSidesOfConflict() {
+        DocumentSession winner = new DocumentSession(document("hello world", 3), 16);
+        DocumentSession stale = new DocumentSession(document("hello world", 3), 16);
+
+        winner.apply(1L, Operation.insert("big ", 6));
+        winner.applyDelta(1L, new Delta().delete(1).insert("H"));
+        stale.apply(2L, Operation.insert("!", 11));
+        stale.applyDelta(2L, new Delta().retain(5).insert(","));
+
+        List<DocumentOperation> unpersisted = stale.retire();
+        assertThrows(RuntimeException.class, () -> stale.apply(2L, Operation.insert("x", 0)));
+
+        // winner 已落库的操作由新加载的会话从数据库读取
+        DocumentSession reloaded = new DocumentSession(document(winner.getContent(), winner.getVersion()), 16);
+        List<CommittedOperation> concurrent = new ArrayList<>(winner.getHistory());
+        assertTrue(reloaded.rebase(3, unpersisted, concurrent));
+        assertEquals("Hello, big world!", reloaded.getContent());
+        assertEquals(7, reloaded.getVersion());
+        assertTrue(reloaded.isDirty());
+    }
+
+    @Test
+    void rebaseRejectsMissingHistory() {
+        DocumentSession stale = new DocumentSession(document("abc", 3), 16);
+        stale.apply(2L, Operation.insert("x", 0));
+        List<DocumentOperation> unpersisted = stale.retire();
+
+        // 数据库中的内容被整体替换（版本前进但没有对应的操作记录）
+        DocumentSession reloaded = new DocumentSession(document("replaced", 5), 16);
+        assertFalse(reloaded.rebase(3, unpersisted, Collections.emptyList()));
+        assertEquals("replaced", reloaded.getContent());
+        assertEquals(5, reloaded.getVersion());
+    }
+
+    private static Document document(String content, int version) {
+        Document document = new Document();
+        document.setId(1L);
+        document.setCreatorId(1L);
+        document.setContent(content);
+        document.setVersion(version);
+        return document;
+    }
+}
@@ -0,0 +1,83 @@
+package org.zsy.bysj.simulation;
+
+import org.junit.jupiter.api.Test;
+import org.zsy.bysj.service.impl.CollaborationServiceImpl;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 协同编辑模拟测试
+ * 可通过系统属性调整规模，例如：mvn test -Dtest=CollaborationSimulationTests -Dsim.edits=5000 -Dsim.seed=7
+ */
+class CollaborationSimulationTests {
+
+    private static final long SEED = Long.getLong("sim.seed", 20240601L);
+    private static final int EDITS = Integer.getInteger("sim.edits", 300);
+    private static final int CLIENTS = Integer.getInteger("sim.clients", 4);
+
+    @Test
+    void positionalOperationsConverge() {
+        run(new CollaborationSimulator.Config()
+                .seed(SEED)
+                .mode(CollaborationSimulator.Mode.POSITIONAL)
+                .clientsPerDocument(CLIENTS)
+                .editsPerClient(EDITS));
+    }
+
+    @Test
+    void deltaOperationsConverge() {
+        run(new CollaborationSimulator.Config()
+                .seed(SEED)
+                .mode(CollaborationSimulator.Mode.DELTA)
+                .clientsPerDocument(CLIENTS)
+                .editsPerClient(EDITS));
+    }
+
+    /**
+     * 分布式锁模式：与邮箱模式相同的操作序列同样收敛
+     */
+    @Test
+    void lockOrderingConverges() {
+        run(new CollaborationSimulator.Config()
+                .seed(SEED)
+                .mode(CollaborationSimulator.Mode.DELTA)
+                .clientsPerDocument(CLIENTS)
+                .editsPerClient(EDITS)
+                .orderingMode(CollaborationServiceImpl.ORDERING_LOCK));
+    }
+
+    /**
+     * 分布式锁模式下文档锁经常被占用：排队的操作由持锁者批量取出，合并为一帧广播后同样收敛
+     */
+    @Test
+    void lockQueueDrainsAsBatch() {
+        run(new CollaborationSimulator.Config()
+                .seed(SEED + 2)
+                .mode(CollaborationSimulator.Mode.POSITIONAL)
+                .clientsPerDocument(CLIENTS)
+                .editsPerClient(EDITS)
+                .orderingMode(CollaborationServiceImpl.ORDERING_LOCK)
+                .lockContention(40));
+    }
+
+    /**
+     * 环形缓冲区很小、网络延迟很大时，落后的客户端需要从操作记录表补齐历史
+     */
+    @Test
+    void laggingClientsFallBackToOperationLog() {
+        run(new CollaborationSimulator.Config()
+                .seed(SEED + 1)
+                .mode(CollaborationSimulator.Mode.POSITIONAL)
+                .documents(1)
+                .clientsPerDocument(CLIENTS + 2)
+                .editsPerClient(EDITS / 2)
+                .latency(1, 60)
+                .historySize(4));
+    }
+
+    private static void run(CollaborationSimulator.Config config) {
+        CollaborationSimulator.Result result = new CollaborationSimulator(config).run();
+        System.out.print(result.report());
+        assertTrue(result.isConverged(), result.report());
+    }
+}
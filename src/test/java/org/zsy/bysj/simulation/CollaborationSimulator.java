@@ -0,0 +1,564 @@
+package org.zsy.bysj.simulation;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.zsy.bysj.dto.OperationDTO;
+import org.zsy.bysj.dto.WebSocketMessage;
+import org.zsy.bysj.mapper.DocumentMapper;
+import org.zsy.bysj.mapper.DocumentOperationMapper;
+import org.zsy.bysj.model.Document;
+import org.zsy.bysj.model.DocumentOperation;
+import org.zsy.bysj.service.CrdtSessionService;
+import org.zsy.bysj.service.OfflineSyncService;
+import org.zsy.bysj.service.OperationArchiveService;
+import org.zsy.bysj.service.PermissionService;
+import org.zsy.bysj.service.impl.ClusterServiceImpl;
+import org.zsy.bysj.service.impl.CollaborationServiceImpl;
+import org.zsy.bysj.service.impl.DocumentBlockServiceImpl;
+import org.zsy.bysj.service.impl.DocumentSessionServiceImpl;
+import org.zsy.bysj.service.impl.OperationJournalServiceImpl;
+import org.zsy.bysj.service.impl.OperationLogServiceImpl;
+import org.zsy.bysj.session.DocumentSession;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 多客户端协同编辑模拟器
+ *
+ * 在同一进程内用 N 个模拟客户端驱动 CollaborationServiceImpl.handleOperation：
+ * Redis 与 MySQL 由内存实现替代（锁服务、Mapper），WebSocket 广播由捕获消息的通道替代；
+ * 网络延迟、编辑内容和时机都由固定种子的随机数生成，相同配置的两次运行产生完全相同的操作序列。
+ * 运行结束后校验所有副本与服务端内容一致，并统计每个文档 handleOperation 的耗时分位数与吞吐量。
+ */
+public class CollaborationSimulator {
+
+    public enum Mode {
+        POSITIONAL, // 单个 INSERT/DELETE 操作
+        DELTA // 每次编辑一个 Delta
+    }
+
+    /**
+     * 模拟参数
+     */
+    public static class Config {
+        long seed = 1L;
+        Mode mode = Mode.POSITIONAL;
+        int documents = 2;
+        int clientsPerDocument = 4;
+        int editsPerClient = 200;
+        int editPercentPerTick = 30; // 每个时间片内客户端产生一次编辑的概率（%）
+        int minLatency = 1; // 单向网络延迟（时间片）
+        int maxLatency = 20;
+        int historySize = 1024; // 会话操作环形缓冲区容量
+        String orderingMode = CollaborationServiceImpl.ORDERING_MAILBOX; // 同一文档操作的排序方式
+        int lockContentionPercent = 0; // LOCK 模式下文档锁被其他节点占用、操作进入锁队列的概率（%）
+
+        public Config seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public Config mode(Mode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        public Config documents(int documents) {
+            this.documents = documents;
+            return this;
+        }
+
+        public Config clientsPerDocument(int clientsPerDocument) {
+            this.clientsPerDocument = clientsPerDocument;
+            return this;
+        }
+
+        public Config editsPerClient(int editsPerClient) {
+            this.editsPerClient = editsPerClient;
+            return this;
+        }
+
+        public Config latency(int minLatency, int maxLatency) {
+            this.minLatency = minLatency;
+            this.maxLatency = maxLatency;
+            return this;
+        }
+
+        public Config historySize(int historySize) {
+            this.historySize = historySize;
+            return this;
+        }
+
+        public Config orderingMode(String orderingMode) {
+            this.orderingMode = orderingMode;
+            return this;
+        }
+
+        public Config lockContention(int percent) {
+            this.lockContentionPercent = percent;
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return "seed=" + seed + ", mode=" + mode + ", documents=" + documents
+                    + ", clients=" + clientsPerDocument + ", edits/client=" + editsPerClient
+                    + ", latency=" + minLatency + ".." + maxLatency + ", historySize=" + historySize
+                    + ", ordering=" + orderingMode + ", lockContention=" + lockContentionPercent + "%";
+        }
+    }
+
+    /**
+     * 单个文档的模拟结果
+     */
+    public static class DocumentResult {
+        final Long documentId;
+        final boolean converged;
+        final String serverContent;
+        final List<String> replicaContents;
+        final int operations;
+        final long[] latencyNanos;
+        final long totalNanos;
+
+        DocumentResult(Long documentId, boolean converged, String serverContent, List<String> replicaContents,
+                       long[] latencyNanos) {
+            this.documentId = documentId;
+            this.converged = converged;
+            this.serverContent = serverContent;
+            this.replicaContents = replicaContents;
+            this.operations = latencyNanos.length;
+            this.latencyNanos = latencyNanos.clone();
+            Arrays.sort(this.latencyNanos);
+            this.totalNanos = Arrays.stream(latencyNanos).sum();
+        }
+
+        public boolean isConverged() {
+            return converged;
+        }
+
+        public long percentileNanos(double percentile) {
+            if (latencyNanos.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100.0 * latencyNanos.length) - 1;
+            return latencyNanos[Math.max(0, Math.min(index, latencyNanos.length - 1))];
+        }
+
+        public double opsPerSecond() {
+            return totalNanos == 0 ? 0 : operations * 1_000_000_000.0 / totalNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("document=%d ops=%d converged=%s length=%d p50=%.1fus p99=%.1fus p999=%.1fus ops/sec=%.0f",
+                    documentId, operations, converged, serverContent.length(),
+                    percentileNanos(50) / 1000.0, percentileNanos(99) / 1000.0, percentileNanos(99.9) / 1000.0,
+                    opsPerSecond());
+        }
+    }
+
+    /**
+     * 整次模拟的结果
+     */
+    public static class Result {
+        final Config config;
+        final List<DocumentResult> documents;
+        final List<String> errors;
+
+        Result(Config config, List<DocumentResult> documents, List<String> errors) {
+            this.config = config;
+            this.documents = documents;
+            this.errors = errors;
+        }
+
+        public List<DocumentResult> getDocuments() {
+            return documents;
+        }
+
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        public boolean isConverged() {
+            return errors.isEmpty() && documents.stream().allMatch(DocumentResult::isConverged);
+        }
+
+        public String report() {
+            StringBuilder sb = new StringBuilder("协同编辑模拟 [").append(config).append("]\n");
+            for (DocumentResult document : documents) {
+                sb.append("  ").append(document).append('\n');
+            }
+            for (String error : errors) {
+                sb.append("  错误: ").append(error).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+
+    private static final Comparator<Event> EVENT_ORDER =
+            Comparator.comparingLong((Event e) -> e.time).thenComparingLong(e -> e.sequence);
+
+    private final Config config;
+    private final Random random;
+    private final PriorityQueue<Event> events = new PriorityQueue<>(EVENT_ORDER);
+    private long eventSequence;
+
+    private final Map<Long, Document> database = new ConcurrentHashMap<>();
+    private final List<DocumentOperation> operationLog = Collections.synchronizedList(new ArrayList<>());
+    private final List<WebSocketMessage> outbox = new ArrayList<>();
+    private final Map<Long, List<SimulatedClient<?>>> clientsByDocument = new LinkedHashMap<>();
+    private final Map<Long, Long> lastDelivery = new java.util.HashMap<>(); // userId -> 最近一次下行消息的到达时间，保证按序到达
+    private final Map<Long, List<Long>> latencies = new LinkedHashMap<>();
+    private final List<String> errors = new ArrayList<>();
+
+    private CollaborationServiceImpl collaborationService;
+    private InMemoryDistributedLockService lockService;
+    private DocumentSessionServiceImpl sessionService;
+    private OperationLogServiceImpl operationLogService;
+
+    public CollaborationSimulator(Config config) {
+        this.config = config;
+        this.random = new Random(config.seed);
+    }
+
+    public Result run() {
+        wireServices();
+        createDocumentsAndClients();
+
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream errorBuffer = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        System.setErr(new PrintStream(errorBuffer));
+        try {
+            loop(errorBuffer);
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+            sessionService.shutdown();
+            operationLogService.shutdown();
+        }
+        return collectResult();
+    }
+
+    private void wireServices() {
+        DocumentMapper documentMapper = mock(DocumentMapper.class);
+        when(documentMapper.selectById(any())).thenAnswer(invocation -> copy(database.get((Long) invocation.getArgument(0))));
+        when(documentMapper.update(any(), any())).thenReturn(1);
+
+        DocumentOperationMapper documentOperationMapper = mock(DocumentOperationMapper.class);
+        when(documentOperationMapper.insertBatch(any())).thenAnswer(invocation -> {
+            List<DocumentOperation> rows = invocation.getArgument(0);
+            operationLog.addAll(rows);
+            return rows.size();
+        });
+        when(documentOperationMapper.selectRange(anyLong(), anyInt(), any(), any())).thenAnswer(invocation ->
+                selectOperations(invocation.getArgument(0), invocation.getArgument(1)));
+
+        PermissionService permissionService = mock(PermissionService.class);
+        when(permissionService.hasPermission(anyLong(), anyLong(), anyString())).thenReturn(true);
+
+        OfflineSyncService offlineSyncService = mock(OfflineSyncService.class);
+        when(offlineSyncService.isUserOffline(anyLong(), anyLong())).thenReturn(false);
+
+        @SuppressWarnings("unchecked")
+        RedisTemplate<String, Object> redisTemplate = mock(RedisTemplate.class);
+
+        operationLogService = new OperationLogServiceImpl(10_000, 1);
+        ReflectionTestUtils.setField(operationLogService, "documentOperationMapper", documentOperationMapper);
+        ReflectionTestUtils.setField(operationLogService, "operationArchiveService", mock(OperationArchiveService.class));
+        ReflectionTestUtils.setField(operationLogService, "batchSize", 500);
+        ReflectionTestUtils.setField(operationLogService, "offerTimeoutMs", 5_000L);
+        ReflectionTestUtils.setField(operationLogService, "retryDelayMs", 100L);
+
+        lockService = new InMemoryDistributedLockService(new Random(config.seed * 31), config.lockContentionPercent);
+
+        sessionService = new DocumentSessionServiceImpl();
+        ReflectionTestUtils.setField(sessionService, "documentBlockService", new DocumentBlockServiceImpl());
+        ReflectionTestUtils.setField(sessionService, "operationLogService", operationLogService);
+        ReflectionTestUtils.setField(sessionService, "operationJournalService", new OperationJournalServiceImpl());
+        ReflectionTestUtils.setField(sessionService, "operationLogAwaitMs", 5_000L);
+        ReflectionTestUtils.setField(sessionService, "documentMapper", documentMapper);
+        ReflectionTestUtils.setField(sessionService, "permissionService", permissionService);
+        ReflectionTestUtils.setField(sessionService, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(sessionService, "distributedLockService", lockService);
+        ReflectionTestUtils.setField(sessionService, "eventPublisher", (ApplicationEventPublisher) event -> { });
+        ReflectionTestUtils.setField(sessionService, "transactionTemplate", new TransactionTemplate(mock(PlatformTransactionManager.class)));
+        ReflectionTestUtils.setField(sessionService, "historySize", config.historySize);
+        ReflectionTestUtils.setField(sessionService, "idleTimeoutMs", Long.MAX_VALUE);
+
+        MessageChannel channel = (message, timeout) -> {
+            outbox.add((WebSocketMessage) message.getPayload());
+            return true;
+        };
+
+        collaborationService = new CollaborationServiceImpl();
+        ReflectionTestUtils.setField(collaborationService, "messagingTemplate", new SimpMessagingTemplate(channel));
+        ReflectionTestUtils.setField(collaborationService, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(collaborationService, "distributedLockService", lockService);
+        ReflectionTestUtils.setField(collaborationService, "offlineSyncService", offlineSyncService);
+        ReflectionTestUtils.setField(collaborationService, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(collaborationService, "documentSessionService", sessionService);
+        ReflectionTestUtils.setField(collaborationService, "orderingMode", config.orderingMode);
+        ReflectionTestUtils.setField(collaborationService, "clusterService", new ClusterServiceImpl());
+        ReflectionTestUtils.setField(collaborationService, "crdtSessionService", mock(CrdtSessionService.class));
+    }
+
+    private void createDocumentsAndClients() {
+        long userId = 1;
+        for (long documentId = 1; documentId <= config.documents; documentId++) {
+            Document document = new Document();
+            document.setId(documentId);
+            document.setTitle("模拟文档" + documentId);
+            document.setContent("协同编辑模拟初始内容" + documentId);
+            document.setCreatorId(userId);
+            document.setVersion(1);
+            document.setIsDeleted(false);
+            database.put(documentId, document);
+
+            List<SimulatedClient<?>> clients = new ArrayList<>();
+            for (int i = 0; i < config.clientsPerDocument; i++) {
+                clients.add(SimulatedClient.create(config.mode, userId++, document.getContent(), document.getVersion()));
+            }
+            clientsByDocument.put(documentId, clients);
+            latencies.put(documentId, new ArrayList<>());
+        }
+    }
+
+    private void loop(ByteArrayOutputStream errorBuffer) {
+        long time = 0;
+        while (!finished()) {
+            for (Map.Entry<Long, List<SimulatedClient<?>>> entry : clientsByDocument.entrySet()) {
+                for (SimulatedClient<?> client : entry.getValue()) {
+                    if (client.getGenerated() < config.editsPerClient && random.nextInt(100) < config.editPercentPerTick) {
+                        client.edit(random);
+                        trySend(entry.getKey(), client, time);
+                    }
+                }
+            }
+            while (!events.isEmpty() && events.peek().time <= time) {
+                Event event = events.poll();
+                if (event.upload != null) {
+                    serve(event, time, errorBuffer);
+                } else {
+                    event.client.receive(event.download, event.authorId);
+                    trySend(event.documentId, event.client, time);
+                }
+            }
+            if (events.isEmpty()) {
+                serveLockQueue(time, errorBuffer);
+            }
+            time++;
+            if (time > 10_000_000L) {
+                errors.add("模拟未能在限定时间内结束（可能有操作未被确认）");
+                return;
+            }
+        }
+    }
+
+    private boolean finished() {
+        if (!events.isEmpty()) {
+            return false;
+        }
+        for (List<SimulatedClient<?>> clients : clientsByDocument.values()) {
+            for (SimulatedClient<?> client : clients) {
+                if (client.getGenerated() < config.editsPerClient || !client.isIdle()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void trySend(Long documentId, SimulatedClient<?> client, long time) {
+        Map<String, Object> data = client.nextToSend();
+        if (data == null) {
+            return;
+        }
+        WebSocketMessage message = new WebSocketMessage();
+        message.setType("OPERATION");
+        message.setDocumentId(documentId);
+        message.setUserId(client.getUserId());
+        message.setData(data);
+        message.setTimestamp(time);
+        schedule(new Event(time + latency(), documentId, client, message, null, null));
+    }
+
+    private void serve(Event event, long time, ByteArrayOutputStream errorBuffer) {
+        outbox.clear();
+        errorBuffer.reset();
+        long start = System.nanoTime();
+        long queuedBefore = lockService.getQueueLength(event.documentId);
+        collaborationService.handleOperation(event.upload);
+        long elapsed = System.nanoTime() - start;
+        latencies.get(event.documentId).add(elapsed);
+
+        if (outbox.isEmpty() && lockService.getQueueLength(event.documentId) > queuedBefore) {
+            return; // 进入锁队列，由下一个持锁者批量处理
+        }
+        if (outbox.isEmpty()) {
+            errors.add("操作未被广播: documentId=" + event.documentId + ", userId=" + event.client.getUserId()
+                    + ", data=" + event.upload.getData() + ", stderr=" + errorBuffer.toString().trim());
+            return;
+        }
+        for (WebSocketMessage broadcast : outbox) {
+            if ("OPERATION_BATCH".equals(broadcast.getType())) {
+                @SuppressWarnings("unchecked")
+                List<WebSocketMessage> batch = (List<WebSocketMessage>) broadcast.getData();
+                for (WebSocketMessage operation : batch) {
+                    deliver(event.documentId, operation, time);
+                }
+            } else {
+                deliver(event.documentId, broadcast, time);
+            }
+        }
+    }
+
+    private void deliver(Long documentId, WebSocketMessage broadcast, long time) {
+        OperationDTO dto = (OperationDTO) broadcast.getData();
+        for (SimulatedClient<?> client : clientsByDocument.get(documentId)) {
+            long arrival = Math.max(time + latency(), lastDelivery.getOrDefault(client.getUserId(), 0L));
+            lastDelivery.put(client.getUserId(), arrival);
+            schedule(new Event(arrival, documentId, client, null, dto, broadcast.getUserId()));
+        }
+    }
+
+    /**
+     * 没有待处理的事件但锁队列中仍有操作（最后几次上行都没拿到锁）：模拟其他节点释放锁后
+     * 取出一个排队操作重新进入 handleOperation，由它持锁批量处理其余操作
+     */
+    private void serveLockQueue(long time, ByteArrayOutputStream errorBuffer) {
+        for (Map.Entry<Long, List<SimulatedClient<?>>> entry : clientsByDocument.entrySet()) {
+            Long documentId = entry.getKey();
+            if (lockService.getQueueLength(documentId) == 0) {
+                continue;
+            }
+            try {
+                Map<?, ?> queued = new ObjectMapper().readValue(lockService.dequeueOperation(documentId), Map.class);
+                WebSocketMessage message = new WebSocketMessage();
+                message.setType("OPERATION");
+                message.setDocumentId(documentId);
+                message.setUserId(Long.valueOf(queued.get("userId").toString()));
+                message.setData(queued.get("data"));
+                message.setTimestamp(time);
+                SimulatedClient<?> author = entry.getValue().stream()
+                        .filter(client -> client.getUserId().equals(message.getUserId()))
+                        .findFirst().orElseThrow();
+                lockService.suspendContention(true);
+                try {
+                    serve(new Event(time, documentId, author, message, null, null), time, errorBuffer);
+                } finally {
+                    lockService.suspendContention(false);
+                }
+            } catch (Exception e) {
+                errors.add("处理锁队列失败: documentId=" + documentId + ", " + e);
+            }
+        }
+    }
+
+    private Result collectResult() {
+        List<DocumentResult> results = new ArrayList<>();
+        for (Map.Entry<Long, List<SimulatedClient<?>>> entry : clientsByDocument.entrySet()) {
+            Long documentId = entry.getKey();
+            DocumentSession session = sessionService.peekSession(documentId);
+            String serverContent = session != null ? session.getContent() : database.get(documentId).getContent();
+            List<String> replicas = new ArrayList<>();
+            boolean converged = true;
+            for (SimulatedClient<?> client : entry.getValue()) {
+                String content = client.content();
+                replicas.add(content);
+                converged &= content.equals(serverContent);
+            }
+            long[] nanos = latencies.get(documentId).stream().mapToLong(Long::longValue).toArray();
+            results.add(new DocumentResult(documentId, converged, serverContent, replicas, nanos));
+        }
+        return new Result(config, results, errors);
+    }
+
+    /**
+     * 按 selectRange 的参数（document_id、revision 下界）筛选操作记录，按版本升序返回
+     */
+    private List<DocumentOperation> selectOperations(Long documentId, Integer fromRevision) {
+        List<DocumentOperation> result = new ArrayList<>();
+        synchronized (operationLog) {
+            for (DocumentOperation row : operationLog) {
+                if (row.getDocumentId().equals(documentId) && row.getRevision() > fromRevision) {
+                    result.add(row);
+                }
+            }
+        }
+        result.sort(Comparator.comparing(DocumentOperation::getRevision));
+        return result;
+    }
+
+    private int latency() {
+        return config.minLatency + random.nextInt(config.maxLatency - config.minLatency + 1);
+    }
+
+    private void schedule(Event event) {
+        event.sequence = eventSequence++;
+        events.add(event);
+    }
+
+    private static Document copy(Document document) {
+        if (document == null) {
+            return null;
+        }
+        Document copy = new Document();
+        copy.setId(document.getId());
+        copy.setTitle(document.getTitle());
+        copy.setContent(document.getContent());
+        copy.setCreatorId(document.getCreatorId());
+        copy.setVersion(document.getVersion());
+        copy.setIsDeleted(document.getIsDeleted());
+        return copy;
+    }
+
+    /**
+     * 模拟事件：上行（客户端 -> 服务端）或下行（服务端广播 -> 客户端）
+     */
+    private static class Event {
+        final long time;
+        long sequence;
+        final Long documentId;
+        final SimulatedClient<?> client;
+        final WebSocketMessage upload;
+        final OperationDTO download;
+        final Long authorId;
+
+        Event(long time, Long documentId, SimulatedClient<?> client, WebSocketMessage upload,
+              OperationDTO download, Long authorId) {
+            this.time = time;
+            this.documentId = documentId;
+            this.client = client;
+            this.upload = upload;
+            this.download = download;
+            this.authorId = authorId;
+        }
+    }
+}
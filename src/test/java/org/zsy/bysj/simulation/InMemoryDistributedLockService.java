@@ -0,0 +1,132 @@
+package org.zsy.bysj.simulation;
+
+import org.zsy.bysj.service.DistributedLockService;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分布式锁服务的内存实现（模拟器单线程驱动，不需要真正的等待）
+ * contentionPercent 大于 0 时按该概率模拟文档锁被其他节点占用，操作进入锁队列
+ */
+class InMemoryDistributedLockService implements DistributedLockService {
+
+    private final Random random;
+    private final int contentionPercent;
+    private boolean contentionSuspended;
+
+    private final Map<String, String> locks = new HashMap<>();
+    private final Map<Long, Long> sequences = new HashMap<>();
+    private final Map<Long, Deque<String>> queues = new HashMap<>();
+
+    InMemoryDistributedLockService(Random random, int contentionPercent) {
+        this.random = random;
+        this.contentionPercent = contentionPercent;
+    }
+
+    /**
+     * 暂停模拟锁竞争（模拟其他节点释放锁后把排队操作交给本节点处理）
+     */
+    void suspendContention(boolean suspended) {
+        this.contentionSuspended = suspended;
+    }
+
+    @Override
+    public boolean tryLock(String key, String value, long timeout, TimeUnit unit) {
+        return locks.putIfAbsent(key, value) == null || value.equals(locks.get(key));
+    }
+
+    @Override
+    public boolean releaseLock(String key, String value) {
+        return locks.remove(key, value);
+    }
+
+    @Override
+    public boolean tryDocumentLock(Long documentId, Long userId, long timeout, TimeUnit unit) {
+        return tryLock(lockKey(documentId), String.valueOf(userId), timeout, unit);
+    }
+
+    @Override
+    public boolean releaseDocumentLock(Long documentId, Long userId) {
+        return releaseLock(lockKey(documentId), String.valueOf(userId));
+    }
+
+    @Override
+    public long getFencingToken(Long documentId) {
+        return 0L;
+    }
+
+    @Override
+    public long leaseRevisions(Long documentId, int revision, int count) {
+        long previous = sequences.getOrDefault(documentId, 0L);
+        sequences.put(documentId, Math.max(previous, revision) + count);
+        return previous;
+    }
+
+    @Override
+    public void releaseRevisions(Long documentId, int leasedRevision, int revision) {
+        if (sequences.getOrDefault(documentId, 0L) == leasedRevision) {
+            sequences.put(documentId, (long) revision);
+        }
+    }
+
+    @Override
+    public Long getCurrentSequence(Long documentId) {
+        return sequences.getOrDefault(documentId, 0L);
+    }
+
+    @Override
+    public void queueOperation(Long documentId, Long userId, String operation) {
+        queues.computeIfAbsent(documentId, id -> new ArrayDeque<>()).addLast(operation);
+    }
+
+    @Override
+    public String dequeueOperation(Long documentId) {
+        Deque<String> queue = queues.get(documentId);
+        return queue != null ? queue.pollFirst() : null;
+    }
+
+    @Override
+    public List<String> dequeueOperations(Long documentId, int max) {
+        List<String> operations = new ArrayList<>();
+        Deque<String> queue = queues.get(documentId);
+        while (queue != null && !queue.isEmpty() && operations.size() < max) {
+            operations.add(queue.pollFirst());
+        }
+        return operations;
+    }
+
+    @Override
+    public Long getQueueLength(Long documentId) {
+        Deque<String> queue = queues.get(documentId);
+        return queue != null ? (long) queue.size() : 0L;
+    }
+
+    @Override
+    public boolean tryDocumentLockWithQueue(Long documentId, Long userId, long maxWaitTime) {
+        if (!contentionSuspended && contentionPercent > 0 && random.nextInt(100) < contentionPercent) {
+            return false;
+        }
+        return tryDocumentLock(documentId, userId, maxWaitTime, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public boolean releaseDocumentLockAndProcessQueue(Long documentId, Long userId, OperationHandler operationHandler) {
+        boolean released = releaseDocumentLock(documentId, userId);
+        String next = dequeueOperation(documentId);
+        if (next != null && operationHandler != null) {
+            operationHandler.handleOperation(next);
+        }
+        return released;
+    }
+
+    private static String lockKey(Long documentId) {
+        return "lock:document:" + documentId;
+    }
+}
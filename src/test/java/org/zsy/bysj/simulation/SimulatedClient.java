@@ -0,0 +1,221 @@
+package org.zsy.bysj.simulation;
+
+import org.zsy.bysj.algorithm.Delta;
+import org.zsy.bysj.algorithm.DocumentBuffer;
+import org.zsy.bysj.algorithm.OTAlgorithm;
+import org.zsy.bysj.algorithm.Operation;
+import org.zsy.bysj.dto.OperationDTO;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 模拟客户端：持有本地副本，同一时刻最多一个已发送未确认的操作，其余本地操作在队列中等待
+ * 收到其他用户的操作时，与未确认的本地操作相互转换后再应用（与服务端的转换规则对称）
+ */
+abstract class SimulatedClient<T> {
+
+    private final Long userId;
+    protected final DocumentBuffer replica;
+    private int revision; // 已确认的服务端版本
+    private T inflight; // 已发送、等待确认的操作
+    private final List<T> pending = new ArrayList<>(); // 尚未发送的本地操作
+    private int generated;
+
+    SimulatedClient(Long userId, String content, int revision) {
+        this.userId = userId;
+        this.replica = new DocumentBuffer(content);
+        this.revision = revision;
+    }
+
+    static SimulatedClient<?> create(CollaborationSimulator.Mode mode, Long userId, String content, int revision) {
+        return mode == CollaborationSimulator.Mode.DELTA
+                ? new DeltaClient(userId, content, revision)
+                : new PositionalClient(userId, content, revision);
+    }
+
+    Long getUserId() {
+        return userId;
+    }
+
+    int getGenerated() {
+        return generated;
+    }
+
+    String content() {
+        return replica.toString();
+    }
+
+    boolean isIdle() {
+        return inflight == null && pending.isEmpty();
+    }
+
+    /**
+     * 生成一次本地编辑：插入一段文本（偶尔是较长的粘贴）或删除若干字符
+     */
+    void edit(Random random) {
+        int length = replica.length();
+        Operation operation;
+        if (length == 0 || random.nextInt(100) < 60) {
+            int size = random.nextInt(20) == 0 ? 20 + random.nextInt(40) : 1 + random.nextInt(3);
+            StringBuilder text = new StringBuilder(size);
+            for (int i = 0; i < size; i++) {
+                text.append((char) ('a' + random.nextInt(26)));
+            }
+            operation = Operation.insert(text.toString(), random.nextInt(length + 1));
+        } else {
+            int position = random.nextInt(length);
+            operation = Operation.delete(position, 1 + random.nextInt(Math.min(5, length - position)));
+        }
+        T local = fromOperation(operation);
+        applyLocal(local);
+        pending.add(local);
+        generated++;
+    }
+
+    /**
+     * 没有未确认的操作时，取出下一个待发送的操作，返回 WebSocket 消息的 data 部分；否则返回null
+     */
+    Map<String, Object> nextToSend() {
+        if (inflight != null || pending.isEmpty()) {
+            return null;
+        }
+        inflight = pending.remove(0);
+        Map<String, Object> data = toPayload(inflight);
+        data.put("baseVersion", revision);
+        return data;
+    }
+
+    /**
+     * 接收服务端广播的（已转换的）操作
+     */
+    void receive(OperationDTO dto, Long authorId) {
+        if (userId.equals(authorId)) {
+            inflight = null; // 自己的操作被确认
+        } else {
+            T remote = fromBroadcast(dto);
+            if (inflight != null) {
+                T transformedInflight = transformLocal(inflight, remote);
+                remote = transformRemote(remote, inflight);
+                inflight = transformedInflight;
+            }
+            for (int i = 0; i < pending.size(); i++) {
+                T local = pending.get(i);
+                pending.set(i, transformLocal(local, remote));
+                remote = transformRemote(remote, local);
+            }
+            applyLocal(remote);
+        }
+        revision = dto.getBaseVersion() + 1;
+    }
+
+    protected abstract T fromOperation(Operation operation);
+
+    protected abstract T fromBroadcast(OperationDTO dto);
+
+    protected abstract Map<String, Object> toPayload(T operation);
+
+    protected abstract void applyLocal(T operation);
+
+    /**
+     * 将本地操作相对服务端已排序的远端操作转换（远端优先）
+     */
+    protected abstract T transformLocal(T local, T remote);
+
+    /**
+     * 将远端操作相对本地未确认的操作转换（远端优先）
+     */
+    protected abstract T transformRemote(T remote, T local);
+
+    /**
+     * 发送单个位置操作（INSERT/DELETE）的客户端
+     */
+    static class PositionalClient extends SimulatedClient<Operation> {
+
+        PositionalClient(Long userId, String content, int revision) {
+            super(userId, content, revision);
+        }
+
+        @Override
+        protected Operation fromOperation(Operation operation) {
+            return operation;
+        }
+
+        @Override
+        protected Operation fromBroadcast(OperationDTO dto) {
+            return new Operation(dto.getType(), dto.getData(), dto.getPosition(), dto.getLength());
+        }
+
+        @Override
+        protected Map<String, Object> toPayload(Operation operation) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("type", operation.getType());
+            data.put("data", operation.getData());
+            data.put("position", operation.getPosition());
+            data.put("length", operation.getLength());
+            return data;
+        }
+
+        @Override
+        protected void applyLocal(Operation operation) {
+            OTAlgorithm.apply(replica, operation);
+        }
+
+        @Override
+        protected Operation transformLocal(Operation local, Operation remote) {
+            return OTAlgorithm.transform(local, remote);
+        }
+
+        @Override
+        protected Operation transformRemote(Operation remote, Operation local) {
+            return OTAlgorithm.transform(remote, local, true);
+        }
+    }
+
+    /**
+     * 每次编辑发送一个 Delta 的客户端
+     */
+    static class DeltaClient extends SimulatedClient<Delta> {
+
+        DeltaClient(Long userId, String content, int revision) {
+            super(userId, content, revision);
+        }
+
+        @Override
+        protected Delta fromOperation(Operation operation) {
+            return Delta.fromOperation(operation);
+        }
+
+        @Override
+        protected Delta fromBroadcast(OperationDTO dto) {
+            return dto.getDelta() != null ? dto.getDelta()
+                    : Delta.fromOperation(new Operation(dto.getType(), dto.getData(), dto.getPosition(), dto.getLength()));
+        }
+
+        @Override
+        protected Map<String, Object> toPayload(Delta delta) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("type", "DELTA");
+            data.put("delta", delta);
+            return data;
+        }
+
+        @Override
+        protected void applyLocal(Delta delta) {
+            delta.applyTo(replica);
+        }
+
+        @Override
+        protected Delta transformLocal(Delta local, Delta remote) {
+            return remote.transform(local, true);
+        }
+
+        @Override
+        protected Delta transformRemote(Delta remote, Delta local) {
+            return local.transform(remote, false);
+        }
+    }
+}
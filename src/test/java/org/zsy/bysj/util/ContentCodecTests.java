@@ -0,0 +1,79 @@
+package org.zsy.bysj.util;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.zsy.bysj.handler.CompressedTextTypeHandler;
+import org.zsy.bysj.model.Document;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ContentCodecTests {
+
+    @Test
+    void roundTripsAndKeepsPlainTextReadable() {
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            html.append("<p>第").append(i).append("段：协同编辑 collaborative editing 😀</p>");
+        }
+        String text = html.toString();
+
+        String hot = ContentCodec.encode(text, ContentCodec.HOT_LEVEL);
+        String archived = ContentCodec.encode(text, ContentCodec.ARCHIVE_LEVEL);
+        assertTrue(ContentCodec.isEncoded(hot));
+        assertTrue(archived.length() < text.length() / 4);
+        assertEquals(text, ContentCodec.decode(hot));
+        assertEquals(text, ContentCodec.decode(archived));
+
+        // 短文本与未压缩的已有数据原样保留
+        assertSame("<p>短</p>", ContentCodec.encode("<p>短</p>", ContentCodec.HOT_LEVEL));
+        assertFalse(ContentCodec.isEncoded(text));
+        assertSame(text, ContentCodec.decode(text));
+
+        // 以标记字符开头的原文（包括形如编码数据的原文）转义后可还原
+        for (String raw : new String[]{"\u0001", "\u0001R", "\u0001Dabc", "\u0001" + text}) {
+            String encoded = ContentCodec.encode(raw, ContentCodec.HOT_LEVEL);
+            assertTrue(ContentCodec.isEncoded(encoded));
+            assertEquals(raw, ContentCodec.decode(encoded));
+        }
+
+    }
+
+    /**
+     * 只在类型处理器读取时解码一次，实体字段保持原文：以标记字符开头的原文多次读取、再次赋值都不会被重复解码
+     */
+    @Test
+    void typeHandlerDecodesOnceAndEntityKeepsRawText() throws SQLException {
+        CompressedTextTypeHandler handler = new CompressedTextTypeHandler();
+        String raw = "\u0001R" + "协同编辑".repeat(200);
+        for (String text : new String[]{raw, "\u0001", "plain"}) {
+            PreparedStatement ps = mock(PreparedStatement.class);
+            handler.setNonNullParameter(ps, 1, text, null);
+            ArgumentCaptor<String> stored = ArgumentCaptor.forClass(String.class);
+            verify(ps).setString(eq(1), stored.capture());
+
+            ResultSet rs = mock(ResultSet.class);
+            when(rs.getString("content")).thenReturn(stored.getValue());
+            Document document = new Document();
+            document.setContent(handler.getNullableResult(rs, "content"));
+            assertEquals(text, document.getContent());
+            assertEquals(text, document.getContent());
+
+            // 会话写回、缓存命中等经 setContent 赋值的原文同样保持不变
+            Document copy = new Document();
+            copy.setContent(document.getContent());
+            assertEquals(text, copy.getContent());
+            assertEquals(text, copy.getContent());
+        }
+    }
+}